@@ -20,8 +20,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import com.vividsolutions.jts.index.bintree.Bintree;
-import com.vividsolutions.jts.index.bintree.Interval;
 import org.geotools.graph.build.GraphBuilder;
 import org.geotools.graph.build.GraphGenerator;
 import org.geotools.graph.build.basic.BasicGraphBuilder;
@@ -31,7 +29,9 @@ import org.geotools.graph.structure.Graphable;
 import org.geotools.graph.structure.Node;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.LineSegment;
+import com.vividsolutions.jts.index.quadtree.Quadtree;
 
 /**
  * An implementation of GraphGenerator used to generate a graph representing a
@@ -42,8 +42,11 @@ import com.vividsolutions.jts.geom.LineSegment;
  * records the end coordinates of each line added, and maintains a map of 
  * coordinates to nodes, creating nodes when neccessary.<BR>
  * <BR>
- * If a tolerance distance is set, the end coordinates matched to nodes with
- * a tolerance distance (using a spatial index). <BR>
+ * If a tolerance distance is set, the end coordinates are snapped to the
+ * closest node within the tolerance distance, found with a quadtree over the
+ * node coordinates, so that noisy line work can be noded while building the
+ * graph. Once built, nodes and edges closest to arbitrary locations can be
+ * found with a {@link org.geotools.graph.util.graph.GraphSpatialIndex}. <BR>
  * <BR>
  * Edges created by the generator are of type BasicEdge and contain an object
  * of type LineSegment.<BR>
@@ -72,7 +75,7 @@ public class BasicLineGraphGenerator implements LineGraphGenerator {
   private double tolerance = 0.0;
 
   /** used when tolerance is greater than 0.0 */
-  private Bintree spatialIndex;
+  private Quadtree spatialIndex;
 
   /**
    * Constructs a new BasicLineGraphGenerator.
@@ -96,7 +99,7 @@ public class BasicLineGraphGenerator implements LineGraphGenerator {
     */
    public BasicLineGraphGenerator (double tolerance) {
      this.tolerance = tolerance;
-     spatialIndex = new Bintree();
+     spatialIndex = new Quadtree();
      m_coord2node = new HashMap<Coordinate,Node>();
      setGraphBuilder(new BasicGraphBuilder());
    }
@@ -259,7 +262,7 @@ public class BasicLineGraphGenerator implements LineGraphGenerator {
     getGraphBuilder().addNode(node);
     m_coord2node.put(c, node);
     if (useTolerance()) {
-      spatialIndex.insert(new Interval(c.y, c.y), c);
+      spatialIndex.insert(new Envelope(c), c);
     }
     return node;
   }
@@ -280,7 +283,9 @@ public class BasicLineGraphGenerator implements LineGraphGenerator {
   private Node findClosestNodeWithinTolerance(Coordinate inCoord) {
     double closestDistance = Double.MAX_VALUE;
     Coordinate closestCoordinate = null;
-    List<Coordinate> list = spatialIndex.query(new Interval(inCoord.y - tolerance, inCoord.y + tolerance));
+    Envelope search = new Envelope(inCoord);
+    search.expandBy(tolerance);
+    List<Coordinate> list = spatialIndex.query(search);
     for (Coordinate c : list) {
       double distance = inCoord.distance(c);
       if (distance < closestDistance) {
@@ -0,0 +1,406 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.graph.path;
+
+import java.util.Arrays;
+
+import org.geotools.graph.structure.csr.CSRGraph;
+import org.geotools.graph.util.IndexedPriorityQueue;
+
+/**
+ * Calculates shortest paths on a {@link CSRGraph} using Dijkstra's algorithm,
+ * A Star or a bidirectional Dijkstra search. The searches only use primitive
+ * arrays, allocated once per finder and reused from a search to the next one,
+ * so a finder can answer many queries without creating garbage. A finder is
+ * not thread safe, but any number of finders can share the same graph.
+ * <p>
+ * Example usage:
+ * <pre>
+ * <code>
+ *  CSRGraph csr = CSRGraph.build(graph, weighter);
+ *  CSRShortestPathFinder finder = new CSRShortestPathFinder(csr);
+ *  if (finder.bidirectional(csr.indexOf(source), csr.indexOf(target)) &lt; Double.POSITIVE_INFINITY) {
+ *    Path path = finder.getPath();
+ *  }
+ * </code>
+ * </pre>
+ * </p>
+ *
+ * @see DijkstraShortestPathFinder
+ * @see AStarShortestPathFinder
+ *
+ * @source $URL$
+ */
+public class CSRShortestPathFinder {
+
+  /** the graph **/
+  private final CSRGraph m_graph;
+
+  /** search generation, stamps tell which nodes were touched by the current search **/
+  private int m_generation;
+
+  private final int[] m_stampF;
+
+  private final double[] m_costF;
+
+  private final int[] m_parentF;
+
+  private final boolean[] m_settledF;
+
+  private final IndexedPriorityQueue m_queueF;
+
+  /** backward search state, only allocated for bidirectional searches **/
+  private int[] m_stampB;
+
+  private double[] m_costB;
+
+  private int[] m_parentB;
+
+  private boolean[] m_settledB;
+
+  private IndexedPriorityQueue m_queueB;
+
+  /** multiplies the euclidean distance to the target in A Star searches **/
+  private double m_heuristicFactor = 1d;
+
+  /** last search **/
+  private int m_source = -1;
+
+  private int m_target = -1;
+
+  /** node where the two bidirectional searches met, -1 otherwise **/
+  private int m_meeting = -1;
+
+  private double m_cost = Double.POSITIVE_INFINITY;
+
+  private int m_settled;
+
+  /**
+   * Constructs a new path finder.
+   *
+   * @param graph The graph to search.
+   */
+  public CSRShortestPathFinder(CSRGraph graph) {
+    m_graph = graph;
+    int n = graph.getNodeCount();
+    m_stampF = new int[n];
+    m_costF = new double[n];
+    m_parentF = new int[n];
+    m_settledF = new boolean[n];
+    m_queueF = new IndexedPriorityQueue(n);
+  }
+
+  public CSRGraph getGraph() {
+    return(m_graph);
+  }
+
+  /**
+   * Sets the factor applied to the euclidean distance between a node and the
+   * target to estimate the remaining cost in A Star searches. The estimate must
+   * never exceed the actual cost for the path found to be the shortest one, so
+   * the factor is the lowest ratio of weight to length among the edges: 1 when
+   * weighting by length, 1 / maximum speed when weighting by travel time.
+   */
+  public void setHeuristicFactor(double factor) {
+    if (!(factor >= 0)) {
+      throw new IllegalArgumentException("Heuristic factor must be positive: " + factor);
+    }
+    m_heuristicFactor = factor;
+  }
+
+  public double getHeuristicFactor() {
+    return(m_heuristicFactor);
+  }
+
+  /**
+   * Runs Dijkstra's algorithm from the source, stopping as soon as the target is
+   * reached. When the target is -1 the costs to every node reachable from the
+   * source are calculated, and can be obtained with {@link #getCost(int)}.
+   *
+   * @return The cost of the shortest path to the target, positive infinity if
+   * there is none.
+   */
+  public double dijkstra(int source, int target) {
+    return(search(source, target, 0d));
+  }
+
+  /**
+   * Runs the A Star algorithm from the source to the target, estimating the
+   * remaining cost with the euclidean distance from a node to the target
+   * multiplied by the heuristic factor. Nodes without coordinates are given no
+   * estimate.
+   *
+   * @return The cost of the shortest path to the target, positive infinity if
+   * there is none.
+   */
+  public double astar(int source, int target) {
+    checkNode(target);
+    return(search(source, target, m_heuristicFactor));
+  }
+
+  private double search(int source, int target, double factor) {
+    checkNode(source);
+    if (target != -1) checkNode(target);
+    start(source, target);
+
+    double tx = target != -1 ? m_graph.getX(target) : Double.NaN;
+    double ty = target != -1 ? m_graph.getY(target) : Double.NaN;
+
+    m_queueF.clear();
+    reach(m_stampF, m_costF, m_parentF, m_settledF, source, 0d, -1);
+    m_queueF.insertOrDecrease(source, 0d);
+    while (!m_queueF.isEmpty()) {
+      int u = m_queueF.extractMin();
+      m_settledF[u] = true;
+      m_settled++;
+      if (u == target) {
+        m_cost = m_costF[u];
+        break;
+      }
+
+      double cu = m_costF[u];
+      for (int arc = m_graph.getFirstArc(u), last = m_graph.getLastArc(u); arc < last; arc++) {
+        int v = m_graph.getArcTarget(arc);
+        double cv = cu + m_graph.getArcWeight(arc);
+        if (m_stampF[v] != m_generation) {
+          reach(m_stampF, m_costF, m_parentF, m_settledF, v, cv, u);
+        }
+        else if (m_settledF[v] || cv >= m_costF[v]) continue;
+        else {
+          m_costF[v] = cv;
+          m_parentF[v] = u;
+        }
+        m_queueF.insertOrDecrease(v, cv + estimate(v, tx, ty, factor));
+      }
+    }
+    return(m_cost);
+  }
+
+  private double estimate(int node, double tx, double ty, double factor) {
+    if (factor == 0d) return(0d);
+    double dx = m_graph.getX(node) - tx;
+    double dy = m_graph.getY(node) - ty;
+    double d = Math.sqrt(dx * dx + dy * dy);
+    return(Double.isNaN(d) ? 0d : d * factor);
+  }
+
+  /**
+   * Runs two Dijkstra searches, one forward from the source and one backward
+   * from the target, until they meet. Usually settles far less nodes than a
+   * single search on road like networks.
+   *
+   * @return The cost of the shortest path to the target, positive infinity if
+   * there is none.
+   */
+  public double bidirectional(int source, int target) {
+    checkNode(source);
+    checkNode(target);
+    if (m_stampB == null) {
+      int n = m_graph.getNodeCount();
+      m_stampB = new int[n];
+      m_costB = new double[n];
+      m_parentB = new int[n];
+      m_settledB = new boolean[n];
+      m_queueB = new IndexedPriorityQueue(n);
+    }
+    start(source, target);
+
+    m_queueF.clear();
+    m_queueB.clear();
+    reach(m_stampF, m_costF, m_parentF, m_settledF, source, 0d, -1);
+    reach(m_stampB, m_costB, m_parentB, m_settledB, target, 0d, -1);
+    m_queueF.insertOrDecrease(source, 0d);
+    m_queueB.insertOrDecrease(target, 0d);
+    if (source == target) {
+      m_meeting = source;
+      m_cost = 0d;
+      return(m_cost);
+    }
+
+    double best = Double.POSITIVE_INFINITY;
+    while (!m_queueF.isEmpty() && !m_queueB.isEmpty()) {
+      //no path through the unsettled nodes can be shorter than the best one
+      if (m_queueF.peekPriority() + m_queueB.peekPriority() >= best) break;
+
+      if (m_queueF.size() <= m_queueB.size()) {
+        int u = m_queueF.extractMin();
+        m_settledF[u] = true;
+        m_settled++;
+        double cu = m_costF[u];
+        for (int arc = m_graph.getFirstArc(u), last = m_graph.getLastArc(u); arc < last; arc++) {
+          int v = m_graph.getArcTarget(arc);
+          double cv = cu + m_graph.getArcWeight(arc);
+          if (m_stampF[v] != m_generation) {
+            reach(m_stampF, m_costF, m_parentF, m_settledF, v, cv, u);
+          }
+          else if (m_settledF[v] || cv >= m_costF[v]) continue;
+          else {
+            m_costF[v] = cv;
+            m_parentF[v] = u;
+          }
+          m_queueF.insertOrDecrease(v, cv);
+          if (m_stampB[v] == m_generation && cv + m_costB[v] < best) {
+            best = cv + m_costB[v];
+            m_meeting = v;
+          }
+        }
+      }
+      else {
+        int u = m_queueB.extractMin();
+        m_settledB[u] = true;
+        m_settled++;
+        double cu = m_costB[u];
+        for (int arc = m_graph.getFirstReverseArc(u), last = m_graph.getLastReverseArc(u);
+          arc < last; arc++) {
+          int v = m_graph.getReverseArcSource(arc);
+          double cv = cu + m_graph.getReverseArcWeight(arc);
+          if (m_stampB[v] != m_generation) {
+            reach(m_stampB, m_costB, m_parentB, m_settledB, v, cv, u);
+          }
+          else if (m_settledB[v] || cv >= m_costB[v]) continue;
+          else {
+            m_costB[v] = cv;
+            m_parentB[v] = u;
+          }
+          m_queueB.insertOrDecrease(v, cv);
+          if (m_stampF[v] == m_generation && cv + m_costF[v] < best) {
+            best = cv + m_costF[v];
+            m_meeting = v;
+          }
+        }
+      }
+    }
+    m_cost = best;
+    if (best == Double.POSITIVE_INFINITY) m_meeting = -1;
+    return(m_cost);
+  }
+
+  private void start(int source, int target) {
+    if (++m_generation == 0) {
+      //stamps wrapped around, forget all of them
+      Arrays.fill(m_stampF, 0);
+      if (m_stampB != null) Arrays.fill(m_stampB, 0);
+      m_generation = 1;
+    }
+    m_source = source;
+    m_target = target;
+    m_meeting = -1;
+    m_cost = Double.POSITIVE_INFINITY;
+    m_settled = 0;
+  }
+
+  private void reach(
+    int[] stamps, double[] costs, int[] parents, boolean[] settled,
+    int node, double cost, int parent
+  ) {
+    stamps[node] = m_generation;
+    costs[node] = cost;
+    parents[node] = parent;
+    settled[node] = false;
+  }
+
+  private void checkNode(int node) {
+    if (node < 0 || node >= m_graph.getNodeCount()) {
+      throw new IllegalArgumentException("Invalid node index: " + node);
+    }
+  }
+
+  /**
+   * Returns the cost from the source to a node calculated by the last
+   * {@link #dijkstra(int, int)} or {@link #astar(int, int)} search, positive
+   * infinity if the node was not reached. Only settled nodes are guaranteed
+   * to have their final cost.
+   */
+  public double getCost(int node) {
+    return(m_stampF[node] == m_generation ? m_costF[node] : Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Returns the cost of the path found by the last search, positive infinity if
+   * no path was found.
+   */
+  public double getCost() {
+    return(m_cost);
+  }
+
+  /**
+   * Returns the number of nodes settled by the last search.
+   */
+  public int getSettledCount() {
+    return(m_settled);
+  }
+
+  /**
+   * Returns the nodes of the path found by the last search, from the source to
+   * the target, or null if no path was found.
+   */
+  public int[] getNodePath() {
+    if (m_target == -1 || m_cost == Double.POSITIVE_INFINITY) return(null);
+    if (m_meeting == -1) return(getNodePath(m_target));
+
+    //forward tree up to the meeting node, then backward tree down to the target
+    int[] forward = getNodePath(m_meeting);
+    int n = forward.length;
+    for (int v = m_meeting; m_parentB[v] != -1; v = m_parentB[v]) n++;
+    int[] path = Arrays.copyOf(forward, n);
+    int i = forward.length;
+    for (int v = m_meeting; m_parentB[v] != -1; v = m_parentB[v]) {
+      path[i++] = m_parentB[v];
+    }
+    return(path);
+  }
+
+  /**
+   * Returns the nodes of the shortest path from the source of the last
+   * {@link #dijkstra(int, int)} or {@link #astar(int, int)} search to a
+   * reached node, or null if the node was not reached.
+   */
+  public int[] getNodePath(int node) {
+    if (m_source == -1 || m_stampF[node] != m_generation) return(null);
+    int n = 1;
+    for (int v = node; m_parentF[v] != -1; v = m_parentF[v]) n++;
+    int[] path = new int[n];
+    for (int v = node; v != -1; v = m_parentF[v]) {
+      path[--n] = v;
+    }
+    return(path);
+  }
+
+  /**
+   * Returns the path found by the last search in terms of the nodes of the
+   * graph the compact graph was built from. As for
+   * {@link DijkstraShortestPathFinder#getPath(org.geotools.graph.structure.Graphable)}
+   * the path goes <B>from</B> the target <B>to</B> the source.
+   *
+   * @return The path, or null if no path was found.
+   *
+   * @throws IllegalStateException If the compact graph was not built from
+   * another graph.
+   */
+  public Path getPath() {
+    if (!m_graph.hasGraphables()) {
+      throw new IllegalStateException("Graph was not built from graph nodes");
+    }
+    int[] nodes = getNodePath();
+    if (nodes == null) return(null);
+    Path path = new Path();
+    for (int i = nodes.length - 1; i >= 0; i--) {
+      path.add(m_graph.getNode(nodes[i]));
+    }
+    return(path);
+  }
+}
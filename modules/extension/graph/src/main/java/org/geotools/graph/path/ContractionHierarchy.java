@@ -0,0 +1,649 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.graph.path;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.geotools.graph.structure.Graph;
+import org.geotools.graph.structure.Node;
+import org.geotools.graph.structure.csr.CSRGraph;
+import org.geotools.graph.traverse.standard.DijkstraIterator.EdgeWeighter;
+import org.geotools.graph.util.IndexedPriorityQueue;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * A contraction hierarchy, the result of preprocessing a graph so that
+ * shortest path queries only explore a tiny part of it. Nodes are contracted
+ * one at a time, from the least to the most important one, and shortcut edges
+ * are added between the neighbours of a contracted node whenever the shortest
+ * path between them went through it. A query then runs a bidirectional search
+ * that only follows edges towards more important nodes, see
+ * {@link ContractionHierarchyShortestPathFinder}.
+ * <p>
+ * Nodes are identified by their index, which is their position in the
+ * {@link Graph#getNodes()} collection of the graph the hierarchy was built
+ * from. The hierarchy only holds primitive arrays, node ids and coordinates,
+ * so it is serializable and can be built once, saved with
+ * {@link #write(OutputStream)} and loaded with {@link #read(InputStream)} next
+ * to a graph read with one of the {@link org.geotools.graph.io.GraphReaderWriter}s,
+ * which preserve node ids. Ids are only kept when they are unique, which is
+ * not the case for optimized graphs whose nodes have no id: these are matched
+ * to the nodes of a graph by coordinate instead, as long as every node has
+ * a coordinate of its own. Graph nodes are held in hash sets, so their order
+ * is not preserved by a rebuilt, copied or read back graph and is never used
+ * to match them.
+ * </p>
+ *
+ * @see CSRGraph
+ *
+ * @source $URL$
+ */
+public class ContractionHierarchy implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /** maximum number of nodes settled by a witness search **/
+  private static final int WITNESS_SETTLE_LIMIT = 500;
+
+  /** contraction order of each node **/
+  private final int[] m_ranks;
+
+  /** upward arcs leaving each node: to a node of higher rank **/
+  private final int[] m_upOffsets;
+
+  private final int[] m_upTargets;
+
+  private final double[] m_upWeights;
+
+  /** contracted node a shortcut skips, -1 for original edges **/
+  private final int[] m_upMiddles;
+
+  /** upward arcs reaching each node: from a node of higher rank **/
+  private final int[] m_downOffsets;
+
+  private final int[] m_downSources;
+
+  private final double[] m_downWeights;
+
+  private final int[] m_downMiddles;
+
+  /**
+   * graph ids of the nodes, null if the hierarchy was not built from a graph
+   * or the ids are not unique
+   **/
+  private final int[] m_ids;
+
+  /**
+   * coordinates of the nodes, null if the hierarchy was not built from a
+   * graph, or some nodes have no coordinate or share it
+   **/
+  private final double[] m_xs, m_ys;
+
+  private final int m_shortcuts;
+
+  /** maps node ids to node indexes, built on demand **/
+  private transient Map<Integer, Integer> m_index;
+
+  /** maps node coordinates to node indexes, built on demand **/
+  private transient Map<Coordinate, Integer> m_coordIndex;
+
+  private ContractionHierarchy(
+    int[] ranks, ArcLists up, ArcLists down, int[] ids, double[] xs,
+    double[] ys, int shortcuts
+  ) {
+    m_ranks = ranks;
+    m_upOffsets = up.offsets();
+    m_upTargets = up.m_nodes;
+    m_upWeights = up.m_weights;
+    m_upMiddles = up.m_middles;
+    m_downOffsets = down.offsets();
+    m_downSources = down.m_nodes;
+    m_downWeights = down.m_weights;
+    m_downMiddles = down.m_middles;
+    m_ids = ids;
+    m_xs = xs;
+    m_ys = ys;
+    m_shortcuts = shortcuts;
+  }
+
+  /**
+   * Builds the hierarchy of a graph.
+   *
+   * @param graph The graph.
+   * @param weighter Associates weights with edges, weights must be positive
+   * or zero.
+   */
+  public static ContractionHierarchy build(Graph graph, EdgeWeighter weighter) {
+    return(build(CSRGraph.build(graph, weighter)));
+  }
+
+  /**
+   * Builds the hierarchy of a compact graph.
+   */
+  public static ContractionHierarchy build(CSRGraph graph) {
+    return(new Contractor(graph).contract());
+  }
+
+  /**
+   * Reads a hierarchy previously written with {@link #write(OutputStream)}.
+   * The stream is not closed.
+   */
+  public static ContractionHierarchy read(InputStream in) throws IOException {
+    ObjectInputStream objin = new ObjectInputStream(new BufferedInputStream(in));
+    try {
+      return((ContractionHierarchy)objin.readObject());
+    }
+    catch (ClassNotFoundException e) {
+      throw new IOException(e);
+    }
+    catch (ClassCastException e) {
+      throw new IOException("Stream does not contain a contraction hierarchy", e);
+    }
+  }
+
+  /**
+   * Writes the hierarchy to a stream. The stream is flushed but not closed.
+   */
+  public void write(OutputStream out) throws IOException {
+    ObjectOutputStream objout = new ObjectOutputStream(new BufferedOutputStream(out));
+    objout.writeObject(this);
+    objout.flush();
+  }
+
+  public int getNodeCount() {
+    return(m_ranks.length);
+  }
+
+  /**
+   * Returns the number of shortcut edges added by the contraction.
+   */
+  public int getShortcutCount() {
+    return(m_shortcuts);
+  }
+
+  /**
+   * Returns the contraction order of a node, more important nodes having a
+   * higher rank.
+   */
+  public int getRank(int node) {
+    return(m_ranks[node]);
+  }
+
+  /**
+   * Returns true if the nodes can be matched to the graph ones by id, false
+   * if the hierarchy was not built from a graph or the node ids were not
+   * unique, in which case nodes are matched by coordinate.
+   */
+  public boolean hasIDs() {
+    return(m_ids != null);
+  }
+
+  /**
+   * Returns true if the nodes can be matched to the graph ones by coordinate,
+   * false if the hierarchy was not built from a graph, or some nodes had no
+   * coordinate or shared it with another node.
+   */
+  public boolean hasCoordinates() {
+    return(m_xs != null);
+  }
+
+  /**
+   * Returns the id of the graph node at an index, -1 if the hierarchy has no
+   * ids.
+   */
+  public int getID(int node) {
+    return(m_ids != null ? m_ids[node] : -1);
+  }
+
+  /**
+   * Returns the x ordinate of the graph node at an index, NaN if the
+   * hierarchy has no coordinates.
+   */
+  public double getX(int node) {
+    return(m_xs != null ? m_xs[node] : Double.NaN);
+  }
+
+  /**
+   * Returns the y ordinate of the graph node at an index, NaN if the
+   * hierarchy has no coordinates.
+   */
+  public double getY(int node) {
+    return(m_ys != null ? m_ys[node] : Double.NaN);
+  }
+
+  /**
+   * Returns the index of a graph node, found by id, or by coordinate if the
+   * hierarchy has no ids, -1 if not part of the hierarchy or the hierarchy has
+   * neither ids nor coordinates.
+   */
+  public synchronized int indexOf(Node node) {
+    Integer index = null;
+    if (m_ids != null) {
+      if (m_index == null) {
+        m_index = new HashMap<Integer, Integer>(m_ids.length * 4 / 3 + 1);
+        for (int i = 0; i < m_ids.length; i++) m_index.put(m_ids[i], i);
+      }
+      index = m_index.get(node.getID());
+    }
+    else if (m_xs != null) {
+      if (m_coordIndex == null) {
+        m_coordIndex = new HashMap<Coordinate, Integer>(m_xs.length * 4 / 3 + 1);
+        for (int i = 0; i < m_xs.length; i++) {
+          m_coordIndex.put(new Coordinate(m_xs[i], m_ys[i]), i);
+        }
+      }
+      Coordinate c = CSRGraph.getCoordinate(node);
+      if (c != null) index = m_coordIndex.get(new Coordinate(c.x, c.y));
+    }
+    return(index != null ? index : -1);
+  }
+
+  int getFirstUpArc(int node) {
+    return(m_upOffsets[node]);
+  }
+
+  int getLastUpArc(int node) {
+    return(m_upOffsets[node + 1]);
+  }
+
+  int getUpTarget(int arc) {
+    return(m_upTargets[arc]);
+  }
+
+  double getUpWeight(int arc) {
+    return(m_upWeights[arc]);
+  }
+
+  int getFirstDownArc(int node) {
+    return(m_downOffsets[node]);
+  }
+
+  int getLastDownArc(int node) {
+    return(m_downOffsets[node + 1]);
+  }
+
+  int getDownSource(int arc) {
+    return(m_downSources[arc]);
+  }
+
+  double getDownWeight(int arc) {
+    return(m_downWeights[arc]);
+  }
+
+  /**
+   * Returns the node a shortcut from a to b skips, -1 if the arc from a to b
+   * is an original edge.
+   */
+  int getMiddle(int a, int b) {
+    if (m_ranks[a] < m_ranks[b]) {
+      for (int arc = m_upOffsets[a]; arc < m_upOffsets[a + 1]; arc++) {
+        if (m_upTargets[arc] == b) return(m_upMiddles[arc]);
+      }
+    }
+    else {
+      for (int arc = m_downOffsets[b]; arc < m_downOffsets[b + 1]; arc++) {
+        if (m_downSources[arc] == a) return(m_downMiddles[arc]);
+      }
+    }
+    throw new IllegalStateException("No arc from " + a + " to " + b);
+  }
+
+  /**
+   * Growable per node lists of arcs, turned into compressed rows once the
+   * contraction is over.
+   */
+  static class ArcLists {
+    int[] m_owners = new int[16];
+    int[] m_nodes = new int[16];
+    double[] m_weights = new double[16];
+    int[] m_middles = new int[16];
+    int m_size;
+    final int m_nnodes;
+
+    ArcLists(int nnodes) {
+      m_nnodes = nnodes;
+    }
+
+    void add(int owner, int node, double weight, int middle) {
+      if (m_size == m_nodes.length) {
+        m_owners = Arrays.copyOf(m_owners, m_size * 2);
+        m_nodes = Arrays.copyOf(m_nodes, m_size * 2);
+        m_weights = Arrays.copyOf(m_weights, m_size * 2);
+        m_middles = Arrays.copyOf(m_middles, m_size * 2);
+      }
+      m_owners[m_size] = owner;
+      m_nodes[m_size] = node;
+      m_weights[m_size] = weight;
+      m_middles[m_size] = middle;
+      m_size++;
+    }
+
+    /** sorts the arcs by owner and returns the offsets **/
+    int[] offsets() {
+      int[] offsets = new int[m_nnodes + 1];
+      for (int i = 0; i < m_size; i++) offsets[m_owners[i] + 1]++;
+      for (int i = 0; i < m_nnodes; i++) offsets[i + 1] += offsets[i];
+
+      int[] next = Arrays.copyOf(offsets, m_nnodes);
+      int[] nodes = new int[m_size];
+      double[] weights = new double[m_size];
+      int[] middles = new int[m_size];
+      for (int i = 0; i < m_size; i++) {
+        int pos = next[m_owners[i]]++;
+        nodes[pos] = m_nodes[i];
+        weights[pos] = m_weights[i];
+        middles[pos] = m_middles[i];
+      }
+      m_nodes = nodes;
+      m_weights = weights;
+      m_middles = middles;
+      m_owners = null;
+      return(offsets);
+    }
+  }
+
+  /**
+   * Contracts the nodes of a graph, by increasing edge difference: the number
+   * of shortcuts the contraction of a node requires minus the number of arcs it
+   * removes, plus the number of neighbours already contracted to spread the
+   * contraction evenly. Priorities are updated lazily, a node whose priority
+   * grew since it was queued is queued again.
+   */
+  static class Contractor {
+
+    final int m_nnodes;
+
+    /** remaining arcs of each node, both directions, in growable arrays **/
+    final int[][] m_outNodes, m_inNodes;
+    final double[][] m_outWeights, m_inWeights;
+    final int[][] m_outMiddles, m_inMiddles;
+    final int[] m_outSizes, m_inSizes;
+
+    final boolean[] m_contracted;
+    final int[] m_contractedNeighbours;
+    final int[] m_ids;
+    final double[] m_xs, m_ys;
+
+    /** witness search state **/
+    final IndexedPriorityQueue m_queue;
+    final int[] m_stamps;
+    final double[] m_costs;
+    int m_generation;
+
+    /** shortcuts found by the last simulated or actual contraction **/
+    int[] m_scFrom = new int[16], m_scTo = new int[16];
+    double[] m_scWeights = new double[16];
+    int m_scSize;
+
+    Contractor(CSRGraph graph) {
+      int n = graph.getNodeCount();
+      m_nnodes = n;
+      m_outNodes = new int[n][];
+      m_inNodes = new int[n][];
+      m_outWeights = new double[n][];
+      m_inWeights = new double[n][];
+      m_outMiddles = new int[n][];
+      m_inMiddles = new int[n][];
+      m_outSizes = new int[n];
+      m_inSizes = new int[n];
+      for (int i = 0; i < n; i++) {
+        int out = graph.getLastArc(i) - graph.getFirstArc(i);
+        int in = graph.getLastReverseArc(i) - graph.getFirstReverseArc(i);
+        m_outNodes[i] = new int[Math.max(out, 2)];
+        m_outWeights[i] = new double[Math.max(out, 2)];
+        m_outMiddles[i] = new int[Math.max(out, 2)];
+        m_inNodes[i] = new int[Math.max(in, 2)];
+        m_inWeights[i] = new double[Math.max(in, 2)];
+        m_inMiddles[i] = new int[Math.max(in, 2)];
+      }
+      for (int u = 0; u < n; u++) {
+        for (int arc = graph.getFirstArc(u); arc < graph.getLastArc(u); arc++) {
+          setArc(u, graph.getArcTarget(arc), graph.getArcWeight(arc), -1);
+        }
+      }
+
+      m_contracted = new boolean[n];
+      m_contractedNeighbours = new int[n];
+      m_queue = new IndexedPriorityQueue(n);
+      m_stamps = new int[n];
+      m_costs = new double[n];
+
+      int[] ids = null;
+      if (graph.hasGraphables()) {
+        //optimized graphables all have the same id, match them by coordinate
+        ids = new int[n];
+        Set<Integer> seen = new HashSet<Integer>(n * 4 / 3 + 1);
+        for (int i = 0; i < n && ids != null; i++) {
+          ids[i] = graph.getNode(i).getID();
+          if (!seen.add(ids[i])) ids = null;
+        }
+      }
+      m_ids = ids;
+
+      //coordinates are the fallback when there are no ids, keep them if they
+      //tell all the nodes apart
+      double[] xs = new double[n];
+      double[] ys = new double[n];
+      Set<Coordinate> coords = new HashSet<Coordinate>(n * 4 / 3 + 1);
+      for (int i = 0; i < n && xs != null; i++) {
+        xs[i] = graph.getX(i);
+        ys[i] = graph.getY(i);
+        if (Double.isNaN(xs[i]) || Double.isNaN(ys[i])
+          || !coords.add(new Coordinate(xs[i], ys[i]))) {
+          xs = null;
+          ys = null;
+        }
+      }
+      m_xs = xs;
+      m_ys = ys;
+    }
+
+    ContractionHierarchy contract() {
+      IndexedPriorityQueue order = new IndexedPriorityQueue(m_nnodes);
+      for (int v = 0; v < m_nnodes; v++) order.insertOrDecrease(v, priority(v));
+
+      int[] ranks = new int[m_nnodes];
+      ArcLists up = new ArcLists(m_nnodes);
+      ArcLists down = new ArcLists(m_nnodes);
+      int shortcuts = 0;
+      int rank = 0;
+      while (!order.isEmpty()) {
+        int v = order.extractMin();
+        double priority = priority(v);
+        if (!order.isEmpty() && priority > order.peekPriority()) {
+          //lazy update, something more worth contracting
+          order.insertOrDecrease(v, priority);
+          continue;
+        }
+
+        //the remaining neighbours are all more important than v
+        for (int i = 0; i < m_outSizes[v]; i++) {
+          up.add(v, m_outNodes[v][i], m_outWeights[v][i], m_outMiddles[v][i]);
+        }
+        for (int i = 0; i < m_inSizes[v]; i++) {
+          down.add(v, m_inNodes[v][i], m_inWeights[v][i], m_inMiddles[v][i]);
+        }
+
+        //the shortcuts found computing the priority
+        for (int i = 0; i < m_scSize; i++) {
+          if (setArc(m_scFrom[i], m_scTo[i], m_scWeights[i], v)) shortcuts++;
+        }
+        m_contracted[v] = true;
+        ranks[v] = rank++;
+
+        //detach v from its neighbours
+        for (int i = 0; i < m_outSizes[v]; i++) {
+          int w = m_outNodes[v][i];
+          removeArc(m_inNodes, m_inWeights, m_inMiddles, m_inSizes, w, v);
+          m_contractedNeighbours[w]++;
+        }
+        for (int i = 0; i < m_inSizes[v]; i++) {
+          int u = m_inNodes[v][i];
+          removeArc(m_outNodes, m_outWeights, m_outMiddles, m_outSizes, u, v);
+          m_contractedNeighbours[u]++;
+        }
+        m_outSizes[v] = 0;
+        m_inSizes[v] = 0;
+      }
+      return(new ContractionHierarchy(ranks, up, down, m_ids, m_xs, m_ys, shortcuts));
+    }
+
+    double priority(int v) {
+      findShortcuts(v);
+      return(m_scSize - m_outSizes[v] - m_inSizes[v] + m_contractedNeighbours[v]);
+    }
+
+    /**
+     * Finds the shortcuts contracting v requires: a path u, v, w for which
+     * no witness path avoiding v is as short.
+     */
+    void findShortcuts(int v) {
+      m_scSize = 0;
+      if (m_outSizes[v] == 0) return;
+      double maxOut = 0;
+      for (int i = 0; i < m_outSizes[v]; i++) maxOut = Math.max(maxOut, m_outWeights[v][i]);
+
+      for (int i = 0; i < m_inSizes[v]; i++) {
+        int u = m_inNodes[v][i];
+        double uv = m_inWeights[v][i];
+        witnessSearch(u, v, uv + maxOut);
+        for (int j = 0; j < m_outSizes[v]; j++) {
+          int w = m_outNodes[v][j];
+          if (w == u) continue;
+          double uvw = uv + m_outWeights[v][j];
+          if (m_stamps[w] == m_generation && m_costs[w] <= uvw) continue;
+          if (m_scSize == m_scFrom.length) {
+            m_scFrom = Arrays.copyOf(m_scFrom, m_scSize * 2);
+            m_scTo = Arrays.copyOf(m_scTo, m_scSize * 2);
+            m_scWeights = Arrays.copyOf(m_scWeights, m_scSize * 2);
+          }
+          m_scFrom[m_scSize] = u;
+          m_scTo[m_scSize] = w;
+          m_scWeights[m_scSize] = uvw;
+          m_scSize++;
+        }
+      }
+    }
+
+    /**
+     * Bounded Dijkstra search from u avoiding v. A node left unreached or with
+     * a cost above the bound may still have a witness, which only costs an
+     * unnecessary shortcut.
+     */
+    void witnessSearch(int u, int v, double bound) {
+      if (++m_generation == 0) {
+        Arrays.fill(m_stamps, 0);
+        m_generation = 1;
+      }
+      m_queue.clear();
+      m_stamps[u] = m_generation;
+      m_costs[u] = 0;
+      m_queue.insertOrDecrease(u, 0);
+      int settled = 0;
+      while (!m_queue.isEmpty() && settled++ < WITNESS_SETTLE_LIMIT) {
+        if (m_queue.peekPriority() > bound) break;
+        int x = m_queue.extractMin();
+        double cx = m_costs[x];
+        int[] nodes = m_outNodes[x];
+        double[] weights = m_outWeights[x];
+        for (int i = 0; i < m_outSizes[x]; i++) {
+          int y = nodes[i];
+          if (y == v) continue;
+          double cy = cx + weights[i];
+          if (m_stamps[y] != m_generation || cy < m_costs[y]) {
+            m_stamps[y] = m_generation;
+            m_costs[y] = cy;
+            m_queue.insertOrDecrease(y, cy);
+          }
+        }
+      }
+    }
+
+    /**
+     * Adds an arc from u to w, or lowers the weight of the existing one.
+     *
+     * @return True if a new arc was added.
+     */
+    boolean setArc(int u, int w, double weight, int middle) {
+      for (int i = 0; i < m_outSizes[u]; i++) {
+        if (m_outNodes[u][i] == w) {
+          if (weight < m_outWeights[u][i]) {
+            m_outWeights[u][i] = weight;
+            m_outMiddles[u][i] = middle;
+            for (int j = 0; j < m_inSizes[w]; j++) {
+              if (m_inNodes[w][j] == u) {
+                m_inWeights[w][j] = weight;
+                m_inMiddles[w][j] = middle;
+              }
+            }
+          }
+          return(false);
+        }
+      }
+      addArc(m_outNodes, m_outWeights, m_outMiddles, m_outSizes, u, w, weight, middle);
+      addArc(m_inNodes, m_inWeights, m_inMiddles, m_inSizes, w, u, weight, middle);
+      return(true);
+    }
+
+    private static void addArc(
+      int[][] nodes, double[][] weights, int[][] middles, int[] sizes,
+      int owner, int node, double weight, int middle
+    ) {
+      int size = sizes[owner];
+      if (size == nodes[owner].length) {
+        nodes[owner] = Arrays.copyOf(nodes[owner], size * 2);
+        weights[owner] = Arrays.copyOf(weights[owner], size * 2);
+        middles[owner] = Arrays.copyOf(middles[owner], size * 2);
+      }
+      nodes[owner][size] = node;
+      weights[owner][size] = weight;
+      middles[owner][size] = middle;
+      sizes[owner] = size + 1;
+    }
+
+    private static void removeArc(
+      int[][] nodes, double[][] weights, int[][] middles, int[] sizes,
+      int owner, int node
+    ) {
+      int size = sizes[owner];
+      for (int i = 0; i < size; i++) {
+        if (nodes[owner][i] == node) {
+          //move the last arc in place
+          size--;
+          nodes[owner][i] = nodes[owner][size];
+          weights[owner][i] = weights[owner][size];
+          middles[owner][i] = middles[owner][size];
+          sizes[owner] = size;
+          return;
+        }
+      }
+    }
+  }
+}
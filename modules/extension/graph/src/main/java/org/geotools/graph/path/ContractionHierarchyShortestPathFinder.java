@@ -0,0 +1,350 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.graph.path;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geotools.graph.structure.Graph;
+import org.geotools.graph.structure.Node;
+import org.geotools.graph.util.IndexedPriorityQueue;
+
+/**
+ * Calculates shortest paths using a {@link ContractionHierarchy}. Each query
+ * runs two searches, forward from the source and backward from the target,
+ * which only follow arcs towards more important nodes and meet at the most
+ * important node of the shortest path, then the shortcuts along the path are
+ * expanded back to the original nodes. A finder reuses its state from a query
+ * to the next one and is not thread safe, but any number of finders can share
+ * the same hierarchy.
+ * <p>
+ * Example usage:
+ * <pre>
+ * <code>
+ *  ContractionHierarchy ch = ContractionHierarchy.read(in);
+ *  ContractionHierarchyShortestPathFinder finder =
+ *    new ContractionHierarchyShortestPathFinder(ch, graph);
+ *  Path path = finder.getPath(source, target);
+ * </code>
+ * </pre>
+ * </p>
+ *
+ * @source $URL$
+ */
+public class ContractionHierarchyShortestPathFinder {
+
+  /** the hierarchy **/
+  private final ContractionHierarchy m_ch;
+
+  /** graph nodes by index, null if unknown **/
+  private final Node[] m_nodes;
+
+  /** index of each graph node, null if unknown **/
+  private final Map<Node, Integer> m_index;
+
+  /** search generation, stamps tell which nodes were touched by the current search **/
+  private int m_generation;
+
+  private final int[] m_stampF, m_stampB;
+
+  private final double[] m_costF, m_costB;
+
+  private final int[] m_parentF, m_parentB;
+
+  private final IndexedPriorityQueue m_queueF, m_queueB;
+
+  /** node where the two searches met, -1 if no path **/
+  private int m_meeting = -1;
+
+  private double m_cost = Double.POSITIVE_INFINITY;
+
+  private int m_settled;
+
+  /**
+   * Constructs a finder computing paths as node indexes.
+   *
+   * @param ch The hierarchy.
+   */
+  public ContractionHierarchyShortestPathFinder(ContractionHierarchy ch) {
+    this(ch, null);
+  }
+
+  /**
+   * Constructs a finder computing paths of graph nodes.
+   *
+   * @param ch The hierarchy.
+   * @param graph The graph the hierarchy was built from, or a copy of it
+   * with the same node ids, or with the same node coordinates if the
+   * hierarchy has no ids, see {@link ContractionHierarchy#hasIDs()} and
+   * {@link ContractionHierarchy#hasCoordinates()}.
+   *
+   * @throws IllegalArgumentException If the hierarchy has neither ids nor
+   * coordinates, or the graph nodes do not match the hierarchy ones.
+   */
+  public ContractionHierarchyShortestPathFinder(ContractionHierarchy ch, Graph graph) {
+    m_ch = ch;
+    int n = ch.getNodeCount();
+    if (graph != null) {
+      Node[] nodes = (Node[])graph.getNodes().toArray(new Node[graph.getNodes().size()]);
+      m_nodes = new Node[n];
+      m_index = new HashMap<Node, Integer>(nodes.length * 4 / 3 + 1);
+      if (!ch.hasIDs() && !ch.hasCoordinates()) {
+        //graph node order is not stable, there is nothing else to go by
+        throw new IllegalArgumentException(
+          "Hierarchy has neither unique node ids nor unique node coordinates"
+        );
+      }
+      for (int i = 0; i < nodes.length; i++) {
+        int index = ch.indexOf(nodes[i]);
+        if (index == -1) continue;
+        if (m_nodes[index] != null) {
+          throw new IllegalArgumentException(
+            ch.hasIDs() ? "Graph nodes share the id " + nodes[i].getID()
+              : "Graph nodes share the coordinate " + ch.getX(index) + " "
+                + ch.getY(index)
+          );
+        }
+        m_nodes[index] = nodes[i];
+        m_index.put(nodes[i], index);
+      }
+      if (m_index.isEmpty() && n > 0) {
+        throw new IllegalArgumentException("No graph node is part of the hierarchy");
+      }
+    }
+    else {
+      m_nodes = null;
+      m_index = null;
+    }
+
+    m_stampF = new int[n];
+    m_stampB = new int[n];
+    m_costF = new double[n];
+    m_costB = new double[n];
+    m_parentF = new int[n];
+    m_parentB = new int[n];
+    m_queueF = new IndexedPriorityQueue(n);
+    m_queueB = new IndexedPriorityQueue(n);
+  }
+
+  public ContractionHierarchy getContractionHierarchy() {
+    return(m_ch);
+  }
+
+  /**
+   * Calculates the shortest path between two graph nodes.
+   *
+   * @return The path <B>from</B> the target <B>to</B> the source, as
+   * {@link DijkstraShortestPathFinder#getPath(org.geotools.graph.structure.Graphable)}
+   * does, or null if there is none.
+   */
+  public Path getPath(Node source, Node target) {
+    int s = indexOf(source);
+    int t = indexOf(target);
+    if (s == -1 || t == -1) {
+      throw new IllegalArgumentException("Node not part of the hierarchy");
+    }
+    calculate(s, t);
+    return(getPath());
+  }
+
+  /**
+   * Calculates the shortest path between two nodes.
+   *
+   * @return The cost of the path, positive infinity if there is none.
+   */
+  public double calculate(int source, int target) {
+    checkNode(source);
+    checkNode(target);
+    if (++m_generation == 0) {
+      //stamps wrapped around, forget all of them
+      Arrays.fill(m_stampF, 0);
+      Arrays.fill(m_stampB, 0);
+      m_generation = 1;
+    }
+    m_settled = 0;
+    m_meeting = -1;
+
+    m_queueF.clear();
+    m_queueB.clear();
+    reach(m_stampF, m_costF, m_parentF, m_queueF, source, 0d, -1);
+    reach(m_stampB, m_costB, m_parentB, m_queueB, target, 0d, -1);
+
+    double best = Double.POSITIVE_INFINITY;
+    if (source == target) {
+      best = 0d;
+      m_meeting = source;
+    }
+
+    //each search stops once it can't improve on the best path
+    boolean forward = true;
+    while (true) {
+      boolean f = m_queueF.peekPriority() < best;
+      boolean b = m_queueB.peekPriority() < best;
+      if (!f && !b) break;
+      forward = f && (!b || !forward);
+
+      if (forward) {
+        int u = m_queueF.extractMin();
+        m_settled++;
+        double cu = m_costF[u];
+        if (m_stampB[u] == m_generation && cu + m_costB[u] < best) {
+          best = cu + m_costB[u];
+          m_meeting = u;
+        }
+        for (int arc = m_ch.getFirstUpArc(u), last = m_ch.getLastUpArc(u); arc < last; arc++) {
+          int v = m_ch.getUpTarget(arc);
+          double cv = cu + m_ch.getUpWeight(arc);
+          if (m_stampF[v] != m_generation || cv < m_costF[v]) {
+            reach(m_stampF, m_costF, m_parentF, m_queueF, v, cv, u);
+          }
+        }
+      }
+      else {
+        int u = m_queueB.extractMin();
+        m_settled++;
+        double cu = m_costB[u];
+        if (m_stampF[u] == m_generation && cu + m_costF[u] < best) {
+          best = cu + m_costF[u];
+          m_meeting = u;
+        }
+        for (int arc = m_ch.getFirstDownArc(u), last = m_ch.getLastDownArc(u); arc < last; arc++) {
+          int v = m_ch.getDownSource(arc);
+          double cv = cu + m_ch.getDownWeight(arc);
+          if (m_stampB[v] != m_generation || cv < m_costB[v]) {
+            reach(m_stampB, m_costB, m_parentB, m_queueB, v, cv, u);
+          }
+        }
+      }
+    }
+    m_cost = best;
+    return(m_cost);
+  }
+
+  /**
+   * Returns the index of a graph node, -1 if not part of the hierarchy.
+   */
+  public int indexOf(Node node) {
+    if (m_index == null) return(m_ch.indexOf(node));
+    Integer index = m_index.get(node);
+    return(index != null ? index : -1);
+  }
+
+  private void reach(
+    int[] stamps, double[] costs, int[] parents, IndexedPriorityQueue queue,
+    int node, double cost, int parent
+  ) {
+    stamps[node] = m_generation;
+    costs[node] = cost;
+    parents[node] = parent;
+    queue.insertOrDecrease(node, cost);
+  }
+
+  private void checkNode(int node) {
+    if (node < 0 || node >= m_ch.getNodeCount()) {
+      throw new IllegalArgumentException("Invalid node index: " + node);
+    }
+  }
+
+  /**
+   * Returns the cost of the path found by the last query, positive infinity if
+   * no path was found.
+   */
+  public double getCost() {
+    return(m_cost);
+  }
+
+  /**
+   * Returns the number of nodes settled by the last query.
+   */
+  public int getSettledCount() {
+    return(m_settled);
+  }
+
+  /**
+   * Returns the nodes of the path found by the last query, from the source to
+   * the target, with all shortcuts expanded, or null if no path was found.
+   */
+  public int[] getNodePath() {
+    if (m_meeting == -1) return(null);
+
+    //hierarchy path: forward tree up to the meeting node, backward tree down
+    int nf = 0, n = 0;
+    for (int v = m_meeting; v != -1; v = m_parentF[v]) nf++;
+    for (int v = m_parentB[m_meeting]; v != -1; v = m_parentB[v]) n++;
+    n += nf;
+    int[] hops = new int[n];
+    int i = nf;
+    for (int v = m_meeting; v != -1; v = m_parentF[v]) hops[--i] = v;
+    i = nf;
+    for (int v = m_parentB[m_meeting]; v != -1; v = m_parentB[v]) hops[i++] = v;
+
+    //expand the shortcuts, each one replaced by the two arcs it skips
+    int[] path = new int[Math.max(16, n * 2)];
+    int size = 0;
+    path[size++] = hops[0];
+    int[] stack = new int[32];
+    for (int h = 1; h < n; h++) {
+      int top = 0;
+      stack[top++] = hops[h - 1];
+      stack[top++] = hops[h];
+      while (top > 0) {
+        int b = stack[--top];
+        int a = stack[--top];
+        int middle = m_ch.getMiddle(a, b);
+        if (middle == -1) {
+          if (size == path.length) path = Arrays.copyOf(path, size * 2);
+          path[size++] = b;
+          continue;
+        }
+        if (top + 4 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+        //second half first, so that the first half is expanded first
+        stack[top++] = middle;
+        stack[top++] = b;
+        stack[top++] = a;
+        stack[top++] = middle;
+      }
+    }
+    return(Arrays.copyOf(path, size));
+  }
+
+  /**
+   * Returns the path found by the last query in terms of graph nodes. As for
+   * {@link DijkstraShortestPathFinder#getPath(org.geotools.graph.structure.Graphable)}
+   * the path goes <B>from</B> the target <B>to</B> the source.
+   *
+   * @return The path, or null if no path was found.
+   *
+   * @throws IllegalStateException If the finder was not given a graph.
+   */
+  public Path getPath() {
+    if (m_nodes == null) {
+      throw new IllegalStateException("No graph to build the path from");
+    }
+    int[] nodes = getNodePath();
+    if (nodes == null) return(null);
+    Path path = new Path();
+    for (int i = nodes.length - 1; i >= 0; i--) {
+      Node node = m_nodes[nodes[i]];
+      if (node == null) {
+        throw new IllegalStateException("Node at index " + nodes[i] + " missing from graph");
+      }
+      path.add(node);
+    }
+    return(path);
+  }
+}
@@ -0,0 +1,441 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.graph.structure.csr;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geotools.graph.structure.DirectedEdge;
+import org.geotools.graph.structure.Edge;
+import org.geotools.graph.structure.Graph;
+import org.geotools.graph.structure.Node;
+import org.geotools.graph.structure.line.XYNode;
+import org.geotools.graph.traverse.standard.DijkstraIterator.EdgeWeighter;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * An immutable graph stored in compressed sparse row form: the arcs leaving
+ * each node are stored contiguously in primitive arrays, along with their
+ * target node and weight, and the arcs of node <i>i</i> are found between
+ * {@link #getFirstArc(int)} and {@link #getLastArc(int)}. Nodes and edges are
+ * identified by their index. An undirected edge results in two arcs, one per
+ * direction, a directed edge in a single arc from its in node to its out node.
+ * For directed graphs the reversed arcs are stored as well, for backward
+ * searches.
+ * <p>
+ * The graph uses a few bytes per node and arc, compared to the objects, lists
+ * and maps of the {@link Graph} implementations, and is meant for fast shortest
+ * path searches on large networks, see
+ * {@link org.geotools.graph.path.CSRShortestPathFinder}. It can be built out
+ * of an existing graph, for example one generated by a
+ * {@link org.geotools.graph.build.line.LineStringGraphGenerator}, keeping
+ * track of the original nodes and edges so that paths can be returned in
+ * terms of them, or directly with a {@link Builder}.
+ * </p>
+ *
+ * @source $URL$
+ */
+public final class CSRGraph {
+
+  /** first arc of each node, plus the total number of arcs **/
+  private final int[] m_offsets;
+
+  /** target node of each arc **/
+  private final int[] m_targets;
+
+  /** edge of each arc **/
+  private final int[] m_arcEdges;
+
+  /** weight of each arc **/
+  private final double[] m_weights;
+
+  /** first reversed arc of each node, same as the arcs if undirected **/
+  private final int[] m_roffsets;
+
+  /** source node of each reversed arc **/
+  private final int[] m_rsources;
+
+  /** edge of each reversed arc **/
+  private final int[] m_rarcEdges;
+
+  /** weight of each reversed arc **/
+  private final double[] m_rweights;
+
+  /** node coordinates, NaN if unknown **/
+  private final double[] m_x;
+
+  private final double[] m_y;
+
+  private final int m_nedges;
+
+  private final boolean m_directed;
+
+  /** the original nodes, if any **/
+  private final Node[] m_nodes;
+
+  /** the original edges, if any **/
+  private final Edge[] m_edges;
+
+  /** maps the original nodes to their index **/
+  private final Map<Node, Integer> m_index;
+
+  private CSRGraph(
+    double[] x, double[] y, int nedges, int[] from, int[] to, double[] weights,
+    boolean directed, Node[] nodes, Edge[] edges
+  ) {
+    int nnodes = x.length;
+    m_x = x;
+    m_y = y;
+    m_nedges = nedges;
+    m_directed = directed;
+    m_nodes = nodes;
+    m_edges = edges;
+
+    //count the arcs leaving each node
+    int narcs = 0;
+    int[] counts = new int[nnodes + 1];
+    for (int e = 0; e < nedges; e++) {
+      if (from[e] == to[e]) continue;
+      counts[from[e]]++;
+      narcs++;
+      if (!directed) {
+        counts[to[e]]++;
+        narcs++;
+      }
+    }
+    m_offsets = prefixSum(counts);
+    m_targets = new int[narcs];
+    m_arcEdges = new int[narcs];
+    m_weights = new double[narcs];
+    int[] next = Arrays.copyOf(m_offsets, nnodes);
+    for (int e = 0; e < nedges; e++) {
+      if (from[e] == to[e]) continue;
+      int arc = next[from[e]]++;
+      m_targets[arc] = to[e];
+      m_arcEdges[arc] = e;
+      m_weights[arc] = weights[e];
+      if (!directed) {
+        arc = next[to[e]]++;
+        m_targets[arc] = from[e];
+        m_arcEdges[arc] = e;
+        m_weights[arc] = weights[e];
+      }
+    }
+
+    if (directed) {
+      //reversed arcs, for backward searches
+      counts = new int[nnodes + 1];
+      for (int e = 0; e < nedges; e++) {
+        if (from[e] != to[e]) counts[to[e]]++;
+      }
+      m_roffsets = prefixSum(counts);
+      m_rsources = new int[narcs];
+      m_rarcEdges = new int[narcs];
+      m_rweights = new double[narcs];
+      next = Arrays.copyOf(m_roffsets, nnodes);
+      for (int e = 0; e < nedges; e++) {
+        if (from[e] == to[e]) continue;
+        int arc = next[to[e]]++;
+        m_rsources[arc] = from[e];
+        m_rarcEdges[arc] = e;
+        m_rweights[arc] = weights[e];
+      }
+    }
+    else {
+      m_roffsets = m_offsets;
+      m_rsources = m_targets;
+      m_rarcEdges = m_arcEdges;
+      m_rweights = m_weights;
+    }
+
+    if (nodes != null) {
+      m_index = new HashMap<Node, Integer>(nnodes * 4 / 3 + 1);
+      for (int i = 0; i < nnodes; i++) {
+        m_index.put(nodes[i], i);
+      }
+    }
+    else m_index = null;
+  }
+
+  private static int[] prefixSum(int[] counts) {
+    //turns the counts into offsets, the last element being the total
+    int sum = 0;
+    for (int i = 0; i < counts.length; i++) {
+      int c = counts[i];
+      counts[i] = sum;
+      sum += c;
+    }
+    return(counts);
+  }
+
+  /**
+   * Builds a compact graph out of an existing graph. The graph is directed if
+   * all of its edges are {@link DirectedEdge}s.
+   *
+   * @param graph The graph, for example the output of a graph generator.
+   * @param weighter Associates weights with edges, weights must be positive
+   * or zero.
+   *
+   * @return The compact graph.
+   */
+  public static CSRGraph build(Graph graph, EdgeWeighter weighter) {
+    Node[] nodes = (Node[])graph.getNodes().toArray(new Node[graph.getNodes().size()]);
+    Edge[] edges = (Edge[])graph.getEdges().toArray(new Edge[graph.getEdges().size()]);
+
+    Map<Node, Integer> index = new HashMap<Node, Integer>(nodes.length * 4 / 3 + 1);
+    double[] x = new double[nodes.length];
+    double[] y = new double[nodes.length];
+    for (int i = 0; i < nodes.length; i++) {
+      index.put(nodes[i], i);
+      Coordinate c = getCoordinate(nodes[i]);
+      x[i] = c != null ? c.x : Double.NaN;
+      y[i] = c != null ? c.y : Double.NaN;
+    }
+
+    boolean directed = edges.length > 0;
+    for (int i = 0; i < edges.length && directed; i++) {
+      directed = edges[i] instanceof DirectedEdge;
+    }
+
+    int[] from = new int[edges.length];
+    int[] to = new int[edges.length];
+    double[] weights = new double[edges.length];
+    for (int i = 0; i < edges.length; i++) {
+      Edge e = edges[i];
+      Node a = directed ? ((DirectedEdge)e).getInNode() : e.getNodeA();
+      Node b = directed ? ((DirectedEdge)e).getOutNode() : e.getNodeB();
+      from[i] = index.get(a);
+      to[i] = index.get(b);
+      weights[i] = checkWeight(weighter.getWeight(e));
+    }
+
+    return(new CSRGraph(x, y, edges.length, from, to, weights, directed, nodes, edges));
+  }
+
+  /**
+   * Returns the coordinate of a node: the one of an {@link XYNode}, or the
+   * {@link Point} or {@link Coordinate} the node holds, null if it has none.
+   */
+  public static Coordinate getCoordinate(Node node) {
+    if (node instanceof XYNode) return(((XYNode)node).getCoordinate());
+    Object obj = node.getObject();
+    if (obj instanceof Point) return(((Point)obj).getCoordinate());
+    if (obj instanceof Coordinate) return((Coordinate)obj);
+    return(null);
+  }
+
+  private static double checkWeight(double weight) {
+    if (!(weight >= 0) || Double.isInfinite(weight)) {
+      throw new IllegalArgumentException("Edge weights must be finite and positive: " + weight);
+    }
+    return(weight);
+  }
+
+  public int getNodeCount() {
+    return(m_x.length);
+  }
+
+  public int getEdgeCount() {
+    return(m_nedges);
+  }
+
+  public int getArcCount() {
+    return(m_targets.length);
+  }
+
+  public boolean isDirected() {
+    return(m_directed);
+  }
+
+  /**
+   * Returns the index of the first arc leaving the node.
+   */
+  public int getFirstArc(int node) {
+    return(m_offsets[node]);
+  }
+
+  /**
+   * Returns the index following the last arc leaving the node.
+   */
+  public int getLastArc(int node) {
+    return(m_offsets[node + 1]);
+  }
+
+  public int getArcTarget(int arc) {
+    return(m_targets[arc]);
+  }
+
+  public double getArcWeight(int arc) {
+    return(m_weights[arc]);
+  }
+
+  public int getArcEdge(int arc) {
+    return(m_arcEdges[arc]);
+  }
+
+  /**
+   * Returns the index of the first arc reaching the node. For undirected
+   * graphs the reversed arcs are the arcs themselves.
+   */
+  public int getFirstReverseArc(int node) {
+    return(m_roffsets[node]);
+  }
+
+  /**
+   * Returns the index following the last arc reaching the node.
+   */
+  public int getLastReverseArc(int node) {
+    return(m_roffsets[node + 1]);
+  }
+
+  public int getReverseArcSource(int arc) {
+    return(m_rsources[arc]);
+  }
+
+  public double getReverseArcWeight(int arc) {
+    return(m_rweights[arc]);
+  }
+
+  public int getReverseArcEdge(int arc) {
+    return(m_rarcEdges[arc]);
+  }
+
+  /**
+   * Returns the x ordinate of the node, or NaN if unknown.
+   */
+  public double getX(int node) {
+    return(m_x[node]);
+  }
+
+  /**
+   * Returns the y ordinate of the node, or NaN if unknown.
+   */
+  public double getY(int node) {
+    return(m_y[node]);
+  }
+
+  /**
+   * Determines if the graph keeps track of the nodes and edges it was built
+   * from.
+   */
+  public boolean hasGraphables() {
+    return(m_nodes != null);
+  }
+
+  /**
+   * Returns the original node, or null if the graph was not built from
+   * another graph.
+   */
+  public Node getNode(int node) {
+    return(m_nodes != null ? m_nodes[node] : null);
+  }
+
+  /**
+   * Returns the original edge, or null if the graph was not built from
+   * another graph.
+   */
+  public Edge getEdge(int edge) {
+    return(m_edges != null ? m_edges[edge] : null);
+  }
+
+  /**
+   * Returns the index of an original node, or -1 if not part of the graph.
+   */
+  public int indexOf(Node node) {
+    if (m_index == null) return(-1);
+    Integer index = m_index.get(node);
+    return(index != null ? index : -1);
+  }
+
+  /**
+   * Builds a {@link CSRGraph} out of node coordinates and weighted edges,
+   * without any {@link Graph} object involved.
+   */
+  public static class Builder {
+
+    private final boolean m_directed;
+
+    private double[] m_x = new double[16];
+
+    private double[] m_y = new double[16];
+
+    private int m_nnodes;
+
+    private int[] m_from = new int[16];
+
+    private int[] m_to = new int[16];
+
+    private double[] m_weights = new double[16];
+
+    private int m_nedges;
+
+    /**
+     * @param directed Whether edges are to be followed only from their first
+     * node to their second.
+     */
+    public Builder(boolean directed) {
+      m_directed = directed;
+    }
+
+    /**
+     * Adds a node.
+     *
+     * @return The index of the node.
+     */
+    public int addNode(double x, double y) {
+      if (m_nnodes == m_x.length) {
+        m_x = Arrays.copyOf(m_x, m_nnodes * 2);
+        m_y = Arrays.copyOf(m_y, m_nnodes * 2);
+      }
+      m_x[m_nnodes] = x;
+      m_y[m_nnodes] = y;
+      return(m_nnodes++);
+    }
+
+    /**
+     * Adds an edge between two nodes already added.
+     *
+     * @return The index of the edge.
+     */
+    public int addEdge(int from, int to, double weight) {
+      if (from < 0 || from >= m_nnodes || to < 0 || to >= m_nnodes) {
+        throw new IllegalArgumentException("Invalid edge nodes: " + from + ", " + to);
+      }
+      if (m_nedges == m_from.length) {
+        m_from = Arrays.copyOf(m_from, m_nedges * 2);
+        m_to = Arrays.copyOf(m_to, m_nedges * 2);
+        m_weights = Arrays.copyOf(m_weights, m_nedges * 2);
+      }
+      m_from[m_nedges] = from;
+      m_to[m_nedges] = to;
+      m_weights[m_nedges] = checkWeight(weight);
+      return(m_nedges++);
+    }
+
+    public CSRGraph build() {
+      return(
+        new CSRGraph(
+          Arrays.copyOf(m_x, m_nnodes), Arrays.copyOf(m_y, m_nnodes), m_nedges,
+          m_from, m_to, m_weights, m_directed, null, null
+        )
+      );
+    }
+  }
+}
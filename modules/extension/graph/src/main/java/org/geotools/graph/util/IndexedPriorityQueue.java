@@ -0,0 +1,179 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.graph.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A binary min heap of integer ids with double priorities, backed by primitive arrays. The
+ * position of each id in the heap is tracked, so that the priority of an id already in the
+ * queue can be decreased in logarithmic time. Ids must be in the range [0, capacity).
+ *
+ * @see PriorityQueue
+ *
+ * @source $URL$
+ */
+public class IndexedPriorityQueue {
+
+  /** the heap, ids ordered by priority **/
+  private int[] m_heap;
+
+  /** position of each id in the heap, -1 if not queued **/
+  private int[] m_positions;
+
+  /** priority of each id **/
+  private double[] m_priorities;
+
+  /** number of ids in the queue **/
+  private int m_size;
+
+  /**
+   * Constructs a new queue.
+   *
+   * @param capacity The number of ids the queue can hold, ids must be lower.
+   */
+  public IndexedPriorityQueue(int capacity) {
+    m_heap = new int[capacity];
+    m_positions = new int[capacity];
+    m_priorities = new double[capacity];
+    Arrays.fill(m_positions, -1);
+  }
+
+  public int size() {
+    return(m_size);
+  }
+
+  public boolean isEmpty() {
+    return(m_size == 0);
+  }
+
+  /**
+   * Determines if the id is in the queue.
+   */
+  public boolean contains(int id) {
+    return(m_positions[id] >= 0);
+  }
+
+  /**
+   * Returns the priority of an id in the queue.
+   */
+  public double getPriority(int id) {
+    if (m_positions[id] < 0) throw new NoSuchElementException("Id " + id + " not queued");
+    return(m_priorities[id]);
+  }
+
+  /**
+   * Adds an id to the queue, or lowers its priority if already queued. Nothing
+   * is done if the id is queued with a lower priority already.
+   *
+   * @return True if the id was added or its priority decreased.
+   */
+  public boolean insertOrDecrease(int id, double priority) {
+    int pos = m_positions[id];
+    if (pos < 0) {
+      m_priorities[id] = priority;
+      m_heap[m_size] = id;
+      m_positions[id] = m_size;
+      siftUp(m_size++);
+      return(true);
+    }
+    if (priority < m_priorities[id]) {
+      m_priorities[id] = priority;
+      siftUp(pos);
+      return(true);
+    }
+    return(false);
+  }
+
+  /**
+   * Returns the id with the lowest priority without removing it.
+   */
+  public int peek() {
+    if (m_size == 0) throw new NoSuchElementException("Queue is empty");
+    return(m_heap[0]);
+  }
+
+  /**
+   * Returns the lowest priority in the queue, or positive infinity if empty.
+   */
+  public double peekPriority() {
+    return(m_size == 0 ? Double.POSITIVE_INFINITY : m_priorities[m_heap[0]]);
+  }
+
+  /**
+   * Removes and returns the id with the lowest priority.
+   */
+  public int extractMin() {
+    if (m_size == 0) throw new NoSuchElementException("Queue is empty");
+    int min = m_heap[0];
+    m_positions[min] = -1;
+    if (--m_size > 0) {
+      int last = m_heap[m_size];
+      m_heap[0] = last;
+      m_positions[last] = 0;
+      siftDown(0);
+    }
+    return(min);
+  }
+
+  /**
+   * Empties the queue, in time proportional to the number of ids queued.
+   */
+  public void clear() {
+    for (int i = 0; i < m_size; i++) {
+      m_positions[m_heap[i]] = -1;
+    }
+    m_size = 0;
+  }
+
+  private void siftUp(int pos) {
+    int id = m_heap[pos];
+    double priority = m_priorities[id];
+    while (pos > 0) {
+      int parentPos = (pos - 1) >>> 1;
+      int parent = m_heap[parentPos];
+      if (m_priorities[parent] <= priority) break;
+      m_heap[pos] = parent;
+      m_positions[parent] = pos;
+      pos = parentPos;
+    }
+    m_heap[pos] = id;
+    m_positions[id] = pos;
+  }
+
+  private void siftDown(int pos) {
+    int id = m_heap[pos];
+    double priority = m_priorities[id];
+    int half = m_size >>> 1;
+    while (pos < half) {
+      int childPos = 2 * pos + 1;
+      int child = m_heap[childPos];
+      int rightPos = childPos + 1;
+      if (rightPos < m_size && m_priorities[m_heap[rightPos]] < m_priorities[child]) {
+        childPos = rightPos;
+        child = m_heap[rightPos];
+      }
+      if (priority <= m_priorities[child]) break;
+      m_heap[pos] = child;
+      m_positions[child] = pos;
+      pos = childPos;
+    }
+    m_heap[pos] = id;
+    m_positions[id] = pos;
+  }
+}
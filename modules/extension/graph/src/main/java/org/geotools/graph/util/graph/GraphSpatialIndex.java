@@ -0,0 +1,232 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.graph.util.graph;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.geotools.graph.structure.Edge;
+import org.geotools.graph.structure.Graph;
+import org.geotools.graph.structure.Node;
+import org.geotools.graph.structure.line.XYNode;
+
+import com.vividsolutions.jts.algorithm.CGAlgorithms;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineSegment;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.index.strtree.ItemBoundable;
+import com.vividsolutions.jts.index.strtree.ItemDistance;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * Finds the nodes and edges of a graph closest to a location, for example to
+ * attach a query point to a network before computing a path. The nodes and
+ * edges are loaded in two STR trees when the index is created, so later
+ * changes to the graph are not reflected.
+ * <p>
+ * Node locations are taken from {@link XYNode}s, or from node objects being
+ * Points or Coordinates, as created by the line graph generators. Edge
+ * geometries are taken from edge objects being Geometries or LineSegments,
+ * the segment between the two nodes of the edge otherwise. Nodes and edges
+ * without a location are not indexed.
+ * </p>
+ *
+ * @see org.geotools.graph.build.line.LineStringGraphGenerator
+ *
+ * @source $URL$
+ */
+public class GraphSpatialIndex {
+
+  /** node index, items are Located nodes **/
+  private final STRtree m_nodes;
+
+  /** edge index, items are Located edges **/
+  private final STRtree m_edges;
+
+  /**
+   * Indexes the nodes and edges of a graph.
+   *
+   * @param graph The graph to index.
+   */
+  public GraphSpatialIndex(Graph graph) {
+    m_nodes = new STRtree();
+    for (Iterator itr = graph.getNodes().iterator(); itr.hasNext();) {
+      Node node = (Node)itr.next();
+      Coordinate c = getCoordinate(node);
+      if (c != null) {
+        Located item = new Located(node, new Coordinate[] {c});
+        m_nodes.insert(item.m_envelope, item);
+      }
+    }
+    m_nodes.build();
+
+    m_edges = new STRtree();
+    for (Iterator itr = graph.getEdges().iterator(); itr.hasNext();) {
+      Edge edge = (Edge)itr.next();
+      Coordinate[] coords = getCoordinates(edge);
+      if (coords != null) {
+        Located item = new Located(edge, coords);
+        m_edges.insert(item.m_envelope, item);
+      }
+    }
+    m_edges.build();
+  }
+
+  /**
+   * Returns the location of a node, or null if unknown.
+   */
+  public static Coordinate getCoordinate(Node node) {
+    if (node instanceof XYNode) return(((XYNode)node).getCoordinate());
+    Object obj = node.getObject();
+    if (obj instanceof Point) return(((Point)obj).getCoordinate());
+    if (obj instanceof Coordinate) return((Coordinate)obj);
+    return(null);
+  }
+
+  private static Coordinate[] getCoordinates(Edge edge) {
+    Object obj = edge.getObject();
+    if (obj instanceof Geometry) {
+      Coordinate[] coords = ((Geometry)obj).getCoordinates();
+      return(coords.length > 0 ? coords : null);
+    }
+    if (obj instanceof LineSegment) {
+      LineSegment segment = (LineSegment)obj;
+      return(new Coordinate[] {segment.p0, segment.p1});
+    }
+    Coordinate a = getCoordinate(edge.getNodeA());
+    Coordinate b = getCoordinate(edge.getNodeB());
+    return(a != null && b != null ? new Coordinate[] {a, b} : null);
+  }
+
+  /**
+   * Returns the node closest to a location, or null if the graph has no node.
+   */
+  public Node getNearestNode(Coordinate c) {
+    Located item = nearest(m_nodes, c);
+    return(item != null ? (Node)item.m_graphable : null);
+  }
+
+  /**
+   * Returns the node closest to a location within a distance, or null if
+   * there is none.
+   */
+  public Node getNearestNode(Coordinate c, double maxDistance) {
+    Located item = nearest(m_nodes, c, maxDistance);
+    return(item != null ? (Node)item.m_graphable : null);
+  }
+
+  /**
+   * Returns the edge closest to a location, or null if the graph has no edge.
+   */
+  public Edge getNearestEdge(Coordinate c) {
+    Located item = nearest(m_edges, c);
+    return(item != null ? (Edge)item.m_graphable : null);
+  }
+
+  /**
+   * Returns the edge closest to a location within a distance, or null if
+   * there is none.
+   */
+  public Edge getNearestEdge(Coordinate c, double maxDistance) {
+    Located item = nearest(m_edges, c, maxDistance);
+    return(item != null ? (Edge)item.m_graphable : null);
+  }
+
+  /**
+   * Returns the point of an edge closest to a location, where the location
+   * would be attached to the edge.
+   */
+  public static Coordinate getClosestPoint(Edge edge, Coordinate c) {
+    Coordinate[] coords = getCoordinates(edge);
+    if (coords == null) return(null);
+    if (coords.length == 1) return(new Coordinate(coords[0]));
+
+    Coordinate closest = null;
+    double min = Double.POSITIVE_INFINITY;
+    LineSegment segment = new LineSegment();
+    for (int i = 1; i < coords.length; i++) {
+      segment.setCoordinates(coords[i - 1], coords[i]);
+      Coordinate p = segment.closestPoint(c);
+      double d = p.distance(c);
+      if (d < min) {
+        min = d;
+        closest = p;
+      }
+    }
+    return(closest);
+  }
+
+  private static Located nearest(STRtree tree, Coordinate c) {
+    if (tree.isEmpty()) return(null);
+    Located query = new Located(null, new Coordinate[] {c});
+    return((Located)tree.nearestNeighbour(query.m_envelope, query, DISTANCE));
+  }
+
+  private static Located nearest(STRtree tree, Coordinate c, double maxDistance) {
+    Envelope search = new Envelope(c);
+    search.expandBy(maxDistance);
+
+    Located closest = null;
+    double min = Double.POSITIVE_INFINITY;
+    for (Iterator itr = ((List)tree.query(search)).iterator(); itr.hasNext();) {
+      Located item = (Located)itr.next();
+      double d = item.distance(c);
+      if (d <= maxDistance && d < min) {
+        closest = item;
+        min = d;
+      }
+    }
+    return(closest);
+  }
+
+  /** distance between a query location and an indexed item **/
+  private static final ItemDistance DISTANCE = new ItemDistance() {
+    public double distance(ItemBoundable item1, ItemBoundable item2) {
+      Located l1 = (Located)item1.getItem();
+      Located l2 = (Located)item2.getItem();
+      //one of them is the query location, without graphable
+      return(l1.m_graphable == null ? l2.distance(l1.m_coords[0]) : l1.distance(l2.m_coords[0]));
+    }
+  };
+
+  /**
+   * A node or an edge with its coordinates.
+   */
+  private static class Located {
+    final Object m_graphable;
+    final Coordinate[] m_coords;
+    final Envelope m_envelope;
+
+    Located(Object graphable, Coordinate[] coords) {
+      m_graphable = graphable;
+      m_coords = coords;
+      m_envelope = new Envelope();
+      for (int i = 0; i < coords.length; i++) m_envelope.expandToInclude(coords[i]);
+    }
+
+    double distance(Coordinate c) {
+      if (m_coords.length == 1) return(m_coords[0].distance(c));
+      double min = Double.POSITIVE_INFINITY;
+      for (int i = 1; i < m_coords.length && min > 0; i++) {
+        min = Math.min(min, CGAlgorithms.distancePointLine(c, m_coords[i - 1], m_coords[i]));
+      }
+      return(min);
+    }
+  }
+}
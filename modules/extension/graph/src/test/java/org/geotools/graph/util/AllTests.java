@@ -28,7 +28,10 @@ public class AllTests extends TestSuite {
     super();
     addTest(new TestSuite(CycleDetectorTest.class));
     addTest(new TestSuite(DijkstraShortestPathFinderTest.class));
+    addTest(new TestSuite(CSRShortestPathFinderTest.class));
+    addTest(new TestSuite(ContractionHierarchyTest.class));
     addTest(new TestSuite(GraphPartitionerTest.class));
     addTest(new TestSuite(GraphFuserTest.class));
+    addTest(new TestSuite(GraphSpatialIndexTest.class));
   } 	
 }
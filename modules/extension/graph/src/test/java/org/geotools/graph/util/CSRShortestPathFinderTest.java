@@ -0,0 +1,337 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.graph.util;
+
+import java.util.Iterator;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.geotools.graph.GraphTestUtil;
+import org.geotools.graph.build.GraphBuilder;
+import org.geotools.graph.build.basic.BasicGraphBuilder;
+import org.geotools.graph.build.line.LineStringGraphGenerator;
+import org.geotools.graph.path.CSRShortestPathFinder;
+import org.geotools.graph.path.DijkstraShortestPathFinder;
+import org.geotools.graph.path.Path;
+import org.geotools.graph.structure.Edge;
+import org.geotools.graph.structure.Graph;
+import org.geotools.graph.structure.Node;
+import org.geotools.graph.structure.csr.CSRGraph;
+import org.geotools.graph.traverse.standard.DijkstraIterator;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ *
+ *
+ * @source $URL$
+ */
+public class CSRShortestPathFinderTest extends TestCase {
+
+  private GraphBuilder m_builder;
+
+  public CSRShortestPathFinderTest(String name) {
+    super(name);
+  }
+
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    m_builder = new BasicGraphBuilder();
+  }
+
+  /**
+   * Create a graph with no bifurcations and calculate path from beginning
+   * to end. <BR>
+   * <BR>
+   * Expected: 1. Path should contain every node in graph in order, from the
+   *  end to the beginning, with every search.
+   */
+  public void test_0() {
+    int nnodes = 100;
+    Node[] ends = GraphTestUtil.buildNoBifurcations(m_builder, nnodes);
+    CSRGraph csr = CSRGraph.build(m_builder.getGraph(), unitWeights());
+    assertFalse(csr.isDirected());
+    assertEquals(nnodes, csr.getNodeCount());
+    assertEquals(2 * (nnodes - 1), csr.getArcCount());
+
+    CSRShortestPathFinder finder = new CSRShortestPathFinder(csr);
+    int source = csr.indexOf(ends[0]);
+    int target = csr.indexOf(ends[1]);
+
+    assertEquals(99d, finder.dijkstra(source, target), 0d);
+    assertIds(finder.getPath(), nnodes);
+    assertEquals(99d, finder.astar(source, target), 0d);
+    assertIds(finder.getPath(), nnodes);
+    assertEquals(99d, finder.bidirectional(source, target), 0d);
+    assertIds(finder.getPath(), nnodes);
+
+    int[] nodes = finder.getNodePath();
+    assertEquals(nnodes, nodes.length);
+    assertEquals(source, nodes[0]);
+    assertEquals(target, nodes[nnodes - 1]);
+  }
+
+  /**
+   * Create a circular graph and calculate a path from beginning to end. <BR>
+   * <BR>
+   * Expected: 1. Path should just contain end nodes.
+   */
+  public void test_1() {
+    Node[] ends = GraphTestUtil.buildCircular(m_builder, 100);
+    CSRGraph csr = CSRGraph.build(m_builder.getGraph(), unitWeights());
+    CSRShortestPathFinder finder = new CSRShortestPathFinder(csr);
+
+    assertEquals(1d, finder.bidirectional(csr.indexOf(ends[0]), csr.indexOf(ends[1])), 0d);
+    Path p = finder.getPath();
+    assertEquals(2, p.size());
+    assertSame(ends[1], p.get(0));
+    assertSame(ends[0], p.get(1));
+  }
+
+  /**
+   * Create a balanced binary tree and calculate the paths from the root to
+   * every node. <BR>
+   * <BR>
+   * Expected: 1. Costs and paths same as the ones of the
+   *  DijkstraShortestPathFinder.
+   */
+  public void test_2() {
+    Object[] obj = GraphTestUtil.buildPerfectBinaryTree(m_builder, 4);
+    Node root = (Node)obj[0];
+    Graph graph = m_builder.getGraph();
+
+    DijkstraShortestPathFinder pfinder = new DijkstraShortestPathFinder(graph, root, unitWeights());
+    pfinder.calculate();
+
+    CSRGraph csr = CSRGraph.build(graph, unitWeights());
+    CSRShortestPathFinder finder = new CSRShortestPathFinder(csr);
+    finder.dijkstra(csr.indexOf(root), -1);
+    assertEquals(csr.getNodeCount(), finder.getSettledCount());
+
+    for (Iterator itr = graph.getNodes().iterator(); itr.hasNext();) {
+      Node node = (Node)itr.next();
+      assertEquals(pfinder.getCost(node), finder.getCost(csr.indexOf(node)), 0d);
+      int[] nodes = finder.getNodePath(csr.indexOf(node));
+      Path p = pfinder.getPath(node);
+      assertEquals(p.size(), nodes.length);
+      for (int i = 0; i < nodes.length; i++) {
+        assertSame(p.get(nodes.length - 1 - i), csr.getNode(nodes[i]));
+      }
+    }
+  }
+
+  /**
+   * Create a grid of line strings with random lengths and calculate paths
+   * between random nodes. <BR>
+   * <BR>
+   * Expected: 1. All searches find the same costs as the
+   *  DijkstraShortestPathFinder. 2. Paths are valid and as long as their cost.
+   */
+  public void test_3() {
+    LineStringGraphGenerator gen = new LineStringGraphGenerator();
+    GeometryFactory gf = new GeometryFactory();
+    Random random = new Random(1);
+    int n = 20;
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        if (i < n - 1) gen.add(line(gf, random, i, j, i + 1, j));
+        if (j < n - 1) gen.add(line(gf, random, i, j, i, j + 1));
+      }
+    }
+    Graph graph = gen.getGraph();
+    DijkstraIterator.EdgeWeighter weighter = new DijkstraIterator.EdgeWeighter() {
+      public double getWeight(Edge e) {
+        return(((LineString)e.getObject()).getLength());
+      }
+    };
+
+    CSRGraph csr = CSRGraph.build(graph, weighter);
+    assertEquals(n * n, csr.getNodeCount());
+    assertEquals(2 * n * (n - 1), csr.getEdgeCount());
+    CSRShortestPathFinder finder = new CSRShortestPathFinder(csr);
+
+    Node[] nodes = (Node[])graph.getNodes().toArray(new Node[0]);
+    for (int k = 0; k < 20; k++) {
+      Node source = nodes[random.nextInt(nodes.length)];
+      Node target = nodes[random.nextInt(nodes.length)];
+
+      DijkstraShortestPathFinder pfinder = new DijkstraShortestPathFinder(graph, source, weighter);
+      pfinder.calculate();
+      double expected = pfinder.getCost(target);
+
+      int s = csr.indexOf(source);
+      int t = csr.indexOf(target);
+      assertEquals(expected, finder.dijkstra(s, t), 1e-9);
+      assertPath(finder, weighter, source, target, expected);
+      int settled = finder.getSettledCount();
+
+      assertEquals(expected, finder.astar(s, t), 1e-9);
+      assertPath(finder, weighter, source, target, expected);
+      assertTrue(finder.getSettledCount() <= settled);
+
+      assertEquals(expected, finder.bidirectional(s, t), 1e-9);
+      assertPath(finder, weighter, source, target, expected);
+    }
+  }
+
+  /**
+   * Create a directed graph and calculate paths along and against the edges. <BR>
+   * <BR>
+   * Expected: 1. Edges are only followed in their direction.
+   */
+  public void test_4() {
+    CSRGraph.Builder builder = new CSRGraph.Builder(true);
+    int a = builder.addNode(0, 0);
+    int b = builder.addNode(1, 0);
+    int c = builder.addNode(2, 0);
+    int d = builder.addNode(1, 1);
+    builder.addEdge(a, b, 1);
+    builder.addEdge(b, c, 1);
+    builder.addEdge(c, d, 5);
+    builder.addEdge(d, a, 1);
+    CSRGraph csr = builder.build();
+    assertTrue(csr.isDirected());
+    assertEquals(4, csr.getArcCount());
+    assertFalse(csr.hasGraphables());
+
+    CSRShortestPathFinder finder = new CSRShortestPathFinder(csr);
+    assertEquals(7d, finder.dijkstra(a, d), 0d);
+    assertEquals(7d, finder.astar(a, d), 0d);
+    assertEquals(7d, finder.bidirectional(a, d), 0d);
+    assertNodes(new int[] {a, b, c, d}, finder.getNodePath());
+    assertEquals(1d, finder.bidirectional(d, a), 0d);
+    assertNodes(new int[] {d, a}, finder.getNodePath());
+    assertEquals(0d, finder.bidirectional(c, c), 0d);
+    assertNodes(new int[] {c}, finder.getNodePath());
+
+    try {
+      finder.getPath();
+      fail("no graph nodes to build the path from");
+    }
+    catch (IllegalStateException e) {}
+  }
+
+  /**
+   * Create a graph with two components. <BR>
+   * <BR>
+   * Expected: 1. No path between nodes of different components.
+   */
+  public void test_5() {
+    CSRGraph.Builder builder = new CSRGraph.Builder(false);
+    for (int i = 0; i < 4; i++) builder.addNode(i, 0);
+    builder.addEdge(0, 1, 1);
+    builder.addEdge(2, 3, 1);
+    CSRShortestPathFinder finder = new CSRShortestPathFinder(builder.build());
+
+    assertEquals(Double.POSITIVE_INFINITY, finder.dijkstra(0, 3), 0d);
+    assertNull(finder.getNodePath());
+    assertEquals(Double.POSITIVE_INFINITY, finder.astar(0, 3), 0d);
+    assertNull(finder.getNodePath());
+    assertEquals(Double.POSITIVE_INFINITY, finder.bidirectional(0, 3), 0d);
+    assertNull(finder.getNodePath());
+    assertEquals(1d, finder.bidirectional(1, 0), 0d);
+
+    try {
+      builder.addEdge(0, 1, -1);
+      fail("negative weights not allowed");
+    }
+    catch (IllegalArgumentException e) {}
+  }
+
+  /**
+   * Queue ids with random priorities. <BR>
+   * <BR>
+   * Expected: 1. Ids are extracted by increasing priority.
+   */
+  public void test_6() {
+    Random random = new Random(2);
+    IndexedPriorityQueue queue = new IndexedPriorityQueue(1000);
+    for (int i = 0; i < 1000; i++) {
+      queue.insertOrDecrease(i, random.nextDouble());
+    }
+    for (int i = 0; i < 1000; i += 2) {
+      assertTrue(queue.insertOrDecrease(i, queue.getPriority(i) / 2));
+      assertFalse(queue.insertOrDecrease(i, 1d));
+    }
+    double last = -1;
+    while (!queue.isEmpty()) {
+      double priority = queue.peekPriority();
+      int id = queue.extractMin();
+      assertFalse(queue.contains(id));
+      assertTrue(priority >= last);
+      last = priority;
+    }
+  }
+
+  private LineString line(GeometryFactory gf, Random random, int i0, int j0, int i1, int j1) {
+    //bend each line a bit so that lengths vary
+    double mx = (i0 + i1) / 2d + (j1 - j0) * random.nextDouble() * 0.4;
+    double my = (j0 + j1) / 2d + (i1 - i0) * random.nextDouble() * 0.4;
+    return(
+      gf.createLineString(
+        new Coordinate[] {
+          new Coordinate(i0, j0), new Coordinate(mx, my), new Coordinate(i1, j1)
+        }
+      )
+    );
+  }
+
+  private void assertPath(
+    CSRShortestPathFinder finder, DijkstraIterator.EdgeWeighter weighter,
+    Node source, Node target, double cost
+  ) {
+    Path p = finder.getPath();
+    assertTrue(p.isValid());
+    assertSame(target, p.getFirst());
+    assertSame(source, p.getLast());
+    double length = 0;
+    for (Iterator itr = p.getEdges().iterator(); itr.hasNext();) {
+      length += weighter.getWeight((Edge)itr.next());
+    }
+    assertEquals(cost, length, 1e-9);
+  }
+
+  private void assertIds(Path p, int nnodes) {
+    int count = nnodes - 1;
+    for (Iterator itr = p.iterator(); itr.hasNext();) {
+      Node n = (Node)itr.next();
+      assertEquals(count--, n.getID());
+    }
+    assertEquals(-1, count);
+  }
+
+  private void assertNodes(int[] expected, int[] actual) {
+    assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i], actual[i]);
+    }
+  }
+
+  private DijkstraIterator.EdgeWeighter unitWeights() {
+    return(
+      new DijkstraIterator.EdgeWeighter() {
+        public double getWeight(Edge e) {
+          return 1;
+        }
+      }
+    );
+  }
+}
@@ -0,0 +1,337 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.graph.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.geotools.graph.GraphTestUtil;
+import org.geotools.graph.build.GraphBuilder;
+import org.geotools.graph.build.basic.BasicGraphBuilder;
+import org.geotools.graph.build.line.LineStringGraphGenerator;
+import org.geotools.graph.build.line.OptLineGraphGenerator;
+import org.geotools.graph.path.CSRShortestPathFinder;
+import org.geotools.graph.path.ContractionHierarchy;
+import org.geotools.graph.path.ContractionHierarchyShortestPathFinder;
+import org.geotools.graph.path.Path;
+import org.geotools.graph.structure.Edge;
+import org.geotools.graph.structure.Graph;
+import org.geotools.graph.structure.Node;
+import org.geotools.graph.structure.csr.CSRGraph;
+import org.geotools.graph.structure.line.XYNode;
+import org.geotools.graph.traverse.standard.DijkstraIterator;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineSegment;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ *
+ *
+ * @source $URL$
+ */
+public class ContractionHierarchyTest extends TestCase {
+
+  private GraphBuilder m_builder;
+
+  public ContractionHierarchyTest(String name) {
+    super(name);
+  }
+
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    m_builder = new BasicGraphBuilder();
+  }
+
+  /**
+   * Create a graph with no bifurcations and calculate path from beginning
+   * to end. <BR>
+   * <BR>
+   * Expected: 1. Path should contain every node in graph in order, shortcuts
+   *  expanded.
+   */
+  public void test_0() {
+    int nnodes = 100;
+    Node[] ends = GraphTestUtil.buildNoBifurcations(m_builder, nnodes);
+    Graph graph = m_builder.getGraph();
+    ContractionHierarchy ch = ContractionHierarchy.build(graph, unitWeights());
+    assertTrue(ch.getShortcutCount() > 0);
+
+    ContractionHierarchyShortestPathFinder finder =
+      new ContractionHierarchyShortestPathFinder(ch, graph);
+    Path p = finder.getPath(ends[0], ends[1]);
+    assertEquals(99d, finder.getCost(), 0d);
+    assertEquals(nnodes, p.size());
+    int count = nnodes - 1;
+    for (Iterator itr = p.iterator(); itr.hasNext();) {
+      assertEquals(count--, ((Node)itr.next()).getID());
+    }
+    assertTrue(finder.getSettledCount() < nnodes);
+
+    p = finder.getPath(ends[0], ends[0]);
+    assertEquals(1, p.size());
+  }
+
+  /**
+   * Create a grid of line strings with random lengths and calculate paths
+   * between random nodes. <BR>
+   * <BR>
+   * Expected: 1. Same costs as a plain Dijkstra search. 2. Paths are valid and
+   *  as long as their cost. 3. Same results once written and read back.
+   */
+  public void test_1() throws Exception {
+    LineStringGraphGenerator gen = new LineStringGraphGenerator();
+    GeometryFactory gf = new GeometryFactory();
+    Random random = new Random(1);
+    int n = 20;
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        if (i < n - 1) gen.add(line(gf, random, i, j, i + 1, j));
+        if (j < n - 1) gen.add(line(gf, random, i, j, i, j + 1));
+      }
+    }
+    Graph graph = gen.getGraph();
+    DijkstraIterator.EdgeWeighter weighter = new DijkstraIterator.EdgeWeighter() {
+      public double getWeight(Edge e) {
+        return(((LineString)e.getObject()).getLength());
+      }
+    };
+
+    CSRGraph csr = CSRGraph.build(graph, weighter);
+    ContractionHierarchy ch = ContractionHierarchy.build(csr);
+    assertEquals(n * n, ch.getNodeCount());
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ch.write(bytes);
+    ContractionHierarchy read = ContractionHierarchy.read(new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals(ch.getShortcutCount(), read.getShortcutCount());
+
+    CSRShortestPathFinder dijkstra = new CSRShortestPathFinder(csr);
+    ContractionHierarchyShortestPathFinder finder =
+      new ContractionHierarchyShortestPathFinder(ch, graph);
+    ContractionHierarchyShortestPathFinder readFinder =
+      new ContractionHierarchyShortestPathFinder(read, graph);
+
+    Node[] nodes = (Node[])graph.getNodes().toArray(new Node[0]);
+    for (int k = 0; k < 50; k++) {
+      Node source = nodes[random.nextInt(nodes.length)];
+      Node target = nodes[random.nextInt(nodes.length)];
+      double expected = dijkstra.dijkstra(csr.indexOf(source), csr.indexOf(target));
+
+      Path p = finder.getPath(source, target);
+      assertEquals(expected, finder.getCost(), 1e-9);
+      assertTrue(p.isValid());
+      assertSame(target, p.getFirst());
+      assertSame(source, p.getLast());
+      double length = 0;
+      for (Iterator itr = p.getEdges().iterator(); itr.hasNext();) {
+        length += weighter.getWeight((Edge)itr.next());
+      }
+      assertEquals(expected, length, 1e-9);
+
+      Path readPath = readFinder.getPath(source, target);
+      assertEquals(expected, readFinder.getCost(), 1e-9);
+      assertEquals(p, readPath);
+    }
+  }
+
+  /**
+   * Create random directed graphs and calculate paths between all nodes. <BR>
+   * <BR>
+   * Expected: 1. Same costs as a plain Dijkstra search, including unreachable
+   *  nodes. 2. Paths follow the edges in their direction.
+   */
+  public void test_2() {
+    Random random = new Random(3);
+    for (int g = 0; g < 5; g++) {
+      CSRGraph.Builder builder = new CSRGraph.Builder(true);
+      int n = 40;
+      for (int i = 0; i < n; i++) builder.addNode(random.nextDouble(), random.nextDouble());
+      for (int i = 0; i < 80; i++) {
+        builder.addEdge(random.nextInt(n), random.nextInt(n), random.nextInt(10));
+      }
+      CSRGraph csr = builder.build();
+      ContractionHierarchy ch = ContractionHierarchy.build(csr);
+      CSRShortestPathFinder dijkstra = new CSRShortestPathFinder(csr);
+      ContractionHierarchyShortestPathFinder finder = new ContractionHierarchyShortestPathFinder(ch);
+
+      for (int s = 0; s < n; s++) {
+        for (int t = 0; t < n; t++) {
+          double expected = dijkstra.dijkstra(s, t);
+          assertEquals(expected, finder.calculate(s, t), 1e-9);
+          int[] path = finder.getNodePath();
+          if (expected == Double.POSITIVE_INFINITY) {
+            assertNull(path);
+            continue;
+          }
+          assertEquals(s, path[0]);
+          assertEquals(t, path[path.length - 1]);
+          double cost = 0;
+          for (int i = 1; i < path.length; i++) cost += weight(csr, path[i - 1], path[i]);
+          assertEquals(expected, cost, 1e-9);
+        }
+      }
+    }
+  }
+
+  /**
+   * Create an optimized line graph, whose nodes have no id, and rebuild it
+   * adding the lines in another order. <BR>
+   * <BR>
+   * Expected: 1. Nodes matched by coordinate, not position. 2. Same costs as
+   *  a plain Dijkstra search on the rebuilt graph, before and after writing
+   *  the hierarchy and reading it back.
+   */
+  public void test_3() throws Exception {
+    int n = 10;
+    List lines = new ArrayList();
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        if (i < n - 1) lines.add(new LineSegment(i, j, i + 1, j));
+        if (j < n - 1) lines.add(new LineSegment(i, j, i, j + 1 + i % 3));
+      }
+    }
+    Graph graph = optLineGraph(lines);
+    ContractionHierarchy ch = ContractionHierarchy.build(graph, lengths());
+    assertFalse(ch.hasIDs());
+    assertTrue(ch.hasCoordinates());
+
+    Collections.shuffle(lines, new Random(1));
+    Graph rebuilt = optLineGraph(lines);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ch.write(bytes);
+    ContractionHierarchy read = ContractionHierarchy.read(new ByteArrayInputStream(bytes.toByteArray()));
+    assertTrue(read.hasCoordinates());
+
+    CSRGraph csr = CSRGraph.build(rebuilt, lengths());
+    CSRShortestPathFinder dijkstra = new CSRShortestPathFinder(csr);
+    ContractionHierarchyShortestPathFinder finder =
+      new ContractionHierarchyShortestPathFinder(read, rebuilt);
+
+    Node[] nodes = (Node[])rebuilt.getNodes().toArray(new Node[0]);
+    assertEquals(nodes.length, ch.getNodeCount());
+    Random random = new Random(2);
+    for (int k = 0; k < 50; k++) {
+      Node source = nodes[random.nextInt(nodes.length)];
+      Node target = nodes[random.nextInt(nodes.length)];
+      double expected = dijkstra.dijkstra(csr.indexOf(source), csr.indexOf(target));
+      Path p = finder.getPath(source, target);
+      assertEquals(expected, finder.getCost(), 1e-9);
+      assertTrue(p.isValid());
+      assertSame(target, p.getFirst());
+      assertSame(source, p.getLast());
+    }
+  }
+
+  /**
+   * Create a graph whose nodes share the same id and have no coordinate,
+   * and a graph whose nodes do not match the hierarchy ones. <BR>
+   * <BR>
+   * Expected: 1. The hierarchy can't be matched to a graph. 2. The other
+   *  graph is rejected.
+   */
+  public void test_4() {
+    Node[] ends = GraphTestUtil.buildNoBifurcations(m_builder, 10);
+    Graph graph = m_builder.getGraph();
+    for (Iterator itr = graph.getNodes().iterator(); itr.hasNext();) {
+      ((Node)itr.next()).setID(7);
+    }
+    ContractionHierarchy ch = ContractionHierarchy.build(graph, unitWeights());
+    assertFalse(ch.hasIDs());
+    assertFalse(ch.hasCoordinates());
+    assertEquals(-1, ch.indexOf(ends[0]));
+    try {
+      new ContractionHierarchyShortestPathFinder(ch, graph);
+      fail("Nodes can only be matched by position");
+    }
+    catch (IllegalArgumentException e) {
+    }
+
+    List lines = new ArrayList();
+    for (int i = 0; i < 5; i++) lines.add(new LineSegment(i, 0, i + 1, 0));
+    ch = ContractionHierarchy.build(optLineGraph(lines), lengths());
+    lines.clear();
+    for (int i = 0; i < 5; i++) lines.add(new LineSegment(i, 1, i + 1, 1));
+    try {
+      new ContractionHierarchyShortestPathFinder(ch, optLineGraph(lines));
+      fail("Graph does not match the hierarchy");
+    }
+    catch (IllegalArgumentException e) {
+    }
+  }
+
+  private double weight(CSRGraph csr, int a, int b) {
+    double weight = Double.POSITIVE_INFINITY;
+    for (int arc = csr.getFirstArc(a); arc < csr.getLastArc(a); arc++) {
+      if (csr.getArcTarget(arc) == b) weight = Math.min(weight, csr.getArcWeight(arc));
+    }
+    return(weight);
+  }
+
+  private LineString line(GeometryFactory gf, Random random, int i0, int j0, int i1, int j1) {
+    //bend each line a bit so that lengths vary
+    double mx = (i0 + i1) / 2d + (j1 - j0) * random.nextDouble() * 0.4;
+    double my = (j0 + j1) / 2d + (i1 - i0) * random.nextDouble() * 0.4;
+    return(
+      gf.createLineString(
+        new Coordinate[] {
+          new Coordinate(i0, j0), new Coordinate(mx, my), new Coordinate(i1, j1)
+        }
+      )
+    );
+  }
+
+  private Graph optLineGraph(List lines) {
+    OptLineGraphGenerator gen = new OptLineGraphGenerator();
+    for (Iterator itr = lines.iterator(); itr.hasNext();) gen.add(itr.next());
+    gen.generate();
+    return(gen.getGraph());
+  }
+
+  private DijkstraIterator.EdgeWeighter lengths() {
+    return(
+      new DijkstraIterator.EdgeWeighter() {
+        public double getWeight(Edge e) {
+          return(
+            ((XYNode)e.getNodeA()).getCoordinate().distance(
+              ((XYNode)e.getNodeB()).getCoordinate()
+            )
+          );
+        }
+      }
+    );
+  }
+
+  private DijkstraIterator.EdgeWeighter unitWeights() {
+    return(
+      new DijkstraIterator.EdgeWeighter() {
+        public double getWeight(Edge e) {
+          return 1;
+        }
+      }
+    );
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.graph.util;
+
+import java.util.Iterator;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.geotools.graph.build.basic.BasicGraphBuilder;
+import org.geotools.graph.build.line.BasicLineGraphGenerator;
+import org.geotools.graph.build.line.LineStringGraphGenerator;
+import org.geotools.graph.structure.Edge;
+import org.geotools.graph.structure.Graph;
+import org.geotools.graph.structure.Node;
+import org.geotools.graph.util.graph.GraphSpatialIndex;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineSegment;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ *
+ *
+ * @source $URL$
+ */
+public class GraphSpatialIndexTest extends TestCase {
+
+  private GeometryFactory m_gf = new GeometryFactory();
+
+  public GraphSpatialIndexTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Build a grid out of line strings whose end points are slightly moved,
+   * with a snapping tolerance. <BR>
+   * <BR>
+   * Expected: 1. End points snapped to a single node per grid point. 2. Nearest
+   *  node and edge same as found with a linear scan.
+   */
+  public void test_0() {
+    int n = 30;
+    Random random = new Random(1);
+    LineStringGraphGenerator gen = new LineStringGraphGenerator(0.1);
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        if (i < n - 1) gen.add(line(noisy(random, i, j), noisy(random, i + 1, j)));
+        if (j < n - 1) gen.add(line(noisy(random, i, j), noisy(random, i, j + 1)));
+      }
+    }
+    Graph graph = gen.getGraph();
+    assertEquals(n * n, graph.getNodes().size());
+    assertEquals(2 * n * (n - 1), graph.getEdges().size());
+
+    GraphSpatialIndex index = new GraphSpatialIndex(graph);
+    for (int k = 0; k < 100; k++) {
+      Coordinate c = new Coordinate(random.nextDouble() * n, random.nextDouble() * n);
+
+      Node node = index.getNearestNode(c);
+      assertEquals(closestNodeDistance(graph, c), GraphSpatialIndex.getCoordinate(node).distance(c), 0d);
+
+      Edge edge = index.getNearestEdge(c);
+      double expected = closestEdgeDistance(graph, c);
+      assertEquals(expected, ((LineString)edge.getObject()).distance(m_gf.createPoint(c)), 1e-12);
+      assertEquals(expected, GraphSpatialIndex.getClosestPoint(edge, c).distance(c), 1e-12);
+
+      //bounded lookups
+      Node bounded = index.getNearestNode(c, 0.3);
+      assertTrue(bounded == null ? GraphSpatialIndex.getCoordinate(node).distance(c) > 0.3 : bounded == node);
+      assertNotNull(index.getNearestEdge(c, expected + 1e-9));
+      if (expected > 1e-9) assertNull(index.getNearestEdge(c, expected / 2));
+    }
+  }
+
+  /**
+   * Index a graph of line segments. <BR>
+   * <BR>
+   * Expected: 1. Segments indexed from their edge objects, nodes from their
+   *  coordinates.
+   */
+  public void test_1() {
+    BasicLineGraphGenerator gen = new BasicLineGraphGenerator();
+    gen.add(new LineSegment(new Coordinate(0, 0), new Coordinate(10, 0)));
+    gen.add(new LineSegment(new Coordinate(10, 0), new Coordinate(10, 10)));
+
+    GraphSpatialIndex index = new GraphSpatialIndex(gen.getGraph());
+    assertSame(gen.getNode(new Coordinate(10, 0)), index.getNearestNode(new Coordinate(8, 1)));
+    assertSame(
+      gen.getEdge(new Coordinate(10, 0), new Coordinate(10, 10)),
+      index.getNearestEdge(new Coordinate(9, 5))
+    );
+    assertEquals(new Coordinate(5, 0), GraphSpatialIndex.getClosestPoint(
+      index.getNearestEdge(new Coordinate(5, -2)), new Coordinate(5, -2))
+    );
+
+    GraphSpatialIndex empty = new GraphSpatialIndex(new BasicGraphBuilder().getGraph());
+    assertNull(empty.getNearestNode(new Coordinate(0, 0)));
+    assertNull(empty.getNearestEdge(new Coordinate(0, 0), 10));
+  }
+
+  private Coordinate noisy(Random random, int i, int j) {
+    return(
+      new Coordinate(i + (random.nextDouble() - 0.5) * 0.04, j + (random.nextDouble() - 0.5) * 0.04)
+    );
+  }
+
+  private LineString line(Coordinate c1, Coordinate c2) {
+    return(m_gf.createLineString(new Coordinate[] {c1, c2}));
+  }
+
+  private double closestNodeDistance(Graph graph, Coordinate c) {
+    double min = Double.POSITIVE_INFINITY;
+    for (Iterator itr = graph.getNodes().iterator(); itr.hasNext();) {
+      min = Math.min(min, GraphSpatialIndex.getCoordinate((Node)itr.next()).distance(c));
+    }
+    return(min);
+  }
+
+  private double closestEdgeDistance(Graph graph, Coordinate c) {
+    double min = Double.POSITIVE_INFINITY;
+    for (Iterator itr = graph.getEdges().iterator(); itr.hasNext();) {
+      LineString line = (LineString)((Edge)itr.next()).getObject();
+      min = Math.min(min, line.distance(m_gf.createPoint(c)));
+    }
+    return(min);
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.coverage.grid.io.footprint;
+
+import java.awt.geom.AffineTransform;
+
+import org.geotools.util.SizeBoundedLRUCache;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * A LRU cache of the footprint geometries prepared by {@link MultiLevelROIGeometry}, bounded by
+ * an estimate of their size in bytes and shared by all the footprinted mosaics.
+ * <p>
+ * Granule catalogs usually build a new {@link MultiLevelROIGeometry} for each request, hence its
+ * own cache of ROIs is lost, and the footprint inset, rescaling and simplification are performed
+ * again each time. This cache keeps, for each footprint, the inset footprint and the footprint
+ * rescaled and simplified for each overview level and output resolution (that is, the scale and
+ * shear of the raster space transform), so that a request only needs to translate a copy of the
+ * cached geometry. Footprints are compared by value, so a footprint that changed in the index is
+ * simply cached again.
+ * </p>
+ * <p>
+ * The max size is set by the {@value #CACHE_SIZE_KEY} system property, in bytes, or by
+ * {@link #setMaxSize(long)}, and defaults to 16MB. A max size of 0 disables the cache.
+ * </p>
+ */
+public final class FootprintROICache {
+
+    /** System property setting the cache size, in bytes */
+    public static final String CACHE_SIZE_KEY = "org.geotools.footprint.roiCacheSize";
+
+    static final long DEFAULT_SIZE = 16 * 1024 * 1024;
+
+    /** Rough size of a coordinate, including its reference in the coordinate array */
+    static final int COORDINATE_SIZE = 48;
+
+    private static final FootprintROICache INSTANCE = new FootprintROICache(Long.getLong(
+            CACHE_SIZE_KEY, DEFAULT_SIZE));
+
+    private final SizeBoundedLRUCache<Object, Geometry> geometries;
+
+    FootprintROICache(long maxSize) {
+        this.geometries = new SizeBoundedLRUCache<Object, Geometry>(maxSize) {
+
+            @Override
+            protected long sizeOf(Object key, Geometry geometry) {
+                return FootprintROICache.sizeOf(key, geometry);
+            }
+        };
+    }
+
+    /**
+     * Returns the cache shared by all footprints
+     */
+    public static FootprintROICache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sets the max size of the cache, in bytes, evicting geometries as needed. 0 disables the
+     * cache.
+     */
+    public void setMaxSize(long maxSize) {
+        geometries.setMaxSize(maxSize);
+    }
+
+    public long getMaxSize() {
+        return geometries.getMaxSize();
+    }
+
+    /**
+     * Returns the estimated size in bytes of the cached geometries
+     */
+    public long getSize() {
+        return geometries.getSize();
+    }
+
+    public long getHits() {
+        return geometries.getHits();
+    }
+
+    public long getMisses() {
+        return geometries.getMisses();
+    }
+
+    public boolean isEnabled() {
+        return geometries.isEnabled();
+    }
+
+    /**
+     * Removes all the geometries from the cache
+     */
+    public void flush() {
+        geometries.flush();
+    }
+
+    /**
+     * Returns the cached geometry, which must not be modified, or null
+     */
+    Geometry get(Object key) {
+        return geometries.get(key);
+    }
+
+    void put(Object key, Geometry geometry) {
+        geometries.put(key, geometry);
+    }
+
+    static long sizeOf(Object key, Geometry geometry) {
+        // the key holds on the original footprint too, which may be shared among keys, but
+        // overestimating is safer than the opposite
+        long points = geometry.getNumPoints();
+        if (key instanceof FootprintKey) {
+            points += ((FootprintKey) key).footprint.getNumPoints();
+        } else if (key instanceof LevelKey) {
+            points += ((LevelKey) key).footprint.footprint.getNumPoints();
+        }
+        return points * COORDINATE_SIZE + 64;
+    }
+
+    /**
+     * Identifies a footprint along with its inset configuration
+     */
+    static final class FootprintKey {
+
+        final Geometry footprint;
+
+        final Geometry granuleBounds;
+
+        final double inset;
+
+        final FootprintInsetPolicy insetPolicy;
+
+        final int hashCode;
+
+        FootprintKey(Geometry footprint, Geometry granuleBounds, double inset,
+                FootprintInsetPolicy insetPolicy) {
+            this.footprint = footprint;
+            this.granuleBounds = granuleBounds;
+            this.inset = inset;
+            this.insetPolicy = insetPolicy;
+            long bits = Double.doubleToLongBits(inset);
+            int code = footprint.getEnvelopeInternal().hashCode() * 31 + footprint.getNumPoints();
+            code = code * 31 + (int) (bits ^ (bits >>> 32));
+            this.hashCode = code * 31 + (insetPolicy == null ? 0 : insetPolicy.ordinal());
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof FootprintKey)) {
+                return false;
+            }
+            FootprintKey other = (FootprintKey) obj;
+            if (hashCode != other.hashCode
+                    || Double.doubleToLongBits(inset) != Double.doubleToLongBits(other.inset)
+                    || insetPolicy != other.insetPolicy) {
+                return false;
+            }
+            // the bounds only matter when there is an inset
+            if (inset > 0 && !equalsExact(granuleBounds, other.granuleBounds)) {
+                return false;
+            }
+            return equalsExact(footprint, other.footprint);
+        }
+
+        private static boolean equalsExact(Geometry g1, Geometry g2) {
+            if (g1 == g2) {
+                return true;
+            } else if (g1 == null || g2 == null) {
+                return false;
+            }
+            return g1.equalsExact(g2);
+        }
+    }
+
+    /**
+     * Identifies a footprint rescaled to a given overview level and output resolution
+     */
+    static final class LevelKey {
+
+        final FootprintKey footprint;
+
+        final double scaleX;
+
+        final double shearX;
+
+        final double shearY;
+
+        final double scaleY;
+
+        LevelKey(FootprintKey footprint, AffineTransform at) {
+            this.footprint = footprint;
+            this.scaleX = at.getScaleX();
+            this.shearX = at.getShearX();
+            this.shearY = at.getShearY();
+            this.scaleY = at.getScaleY();
+        }
+
+        @Override
+        public int hashCode() {
+            long bits = Double.doubleToLongBits(scaleX);
+            bits = bits * 31 + Double.doubleToLongBits(shearX);
+            bits = bits * 31 + Double.doubleToLongBits(shearY);
+            bits = bits * 31 + Double.doubleToLongBits(scaleY);
+            return footprint.hashCode() * 31 + (int) (bits ^ (bits >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof LevelKey)) {
+                return false;
+            }
+            LevelKey other = (LevelKey) obj;
+            return Double.doubleToLongBits(scaleX) == Double.doubleToLongBits(other.scaleX)
+                    && Double.doubleToLongBits(shearX) == Double.doubleToLongBits(other.shearX)
+                    && Double.doubleToLongBits(shearY) == Double.doubleToLongBits(other.shearY)
+                    && Double.doubleToLongBits(scaleY) == Double.doubleToLongBits(other.scaleY)
+                    && footprint.equals(other.footprint);
+        }
+    }
+}
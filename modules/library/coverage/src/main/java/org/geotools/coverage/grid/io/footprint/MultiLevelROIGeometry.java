@@ -41,6 +41,8 @@ import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
  * <li>Caching of reduced resolution of the same ROI</li>
  * <li>Management of the footprint inset</li>
  * </ul>
+ * The inset footprint and the rescaled footprints are also shared, among instances built for the
+ * same footprint, via the {@link FootprintROICache}.
  * 
  * @author Andrea Aime - GeoSolutions
  * 
@@ -62,14 +64,23 @@ public class MultiLevelROIGeometry implements MultiLevelROI {
 
     private boolean empty;
 
+    private FootprintROICache.FootprintKey footprintKey;
+
     public MultiLevelROIGeometry(Geometry footprint, Geometry granuleBounds, double inset,
             FootprintInsetPolicy insetPolicy) {
         this.originalFootprint = footprint;
         this.granuleBounds = granuleBounds;
         this.inset = inset;
         this.insetPolicy = insetPolicy;
+        this.footprintKey = new FootprintROICache.FootprintKey(footprint, granuleBounds, inset,
+                insetPolicy);
         if(inset > 0) {
-            insetFootprint = insetPolicy.applyInset(originalFootprint, granuleBounds, inset);
+            FootprintROICache cache = FootprintROICache.getInstance();
+            insetFootprint = cache.get(footprintKey);
+            if (insetFootprint == null) {
+                insetFootprint = insetPolicy.applyInset(originalFootprint, granuleBounds, inset);
+                cache.put(footprintKey, insetFootprint);
+            }
             this.empty = insetFootprint.isEmpty();
         } else {
             this.empty = originalFootprint.isEmpty();
@@ -86,36 +97,24 @@ public class MultiLevelROIGeometry implements MultiLevelROI {
         }
         ROIGeometry roiGeometry = roiCache.get(at);
         if (roiGeometry == null) {
-            Geometry rescaled;
-            AffineTransformation geometryAT = new AffineTransformation(at.getScaleX(), at.getShearX(), at
-                    .getTranslateX(), at.getShearY(), at.getScaleY(), at.getTranslateY());
-            if (inset > 0) {
-                double scale = Math.min(Math.abs(at.getScaleX()), Math.abs(at.getScaleY()));
-                double rescaledInset = scale * inset;
-                if (rescaledInset < 1) {
-                    // just apply a 1 pixel inset on the rescaled geometry 
-                    Geometry cloned = (Geometry) originalFootprint.clone();
-                    cloned.apply(geometryAT);
-                    Geometry bounds = (Geometry) granuleBounds.clone();
-                    bounds.apply(geometryAT);
-                    rescaled = insetPolicy.applyInset(cloned, bounds, 1.5);
-                } else {
-                    // use the original footprint
-                    rescaled = (Geometry) insetFootprint.clone();
-                    rescaled.apply(geometryAT);
-                }
-            } else {
-                rescaled = (Geometry) originalFootprint.clone();
-                rescaled.apply(geometryAT);
+            // rescaling, inset and simplification do not depend on the translation, which
+            // changes with every request, so the result is cached before translating it
+            FootprintROICache cache = FootprintROICache.getInstance();
+            FootprintROICache.LevelKey levelKey = new FootprintROICache.LevelKey(footprintKey, at);
+            Geometry simplified = cache.get(levelKey);
+            if (simplified == null) {
+                simplified = rescale(at);
+                cache.put(levelKey, simplified);
             }
 
-            if(!rescaled.isEmpty()) {
-                
-                // the geometry is likely to have way more precision than needed, simplify it 
-                // so that the error is significantly less than one pixel
-                Geometry simplified = TopologyPreservingSimplifier.simplify(rescaled, 0.333);
+            if(!simplified.isEmpty()) {
+                // translate a copy, the cached geometry is shared
+                Geometry translated = (Geometry) simplified.clone();
+                translated.apply(AffineTransformation.translationInstance(at.getTranslateX(),
+                        at.getTranslateY()));
+                translated.geometryChanged();
                 // build a ROI geometry optimized for rectangle clipping
-                roiGeometry = new FastClipROIGeometry(simplified);
+                roiGeometry = new FastClipROIGeometry(translated);
                 roiCache.put(at, roiGeometry);
             } else {
                 return null;
@@ -125,6 +124,44 @@ public class MultiLevelROIGeometry implements MultiLevelROI {
         return roiGeometry;
     }
 
+    /**
+     * Rescales, insets and simplifies the footprint using the scale and shear of the given
+     * transform, ignoring its translation
+     */
+    Geometry rescale(AffineTransform at) {
+        Geometry rescaled;
+        AffineTransformation geometryAT = new AffineTransformation(at.getScaleX(),
+                at.getShearX(), 0, at.getShearY(), at.getScaleY(), 0);
+        if (inset > 0) {
+            double scale = Math.min(Math.abs(at.getScaleX()), Math.abs(at.getScaleY()));
+            double rescaledInset = scale * inset;
+            if (rescaledInset < 1) {
+                // just apply a 1 pixel inset on the rescaled geometry 
+                Geometry cloned = (Geometry) originalFootprint.clone();
+                cloned.apply(geometryAT);
+                Geometry bounds = (Geometry) granuleBounds.clone();
+                bounds.apply(geometryAT);
+                rescaled = insetPolicy.applyInset(cloned, bounds, 1.5);
+            } else {
+                // use the original footprint
+                rescaled = (Geometry) insetFootprint.clone();
+                rescaled.apply(geometryAT);
+            }
+        } else {
+            rescaled = (Geometry) originalFootprint.clone();
+            rescaled.apply(geometryAT);
+        }
+
+        if(!rescaled.isEmpty()) {
+            
+            // the geometry is likely to have way more precision than needed, simplify it 
+            // so that the error is significantly less than one pixel
+            return TopologyPreservingSimplifier.simplify(rescaled, 0.333);
+        } else {
+            return rescaled;
+        }
+    }
+
     public boolean isEmpty() {
         return empty;
     }
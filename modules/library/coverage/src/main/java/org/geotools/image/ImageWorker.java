@@ -851,6 +851,38 @@ public class ImageWorker {
         return hints;
     }
 
+    /**
+     * Returns a builder for an {@link OperationChainTemplate}, a chain of operations resolved
+     * and validated once and then applied cheaply to many images, using the rendering hints set
+     * on this worker. The tile layout is not computed out of the image, see
+     * {@link OperationChainTemplate.Builder#tileSize(int, int)} instead.
+     * 
+     * @return a new template builder
+     * @see #apply(OperationChainTemplate.Chain)
+     */
+    public final OperationChainTemplate.Builder newChainTemplate() {
+        RenderingHints hints = commonHints != null ? (RenderingHints) commonHints.clone() : null;
+        if (tileCacheDisabled != 0
+                && (commonHints != null && !commonHints.containsKey(JAI.KEY_TILE_CACHE))) {
+            hints.add(new RenderingHints(JAI.KEY_TILE_CACHE, null));
+        }
+        return OperationChainTemplate.builder(hints);
+    }
+
+    /**
+     * Applies the chain created out of an {@link OperationChainTemplate} to the
+     * {@linkplain #image}. The ROI and NoData of this worker are not passed along automatically,
+     * they have to be set among the chain parameters if needed.
+     * 
+     * @param chain the chain, with its request specific parameters already set
+     * @return this {@link ImageWorker}.
+     */
+    public final ImageWorker apply(OperationChainTemplate.Chain chain) {
+        image = chain.create(image);
+        invalidateStatistics();
+        return this;
+    }
+
     /**
      * Returns the {@linkplain #getRenderingHints rendering hints}, but with a {@linkplain ComponentColorModel component color model} of the specified
      * data type. The data type is changed only if no color model was explicitly specified by the user through {@link #getRenderingHints()}.
@@ -1319,6 +1351,32 @@ public class ImageWorker {
         forceComponentColorModel(true, true);
 
         final double[][] extrema = getExtremas();
+        return rescaleToBytes(extrema[0], extrema[1]);
+    }
+
+    /**
+     * Rescales the {@linkplain #image} such that it uses 8 bits, like {@link #rescaleToBytes()},
+     * but using the provided minimum and maximum values for each band instead of computing them.
+     * This allows to skip a full pass over the image when its statistics are already known, and to
+     * rescale different parts of the same raster consistently.
+     * 
+     * @param minimums the minimum value of each band
+     * @param maximums the maximum value of each band
+     * @return This ImageWorker
+     * 
+     * @see #rescaleToBytes()
+     */
+    public final ImageWorker rescaleToBytes(final double[] minimums, final double[] maximums) {
+
+        if (isBytes()) {
+            // Already using bytes - nothing to do.
+            return this;
+        }
+
+        // this is to support 16 bits IndexColorModel
+        forceComponentColorModel(true, true);
+
+        final double[][] extrema = new double[][] { minimums, maximums };
         final int length = extrema[0].length;
         final double[] scale = new double[length];
         final double[] offset = new double[length];
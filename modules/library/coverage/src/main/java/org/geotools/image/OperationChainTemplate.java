@@ -0,0 +1,389 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.image;
+
+import java.awt.RenderingHints;
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.media.jai.ImageLayout;
+import javax.media.jai.JAI;
+import javax.media.jai.OperationDescriptor;
+import javax.media.jai.OperationRegistry;
+import javax.media.jai.ParameterBlockJAI;
+import javax.media.jai.ParameterListDescriptor;
+import javax.media.jai.RenderedOp;
+import javax.media.jai.registry.RenderedRegistryMode;
+
+import org.geotools.util.logging.Logging;
+import org.opengis.coverage.processing.OperationNotFoundException;
+
+/**
+ * A chain of JAI operations compiled once per configuration and instantiated cheaply for each
+ * request.
+ * <p>
+ * Building a chain with {@link ImageWorker} or {@link JAI#create} looks up the operation
+ * descriptors in the registry, creates and fills a parameter block with the defaults, merges the
+ * rendering hints with the JAI defaults and computes the tile layout, for each operation and each
+ * request. A template performs all of this once, validating the operations and the fixed
+ * parameters when {@linkplain Builder#build() built}, so that creating a chain only requires
+ * copying the parameter blocks, setting the request specific parameters and creating the
+ * {@link RenderedOp} instances:
+ *
+ * <pre>
+ * OperationChainTemplate template = new ImageWorker().newChainTemplate().tileSize(256, 256)
+ *         .add("Scale").parameter("interpolation", interpolation)
+ *         .add("Format").parameter("dataType", DataBuffer.TYPE_BYTE).build();
+ * ...
+ * RenderedImage result = new ImageWorker(image).apply(template.newChain()
+ *         .parameter(0, "xScale", scaleX).parameter(0, "yScale", scaleY)).getRenderedImage();
+ * </pre>
+ *
+ * Each operation takes the output of the previous one as its first source, the sources of the
+ * first operation are provided when {@linkplain Chain#create(RenderedImage...) creating} the
+ * chain. Templates are thread safe, chains are not, and keep statistics about the chain build
+ * times.
+ * </p>
+ */
+public final class OperationChainTemplate {
+
+    static final Logger LOGGER = Logging.getLogger(OperationChainTemplate.class);
+
+    private static final String MODE = RenderedRegistryMode.MODE_NAME;
+
+    private final OperationRegistry registry;
+
+    private final Step[] steps;
+
+    private final RenderingHints hints;
+
+    private final AtomicLong chains = new AtomicLong();
+
+    private final AtomicLong buildTime = new AtomicLong();
+
+    private final AtomicLong maxBuildTime = new AtomicLong();
+
+    private OperationChainTemplate(OperationRegistry registry, Step[] steps,
+            RenderingHints hints) {
+        this.registry = registry;
+        this.steps = steps;
+        this.hints = hints;
+    }
+
+    /**
+     * Returns a new template builder
+     *
+     * @param hints The rendering hints for all the operations in the chain, may be null
+     */
+    public static Builder builder(RenderingHints hints) {
+        return new Builder(hints);
+    }
+
+    /**
+     * Returns a new chain, whose request specific parameters can be set before creating it
+     */
+    public Chain newChain() {
+        return new Chain();
+    }
+
+    /**
+     * Returns the number of operations in the chain
+     */
+    public int getSize() {
+        return steps.length;
+    }
+
+    /**
+     * Returns the name of the operation at the given position in the chain
+     */
+    public String getOperationName(int step) {
+        return steps[step].name;
+    }
+
+    /**
+     * Returns the number of chains created out of this template
+     */
+    public long getChainCount() {
+        return chains.get();
+    }
+
+    /**
+     * Returns the total time spent creating chains, in nanoseconds
+     */
+    public long getTotalBuildTime() {
+        return buildTime.get();
+    }
+
+    /**
+     * Returns the longest time spent creating a chain, in nanoseconds
+     */
+    public long getMaxBuildTime() {
+        return maxBuildTime.get();
+    }
+
+    /**
+     * Returns the average time spent creating a chain, in nanoseconds
+     */
+    public double getAverageBuildTime() {
+        final long count = chains.get();
+        return count == 0 ? 0 : (double) buildTime.get() / count;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("OperationChainTemplate[");
+        for (int i = 0; i < steps.length; i++) {
+            if (i > 0) {
+                sb.append(" -> ");
+            }
+            sb.append(steps[i].name);
+        }
+        return sb.append("]").toString();
+    }
+
+    private void record(long elapsed) {
+        chains.incrementAndGet();
+        buildTime.addAndGet(elapsed);
+        long max = maxBuildTime.get();
+        while (elapsed > max && !maxBuildTime.compareAndSet(max, elapsed)) {
+            max = maxBuildTime.get();
+        }
+    }
+
+    /**
+     * A resolved operation, with its fixed parameters already set in the parameter block
+     */
+    static final class Step {
+
+        final String name;
+
+        final OperationDescriptor descriptor;
+
+        final ParameterBlockJAI prototype;
+
+        Step(String name, OperationDescriptor descriptor, ParameterBlockJAI prototype) {
+            this.name = name;
+            this.descriptor = descriptor;
+            this.prototype = prototype;
+        }
+    }
+
+    /**
+     * Builds a {@link OperationChainTemplate}, the operations and parameters are validated once,
+     * when {@link #build()} is called
+     */
+    public static final class Builder {
+
+        private final RenderingHints hints;
+
+        private final List<String> operations = new ArrayList<String>();
+
+        private final List<Map<String, Object>> parameters = new ArrayList<Map<String, Object>>();
+
+        private int tileWidth;
+
+        private int tileHeight;
+
+        Builder(RenderingHints hints) {
+            this.hints = hints == null ? new RenderingHints(null) : (RenderingHints) hints.clone();
+        }
+
+        /**
+         * Appends an operation to the chain
+         *
+         * @param operation The JAI operation name
+         */
+        public Builder add(String operation) {
+            operations.add(operation);
+            parameters.add(new LinkedHashMap<String, Object>());
+            return this;
+        }
+
+        /**
+         * Sets a parameter of the last operation added to the chain, which will be the same for
+         * all the chains created out of the template
+         */
+        public Builder parameter(String name, Object value) {
+            if (operations.isEmpty()) {
+                throw new IllegalStateException("No operation added to the chain yet");
+            }
+            parameters.get(parameters.size() - 1).put(name, value);
+            return this;
+        }
+
+        /**
+         * Adds a rendering hint for all the operations in the chain
+         */
+        public Builder hint(RenderingHints.Key key, Object value) {
+            hints.put(key, value);
+            return this;
+        }
+
+        /**
+         * Sets the tile size of all the images in the chain, unless an image layout with an
+         * explicit tile size was provided in the hints
+         */
+        public Builder tileSize(int width, int height) {
+            if (width <= 0 || height <= 0) {
+                throw new IllegalArgumentException("Invalid tile size " + width + "x" + height);
+            }
+            this.tileWidth = width;
+            this.tileHeight = height;
+            return this;
+        }
+
+        /**
+         * Resolves the operations and validates the fixed parameters
+         *
+         * @throws OperationNotFoundException if an operation is not registered in JAI
+         * @throws IllegalArgumentException if a parameter is unknown or its value not valid
+         */
+        public OperationChainTemplate build() throws OperationNotFoundException {
+            if (operations.isEmpty()) {
+                throw new IllegalStateException("The chain does not contain any operation");
+            }
+            final JAI jai = JAI.getDefaultInstance();
+            final Step[] steps = new Step[operations.size()];
+            for (int i = 0; i < steps.length; i++) {
+                final String name = operations.get(i);
+                final OperationDescriptor descriptor = ImageWorker.getOperationDescriptor(name);
+                if (!descriptor.isModeSupported(MODE)) {
+                    throw new IllegalArgumentException("Operation " + name
+                            + " does not support the rendered mode");
+                }
+                if (i > 0 && descriptor.getNumSources() < 1) {
+                    throw new IllegalArgumentException("Operation " + name
+                            + " does not take any source, it must be the first in the chain");
+                }
+                final ParameterBlockJAI prototype = new ParameterBlockJAI(descriptor, MODE);
+                final ParameterListDescriptor pld = descriptor.getParameterListDescriptor(MODE);
+                for (Map.Entry<String, Object> entry : parameters.get(i).entrySet()) {
+                    final String param = entry.getKey();
+                    final Object value = entry.getValue();
+                    // throws IllegalArgumentException for unknown parameters
+                    if (!pld.isParameterValueValid(param, value)) {
+                        throw new IllegalArgumentException("Invalid value " + value
+                                + " for parameter " + param + " of operation " + name);
+                    }
+                    prototype.setParameter(param, value);
+                }
+                steps[i] = new Step(name, descriptor, prototype);
+            }
+
+            // merge with the JAI defaults once, as JAI.create would do on each call
+            final RenderingHints merged = (RenderingHints) jai.getRenderingHints().clone();
+            merged.add(hints);
+            if (tileWidth > 0) {
+                final Object candidate = merged.get(JAI.KEY_IMAGE_LAYOUT);
+                final ImageLayout layout = candidate instanceof ImageLayout
+                        ? (ImageLayout) ((ImageLayout) candidate).clone() : new ImageLayout();
+                if (!layout.isValid(ImageLayout.TILE_WIDTH_MASK)) {
+                    layout.setTileWidth(tileWidth);
+                }
+                if (!layout.isValid(ImageLayout.TILE_HEIGHT_MASK)) {
+                    layout.setTileHeight(tileHeight);
+                }
+                merged.put(JAI.KEY_IMAGE_LAYOUT, layout);
+            }
+            final OperationChainTemplate template = new OperationChainTemplate(
+                    jai.getOperationRegistry(), steps, merged);
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Compiled " + template);
+            }
+            return template;
+        }
+    }
+
+    /**
+     * A chain being set up for a request, meant to be created only once
+     */
+    public final class Chain {
+
+        private final ParameterBlockJAI[] blocks = new ParameterBlockJAI[steps.length];
+
+        /** Time spent copying the parameter blocks, in nanoseconds */
+        private final long setupTime;
+
+        Chain() {
+            final long start = System.nanoTime();
+            for (int i = 0; i < steps.length; i++) {
+                blocks[i] = (ParameterBlockJAI) steps[i].prototype.clone();
+            }
+            setupTime = System.nanoTime() - start;
+        }
+
+        /**
+         * Sets a request specific parameter
+         *
+         * @param step The position of the operation in the chain
+         * @param name The parameter name
+         * @param value The parameter value
+         * @throws IllegalArgumentException if the parameter is unknown
+         */
+        public Chain parameter(int step, String name, Object value) {
+            blocks[step].setParameter(name, value);
+            return this;
+        }
+
+        /**
+         * Creates the chain, returning the output of the last operation
+         *
+         * @param sources The sources of the first operation
+         * @throws IllegalArgumentException if the sources or parameters are not valid
+         */
+        public RenderedImage create(RenderedImage... sources) {
+            final long start = System.nanoTime();
+            RenderedImage result = null;
+            for (int i = 0; i < steps.length; i++) {
+                final Step step = steps[i];
+                final ParameterBlockJAI pb = blocks[i];
+                if (i == 0) {
+                    for (int s = 0; s < sources.length; s++) {
+                        pb.setSource(sources[s], s);
+                    }
+                } else {
+                    pb.setSource(result, 0);
+                }
+                final StringBuffer message = new StringBuffer();
+                if (!step.descriptor.validateArguments(MODE, pb, message)) {
+                    throw new IllegalArgumentException("Invalid arguments for operation "
+                            + step.name + ": " + message);
+                }
+                RenderingHints stepHints = hints;
+                final Object layout = hints.get(JAI.KEY_IMAGE_LAYOUT);
+                if (layout instanceof ImageLayout) {
+                    // the operations may alter the layout
+                    stepHints = (RenderingHints) hints.clone();
+                    stepHints.put(JAI.KEY_IMAGE_LAYOUT, ((ImageLayout) layout).clone());
+                }
+                final RenderedOp op = new RenderedOp(registry, step.name, pb, stepHints);
+                if (step.descriptor.isImmediate()) {
+                    op.getRendering();
+                }
+                result = op;
+            }
+            record(setupTime + System.nanoTime() - start);
+            return result;
+        }
+    }
+}
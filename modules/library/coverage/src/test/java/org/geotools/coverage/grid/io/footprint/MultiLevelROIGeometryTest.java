@@ -0,0 +1,126 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.coverage.grid.io.footprint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.geom.AffineTransform;
+
+import org.geotools.coverage.grid.io.imageio.ReadType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.util.AffineTransformation;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class MultiLevelROIGeometryTest {
+
+    static final String FOOTPRINT = "POLYGON((0 0, 100 0, 100 40, 60 40, 60 100, 0 100, 0 0))";
+
+    static final String BOUNDS = "POLYGON((0 0, 100 0, 100 100, 0 100, 0 0))";
+
+    FootprintROICache cache = FootprintROICache.getInstance();
+
+    long maxSize;
+
+    @Before
+    public void setup() {
+        maxSize = cache.getMaxSize();
+        cache.setMaxSize(FootprintROICache.DEFAULT_SIZE);
+        cache.flush();
+    }
+
+    @After
+    public void cleanup() {
+        cache.setMaxSize(maxSize);
+        cache.flush();
+    }
+
+    @Test
+    public void testInsetShared() throws Exception {
+        MultiLevelROIGeometry first = build(5);
+        long hits = cache.getHits();
+        // a new instance for the same footprint, as built by the catalogs on each request
+        MultiLevelROIGeometry second = build(5);
+        assertEquals(hits + 1, cache.getHits());
+        assertTrue(first.getFootprint().equalsExact(second.getFootprint()));
+
+        // a different inset is a different footprint
+        build(3);
+        assertEquals(hits + 1, cache.getHits());
+    }
+
+    @Test
+    public void testLevelShared() throws Exception {
+        AffineTransform at1 = new AffineTransform(0.5, 0, 0, 0.5, 10, 20);
+        AffineTransform at2 = new AffineTransform(0.5, 0, 0, 0.5, -7, 3);
+        Geometry g1 = getROIGeometry(build(5), at1);
+        long hits = cache.getHits();
+        Geometry g2 = getROIGeometry(build(5), at2);
+        assertEquals(hits + 2, cache.getHits());
+
+        // same as the first one, moved by the difference in translation
+        Geometry expected = (Geometry) g1.clone();
+        expected.apply(AffineTransformation.translationInstance(-17, -17));
+        assertTrue(expected.equalsExact(g2, 1e-9));
+
+        // and the same as computing without the cache
+        cache.setMaxSize(0);
+        Geometry uncached = getROIGeometry(build(5), at2);
+        assertTrue(uncached.equalsExact(g2, 1e-9));
+    }
+
+    @Test
+    public void testCachedGeometryUntouched() throws Exception {
+        AffineTransform at = new AffineTransform(2, 0, 0, 2, 100, 100);
+        Geometry g1 = getROIGeometry(build(0), at);
+        Geometry g2 = getROIGeometry(build(0), at);
+        assertTrue(g1.equalsExact(g2));
+        assertEquals(100, g2.getEnvelopeInternal().getMinX(), 0d);
+    }
+
+    @Test
+    public void testEmptyFootprint() throws Exception {
+        // the inset eats the whole footprint
+        MultiLevelROIGeometry roi = build(200);
+        assertTrue(roi.isEmpty());
+        assertNull(roi.getTransformedROI(new AffineTransform(), 0, null, null, ReadType.JAI_IMAGEREAD));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        cache.setMaxSize(FootprintROICache.sizeOf(null, new WKTReader().read(FOOTPRINT)) * 8);
+        for (int i = 1; i < 20; i++) {
+            getROIGeometry(build(0), AffineTransform.getScaleInstance(1.0 / i, 1.0 / i));
+        }
+        assertTrue(cache.getSize() <= cache.getMaxSize());
+    }
+
+    private MultiLevelROIGeometry build(double inset) throws Exception {
+        WKTReader reader = new WKTReader();
+        return new MultiLevelROIGeometry(reader.read(FOOTPRINT), reader.read(BOUNDS), inset,
+                FootprintInsetPolicy.full);
+    }
+
+    private Geometry getROIGeometry(MultiLevelROIGeometry roi, AffineTransform at) {
+        return roi.getTransformedROI(at, 0, null, null, ReadType.JAI_IMAGEREAD).getAsGeometry();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.image;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+
+import javax.media.jai.Interpolation;
+
+import org.junit.Test;
+import org.opengis.coverage.processing.OperationNotFoundException;
+
+public class OperationChainTemplateTest {
+
+    @Test
+    public void testScaleAndFormat() throws Exception {
+        OperationChainTemplate template = new ImageWorker().newChainTemplate().tileSize(64, 64)
+                .add("Scale")
+                .parameter("interpolation", Interpolation.getInstance(Interpolation.INTERP_NEAREST))
+                .add("Format").parameter("dataType", DataBuffer.TYPE_DOUBLE).build();
+        assertEquals(2, template.getSize());
+        assertEquals("Scale", template.getOperationName(0));
+
+        BufferedImage source = buildImage();
+        for (int i = 1; i <= 3; i++) {
+            RenderedImage result = new ImageWorker(source).apply(
+                    template.newChain().parameter(0, "xScale", (float) i)
+                            .parameter(0, "yScale", (float) i)).getRenderedImage();
+            assertEquals(100 * i, result.getWidth());
+            assertEquals(100 * i, result.getHeight());
+            assertEquals(64, result.getTileWidth());
+            assertEquals(DataBuffer.TYPE_DOUBLE, result.getSampleModel().getDataType());
+            Raster data = result.getData();
+            assertEquals(source.getRaster().getSample(10, 20, 0),
+                    data.getSampleDouble(10 * i, 20 * i, 0), 0d);
+        }
+        assertEquals(3, template.getChainCount());
+        assertTrue(template.getTotalBuildTime() > 0);
+        assertTrue(template.getMaxBuildTime() <= template.getTotalBuildTime());
+    }
+
+    @Test
+    public void testChainsIndependent() throws Exception {
+        OperationChainTemplate template = OperationChainTemplate.builder(null).add("Scale")
+                .parameter("xScale", 2f).build();
+        BufferedImage source = buildImage();
+        RenderedImage scaled = template.newChain().parameter(0, "yScale", 3f).create(source);
+        RenderedImage defaults = template.newChain().create(source);
+        assertEquals(300, scaled.getHeight());
+        // the request specific parameter did not leak in the template
+        assertEquals(100, defaults.getHeight());
+        assertEquals(200, defaults.getWidth());
+    }
+
+    @Test(expected = OperationNotFoundException.class)
+    public void testUnknownOperation() throws Exception {
+        OperationChainTemplate.builder(null).add("NotAnOperation").build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownParameter() throws Exception {
+        OperationChainTemplate.builder(null).add("Scale").parameter("notAParameter", 1).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidParameterValue() throws Exception {
+        OperationChainTemplate.builder(null).add("Format").parameter("dataType", "byte").build();
+    }
+
+    private BufferedImage buildImage() {
+        BufferedImage image = new BufferedImage(100, 100, BufferedImage.TYPE_BYTE_GRAY);
+        WritableRaster raster = image.getRaster();
+        for (int y = 0; y < 100; y++) {
+            for (int x = 0; x < 100; x++) {
+                raster.setSample(x, y, 0, (x + y) % 256);
+            }
+        }
+        return image;
+    }
+}
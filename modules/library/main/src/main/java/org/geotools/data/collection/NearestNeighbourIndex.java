@@ -0,0 +1,397 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.collection;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.util.Utilities;
+import org.opengis.feature.Feature;
+import org.opengis.feature.GeometryAttribute;
+import org.opengis.filter.expression.Expression;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.strtree.AbstractNode;
+import com.vividsolutions.jts.index.strtree.Boundable;
+import com.vividsolutions.jts.index.strtree.ItemBoundable;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * Finds the k features of a collection nearest to a query, using an STR tree of the feature
+ * geometries.
+ * <p>
+ * The search is best-first: tree nodes and features are visited in order of the lower bound of
+ * their distance to the query, and the exact distance of a feature is computed only when its
+ * bound comes first, so that most of the collection is never looked at. The distance is
+ * pluggable, see {@link DistanceMetric}, for example to search by geodesic distance while the
+ * features are indexed in a projected CRS.
+ * <p>
+ * The index is built once and is thread safe, it pays off when the same features are queried
+ * repeatedly, in which case the caller should keep it around, see {@link Cache}. The index is a
+ * snapshot, changes to the collection after it has been built are not reflected. A single query
+ * is better served by {@link #scan(FeatureCollection, Expression, DistanceMetric)}, which streams
+ * the collection instead of loading it.
+ *
+ * @source $URL$
+ */
+public class NearestNeighbourIndex {
+
+    /**
+     * Geometries with up to this many points are measured right away by
+     * {@link #scan(FeatureCollection, Expression, DistanceMetric)}, their distance being about as
+     * cheap as the lower bound of their envelope
+     */
+    static final int BOUND_MIN_POINTS = 8;
+
+    /**
+     * The distance between the query and the indexed geometries
+     */
+    public interface DistanceMetric {
+        /**
+         * Returns a lower bound of the distance between the query and any geometry within the
+         * envelope. The closer to the actual distance, the fewer geometries are checked, but it
+         * should also be cheaper to compute than the distance.
+         */
+        double getLowerBound(Envelope envelope);
+
+        /**
+         * Returns the distance between the query and the geometry
+         */
+        double getDistance(Geometry geometry);
+    }
+
+    /**
+     * A feature found by a search, along with its distance to the query
+     */
+    public static class Neighbour {
+        final Entry entry;
+
+        final double distance;
+
+        Neighbour(Entry entry, double distance) {
+            this.entry = entry;
+            this.distance = distance;
+        }
+
+        public Feature getFeature() {
+            return entry.feature;
+        }
+
+        /**
+         * The geometry the distance has been computed against
+         */
+        public Geometry getGeometry() {
+            return entry.geometry;
+        }
+
+        public double getDistance() {
+            return distance;
+        }
+    }
+
+    STRtree index = new STRtree();
+
+    int size;
+
+    /**
+     * Indexes the features of a collection. Features without a geometry are skipped.
+     *
+     * @param features The features to index
+     * @param geometry The expression computing the geometry of each feature, or null to use the
+     *        default geometry
+     */
+    public NearestNeighbourIndex(FeatureCollection<?, ?> features, Expression geometry) {
+        FeatureIterator<?> it = features.features();
+        try {
+            while (it.hasNext()) {
+                Feature feature = it.next();
+                Geometry g = getGeometry(feature, geometry);
+                if (g != null && !g.isEmpty()) {
+                    index.insert(g.getEnvelopeInternal(), new Entry(size++, feature, g));
+                }
+            }
+        } finally {
+            it.close();
+        }
+        index.build();
+    }
+
+    static Geometry getGeometry(Feature feature, Expression geometry) {
+        if (geometry != null) {
+            return geometry.evaluate(feature, Geometry.class);
+        }
+        GeometryAttribute attribute = feature.getDefaultGeometryProperty();
+        if (attribute != null && attribute.getValue() instanceof Geometry) {
+            return (Geometry) attribute.getValue();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the feature nearest to the query of the specified metric, reading the collection
+     * once without building an index. The exact distance is only computed for the features whose
+     * lower bound is below the nearest distance found so far, or that have too few points for the
+     * bound to be worth it. Features at the same distance are resolved in favour of the first one
+     * read.
+     *
+     * @param features The features to search
+     * @param geometry The expression computing the geometry of each feature, or null to use the
+     *        default geometry
+     * @return The nearest feature, or null if no feature has a geometry
+     */
+    public static Neighbour scan(FeatureCollection<?, ?> features, Expression geometry,
+            DistanceMetric metric) {
+        Neighbour nearest = null;
+        int position = 0;
+        FeatureIterator<?> it = features.features();
+        try {
+            while (it.hasNext()) {
+                Feature feature = it.next();
+                Geometry g = getGeometry(feature, geometry);
+                if (g == null || g.isEmpty()) {
+                    continue;
+                }
+                int read = position++;
+                if (nearest != null && g.getNumPoints() > BOUND_MIN_POINTS
+                        && metric.getLowerBound(g.getEnvelopeInternal()) >= nearest.distance) {
+                    continue;
+                }
+                double distance = metric.getDistance(g);
+                if (nearest == null || distance < nearest.distance) {
+                    nearest = new Neighbour(new Entry(read, feature, g), distance);
+                }
+            }
+        } finally {
+            it.close();
+        }
+        return nearest;
+    }
+
+    /**
+     * Returns the cartesian distance to a geometry
+     */
+    public static DistanceMetric cartesian(final Geometry query) {
+        final Envelope envelope = query.getEnvelopeInternal();
+        return new DistanceMetric() {
+
+            @Override
+            public double getLowerBound(Envelope bounds) {
+                return envelope.distance(bounds);
+            }
+
+            @Override
+            public double getDistance(Geometry geometry) {
+                return query.distance(geometry);
+            }
+        };
+    }
+
+    /**
+     * Returns the number of features indexed
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the k features nearest to a geometry, using the cartesian distance
+     *
+     * @return The features, sorted by distance
+     */
+    public List<Neighbour> nearest(Geometry query, int k) {
+        return nearest(cartesian(query), k);
+    }
+
+    /**
+     * Returns the k features nearest to the query of the specified metric. Features at the same
+     * distance are returned in the order they were read from the collection.
+     *
+     * @return The features, sorted by distance
+     */
+    public List<Neighbour> nearest(DistanceMetric metric, int k) {
+        if (k <= 0 || size == 0) {
+            return Collections.emptyList();
+        }
+
+        List<Neighbour> result = new ArrayList<Neighbour>(Math.min(k, size));
+        PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+        AbstractNode root = index.getRoot();
+        queue.add(new Candidate(root, metric.getLowerBound((Envelope) root.getBounds()), false));
+        while (!queue.isEmpty() && result.size() < k) {
+            Candidate candidate = queue.poll();
+            if (candidate.item instanceof AbstractNode) {
+                for (Object child : ((AbstractNode) candidate.item).getChildBoundables()) {
+                    Boundable boundable = (Boundable) child;
+                    Envelope bounds = (Envelope) boundable.getBounds();
+                    Object item = boundable instanceof ItemBoundable ? ((ItemBoundable) boundable)
+                            .getItem() : boundable;
+                    queue.add(new Candidate(item, metric.getLowerBound(bounds), false));
+                }
+            } else if (!candidate.exact) {
+                // all the bounds lower than this one have been looked at, time to compute the
+                // actual distance
+                Entry entry = (Entry) candidate.item;
+                queue.add(new Candidate(entry, metric.getDistance(entry.geometry), true));
+            } else {
+                result.add(new Neighbour((Entry) candidate.item, candidate.distance));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The indexes of the collections searched recently, for repeated queries against the same
+     * collections. The first query against a collection streams it with
+     * {@link NearestNeighbourIndex#scan(FeatureCollection, Expression, DistanceMetric)}, the index
+     * is built by the second one and used by all the following ones.
+     * <p>
+     * Collections are compared by identity and held weakly. Feature collections don't tell when
+     * their contents change, so the cache has no way to notice an indexed collection has been
+     * modified: it is meant to be held by the object running the queries, such as a process or a
+     * function instance, and {@link #clear()} must be called when a collection it has seen is
+     * modified. The cache is thread safe.
+     */
+    public static class Cache {
+
+        /** Number of collections whose index is kept */
+        static final int SIZE = 4;
+
+        final LinkedList<CacheEntry> entries = new LinkedList<CacheEntry>();
+
+        /**
+         * Returns the feature nearest to the query of the specified metric, using the index of
+         * the collection if it has been searched before
+         *
+         * @param features The features to search
+         * @param geometry The expression computing the geometry of each feature, or null to use
+         *        the default geometry
+         * @return The nearest feature, or null if no feature has a geometry
+         */
+        public Neighbour nearest(FeatureCollection<?, ?> features, Expression geometry,
+                DistanceMetric metric) {
+            NearestNeighbourIndex index = get(features, geometry);
+            if (index == null) {
+                return scan(features, geometry, metric);
+            }
+            List<Neighbour> nearest = index.nearest(metric, 1);
+            return nearest.isEmpty() ? null : nearest.get(0);
+        }
+
+        /**
+         * Returns the index of a collection, building it if the collection was searched before
+         * without one, null if it was never searched
+         */
+        synchronized NearestNeighbourIndex get(FeatureCollection<?, ?> features,
+                Expression geometry) {
+            for (Iterator<CacheEntry> it = entries.iterator(); it.hasNext();) {
+                CacheEntry entry = it.next();
+                Object cached = entry.features.get();
+                if (cached == null) {
+                    it.remove();
+                } else if (cached == features && Utilities.equals(entry.geometry, geometry)) {
+                    // most recently used go first
+                    it.remove();
+                    entries.addFirst(entry);
+                    if (entry.index == null) {
+                        entry.index = new NearestNeighbourIndex(features, geometry);
+                    }
+                    return entry.index;
+                }
+            }
+            entries.addFirst(new CacheEntry(features, geometry));
+            while (entries.size() > SIZE) {
+                entries.removeLast();
+            }
+            return null;
+        }
+
+        /**
+         * Forgets all the collections searched so far
+         */
+        public synchronized void clear() {
+            entries.clear();
+        }
+    }
+
+    static class CacheEntry {
+        final WeakReference<FeatureCollection<?, ?>> features;
+
+        final Expression geometry;
+
+        NearestNeighbourIndex index;
+
+        CacheEntry(FeatureCollection<?, ?> features, Expression geometry) {
+            this.features = new WeakReference<FeatureCollection<?, ?>>(features);
+            this.geometry = geometry;
+        }
+    }
+
+    /**
+     * An indexed feature along with its geometry
+     */
+    static class Entry {
+        final int position;
+
+        final Feature feature;
+
+        final Geometry geometry;
+
+        Entry(int position, Feature feature, Geometry geometry) {
+            this.position = position;
+            this.feature = feature;
+            this.geometry = geometry;
+        }
+    }
+
+    /**
+     * A tree node or an entry waiting in the search queue. Exact distances come after lower
+     * bounds of the same value, so that ties are broken by read order.
+     */
+    static class Candidate implements Comparable<Candidate> {
+        final Object item;
+
+        final double distance;
+
+        final boolean exact;
+
+        Candidate(Object item, double distance, boolean exact) {
+            this.item = item;
+            this.distance = distance;
+            this.exact = exact;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            int result = Double.compare(distance, other.distance);
+            if (result == 0 && exact != other.exact) {
+                result = exact ? 1 : -1;
+            }
+            if (result == 0 && exact) {
+                result = ((Entry) item).position - ((Entry) other.item).position;
+            }
+            return result;
+        }
+    }
+}
@@ -24,16 +24,22 @@ import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.geotools.data.collection.NearestNeighbourIndex;
+import org.geotools.data.collection.NearestNeighbourIndex.Neighbour;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.feature.visitor.NearestVisitor;
 import org.geotools.filter.FunctionImpl;
 import org.geotools.filter.IllegalFilterException;
 import org.geotools.filter.capability.FunctionNameImpl;
+import org.geotools.util.Converters;
 import org.geotools.util.NullProgressListener;
+import org.opengis.feature.type.PropertyDescriptor;
 import org.opengis.filter.capability.FunctionName;
 import org.opengis.filter.expression.Expression;
 import org.opengis.filter.expression.Literal;
 
+import com.vividsolutions.jts.geom.Geometry;
+
 /**
  * Finds the nearest value to the provided one in the attribute domain.
  * 
@@ -52,6 +58,9 @@ public class Collection_NearestFunction extends FunctionImpl {
 
     Object match = null;
 
+    /** indexes of the collections searched by this function, when matching geometries */
+    NearestNeighbourIndex.Cache indexes = new NearestNeighbourIndex.Cache();
+
     public static FunctionName NAME = new FunctionNameImpl("Collection_Nearest",
             parameter("expression", Expression.class),
             parameter("value", Comparable.class));
@@ -75,13 +84,37 @@ public class Collection_NearestFunction extends FunctionImpl {
      * @throws IllegalFilterException
      * @throws IOException
      */
-    static Object near(SimpleFeatureCollection collection, Expression expression, Object value)
+    Object near(SimpleFeatureCollection collection, Expression expression, Object value)
             throws IllegalFilterException, IOException {
+        // geometries far away are skipped comparing envelopes, instead of computing the distance,
+        // and collections searched again are indexed
+        Geometry geometry = getGeometryToMatch(collection, expression, value);
+        if (geometry != null) {
+            Neighbour nearest = indexes.nearest(collection, expression,
+                    NearestNeighbourIndex.cartesian(geometry));
+            return nearest == null ? null : nearest.getGeometry();
+        }
+
         NearestVisitor visitor = new NearestVisitor(expression, value);
         collection.accepts(visitor, new NullProgressListener());
         return visitor.getNearestMatch();
     }
 
+    /**
+     * Returns the value to match as a geometry, if the expression evaluates to geometries, null
+     * otherwise
+     */
+    static Geometry getGeometryToMatch(SimpleFeatureCollection collection, Expression expression,
+            Object value) {
+        Object descriptor = expression.evaluate(collection.getSchema());
+        if (!(descriptor instanceof PropertyDescriptor)
+                || !Geometry.class.isAssignableFrom(((PropertyDescriptor) descriptor).getType()
+                        .getBinding())) {
+            return null;
+        }
+        return Converters.convert(value, Geometry.class);
+    }
+
     public Object evaluate(Object collection) {
         if( collection == null ){
             Literal value = getFallbackValue();
@@ -0,0 +1,222 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.geotools.data.collection.NearestNeighbourIndex.Neighbour;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.filter.function.Collection_NearestFunction;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.FilterFactory;
+import org.opengis.filter.expression.Function;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ *
+ *
+ * @source $URL$
+ */
+public class NearestNeighbourIndexTest {
+
+    FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+
+    GeometryFactory gf = new GeometryFactory();
+
+    ListFeatureCollection features;
+
+    @Before
+    public void setUp() {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("nearest");
+        tb.add("geom", Geometry.class);
+        tb.add("id", Integer.class);
+        SimpleFeatureType type = tb.buildFeatureType();
+
+        // a mix of points and short lines, plus a feature without geometry
+        Random random = new Random(1);
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(type);
+        features = new ListFeatureCollection(type);
+        for (int i = 0; i < 500; i++) {
+            Coordinate c = new Coordinate(random.nextDouble() * 100, random.nextDouble() * 100);
+            Geometry g;
+            if (i % 2 == 0) {
+                g = gf.createPoint(c);
+            } else {
+                g = gf.createLineString(new Coordinate[] { c,
+                        new Coordinate(c.x + random.nextDouble(), c.y + random.nextDouble()) });
+            }
+            fb.add(g);
+            fb.add(i);
+            features.add(fb.buildFeature("nearest." + i));
+        }
+        fb.add(null);
+        fb.add(-1);
+        features.add(fb.buildFeature("nearest.none"));
+    }
+
+    @Test
+    public void testNearest() {
+        NearestNeighbourIndex index = new NearestNeighbourIndex(features, null);
+        assertEquals(500, index.size());
+
+        Random random = new Random(2);
+        for (int q = 0; q < 50; q++) {
+            Point query = gf.createPoint(new Coordinate(random.nextDouble() * 120 - 10,
+                    random.nextDouble() * 120 - 10));
+            List<Double> expected = new ArrayList<Double>();
+            for (SimpleFeature f : features) {
+                if (f.getDefaultGeometry() != null) {
+                    expected.add(query.distance((Geometry) f.getDefaultGeometry()));
+                }
+            }
+            Collections.sort(expected);
+
+            List<Neighbour> nearest = index.nearest(query, 7);
+            assertEquals(7, nearest.size());
+            for (int i = 0; i < nearest.size(); i++) {
+                Neighbour n = nearest.get(i);
+                assertEquals(expected.get(i), n.getDistance(), 0d);
+                assertEquals(query.distance(n.getGeometry()), n.getDistance(), 0d);
+                assertSame(n.getGeometry(), ((SimpleFeature) n.getFeature()).getDefaultGeometry());
+            }
+        }
+        assertEquals(500, index.nearest(gf.createPoint(new Coordinate(0, 0)), 1000).size());
+        assertTrue(index.nearest(gf.createPoint(new Coordinate(0, 0)), 0).isEmpty());
+    }
+
+    @Test
+    public void testScan() {
+        NearestNeighbourIndex index = new NearestNeighbourIndex(features, null);
+        Random random = new Random(3);
+        for (int q = 0; q < 50; q++) {
+            Point query = gf.createPoint(new Coordinate(random.nextDouble() * 120 - 10,
+                    random.nextDouble() * 120 - 10));
+            Neighbour expected = index.nearest(query, 1).get(0);
+            Neighbour scanned = NearestNeighbourIndex.scan(features, ff.property("geom"),
+                    NearestNeighbourIndex.cartesian(query));
+            assertEquals(expected.getDistance(), scanned.getDistance(), 0d);
+            assertSame(expected.getFeature(), scanned.getFeature());
+        }
+        assertNull(NearestNeighbourIndex.scan(new ListFeatureCollection(features.getSchema()),
+                null, NearestNeighbourIndex.cartesian(gf.createPoint(new Coordinate(0, 0)))));
+    }
+
+    @Test
+    public void testCache() {
+        NearestNeighbourIndex.Cache cache = new NearestNeighbourIndex.Cache();
+        NearestNeighbourIndex index = new NearestNeighbourIndex(features, null);
+        Random random = new Random(4);
+        for (int q = 0; q < 5; q++) {
+            Point query = gf.createPoint(new Coordinate(random.nextDouble() * 100,
+                    random.nextDouble() * 100));
+            Neighbour expected = index.nearest(query, 1).get(0);
+            Neighbour cached = cache.nearest(features, null,
+                    NearestNeighbourIndex.cartesian(query));
+            assertEquals(expected.getDistance(), cached.getDistance(), 0d);
+            assertSame(expected.getFeature(), cached.getFeature());
+            // streamed first, indexed from the second query on
+            assertEquals(q == 0, cache.entries.getFirst().index == null);
+        }
+
+        // another collection, or another geometry expression, is streamed again
+        ListFeatureCollection other = new ListFeatureCollection(features.getSchema());
+        assertNull(cache.nearest(other, null, NearestNeighbourIndex.cartesian(gf
+                .createPoint(new Coordinate(0, 0)))));
+        cache.nearest(features, ff.property("geom"),
+                NearestNeighbourIndex.cartesian(gf.createPoint(new Coordinate(0, 0))));
+        assertNull(cache.entries.getFirst().index);
+        assertEquals(3, cache.entries.size());
+        cache.clear();
+        assertTrue(cache.entries.isEmpty());
+    }
+
+    @Test
+    public void testScanPruning() {
+        // lines with enough points for their bounds to be computed
+        ListFeatureCollection lines = new ListFeatureCollection(features.getSchema());
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(features.getSchema());
+        Random random = new Random(5);
+        for (int i = 0; i < 500; i++) {
+            Coordinate[] coordinates = new Coordinate[10];
+            coordinates[0] = new Coordinate(random.nextDouble() * 100, random.nextDouble() * 100);
+            for (int j = 1; j < coordinates.length; j++) {
+                coordinates[j] = new Coordinate(coordinates[j - 1].x + random.nextDouble(),
+                        coordinates[j - 1].y + random.nextDouble());
+            }
+            fb.add(gf.createLineString(coordinates));
+            fb.add(i);
+            lines.add(fb.buildFeature("line." + i));
+        }
+
+        Point query = gf.createPoint(new Coordinate(50, 50));
+        final NearestNeighbourIndex.DistanceMetric cartesian = NearestNeighbourIndex
+                .cartesian(query);
+        final int[] distances = new int[1];
+        Neighbour nearest = NearestNeighbourIndex.scan(lines, null,
+                new NearestNeighbourIndex.DistanceMetric() {
+
+                    @Override
+                    public double getLowerBound(com.vividsolutions.jts.geom.Envelope envelope) {
+                        return cartesian.getLowerBound(envelope);
+                    }
+
+                    @Override
+                    public double getDistance(Geometry geometry) {
+                        distances[0]++;
+                        return cartesian.getDistance(geometry);
+                    }
+                });
+        assertEquals(new NearestNeighbourIndex(lines, null).nearest(query, 1).get(0)
+                .getDistance(), nearest.getDistance(), 0d);
+        assertTrue(distances[0] + " distances", distances[0] < 50);
+    }
+
+    @Test
+    public void testNearestFunction() {
+        Point query = gf.createPoint(new Coordinate(50, 50));
+        Function function = ff.function("Collection_Nearest", ff.property("geom"),
+                ff.literal(query));
+        Geometry nearest = (Geometry) function.evaluate(features);
+
+        double min = Double.MAX_VALUE;
+        for (SimpleFeature f : features) {
+            if (f.getDefaultGeometry() != null) {
+                min = Math.min(min, query.distance((Geometry) f.getDefaultGeometry()));
+            }
+        }
+        assertEquals(min, query.distance(nearest), 0d);
+        assertTrue(function instanceof Collection_NearestFunction);
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * A cache evicting the <cite>least recently used</cite> (LRU) entries once the total size of the
+ * cached values goes over a max size. Subclasses define the size of an entry by implementing
+ * {@link #sizeOf}, in whatever unit the max size is expressed, typically bytes.
+ * <p>
+ * The cache follows a few rules, meant for caches of large values such as rasters or geometries:
+ * <ul>
+ * <li>An entry whose size is more than a quarter of the max size is not cached at all, see
+ * {@link #accepts(long)}, so that a single entry cannot flush the whole cache.</li>
+ * <li>A max size of 0 disables the cache: {@link #put} ignores the entries and {@link #get}
+ * always returns {@code null}.</li>
+ * <li>Lowering the max size evicts the least recently used entries right away.</li>
+ * <li>Hits and misses of {@link #get} are counted, to allow monitoring the cache
+ * effectiveness, lookups of a disabled cache are not counted.</li>
+ * </ul>
+ * <p>
+ * This class is thread safe, all the methods synchronize on the cache instance. As a
+ * consequence {@link #sizeOf} is called while holding the lock and should be cheap, and values
+ * should be computed before being {@linkplain #put put} in the cache, not while holding it.
+ * Values are neither copied nor protected, callers must not modify them once cached. Null keys
+ * are accepted, null values are not.
+ *
+ * @param <K> The type of keys in the cache.
+ * @param <V> The type of values in the cache.
+ *
+ * @since 18
+ *
+ * @source $URL$
+ * @version $Id$
+ */
+public abstract class SizeBoundedLRUCache<K, V> {
+
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<K, V>(16, 0.75f, true);
+
+    private long maxSize;
+
+    private long size;
+
+    private long hits;
+
+    private long misses;
+
+    /**
+     * Creates a cache with the given max size.
+     *
+     * @param maxSize The max size of the cache, in the unit of {@link #sizeOf}. Zero or negative
+     *        values disable the cache.
+     */
+    protected SizeBoundedLRUCache(long maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+    }
+
+    /**
+     * Returns the size of the given entry, in the same unit as the max size. Called while holding
+     * the cache lock, and more than once for the same entry, so it must be cheap and return the
+     * same value each time.
+     *
+     * @param key The key of the entry.
+     * @param value The value of the entry, never null.
+     * @return The size of the entry, zero or positive.
+     */
+    protected abstract long sizeOf(K key, V value);
+
+    /**
+     * Sets the max size of the cache, evicting the least recently used entries as needed.
+     *
+     * @param maxSize The new max size. Zero or negative values disable the cache, but do not
+     *        remove the cached entries, use {@link #flush()} for that.
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+        evict();
+    }
+
+    /**
+     * Returns the max size of the cache, 0 if disabled.
+     */
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the total size of the cached entries
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of lookups that found an entry since the cache creation.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that found no entry since the cache creation.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns {@code true} if the max size is positive.
+     */
+    public synchronized boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Returns {@code true} if an entry of the given size would be cached by {@link #put}, that
+     * is, if the cache is enabled and the size is at most a quarter of the max size. Callers can
+     * use it to avoid computing values that would be rejected anyway.
+     *
+     * @param entrySize The size of the entry, as returned by {@link #sizeOf}.
+     */
+    public synchronized boolean accepts(long entrySize) {
+        return maxSize > 0 && entrySize <= maxSize / 4;
+    }
+
+    /**
+     * Returns the cached value, marking the entry as the most recently used one.
+     *
+     * @param key The key of the entry.
+     * @return The cached value, or {@code null} if there is none or the cache is disabled.
+     */
+    public synchronized V get(K key) {
+        if (maxSize <= 0) {
+            return null;
+        }
+        V value = entries.get(key);
+        if (value != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return value;
+    }
+
+    /**
+     * Caches the value, replacing the previous one of the same key, and evicts the least recently
+     * used entries as needed. The value is ignored if the cache does not
+     * {@linkplain #accepts(long) accept} its size.
+     *
+     * @param key The key of the entry.
+     * @param value The value to cache.
+     * @throws NullPointerException if the value is null.
+     */
+    public synchronized void put(K key, V value) {
+        if (value == null) {
+            throw new NullPointerException("Null values are not accepted");
+        }
+        long entrySize = sizeOf(key, value);
+        if (!accepts(entrySize)) {
+            return;
+        }
+        V previous = entries.put(key, value);
+        if (previous != null) {
+            size -= sizeOf(key, previous);
+        }
+        size += entrySize;
+        evict();
+    }
+
+    /**
+     * Removes an entry.
+     *
+     * @param key The key of the entry.
+     * @return The removed value, or {@code null} if there was none.
+     */
+    public synchronized V remove(K key) {
+        V previous = entries.remove(key);
+        if (previous != null) {
+            size -= sizeOf(key, previous);
+        }
+        return previous;
+    }
+
+    /**
+     * Removes the entries whose key matches the filter, for example all the entries of a data
+     * source being disposed. The filter is called while holding the cache lock.
+     *
+     * @param filter Returns {@code true} for the keys to remove.
+     */
+    public synchronized void removeIf(Predicate<? super K> filter) {
+        Iterator<Map.Entry<K, V>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<K, V> entry = it.next();
+            if (filter.test(entry.getKey())) {
+                size -= sizeOf(entry.getKey(), entry.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all the entries, leaving the max size and the hit and miss counts untouched.
+     */
+    public synchronized void flush() {
+        entries.clear();
+        size = 0;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<K, V>> it = entries.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Map.Entry<K, V> eldest = it.next();
+            size -= sizeOf(eldest.getKey(), eldest.getValue());
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link SizeBoundedLRUCache}.
+ *
+ * @source $URL$
+ */
+public class SizeBoundedLRUCacheTest {
+
+    static class StringCache extends SizeBoundedLRUCache<String, String> {
+
+        StringCache(long maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        protected long sizeOf(String key, String value) {
+            return value.length();
+        }
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        StringCache cache = new StringCache(100);
+        assertNull(cache.get("a"));
+        cache.put("a", "0123456789");
+        assertEquals("0123456789", cache.get("a"));
+        assertEquals("0123456789", cache.get("a"));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(10, cache.getSize());
+
+        // replacing an entry replaces its size too
+        cache.put("a", "01234");
+        assertEquals(5, cache.getSize());
+        assertEquals("01234", cache.remove("a"));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testRemoveIf() {
+        StringCache cache = new StringCache(100);
+        cache.put("a1", "0123");
+        cache.put("b1", "01");
+        cache.put("a2", "012");
+        cache.removeIf(new Predicate<String>() {
+
+            @Override
+            public boolean test(String key) {
+                return key.startsWith("a");
+            }
+        });
+        assertEquals(2, cache.getSize());
+        assertNull(cache.get("a1"));
+        assertEquals("01", cache.get("b1"));
+    }
+
+    @Test
+    public void testEviction() {
+        StringCache cache = new StringCache(100);
+        for (int i = 0; i < 4; i++) {
+            cache.put("k" + i, "0123456789012345678901234");
+        }
+        assertEquals(100, cache.getSize());
+        // touch the first entry, the second becomes the least recently used
+        cache.get("k0");
+        cache.put("k4", "0123456789");
+        assertEquals(85, cache.getSize());
+        assertNull(cache.get("k1"));
+        assertEquals("0123456789012345678901234", cache.get("k0"));
+
+        // too large to be cached
+        assertFalse(cache.accepts(26));
+        cache.put("large", "01234567890123456789012345");
+        assertNull(cache.get("large"));
+        assertEquals(85, cache.getSize());
+
+        cache.setMaxSize(40);
+        assertTrue(cache.getSize() <= 40);
+        cache.flush();
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testDisabled() {
+        StringCache cache = new StringCache(0);
+        assertFalse(cache.isEnabled());
+        cache.put("a", "");
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getMisses());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullValue() {
+        new StringCache(100).put("a", null);
+    }
+}
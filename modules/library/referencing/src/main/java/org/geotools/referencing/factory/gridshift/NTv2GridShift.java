@@ -0,0 +1,399 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.referencing.factory.gridshift;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.resources.i18n.ErrorKeys;
+import org.geotools.resources.i18n.Errors;
+import org.geotools.util.logging.Logging;
+
+/**
+ * A NTv2 grid shift read straight from the grid file contents, memory mapped for local files.
+ * <p>
+ * The grid keeps no mutable state once loaded, so a single instance can be shared by all the
+ * transforms using the same file and be used by any number of threads without locking. The
+ * sub grid selection and the bilinear interpolation follow the ones of the JGridShift library
+ * used by {@link NTv2GridShiftFactory#createNTv2Grid(URL)}.
+ * </p>
+ */
+public final class NTv2GridShift {
+
+    private static final Logger LOGGER = Logging.getLogger("org.geotools.referencing");
+
+    private static final int RECORD_LENGTH = 16;
+
+    private static final int HEADER_RECORDS = 11;
+
+    private static final int NODE_LENGTH = 16;
+
+    private static final double SEC_2_DEG = 1 / 3600.0;
+
+    /** The number of iterations of the reverse shift, same as JGridShift */
+    private static final int REVERSE_ITERATIONS = 4;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * A sub grid, with its limits in seconds, longitudes being positive west
+     */
+    static final class SubGrid {
+        final String name;
+
+        final String parent;
+
+        final double minLat;
+
+        final double maxLat;
+
+        final double minLon;
+
+        final double maxLon;
+
+        final double latInterval;
+
+        final double lonInterval;
+
+        final int columns;
+
+        /** The first byte of the node data */
+        final int offset;
+
+        SubGrid[] children = new SubGrid[0];
+
+        SubGrid(String name, String parent, double minLat, double maxLat, double minLon,
+                double maxLon, double latInterval, double lonInterval, int offset) {
+            this.name = name;
+            this.parent = parent;
+            this.minLat = minLat;
+            this.maxLat = maxLat;
+            this.minLon = minLon;
+            this.maxLon = maxLon;
+            this.latInterval = latInterval;
+            this.lonInterval = lonInterval;
+            this.columns = 1 + (int) ((maxLon - minLon) / lonInterval);
+            this.offset = offset;
+        }
+
+        boolean contains(double lon, double lat) {
+            return lon >= minLon && lon < maxLon && lat >= minLat && lat < maxLat;
+        }
+
+        /**
+         * Returns the most detailed sub grid containing the point, or null if this one does not
+         */
+        SubGrid find(double lon, double lat) {
+            if (!contains(lon, lat)) {
+                return null;
+            }
+            for (SubGrid child : children) {
+                SubGrid result = child.find(lon, lat);
+                if (result != null) {
+                    return result;
+                }
+            }
+            return this;
+        }
+    }
+
+    private final URL location;
+
+    private final ByteBuffer data;
+
+    private final SubGrid[] topLevel;
+
+    private final double unitsToSeconds;
+
+    private final String fromSystem;
+
+    private final String toSystem;
+
+    private NTv2GridShift(URL location, ByteBuffer data) {
+        this.location = location;
+        // the number of overview records is 11, tells apart the byte order
+        data.order(ByteOrder.BIG_ENDIAN);
+        if (data.limit() < RECORD_LENGTH * HEADER_RECORDS) {
+            throw new IllegalArgumentException("Not a NTv2 grid, the header is truncated");
+        }
+        if (data.getInt(8) != HEADER_RECORDS) {
+            data.order(ByteOrder.LITTLE_ENDIAN);
+            if (data.getInt(8) != HEADER_RECORDS) {
+                throw new IllegalArgumentException("Not a NTv2 grid, unexpected header length");
+            }
+        }
+        this.data = data;
+        final int subGridCount = data.getInt(2 * RECORD_LENGTH + 8);
+        final String type = text(3);
+        if (type.startsWith("SECONDS")) {
+            unitsToSeconds = 1;
+        } else if (type.startsWith("MINUTES")) {
+            unitsToSeconds = 60;
+        } else if (type.startsWith("DEGREES")) {
+            unitsToSeconds = 3600;
+        } else {
+            throw new IllegalArgumentException("Unsupported NTv2 grid units " + type);
+        }
+        fromSystem = text(5);
+        toSystem = text(6);
+
+        List<SubGrid> all = new ArrayList<SubGrid>(subGridCount);
+        int position = RECORD_LENGTH * HEADER_RECORDS;
+        for (int i = 0; i < subGridCount; i++) {
+            if (position + RECORD_LENGTH * HEADER_RECORDS > data.limit()) {
+                throw new IllegalArgumentException("Not a NTv2 grid, sub grid " + i
+                        + " is truncated");
+            }
+            final int record = position / RECORD_LENGTH;
+            final int nodes = data.getInt(position + 10 * RECORD_LENGTH + 8);
+            final SubGrid grid = new SubGrid(text(record), text(record + 1),
+                    number(record + 4), number(record + 5), number(record + 6),
+                    number(record + 7), number(record + 8), number(record + 9), position
+                            + RECORD_LENGTH * HEADER_RECORDS);
+            final int rows = 1 + (int) ((grid.maxLat - grid.minLat) / grid.latInterval);
+            if (nodes < rows * grid.columns || nodes < 0
+                    || grid.offset + (long) nodes * NODE_LENGTH > data.limit()) {
+                throw new IllegalArgumentException("Not a NTv2 grid, sub grid " + grid.name
+                        + " has too few nodes");
+            }
+            all.add(grid);
+            position = grid.offset + nodes * NODE_LENGTH;
+        }
+
+        // link the sub grids to their parents
+        List<SubGrid> roots = new ArrayList<SubGrid>();
+        for (SubGrid grid : all) {
+            SubGrid parent = null;
+            for (SubGrid candidate : all) {
+                if (candidate != grid && candidate.name.equals(grid.parent)) {
+                    parent = candidate;
+                    break;
+                }
+            }
+            if (parent == null) {
+                roots.add(grid);
+            } else {
+                SubGrid[] children = new SubGrid[parent.children.length + 1];
+                System.arraycopy(parent.children, 0, children, 0, parent.children.length);
+                children[parent.children.length] = grid;
+                parent.children = children;
+            }
+        }
+        topLevel = roots.toArray(new SubGrid[roots.size()]);
+    }
+
+    private String text(int record) {
+        byte[] bytes = new byte[8];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = data.get(record * RECORD_LENGTH + 8 + i);
+        }
+        return new String(bytes, ASCII).trim();
+    }
+
+    private double number(int record) {
+        return data.getDouble(record * RECORD_LENGTH + 8) * unitsToSeconds;
+    }
+
+    /**
+     * Loads the grid, mapping it in memory if it is a local file
+     *
+     * @throws IOException if the grid cannot be read
+     * @throws IllegalArgumentException if the grid is not a valid NTv2 file
+     */
+    static NTv2GridShift load(URL location) throws IOException {
+        if ("file".equals(location.getProtocol())) {
+            File file = DataUtilities.urlToFile(location);
+            if (!file.exists() || !file.canRead()) {
+                throw new IOException(Errors.format(ErrorKeys.FILE_DOES_NOT_EXIST_$1, file));
+            }
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                // the mapping stays valid after the channel is closed
+                FileChannel channel = raf.getChannel();
+                return new NTv2GridShift(location, channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size()));
+            } finally {
+                raf.close();
+            }
+        } else {
+            InputStream in = location.openStream();
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    bytes.write(buffer, 0, read);
+                }
+                return new NTv2GridShift(location, ByteBuffer.wrap(bytes.toByteArray()));
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * The name of the source datum of the grid
+     */
+    public String getFromSystem() {
+        return fromSystem;
+    }
+
+    /**
+     * The name of the target datum of the grid
+     */
+    public String getToSystem() {
+        return toSystem;
+    }
+
+    SubGrid[] getTopLevelSubGrids() {
+        return topLevel.clone();
+    }
+
+    /**
+     * Shifts a longitude, latitude point given in decimal degrees from the source datum to the
+     * target one, or the reverse.
+     *
+     * @param srcPts the source coordinates
+     * @param srcOff the offset of the point in the source coordinates
+     * @param dstPts the destination coordinates, can be the same as the source ones
+     * @param dstOff the offset of the shifted point in the destination coordinates
+     * @param forward {@code true} to shift from the source datum to the target one
+     * @return {@code false}, leaving the destination untouched, if the point is not covered by
+     *         the grid
+     */
+    public boolean shift(double[] srcPts, int srcOff, double[] dstPts, int dstOff,
+            boolean forward) {
+        return shift(srcPts, srcOff, dstPts, dstOff, forward, new double[2]);
+    }
+
+    /**
+     * Shifts a list of longitude, latitude points given in decimal degrees. Points not covered by
+     * the grid are copied unchanged, and reported at the {@link Level#FINE} logging level.
+     *
+     * @param srcPts the source coordinates
+     * @param srcOff the offset of the first point in the source coordinates
+     * @param dstPts the destination coordinates, can be the same as the source ones
+     * @param dstOff the offset of the first shifted point in the destination coordinates
+     * @param numPts the number of points
+     * @param forward {@code true} to shift from the source datum to the target one
+     * @return the number of points not covered by the grid
+     */
+    public int shift(double[] srcPts, int srcOff, double[] dstPts, int dstOff, int numPts,
+            boolean forward) {
+        int step = 2;
+        if (srcPts == dstPts && srcOff < dstOff && srcOff + numPts * 2 > dstOff) {
+            // overlapping arrays, proceed backwards
+            srcOff += (numPts - 1) * 2;
+            dstOff += (numPts - 1) * 2;
+            step = -2;
+        }
+        final double[] scratch = new double[2];
+        final boolean log = LOGGER.isLoggable(Level.FINE);
+        int missed = 0;
+        for (; numPts > 0; numPts--, srcOff += step, dstOff += step) {
+            if (!shift(srcPts, srcOff, dstPts, dstOff, forward, scratch)) {
+                if (log) {
+                    LOGGER.log(Level.FINE, "Point (" + srcPts[srcOff] + ", " + srcPts[srcOff + 1]
+                            + ") is not covered by '" + location + "' NTv2 grid,"
+                            + " it will not be shifted.");
+                }
+                dstPts[dstOff] = srcPts[srcOff];
+                dstPts[dstOff + 1] = srcPts[srcOff + 1];
+                missed++;
+            }
+        }
+        return missed;
+    }
+
+    private boolean shift(double[] srcPts, int srcOff, double[] dstPts, int dstOff,
+            boolean forward, double[] shift) {
+        final double lon = -srcPts[srcOff] * 3600;
+        final double lat = srcPts[srcOff + 1] * 3600;
+        if (forward) {
+            if (!interpolate(lon, lat, shift)) {
+                return false;
+            }
+            dstPts[dstOff] = -(lon + shift[0]) * SEC_2_DEG;
+            dstPts[dstOff + 1] = (lat + shift[1]) * SEC_2_DEG;
+        } else {
+            // iterate on the forward shift, starting from the point itself
+            double lonEstimate = lon;
+            double latEstimate = lat;
+            for (int i = 0; i < REVERSE_ITERATIONS; i++) {
+                if (!interpolate(lonEstimate, latEstimate, shift)) {
+                    return false;
+                }
+                lonEstimate = lon - shift[0];
+                latEstimate = lat - shift[1];
+            }
+            dstPts[dstOff] = -lonEstimate * SEC_2_DEG;
+            dstPts[dstOff + 1] = latEstimate * SEC_2_DEG;
+        }
+        return true;
+    }
+
+    /**
+     * Computes the longitude (positive west) and latitude shifts in seconds at the given point
+     *
+     * @return {@code false} if the point is not covered by the grid
+     */
+    boolean interpolate(double lon, double lat, double[] shift) {
+        SubGrid grid = null;
+        for (SubGrid candidate : topLevel) {
+            grid = candidate.find(lon, lat);
+            if (grid != null) {
+                break;
+            }
+        }
+        if (grid == null) {
+            return false;
+        }
+
+        final int lonIndex = (int) ((lon - grid.minLon) / grid.lonInterval);
+        final int latIndex = (int) ((lat - grid.minLat) / grid.latInterval);
+        final double x = (lon - (grid.minLon + grid.lonInterval * lonIndex)) / grid.lonInterval;
+        final double y = (lat - (grid.minLat + grid.latInterval * latIndex)) / grid.latInterval;
+
+        // the four nodes around the point, each holding lat shift, lon shift and accuracies
+        final int a = grid.offset + (lonIndex + latIndex * grid.columns) * NODE_LENGTH;
+        final int b = a + NODE_LENGTH;
+        final int c = a + grid.columns * NODE_LENGTH;
+        final int d = c + NODE_LENGTH;
+        shift[1] = interpolate(data.getFloat(a), data.getFloat(b), data.getFloat(c),
+                data.getFloat(d), x, y) * unitsToSeconds;
+        shift[0] = interpolate(data.getFloat(a + 4), data.getFloat(b + 4),
+                data.getFloat(c + 4), data.getFloat(d + 4), x, y) * unitsToSeconds;
+        return true;
+    }
+
+    private static double interpolate(double a, double b, double c, double d, double x,
+            double y) {
+        return a + (b - a) * x + (c - a) * y + (a + d - b - c) * x * y;
+    }
+}
@@ -61,12 +61,18 @@ public class NTv2GridShiftFactory extends ReferencingFactory implements Buffered
      */
     private SoftValueHashMap<String, GridShiftFile> ntv2GridCache;
 
+    /**
+     * The soft cache that holds the grids read through {@link NTv2GridShift}.
+     */
+    private SoftValueHashMap<String, NTv2GridShift> gridShiftCache;
+
     /**
      * Constructs a factory with the default priority.
      */
     public NTv2GridShiftFactory() {
         super();
         ntv2GridCache = new SoftValueHashMap<String, GridShiftFile>(GRID_CACHE_HARD_REFERENCES);
+        gridShiftCache = new SoftValueHashMap<String, NTv2GridShift>(GRID_CACHE_HARD_REFERENCES);
     }
 
     /**
@@ -79,6 +85,7 @@ public class NTv2GridShiftFactory extends ReferencingFactory implements Buffered
     public NTv2GridShiftFactory(final int priority) {
         super(priority);
         ntv2GridCache = new SoftValueHashMap<String, GridShiftFile>(GRID_CACHE_HARD_REFERENCES);
+        gridShiftCache = new SoftValueHashMap<String, NTv2GridShift>(GRID_CACHE_HARD_REFERENCES);
     }
 
     /**
@@ -124,7 +131,38 @@ public class NTv2GridShiftFactory extends ReferencingFactory implements Buffered
         }
     }
 
-    
+    /**
+     * Creates a NTv2 grid shift, memory mapping the grid file if local. The grid shifts are cached,
+     * the ones returned for the same location are shared and can be used concurrently.
+     * 
+     * @param gridLocation The NTv2 grid location
+     * @return the grid shift
+     * @throws FactoryException if grid cannot be created
+     */
+    public NTv2GridShift createNTv2GridShift(URL gridLocation) throws FactoryException {
+        if (gridLocation == null) {
+            throw new FactoryException("The grid location must be not null");
+        }
+
+        final String key = gridLocation.toExternalForm();
+        synchronized (gridShiftCache) { // Prevent simultaneous threads trying to load same grid
+            NTv2GridShift grid = gridShiftCache.get(key);
+            if (grid == null) {
+                try {
+                    grid = NTv2GridShift.load(gridLocation);
+                } catch (IOException e) {
+                    LOGGER.log(Level.SEVERE, e.getLocalizedMessage(), e);
+                    throw new FactoryException("NTv2 Grid " + gridLocation
+                            + " could not be created.", e);
+                } catch (IllegalArgumentException e) {
+                    LOGGER.log(Level.SEVERE, e.getLocalizedMessage(), e);
+                    throw new FactoryException(e.getLocalizedMessage(), e);
+                }
+                gridShiftCache.put(key, grid);
+            }
+            return grid;
+        }
+    }
 
     /**
      * Checks if a given resource is a valid NTv2 file without fully loading it.
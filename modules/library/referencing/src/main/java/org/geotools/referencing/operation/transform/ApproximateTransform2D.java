@@ -0,0 +1,360 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.referencing.operation.transform;
+
+import java.awt.geom.Rectangle2D;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.referencing.operation.LinearTransform;
+import org.geotools.util.logging.Logging;
+import org.opengis.geometry.DirectPosition;
+import org.opengis.referencing.operation.MathTransform2D;
+import org.opengis.referencing.operation.Matrix;
+import org.opengis.referencing.operation.NoninvertibleTransformException;
+import org.opengis.referencing.operation.TransformException;
+
+/**
+ * Approximates a {@link MathTransform2D} in a rectangular domain with a regular grid of exactly
+ * transformed nodes, interpolating bilinearly inside the grid cells, in the same spirit as the
+ * {@link WarpBuilder} does for rasters.
+ * <p>
+ * The grid density is found by recursive subdivision of the domain: a cell is split until the
+ * bilinear interpolation of its corners matches the exact transform, within the tolerance, at
+ * thirteen sample points (the center, the edge midpoints and the quarter points), the grid then
+ * uses the smallest cell size found along each axis. Points outside of the domain are transformed
+ * exactly, and so is the inverse transform.
+ * </p>
+ * <p>
+ * Meant for transforming many coordinates close to each other, such as the vertices of
+ * geometries being rendered, when an error below the tolerance is not noticeable. Building the
+ * grid takes many exact transformations, and the error is only checked at the sample points, so
+ * the approximation is never applied implicitly: callers opt in, and should reuse it for many
+ * geometries, as the {@code StreamingRenderer} does for a whole layer.
+ * </p>
+ */
+public class ApproximateTransform2D extends AbstractMathTransform implements MathTransform2D,
+        Serializable {
+
+    private static final long serialVersionUID = 4270474306727383624L;
+
+    static final Logger LOGGER = Logging.getLogger(ApproximateTransform2D.class);
+
+    /**
+     * The maximum sum of the subdivision levels along the two axis, that is, a grid of at most
+     * 2^16 cells
+     */
+    static final int MAX_DEPTH = 16;
+
+    /** The sample points of a cell, as fractions of its width and height */
+    private static final double[] SAMPLES = { 0.5, 0.5, 0.5, 0, 0.5, 1, 0, 0.5, 1, 0.5, 0.25,
+            0.25, 0.25, 0.5, 0.25, 0.75, 0.5, 0.25, 0.5, 0.75, 0.75, 0.25, 0.75, 0.5, 0.75, 0.75 };
+
+    private final MathTransform2D delegate;
+
+    private final double minX;
+
+    private final double minY;
+
+    private final double maxX;
+
+    private final double maxY;
+
+    private final double cellWidth;
+
+    private final double cellHeight;
+
+    private final int cols;
+
+    private final int rows;
+
+    /** The transformed nodes, row by row, (cols + 1) * (rows + 1) points */
+    private final double[] nodes;
+
+    private ApproximateTransform2D(MathTransform2D delegate, double minX, double minY,
+            double maxX, double maxY, int cols, int rows, double[] nodes) {
+        this.delegate = delegate;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.cols = cols;
+        this.rows = rows;
+        this.cellWidth = (maxX - minX) / cols;
+        this.cellHeight = (maxY - minY) / rows;
+        this.nodes = nodes;
+    }
+
+    /**
+     * Returns a transform approximating the given one in the domain, within the tolerance, or the
+     * transform itself if it's linear already, or if it cannot be approximated with a reasonably
+     * sized grid (e.g., the domain crosses a singularity of the transform).
+     *
+     * @param transform The transform to be approximated
+     * @param domain The area, in source coordinates, where the transform will be approximated
+     * @param tolerance The maximum distance, in target units, between the approximated and the
+     *        actual transformed points
+     */
+    public static MathTransform2D create(MathTransform2D transform, Rectangle2D domain,
+            double tolerance) {
+        if (transform instanceof LinearTransform || transform.isIdentity() || tolerance <= 0
+                || domain == null || !(domain.getWidth() > 0) || !(domain.getHeight() > 0)
+                || Double.isInfinite(domain.getWidth()) || Double.isInfinite(domain.getHeight())) {
+            return transform;
+        }
+        if (transform instanceof ApproximateTransform2D) {
+            transform = ((ApproximateTransform2D) transform).delegate;
+        }
+
+        final double minX = domain.getMinX();
+        final double minY = domain.getMinY();
+        final double maxX = domain.getMaxX();
+        final double maxY = domain.getMaxY();
+        try {
+            final int[] depths = new int[2];
+            if (!computeDepths(transform, tolerance * tolerance, minX, minY, maxX, maxY, 0, 0,
+                    depths)) {
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine("Cannot approximate " + transform + " in " + domain
+                            + " with a tolerance of " + tolerance + ", the grid would be too dense");
+                }
+                return transform;
+            }
+
+            final int cols = 1 << depths[0];
+            final int rows = 1 << depths[1];
+            final double[] nodes = new double[(cols + 1) * (rows + 1) * 2];
+            int idx = 0;
+            for (int r = 0; r <= rows; r++) {
+                // stay exactly on the domain boundary on the last row and column
+                final double y = r == rows ? maxY : minY + (maxY - minY) * r / rows;
+                for (int c = 0; c <= cols; c++) {
+                    nodes[idx++] = c == cols ? maxX : minX + (maxX - minX) * c / cols;
+                    nodes[idx++] = y;
+                }
+            }
+            transform.transform(nodes, 0, nodes, 0, nodes.length / 2);
+            for (double ordinate : nodes) {
+                if (Double.isNaN(ordinate) || Double.isInfinite(ordinate)) {
+                    return transform;
+                }
+            }
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Approximating " + transform + " with a " + cols + "x" + rows
+                        + " grid");
+            }
+            return new ApproximateTransform2D(transform, minX, minY, maxX, maxY, cols, rows,
+                    nodes);
+        } catch (TransformException e) {
+            LOGGER.log(Level.FINE, "Cannot approximate the transform, the domain is not "
+                    + "fully transformable", e);
+            return transform;
+        }
+    }
+
+    /**
+     * Recursively checks the cell, updating the depths with the subdivision levels needed along x
+     * and y to respect the tolerance. Returns false if the grid would get too dense.
+     */
+    static boolean computeDepths(MathTransform2D mt, double toleranceSquared, double x0,
+            double y0, double x1, double y1, int colDepth, int rowDepth, int[] depths)
+            throws TransformException {
+        final int samples = SAMPLES.length / 2;
+        final double[] points = new double[(samples + 4) * 2];
+        points[0] = x0;
+        points[1] = y0;
+        points[2] = x1;
+        points[3] = y0;
+        points[4] = x0;
+        points[5] = y1;
+        points[6] = x1;
+        points[7] = y1;
+        for (int i = 0; i < samples; i++) {
+            points[8 + i * 2] = x0 + (x1 - x0) * SAMPLES[i * 2];
+            points[9 + i * 2] = y0 + (y1 - y0) * SAMPLES[i * 2 + 1];
+        }
+        mt.transform(points, 0, points, 0, points.length / 2);
+
+        // the first sample is the center, the next four the edge midpoints,
+        // horizontal edges tell about the columns, vertical ones about the rows
+        boolean splitCols = false;
+        boolean splitRows = false;
+        for (int i = 0; i < samples; i++) {
+            final double fx = SAMPLES[i * 2];
+            final double fy = SAMPLES[i * 2 + 1];
+            final double ix = bilinear(points[0], points[2], points[4], points[6], fx, fy);
+            final double iy = bilinear(points[1], points[3], points[5], points[7], fx, fy);
+            final double dx = points[8 + i * 2] - ix;
+            final double dy = points[9 + i * 2] - iy;
+            // NaN distances fail the check too
+            if (!(dx * dx + dy * dy <= toleranceSquared)) {
+                if (i == 1 || i == 2) {
+                    splitCols = true;
+                } else if (i == 3 || i == 4) {
+                    splitRows = true;
+                } else {
+                    splitCols = splitRows = true;
+                }
+            }
+        }
+
+        if (!splitCols && !splitRows) {
+            depths[0] = Math.max(depths[0], colDepth);
+            depths[1] = Math.max(depths[1], rowDepth);
+            return true;
+        }
+        final int nextColDepth = splitCols ? colDepth + 1 : colDepth;
+        final int nextRowDepth = splitRows ? rowDepth + 1 : rowDepth;
+        if (nextColDepth + nextRowDepth > MAX_DEPTH
+                || Math.max(depths[0], nextColDepth) + Math.max(depths[1], nextRowDepth) > MAX_DEPTH) {
+            return false;
+        }
+        final double mx = splitCols ? (x0 + x1) / 2 : x1;
+        final double my = splitRows ? (y0 + y1) / 2 : y1;
+        if (!computeDepths(mt, toleranceSquared, x0, y0, mx, my, nextColDepth, nextRowDepth,
+                depths)) {
+            return false;
+        }
+        if (splitCols && !computeDepths(mt, toleranceSquared, mx, y0, x1, my, nextColDepth,
+                nextRowDepth, depths)) {
+            return false;
+        }
+        if (splitRows && !computeDepths(mt, toleranceSquared, x0, my, mx, y1, nextColDepth,
+                nextRowDepth, depths)) {
+            return false;
+        }
+        if (splitCols && splitRows && !computeDepths(mt, toleranceSquared, mx, my, x1, y1,
+                nextColDepth, nextRowDepth, depths)) {
+            return false;
+        }
+        return true;
+    }
+
+    private static double bilinear(double v00, double v10, double v01, double v11, double fx,
+            double fy) {
+        final double v0 = v00 + (v10 - v00) * fx;
+        final double v1 = v01 + (v11 - v01) * fx;
+        return v0 + (v1 - v0) * fy;
+    }
+
+    /**
+     * Returns the transform being approximated
+     */
+    public MathTransform2D getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Returns the domain where the approximation applies
+     */
+    public Rectangle2D getDomain() {
+        return new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    /**
+     * Returns the grid size, as number of columns and number of rows
+     */
+    public int[] getGridSize() {
+        return new int[] { cols, rows };
+    }
+
+    public int getSourceDimensions() {
+        return 2;
+    }
+
+    public int getTargetDimensions() {
+        return 2;
+    }
+
+    @Override
+    public void transform(double[] srcPts, int srcOff, double[] dstPts, int dstOff, int numPts)
+            throws TransformException {
+        if (srcPts == dstPts && srcOff < dstOff && srcOff + numPts * 2 > dstOff) {
+            // the destination would overwrite source points not read yet
+            srcPts = Arrays.copyOfRange(srcPts, srcOff, srcOff + numPts * 2);
+            srcOff = 0;
+        }
+        final int rowLength = (cols + 1) * 2;
+        for (int i = 0; i < numPts; i++, srcOff += 2, dstOff += 2) {
+            final double x = srcPts[srcOff];
+            final double y = srcPts[srcOff + 1];
+            // also catches NaN
+            if (!(x >= minX && x <= maxX && y >= minY && y <= maxY)) {
+                delegate.transform(srcPts, srcOff, dstPts, dstOff, 1);
+                continue;
+            }
+            final double gx = (x - minX) / cellWidth;
+            final double gy = (y - minY) / cellHeight;
+            final int col = Math.min((int) gx, cols - 1);
+            final int row = Math.min((int) gy, rows - 1);
+            final double fx = gx - col;
+            final double fy = gy - row;
+            final int i00 = row * rowLength + col * 2;
+            final int i01 = i00 + rowLength;
+            dstPts[dstOff] = bilinear(nodes[i00], nodes[i00 + 2], nodes[i01], nodes[i01 + 2],
+                    fx, fy);
+            dstPts[dstOff + 1] = bilinear(nodes[i00 + 1], nodes[i00 + 3], nodes[i01 + 1],
+                    nodes[i01 + 3], fx, fy);
+        }
+    }
+
+    @Override
+    public Matrix derivative(DirectPosition point) throws TransformException {
+        return delegate.derivative(point);
+    }
+
+    /**
+     * Returns the inverse of the approximated transform, which is not approximated
+     */
+    @Override
+    public MathTransform2D inverse() throws NoninvertibleTransformException {
+        return delegate.inverse();
+    }
+
+    @Override
+    public int hashCode() {
+        long code = Double.doubleToLongBits(minX) + 31 * Double.doubleToLongBits(minY);
+        code = code * 31 + Double.doubleToLongBits(maxX);
+        code = code * 31 + Double.doubleToLongBits(maxY);
+        return delegate.hashCode() ^ (int) code ^ (int) (code >>> 32) ^ cols ^ (rows << 16);
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (object == this) {
+            return true;
+        }
+        if (!(object instanceof ApproximateTransform2D)) {
+            return false;
+        }
+        final ApproximateTransform2D that = (ApproximateTransform2D) object;
+        return Double.doubleToLongBits(minX) == Double.doubleToLongBits(that.minX)
+                && Double.doubleToLongBits(minY) == Double.doubleToLongBits(that.minY)
+                && Double.doubleToLongBits(maxX) == Double.doubleToLongBits(that.maxX)
+                && Double.doubleToLongBits(maxY) == Double.doubleToLongBits(that.maxY)
+                && cols == that.cols && rows == that.rows && delegate.equals(that.delegate)
+                && Arrays.equals(nodes, that.nodes);
+    }
+
+    @Override
+    public String toString() {
+        return "ApproximateTransform2D[" + cols + "x" + rows + " grid over " + getDomain()
+                + ", approximating " + delegate + "]";
+    }
+}
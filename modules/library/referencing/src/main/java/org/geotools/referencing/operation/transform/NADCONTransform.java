@@ -22,6 +22,7 @@ import java.io.PrintWriter;
 import java.io.Serializable;
 import java.net.URI;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.prefs.Preferences;
 
 import org.geotools.metadata.iso.citation.Citations;
@@ -165,6 +166,11 @@ public class NADCONTransform extends AbstractMathTransform implements MathTransf
      */
     private static final double SEC_2_DEG = 3600.0;
 
+    /**
+     * The number of points shifted at once by {@link #transform(double[], int, double[], int, int)}
+     */
+    private static final int CHUNK_SIZE = 512;
+
     /**
      * Latitude grid shift file names. Output in WKT.
      */
@@ -315,41 +321,83 @@ public class NADCONTransform extends AbstractMathTransform implements MathTransf
      * @throws TransformException if the input point is outside the area
      *         covered by this grid.
      */
-    public void transform(final double[] srcPts, int srcOff,
+    public void transform(double[] srcPts, int srcOff,
         final double[] dstPts, int dstOff, int numPts)
         throws TransformException {
-        int step = 0;
-
         if ((srcPts == dstPts) && (srcOff < dstOff)
                 && ((srcOff + (numPts * getSourceDimensions())) > dstOff)) {
-            step = -getSourceDimensions();
-            srcOff -= ((numPts - 1) * step);
-            dstOff -= ((numPts - 1) * step);
+            // the destination would overwrite source points not read yet
+            srcPts = Arrays.copyOfRange(srcPts, srcOff, srcOff + numPts * getSourceDimensions());
+            srcOff = 0;
+        }
+        if (numPts == 1) {
+            final double[] point = new double[] { srcPts[srcOff], srcPts[srcOff + 1] };
+            shift(point);
+            dstPts[dstOff] = point[0];
+            dstPts[dstOff + 1] = point[1];
+            return;
         }
 
-        while (--numPts >= 0) {
-            double x = srcPts[srcOff++];
-            double y = srcPts[srcOff++];
-
-            //check bounding box
-            if (((x < grid.getMinX()) || (x > grid.getMaxX())) || ((y < grid.getMinY()) || (y > grid.getMaxY()))) {
-                throw new TransformException("Point (" + x + " " + y + ") is not outside of ((" + grid.getMinX() 
-                        + " " + grid.getMinY() + ")(" + grid.getMaxX() + " " + grid.getMaxY() + "))"); 
+        // work in chunks, bilinear interpolation of the whole chunk in a single call
+        final int chunk = Math.min(numPts, CHUNK_SIZE);
+        final double[] points = new double[chunk * 2];
+        final double[] shifts = new double[chunk * 2];
+        final double minX = grid.getMinX();
+        final double minY = grid.getMinY();
+        final double dx = grid.getDx();
+        final double dy = grid.getDy();
+
+        while (numPts > 0) {
+            final int n = Math.min(numPts, chunk);
+            System.arraycopy(srcPts, srcOff, points, 0, n * 2);
+            for (int i = 0; i < n * 2; i += 2) {
+                final double x = points[i];
+                final double y = points[i + 1];
+                checkBounds(x, y);
+
+                //find the grid the point is in (index is 0 based)
+                shifts[i] = (x - minX) / dx;
+                shifts[i + 1] = (y - minY) / dy;
             }
 
-            //find the grid the point is in (index is 0 based)
-            final double xgrid = (x - grid.getMinX()) / grid.getDx();
-            final double ygrid = (y - grid.getMinY()) / grid.getDy();
-            double[] array = new double[] { xgrid, ygrid };
-
             //use the LocalizationGridTransform2D transform method (bilineal interpolation)
             //returned shift values are in seconds, longitude shift values are + west
-            gridShiftTransform.transform(array, 0, array, 0, 1);
+            gridShiftTransform.transform(shifts, 0, shifts, 0, n);
 
-            dstPts[dstOff++] = x - (array[0] / SEC_2_DEG);
-            dstPts[dstOff++] = y + (array[1] / SEC_2_DEG);
-            srcOff += step;
-            dstOff += step;
+            for (int i = 0; i < n * 2; i += 2) {
+                dstPts[dstOff++] = points[i] - (shifts[i] / SEC_2_DEG);
+                dstPts[dstOff++] = points[i + 1] + (shifts[i + 1] / SEC_2_DEG);
+            }
+            srcOff += n * 2;
+            numPts -= n;
+        }
+    }
+
+    /**
+     * Shifts a single point in place, without allocating the buffers of the chunked transform.
+     *
+     * @param point the longitude and latitude of the point, replaced by the shifted ones.
+     *
+     * @throws TransformException if the point is outside the area covered by this grid.
+     */
+    private void shift(final double[] point) throws TransformException {
+        final double x = point[0];
+        final double y = point[1];
+        checkBounds(x, y);
+
+        point[0] = (x - grid.getMinX()) / grid.getDx();
+        point[1] = (y - grid.getMinY()) / grid.getDy();
+        gridShiftTransform.transform(point, 0, point, 0, 1);
+        point[0] = x - (point[0] / SEC_2_DEG);
+        point[1] = y + (point[1] / SEC_2_DEG);
+    }
+
+    private void checkBounds(final double x, final double y) throws TransformException {
+        if (((x < grid.getMinX()) || (x > grid.getMaxX()))
+                || ((y < grid.getMinY()) || (y > grid.getMaxY()))) {
+            throw new TransformException("Point (" + x + " " + y + ") is not outside of (("
+                    + grid.getMinX() + " " + grid.getMinY() + ")(" + grid.getMaxX() + " "
+                    + grid.getMaxY() + "))");
         }
     }
 
@@ -383,6 +431,7 @@ public class NADCONTransform extends AbstractMathTransform implements MathTransf
             dstOff -= ((numPts - 1) * step);
         }
 
+        final double[] array = new double[2];
         while (--numPts >= 0) {
             final double x = srcPts[srcOff++];
             final double y = srcPts[srcOff++];
@@ -390,8 +439,9 @@ public class NADCONTransform extends AbstractMathTransform implements MathTransf
             double ytemp = y;
 
             for (int i = MAX_ITER;;) {
-                double[] array = { xtemp, ytemp };
-                transform(array, 0, array, 0, 1);
+                array[0] = xtemp;
+                array[1] = ytemp;
+                shift(array);
                 double xdif = array[0] - x;
                 double ydif = array[1] - y;
 
@@ -22,7 +22,6 @@ import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.net.URI;
 import java.net.URL;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.geotools.metadata.iso.citation.Citations;
@@ -33,6 +32,7 @@ import org.geotools.referencing.NamedIdentifier;
 import org.geotools.referencing.ReferencingFactoryFinder;
 import org.geotools.referencing.factory.IdentifiedObjectSet;
 import org.geotools.referencing.factory.gridshift.GridShiftLocator;
+import org.geotools.referencing.factory.gridshift.NTv2GridShift;
 import org.geotools.referencing.factory.gridshift.NTv2GridShiftFactory;
 import org.geotools.referencing.operation.MathTransformProvider;
 import org.geotools.util.Utilities;
@@ -50,9 +50,6 @@ import org.opengis.referencing.operation.MathTransform2D;
 import org.opengis.referencing.operation.TransformException;
 import org.opengis.referencing.operation.Transformation;
 
-import au.com.objectix.jgridshift.GridShift;
-import au.com.objectix.jgridshift.GridShiftFile;
-
 /**
  * The "<cite>NTv2</cite>" coordinate transformation method (EPSG:9615).
  * <p>
@@ -82,9 +79,9 @@ public class NTv2Transform extends AbstractMathTransform implements MathTransfor
     private URL gridLocation = null;
     
     /**
-     * The grid shift to be used
+     * The grid shift to be used, shared with the other transforms using the same grid
      */
-    private GridShiftFile gridShift; 
+    private transient volatile NTv2GridShift gridShift;
     
     /**
      * The factory that loads the grid shift files
@@ -241,48 +238,24 @@ public class NTv2Transform extends AbstractMathTransform implements MathTransfor
      * @param numPts the number of point objects to be transformed.
      * @param forward {@code true} for direct transform, {@code false} for inverse transform.
      *
-     * @throws TransformException if an IO error occurs reading the grid file.
+     * @throws TransformException if the grid file cannot be read.
      */
     private void bidirectionalTransform(double[] srcPts, int srcOff, double[] dstPts,
             int dstOff, int numPts, boolean forward) throws TransformException {
 
-        boolean shifted;
-        
-        if (gridShift == null) { // Create grid when first needed.
+        NTv2GridShift grid = gridShift;
+        if (grid == null) { // Create grid when first needed.
             try {
-                gridShift = FACTORY.createNTv2Grid(gridLocation);
+                grid = FACTORY.createNTv2GridShift(gridLocation);
             } catch (FactoryException e) {
                 throw new TransformException("NTv2 Grid " + gridLocation +
                         " Could not be created", e);
             }
+            gridShift = grid;
         }
-        
-        try {
-            GridShift shift = new GridShift();
-            while(--numPts >= 0) {
-                shift.setLonPositiveEastDegrees(srcPts[srcOff++]);
-                shift.setLatDegrees(srcPts[srcOff++]);
-                if (forward) {
-                    shifted = gridShift.gridShiftForward(shift);
-                } else {
-                    shifted = gridShift.gridShiftReverse(shift);
-                }
-                if (shifted) {
-                    dstPts[dstOff++]=shift.getShiftedLonPositiveEastDegrees();
-                    dstPts[dstOff++]=shift.getShiftedLatDegrees();
-                } else {
-                    if(LOGGER.isLoggable(Level.FINE)) {
-                        LOGGER.log(Level.FINE, "Point (" + srcPts[srcOff-2] + ", " + srcPts[srcOff-1] +
-                                ") is not covered by '" + this.grid + "' NTv2 grid," +
-                		    " it will not be shifted.");
-                    }
-                    dstPts[dstOff++]=srcPts[srcOff-2];
-                    dstPts[dstOff++]=srcPts[srcOff-1];
-                }
-            }
-        } catch (IOException e) {
-            throw new TransformException(e.getLocalizedMessage(), e);
-        }
+
+        // points not covered by the grid are left unshifted, and logged by the grid
+        grid.shift(srcPts, srcOff, dstPts, dstOff, numPts, forward);
     }
 
     @Override
@@ -24,6 +24,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.opengis.referencing.FactoryException;
 
+import au.com.objectix.jgridshift.GridShift;
 import au.com.objectix.jgridshift.GridShiftFile;
 
 
@@ -108,4 +109,46 @@ public class NTv2GridShiftFactoryTest {
         assertTrue(grid.isLoaded());
     }
 
+    /**
+     * Test method for {@link org.geotools.referencing.factory.gridshift.NTv2GridShiftFactory#createNTv2GridShift(URL)}.
+     */
+    @Test
+    public void testCreateNTv2GridShift() throws Exception {
+        try {
+            factory.createNTv2GridShift(null);
+            fail("Should have failed on a null grid");
+        } catch (FactoryException e) {
+            // fine
+        }
+
+        try {
+            factory.createNTv2GridShift(MALFORMED_GRID); // Will log a SEVERE message
+            fail("Should have failed on a malformed grid");
+        } catch (FactoryException e) {
+            // fine
+        }
+
+        NTv2GridShift grid = factory.createNTv2GridShift(TEST_GRID);
+        assertNotNull(grid);
+        assertEquals("ED50", grid.getFromSystem());
+        assertEquals("ETRS89", grid.getToSystem());
+        // shared
+        assertSame(grid, factory.createNTv2GridShift(TEST_GRID));
+
+        // same results as the JGridShift grid
+        GridShiftFile reference = factory.createNTv2Grid(TEST_GRID);
+        GridShift shift = new GridShift();
+        shift.setLonPositiveEastDegrees(3.084896111);
+        shift.setLatDegrees(39.592654167);
+        assertTrue(reference.gridShiftForward(shift));
+        double[] pt = new double[] { 3.084896111, 39.592654167 };
+        assertTrue(grid.shift(pt, 0, pt, 0, true));
+        assertEquals(shift.getShiftedLonPositiveEastDegrees(), pt[0], 1e-12);
+        assertEquals(shift.getShiftedLatDegrees(), pt[1], 1e-12);
+
+        // not covered
+        pt = new double[] { 50, 50 };
+        assertFalse(grid.shift(pt, 0, pt, 0, true));
+    }
+
 }
@@ -0,0 +1,138 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.referencing.operation.transform;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.util.Random;
+
+import org.geotools.referencing.CRS;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.referencing.operation.MathTransform2D;
+
+/**
+ * Tests the {@link ApproximateTransform2D} class.
+ */
+public final class ApproximateTransform2DTest {
+
+    static final Rectangle2D DOMAIN = new Rectangle2D.Double(0, 40, 30, 20);
+
+    MathTransform2D exact;
+
+    @Before
+    public void setup() throws Exception {
+        // geographic to Lambert azimuthal equal area, meters
+        exact = (MathTransform2D) CRS.findMathTransform(CRS.decode("EPSG:4326", true),
+                CRS.decode("EPSG:3035", true));
+    }
+
+    @Test
+    public void testWithinTolerance() throws Exception {
+        for (double tolerance : new double[] { 1000, 100, 25 }) {
+            MathTransform2D approximate = ApproximateTransform2D.create(exact, DOMAIN, tolerance);
+            assertTrue(approximate instanceof ApproximateTransform2D);
+
+            Random random = new Random(0);
+            double[] source = new double[2000];
+            for (int i = 0; i < source.length; i += 2) {
+                source[i] = DOMAIN.getMinX() + random.nextDouble() * DOMAIN.getWidth();
+                source[i + 1] = DOMAIN.getMinY() + random.nextDouble() * DOMAIN.getHeight();
+            }
+            double[] expected = new double[source.length];
+            exact.transform(source, 0, expected, 0, source.length / 2);
+            double[] actual = new double[source.length];
+            approximate.transform(source, 0, actual, 0, source.length / 2);
+            for (int i = 0; i < source.length; i += 2) {
+                double distance = Math.hypot(expected[i] - actual[i], expected[i + 1]
+                        - actual[i + 1]);
+                assertTrue("Error " + distance + " above " + tolerance, distance <= tolerance);
+            }
+        }
+    }
+
+    @Test
+    public void testGridDensity() throws Exception {
+        int[] coarse = ((ApproximateTransform2D) ApproximateTransform2D.create(exact, DOMAIN, 100))
+                .getGridSize();
+        int[] fine = ((ApproximateTransform2D) ApproximateTransform2D.create(exact, DOMAIN, 25))
+                .getGridSize();
+        assertTrue(fine[0] * fine[1] > coarse[0] * coarse[1]);
+    }
+
+    @Test
+    public void testOutsideDomain() throws Exception {
+        MathTransform2D approximate = ApproximateTransform2D.create(exact, DOMAIN, 100);
+        double[] source = new double[] { -10, 35, 35, 65, Double.NaN, 50 };
+        double[] expected = new double[source.length];
+        exact.transform(source, 0, expected, 0, 3);
+        double[] actual = new double[source.length];
+        approximate.transform(source, 0, actual, 0, 3);
+        assertArrayEquals(expected, actual, 0d);
+    }
+
+    @Test
+    public void testDomainCorners() throws Exception {
+        MathTransform2D approximate = ApproximateTransform2D.create(exact, DOMAIN, 100);
+        double[] source = new double[] { DOMAIN.getMinX(), DOMAIN.getMinY(), DOMAIN.getMaxX(),
+                DOMAIN.getMaxY() };
+        double[] expected = new double[source.length];
+        exact.transform(source, 0, expected, 0, 2);
+        double[] actual = new double[source.length];
+        approximate.transform(source, 0, actual, 0, 2);
+        assertArrayEquals(expected, actual, 1e-6);
+    }
+
+    @Test
+    public void testOverlappingArrays() throws Exception {
+        MathTransform2D approximate = ApproximateTransform2D.create(exact, DOMAIN, 100);
+        double[] source = new double[] { 10, 45, 11, 46, 12, 47, 13, 48 };
+        assertTrue(approximate instanceof ApproximateTransform2D);
+        double[] expected = new double[source.length];
+        approximate.transform(source, 0, expected, 0, 4);
+
+        double[] shifted = new double[source.length + 2];
+        System.arraycopy(source, 0, shifted, 0, source.length);
+        approximate.transform(shifted, 0, shifted, 2, 4);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], shifted[i + 2], 0d);
+        }
+    }
+
+    @Test
+    public void testInverse() throws Exception {
+        MathTransform2D approximate = ApproximateTransform2D.create(exact, DOMAIN, 100);
+        assertEquals(exact.inverse(), approximate.inverse());
+    }
+
+    @Test
+    public void testNotApproximated() throws Exception {
+        MathTransform2D affine = new AffineTransform2D(AffineTransform.getScaleInstance(2, 3));
+        assertSame(affine, ApproximateTransform2D.create(affine, DOMAIN, 1));
+        assertSame(exact, ApproximateTransform2D.create(exact, DOMAIN, 0));
+        assertSame(exact, ApproximateTransform2D.create(exact, new Rectangle2D.Double(0, 40,
+                0, 20), 1));
+        // cannot be approximated to the micron with a reasonable grid
+        assertSame(exact, ApproximateTransform2D.create(exact, new Rectangle2D.Double(-180, -89,
+                360, 178), 1e-6));
+    }
+}
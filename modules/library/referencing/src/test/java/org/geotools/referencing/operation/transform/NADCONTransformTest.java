@@ -145,4 +145,22 @@ public class NADCONTransformTest {
         assertEquals(p[1], TEST_POINT_SRC[1], TOLERANCE);
     }
 
+
+    @Test
+    public void testTransformOverlapping() throws TransformException {
+        double[] expected = new double[2];
+        transform.transform(TEST_POINT_SRC, 0, expected, 0, 1);
+
+        // the same point three times, shifted in place by one point
+        double[] pts = new double[8];
+        for (int i = 0; i < 6; i += 2) {
+            pts[i] = TEST_POINT_SRC[0];
+            pts[i + 1] = TEST_POINT_SRC[1];
+        }
+        transform.transform(pts, 0, pts, 2, 3);
+        for (int i = 2; i < 8; i += 2) {
+            assertEquals(expected[0], pts[i], 0d);
+            assertEquals(expected[1], pts[i + 1], 0d);
+        }
+    }
 }
@@ -20,6 +20,10 @@ import static org.junit.Assert.*;
 
 import java.net.URI;
 import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -193,4 +197,35 @@ public class NTv2TransformTest {
         assertEquals(transform.hashCode(), t2.hashCode());
     }
 
+    @Test
+    public void testTransformMany() throws TransformException {
+        assertTransformMany();
+    }
+
+    @Test
+    public void testTransformManyLogging() throws TransformException {
+        // reporting the points not covered must not change the results
+        Logger logger = Logging.getLogger("org.geotools.referencing");
+        Level level = logger.getLevel();
+        logger.setLevel(Level.FINE);
+        try {
+            assertTransformMany();
+        } finally {
+            logger.setLevel(level);
+        }
+    }
+
+    private void assertTransformMany() throws TransformException {
+        // covered, outside of the grid, covered again, shifted in place by one point
+        double[] pts = new double[] { TEST_POINT_SRC[0], TEST_POINT_SRC[1], 50, 50,
+                TEST_POINT_SRC[0], TEST_POINT_SRC[1], 0, 0 };
+        transform.transform(pts, 0, pts, 2, 3);
+        assertEquals(TEST_POINT_DST[0], pts[2], TOLERANCE);
+        assertEquals(TEST_POINT_DST[1], pts[3], TOLERANCE);
+        assertEquals(50, pts[4], 0d);
+        assertEquals(50, pts[5], 0d);
+        assertEquals(TEST_POINT_DST[0], pts[6], TOLERANCE);
+        assertEquals(TEST_POINT_DST[1], pts[7], TOLERANCE);
+    }
+
 }
@@ -24,6 +24,7 @@ import org.geotools.factory.FactoryRegistryException;
 import org.geotools.feature.SchemaException;
 import org.geotools.geometry.GeneralEnvelope;
 import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.renderer.lite.gridcoverage2d.SymbolizedTileCache;
 import org.geotools.resources.coverage.FeatureUtilities;
 import org.geotools.styling.Style;
 import org.opengis.parameter.GeneralParameterValue;
@@ -129,6 +130,7 @@ public class GridReaderLayer extends RasterLayer {
     public void dispose() {
         preDispose();
         if (reader != null) {
+            SymbolizedTileCache.getInstance().invalidate(reader);
             try{
                 reader.dispose();
             }catch (Exception e) {
@@ -29,6 +29,7 @@ import java.awt.font.GlyphVector;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.io.IOException;
@@ -95,6 +96,7 @@ import org.geotools.referencing.CRS;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.geotools.referencing.operation.matrix.XAffineTransform;
 import org.geotools.referencing.operation.transform.AffineTransform2D;
+import org.geotools.referencing.operation.transform.ApproximateTransform2D;
 import org.geotools.referencing.operation.transform.ConcatenatedTransform;
 import org.geotools.referencing.operation.transform.ProjectiveTransform;
 import org.geotools.renderer.GTRenderer;
@@ -354,6 +356,15 @@ public class StreamingRenderer implements GTRenderer {
      */
     public static final String CONTINUOUS_MAP_WRAPPING = "continuousMapWrapping";
 
+    /**
+     * Maximum error, in pixels, allowed when reprojecting geometries. When set to a positive
+     * number the reprojection is approximated over the map extent by interpolating in a grid of
+     * exactly transformed points, see {@link ApproximateTransform2D}, which is considerably
+     * faster for expensive transformations and geometries with many vertices. Not set by
+     * default, meaning all vertices get transformed exactly.
+     */
+    public static final String APPROXIMATE_TRANSFORM_TOLERANCE_KEY = "approximateTransformTolerance";
+
     /**
      * Boolean flag indicating whether vector rendering should be preferred when
      * painting graphic fills. See {@link SLDStyleFactory#isVectorRenderingEnabled()}
@@ -1467,6 +1478,55 @@ public class StreamingRenderer implements GTRenderer {
         return Boolean.TRUE.equals(result);
     }
     
+    /**
+     * Returns the approximate transform tolerance, in pixels, or zero if approximation is disabled
+     * @return
+     */
+    private double getApproximateTransformTolerance() {
+        if (rendererHints == null)
+            return 0;
+        Object result = rendererHints.get(APPROXIMATE_TRANSFORM_TOLERANCE_KEY);
+        if (result instanceof Number) {
+            return ((Number) result).doubleValue();
+        } else if (result instanceof String) {
+            try {
+                return Double.parseDouble((String) result);
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid " + APPROXIMATE_TRANSFORM_TOLERANCE_KEY + " hint '"
+                        + result + "', transforming the geometries exactly");
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Approximates the transform over the map extent, expressed in the source CRS, returning the
+     * transform unchanged if approximation is disabled or not possible
+     * 
+     * @param mt The transform to approximate
+     * @param sourceCrs The source CRS of the transform
+     * @param tolerance The tolerance, in the target units of the transform
+     */
+    private MathTransform approximateTransform(MathTransform mt,
+            CoordinateReferenceSystem sourceCrs, double tolerance) {
+        if (!(mt instanceof MathTransform2D) || sourceCrs == null || mapExtent == null
+                || tolerance <= 0) {
+            return mt;
+        }
+        try {
+            ReferencedEnvelope domain = mapExtent.transform(sourceCrs, true);
+            return ApproximateTransform2D.create((MathTransform2D) mt, new Rectangle2D.Double(
+                    domain.getMinX(), domain.getMinY(), domain.getWidth(), domain.getHeight()),
+                    tolerance);
+        } catch (Exception e) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Could not approximate the transform, "
+                        + "will transform the geometries exactly", e);
+            }
+            return mt;
+        }
+    }
+
     /**
      * Checks if the geometries in spatial filters in the SLD must be assumed to be expressed
      * in the official EPSG axis order, regardless of how the referencing subsystem is configured
@@ -3040,6 +3100,17 @@ public class StreamingRenderer implements GTRenderer {
                     } else {
                         sa.rxform = sa.crsxform;
                     }
+                    double tolerance = getApproximateTransformTolerance();
+                    if (tolerance > 0 && screenSize != null && screenSize.width > 0) {
+                        // the rendering transform ends in world units, the full one in pixels
+                        if (projectionHandler != null) {
+                            double pixelSize = mapExtent.getWidth() / screenSize.width;
+                            sa.rxform = approximateTransform(sa.rxform, sa.crs, tolerance
+                                    * pixelSize);
+                        } else {
+                            sa.xform = approximateTransform(sa.xform, sa.crs, tolerance);
+                        }
+                    }
     
                     symbolizerAssociationHT.put(symbolizer, sa);
                 }
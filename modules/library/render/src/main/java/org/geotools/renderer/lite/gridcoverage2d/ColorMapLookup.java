@@ -0,0 +1,385 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.renderer.lite.gridcoverage2d;
+
+import it.geosolutions.jaiext.classifier.LinearColorMap;
+import it.geosolutions.jaiext.classifier.LinearColorMapElement;
+import it.geosolutions.jaiext.lookup.LookupTable;
+import it.geosolutions.jaiext.lookup.LookupTableFactory;
+import it.geosolutions.jaiext.piecewise.TransformationException;
+
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.media.jai.ImageLayout;
+import javax.media.jai.JAI;
+import javax.media.jai.PointOpImage;
+import javax.media.jai.util.ImagingException;
+
+import org.geotools.image.ImageWorker;
+import org.geotools.util.SizeBoundedLRUCache;
+
+/**
+ * Compiles a {@link LinearColorMap} into a form that can be evaluated per pixel at a fraction of
+ * the cost of the generic raster classifier, producing the very same palette indexes:
+ * <ul>
+ * <li>byte and unsigned short data go through a direct lookup table, built by classifying once
+ * every possible input value</li>
+ * <li>float and double data go through a sorted table of the color map classes, searched with a
+ * binary search, as long as each class maps to a single palette index (<code>values</code> and
+ * <code>intervals</code> color maps). Ramps on floating point data are left to the classifier,
+ * as interpolated indexes could not be guaranteed to match</li>
+ * </ul>
+ * The compiled forms do not handle ROI and NoData, images having them are left to the classifier
+ * as well. The lookup tables are cached by color map fingerprint (see
+ * {@link SLDColorMapBuilder#getFingerprint()}) and data types, so that the classification of all
+ * the possible input values happens once per color map. Set the {@value #COMPILED_COLOR_MAP_KEY}
+ * system property to false to disable the compilation altogether.
+ */
+final class ColorMapLookup {
+
+    /** System property enabling the compiled color maps, true by default */
+    static final String COMPILED_COLOR_MAP_KEY = "org.geotools.renderer.lite.gridcoverage2d.compiledColorMap";
+
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty(
+            COMPILED_COLOR_MAP_KEY, "true"));
+
+    /** Below this size a 64k entries lookup table costs more than classifying the image */
+    static final int MIN_USHORT_PIXELS = 65536;
+
+    /** Max size in bytes of the lookup tables cache, enough for 32 unsigned short tables */
+    static final long LOOKUP_CACHE_SIZE = 4 * 1024 * 1024;
+
+    private static final SizeBoundedLRUCache<LookupKey, CachedLookup> LOOKUP_TABLES = new SizeBoundedLRUCache<LookupKey, CachedLookup>(
+            LOOKUP_CACHE_SIZE) {
+
+        @Override
+        protected long sizeOf(LookupKey key, CachedLookup value) {
+            // the key string can be large too, with many color map entries
+            return (value.table == null ? 0 : key.tableSize()) + 2L * key.colorMapKey.length()
+                    + 64;
+        }
+    };
+
+    private ColorMapLookup() {
+    }
+
+    /**
+     * Applies the compiled color map to the single banded source image, or returns null if the
+     * color map cannot be compiled for it.
+     *
+     * @param source the image to classify
+     * @param colorMap the color map
+     * @param colorMapKey identifies the color map content for the lookup tables cache, null to
+     *        skip the cache
+     */
+    static RenderedImage classify(RenderedImage source, LinearColorMap colorMap,
+            String colorMapKey) {
+        if (!ENABLED || source.getSampleModel().getNumBands() != 1) {
+            return null;
+        }
+        // same color and sample models as the raster classifier
+        final ColorModel cm = colorMap.getColorModel();
+        final int sourceType = source.getSampleModel().getDataType();
+        final int outputType = cm.createCompatibleSampleModel(1, 1).getDataType();
+        if (outputType != DataBuffer.TYPE_BYTE && outputType != DataBuffer.TYPE_USHORT) {
+            return null;
+        }
+        final ImageLayout layout = new ImageLayout(source);
+        layout.setColorModel(cm);
+        layout.setSampleModel(cm.createCompatibleSampleModel(source.getTileWidth(),
+                source.getTileHeight()));
+        final RenderingHints hints = new RenderingHints(JAI.KEY_IMAGE_LAYOUT, layout);
+        hints.put(JAI.KEY_TRANSFORM_ON_COLORMAP, Boolean.FALSE);
+
+        switch (sourceType) {
+        case DataBuffer.TYPE_BYTE:
+        case DataBuffer.TYPE_USHORT:
+            if (sourceType == DataBuffer.TYPE_USHORT
+                    && (long) source.getWidth() * source.getHeight() < MIN_USHORT_PIXELS) {
+                return null;
+            }
+            final LookupTable table = getLookupTable(colorMap, colorMapKey, sourceType,
+                    outputType);
+            if (table == null) {
+                return null;
+            }
+            return new ImageWorker(source).setRenderingHints(hints).lookup(table)
+                    .getRenderedImage();
+        case DataBuffer.TYPE_FLOAT:
+        case DataBuffer.TYPE_DOUBLE:
+            final ClassTable classes = ClassTable.build(colorMap);
+            if (classes == null) {
+                return null;
+            }
+            return new ClassTableOpImage(source, layout, hints, classes);
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Returns the lookup table of the color map, from the cache if the color map key is not null,
+     * or null if some of the values cannot be classified
+     */
+    static LookupTable getLookupTable(LinearColorMap colorMap, String colorMapKey,
+            int sourceType, int outputType) {
+        if (colorMapKey == null) {
+            return buildLookupTable(colorMap, sourceType, outputType);
+        }
+        final LookupKey key = new LookupKey(colorMapKey, sourceType, outputType);
+        CachedLookup cached = LOOKUP_TABLES.get(key);
+        if (cached == null) {
+            // concurrent requests might build the same table twice, no harm done
+            cached = new CachedLookup(buildLookupTable(colorMap, sourceType, outputType));
+            LOOKUP_TABLES.put(key, cached);
+        }
+        return cached.table;
+    }
+
+    /**
+     * Builds a lookup table holding the palette index of each possible value of the source data
+     * type, as computed by the raster classifier itself, or null if some of the values cannot be
+     * classified
+     */
+    static LookupTable buildLookupTable(LinearColorMap colorMap, int sourceType, int outputType) {
+        final int size = sourceType == DataBuffer.TYPE_BYTE ? 256 : 65536;
+        final BufferedImage probe = new BufferedImage(256, size / 256,
+                sourceType == DataBuffer.TYPE_BYTE ? BufferedImage.TYPE_BYTE_GRAY
+                        : BufferedImage.TYPE_USHORT_GRAY);
+        final WritableRaster raster = probe.getRaster();
+        for (int value = 0; value < size; value++) {
+            raster.setSample(value & 0xFF, value >> 8, 0, value);
+        }
+        final int[] indexes;
+        try {
+            final RenderedImage classified = new ImageWorker(probe).classify(colorMap, null)
+                    .getRenderedImage();
+            final Raster data = classified.getData();
+            indexes = data.getSamples(data.getMinX(), data.getMinY(), 256, size / 256, 0,
+                    (int[]) null);
+        } catch (RuntimeException e) {
+            // values not covered by the color map, the image might not contain them
+            return null;
+        }
+        if (outputType == DataBuffer.TYPE_BYTE) {
+            final byte[] lut = new byte[size];
+            for (int i = 0; i < size; i++) {
+                lut[i] = (byte) indexes[i];
+            }
+            return LookupTableFactory.create(lut, DataBuffer.TYPE_BYTE);
+        } else {
+            final short[] lut = new short[size];
+            for (int i = 0; i < size; i++) {
+                lut[i] = (short) indexes[i];
+            }
+            return LookupTableFactory.create(lut, true);
+        }
+    }
+
+    /**
+     * Identifies a lookup table in the cache
+     */
+    static final class LookupKey {
+
+        final String colorMapKey;
+
+        final int sourceType;
+
+        final int outputType;
+
+        LookupKey(String colorMapKey, int sourceType, int outputType) {
+            this.colorMapKey = colorMapKey;
+            this.sourceType = sourceType;
+            this.outputType = outputType;
+        }
+
+        long tableSize() {
+            final int entries = sourceType == DataBuffer.TYPE_BYTE ? 256 : 65536;
+            return outputType == DataBuffer.TYPE_BYTE ? entries : entries * 2;
+        }
+
+        @Override
+        public int hashCode() {
+            return (colorMapKey.hashCode() * 31 + sourceType) * 31 + outputType;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof LookupKey)) {
+                return false;
+            }
+            final LookupKey other = (LookupKey) obj;
+            return sourceType == other.sourceType && outputType == other.outputType
+                    && colorMapKey.equals(other.colorMapKey);
+        }
+    }
+
+    /**
+     * A cached lookup table, null if the color map cannot be compiled into one
+     */
+    static final class CachedLookup {
+
+        final LookupTable table;
+
+        CachedLookup(LookupTable table) {
+            this.table = table;
+        }
+    }
+
+    /**
+     * The classes of a color map whose classes all map to a single palette index, sorted by
+     * their minimum value
+     */
+    static final class ClassTable {
+
+        private final LinearColorMap colorMap;
+
+        private final double[] minimums;
+
+        private final LinearColorMapElement[] elements;
+
+        private final int[] indexes;
+
+        /** The index NaN maps to, or -1 if it has to be computed by the color map */
+        private final int nanIndex;
+
+        private ClassTable(LinearColorMap colorMap, LinearColorMapElement[] elements,
+                int nanIndex) {
+            this.colorMap = colorMap;
+            this.elements = elements;
+            this.nanIndex = nanIndex;
+            this.minimums = new double[elements.length];
+            this.indexes = new int[elements.length];
+            for (int i = 0; i < elements.length; i++) {
+                minimums[i] = elements[i].getInputMinimum();
+                indexes[i] = (int) elements[i].getOutputMinimum();
+            }
+        }
+
+        /**
+         * Returns the table for the color map, or null if some of its classes map to a range of
+         * palette indexes
+         */
+        static ClassTable build(LinearColorMap colorMap) {
+            final LinearColorMapElement[] domain = colorMap.getDomainElements();
+            if (domain == null || domain.length == 0) {
+                return null;
+            }
+            final List<LinearColorMapElement> elements = new ArrayList<LinearColorMapElement>();
+            for (LinearColorMapElement element : domain) {
+                if (Double.isNaN(element.getInputMinimum())) {
+                    // NaN is handled apart
+                    continue;
+                }
+                final double index = element.getOutputMinimum();
+                if (Double.isNaN(index) || index != element.getOutputMaximum()
+                        || Math.rint(index) != index) {
+                    return null;
+                }
+                elements.add(element);
+            }
+            Collections.sort(elements, new Comparator<LinearColorMapElement>() {
+
+                @Override
+                public int compare(LinearColorMapElement e1, LinearColorMapElement e2) {
+                    return Double.compare(e1.getInputMinimum(), e2.getInputMinimum());
+                }
+            });
+            int nanIndex = -1;
+            try {
+                final double index = colorMap.transform(Double.NaN);
+                if (Math.rint(index) == index && index >= 0) {
+                    nanIndex = (int) index;
+                }
+            } catch (TransformationException e) {
+                // NaN is not mapped, will fail the same way when met
+            }
+            return new ClassTable(colorMap,
+                    elements.toArray(new LinearColorMapElement[elements.size()]), nanIndex);
+        }
+
+        int index(double value) throws TransformationException {
+            if (value != value) {
+                return nanIndex >= 0 ? nanIndex : (int) colorMap.transform(value);
+            }
+            // find the last class whose minimum is not greater than the value
+            int low = 0;
+            int high = minimums.length - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                if (minimums[mid] <= value) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            if (high >= 0 && elements[high].contains(value)) {
+                return indexes[high];
+            }
+            // an exclusive minimum leaves the value to the previous class
+            if (high > 0 && elements[high - 1].contains(value)) {
+                return indexes[high - 1];
+            }
+            // gaps and preserved values
+            return (int) colorMap.transform(value);
+        }
+    }
+
+    /**
+     * Classifies floating point images through a {@link ClassTable}
+     */
+    static final class ClassTableOpImage extends PointOpImage {
+
+        private final ClassTable classes;
+
+        ClassTableOpImage(RenderedImage source, ImageLayout layout, RenderingHints hints,
+                ClassTable classes) {
+            super(source, layout, hints, true);
+            this.classes = classes;
+        }
+
+        @Override
+        protected void computeRect(Raster[] sources, WritableRaster dest, Rectangle destRect) {
+            final Raster source = sources[0];
+            final int width = destRect.width;
+            final double[] values = new double[width];
+            final int[] indexes = new int[width];
+            try {
+                for (int y = destRect.y; y < destRect.y + destRect.height; y++) {
+                    source.getSamples(destRect.x, y, width, 1, 0, values);
+                    for (int i = 0; i < width; i++) {
+                        indexes[i] = classes.index(values[i]);
+                    }
+                    dest.setSamples(destRect.x, y, width, 1, 0, indexes);
+                }
+            } catch (TransformationException e) {
+                throw new ImagingException(e.getLocalizedMessage(), e);
+            }
+        }
+    }
+}
@@ -23,7 +23,6 @@ import java.awt.image.RenderedImage;
 import java.util.HashMap;
 import java.util.Map;
 
-import javax.media.jai.RenderedOp;
 
 import org.geotools.coverage.GridSampleDimension;
 import org.geotools.coverage.TypeMap;
@@ -91,6 +90,9 @@ class ColorMapNode extends StyleVisitorCoverageProcessingNodeAdapter implements
 	 */
 	private LinearColorMap colorMapTransform;
 
+	/** Identifies the {@link #colorMapTransform} content, see {@link SLDColorMapBuilder#getFingerprint()} */
+	private String colorMapKey;
+
 	/**
      * Do we want 16 bits or 8 bits colormap?
      * @uml.property  name="extendedColors"
@@ -196,6 +198,7 @@ class ColorMapNode extends StyleVisitorCoverageProcessingNodeAdapter implements
 			//
 			// /////////////////////////////////////////////////////////////////////
 			colorMapTransform = builder.buildLinearColorMap();
+			colorMapKey = builder.getFingerprint();
 
 		} else
 			this.type = -1;
@@ -291,8 +294,16 @@ class ColorMapNode extends StyleVisitorCoverageProcessingNodeAdapter implements
 	        w.setROI(CoverageUtilities.getROIProperty(sourceCoverage));
 	        NoDataContainer noDataProperty = CoverageUtilities.getNoDataProperty(sourceCoverage);
                 w.setNoData(noDataProperty != null ? noDataProperty.getAsRange() : null);
-	        w.classify(colorMapTransform, null);
-	        final RenderedOp classified = w.getRenderedOperation();//JAI.create(RasterClassifierOpImage.OPERATION_NAME,pbj);
+	        // use the compiled color map when possible, it gives the same result much faster
+	        RenderedImage classified = null;
+	        if (w.getROI() == null && w.getNoData() == null) {
+	            classified = ColorMapLookup.classify(w.getRenderedImage(), colorMapTransform,
+	                    colorMapKey);
+	        }
+	        if (classified == null) {
+	            w.classify(colorMapTransform, null);
+	            classified = w.getRenderedOperation();//JAI.create(RasterClassifierOpImage.OPERATION_NAME,pbj);
+	        }
 
 	        ////
 	        //
@@ -311,12 +322,14 @@ class ColorMapNode extends StyleVisitorCoverageProcessingNodeAdapter implements
                 // Create the the output coverage by preserving its gridgeometry and its bands
                 //
                 ////
-		Map properties = sourceCoverage.getProperties();
-		if(properties == null){
-		    properties = new HashMap<>();
+		Map properties = new HashMap<>();
+		if(sourceCoverage.getProperties() != null){
+		    properties.putAll(sourceCoverage.getProperties());
 		}
 		CoverageUtilities.setROIProperty(properties, w.getROI());
                 CoverageUtilities.setNoDataProperty(properties, w.getNoData());
+                // the statistics of the source values do not apply to the colors
+                properties.remove(RasterStatistics.PROPERTY);
 
                 return getCoverageFactory().create(
         		        "color_mapped_"+sourceCoverage.getName().toString(), 
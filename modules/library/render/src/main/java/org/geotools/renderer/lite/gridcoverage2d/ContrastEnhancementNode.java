@@ -281,23 +281,31 @@ class ContrastEnhancementNode extends StyleVisitorCoverageProcessingNodeAdapter
 				// apply HISTOGRAM anyway
 				//
 				////
-                                ImageWorker worker;
-				if(type!=null&&type.equalsIgnoreCase("HISTOGRAM"))
-				{
-				        worker = 
+                                ImageWorker worker =  
 						new ImageWorker(sourceImage)
 					                .setROI(roi).setNoData(nodata)
 							.setRenderingHints(hints)
-							.forceComponentColorModel()
-							.rescaleToBytes();
+							.forceComponentColorModel();
+
+				// //
+				//
+				// Precomputed statistics of the whole raster, they can
+				// be used only if we are working on the original band
+				//
+				// //
+				RasterStatistics statistics = RasterStatistics.get(source);
+				if (statistics != null && worker.getNumBands() != 1) {
+				        statistics = null;
 				}
-				else
+				if(type!=null&&type.equalsIgnoreCase("HISTOGRAM"))
 				{
-                                        worker =  
-						new ImageWorker(sourceImage)
-					                .setROI(roi).setNoData(nodata)
-							.setRenderingHints(hints)
-							.forceComponentColorModel();
+				        if (statistics != null) {
+				                worker.rescaleToBytes(
+				                        new double[] { statistics.getMinimum() },
+				                        new double[] { statistics.getMaximum() });
+				        } else {
+				                worker.rescaleToBytes();
+				        }
 				}
 				final int numbands = worker.getNumBands();
 
@@ -362,7 +370,7 @@ class ContrastEnhancementNode extends StyleVisitorCoverageProcessingNodeAdapter
 				// 
 				//
 				// /////////////////////////////////////////////////////////////////////
-				performContrastEnhancement(intensityWorker, hints);	
+				performContrastEnhancement(intensityWorker, hints, statistics);	
 
 				// /////////////////////////////////////////////////////////////////////
 				//
@@ -372,7 +380,10 @@ class ContrastEnhancementNode extends StyleVisitorCoverageProcessingNodeAdapter
 				// correction function's values.
 				//
 				// /////////////////////////////////////////////////////////////////////
-				performGammaCorrection(intensityWorker,hints);
+				// the statistics are no longer valid if a contrast
+				// enhancement has been applied
+				performGammaCorrection(intensityWorker, hints,
+						contrastEnhancementMethod == null ? statistics : null);
 
 				// /////////////////////////////////////////////////////////////////////
 				//
@@ -503,9 +514,11 @@ class ContrastEnhancementNode extends StyleVisitorCoverageProcessingNodeAdapter
      * 
      * @param inputImage the input {@link RenderedImage} to work on.
      * @param hints {@link Hints} to control the contrast enhancement process.
+     * @param statistics precomputed statistics of the input image, or null
      * @return a {@link RenderedImage} on which a contrast enhancement has been performed.
      */
-    private RenderedImage performContrastEnhancement(ImageWorker inputWorker, final Hints hints) {
+    private RenderedImage performContrastEnhancement(ImageWorker inputWorker, final Hints hints,
+            final RasterStatistics statistics) {
         inputWorker.setRenderingHints(hints);
 
         if (contrastEnhancementMethod != null) {
@@ -513,7 +526,8 @@ class ContrastEnhancementNode extends StyleVisitorCoverageProcessingNodeAdapter
             assert inputImage.getSampleModel().getNumBands() == 1 : inputImage;
 
             ContrastEnhancementType ceType = ContrastEnhancementType.getType(contrastEnhancementMethod);
-            return ceType.process(inputWorker, hints, contrastEnhancementMethod.getParameters());
+            return ceType.process(inputWorker, hints, contrastEnhancementMethod.getParameters(),
+                    statistics);
         }
 
         return inputWorker.getRenderedImage();
@@ -525,9 +539,11 @@ class ContrastEnhancementNode extends StyleVisitorCoverageProcessingNodeAdapter
      * 
      * @param inputImage the input {@link RenderedImage} to work on.
      * @param hints {@link Hints} to control the contrast enhancement process.
+     * @param statistics precomputed statistics of the input image, or null
      * @return a {@link RenderedImage} on which a gamma correction has been performed.
      */
-    private RenderedImage performGammaCorrection(ImageWorker worker, final Hints hints) {
+    private RenderedImage performGammaCorrection(ImageWorker worker, final Hints hints,
+            final RasterStatistics statistics) {
         worker.setRenderingHints(hints);
 
         // note that we should work on a single band
@@ -557,10 +573,12 @@ class ContrastEnhancementNode extends StyleVisitorCoverageProcessingNodeAdapter
                 // Generic case
                 //
                 //
-                // STEP 1 do the extrema
+                // STEP 1 do the extrema, unless they are known already
                 //
-                final double[] minimum = worker.getMinimums();
-                final double[] maximum = worker.getMaximums();
+                final double[] minimum = statistics != null ? new double[] { statistics
+                        .getMinimum() } : worker.getMinimums();
+                final double[] maximum = statistics != null ? new double[] { statistics
+                        .getMaximum() } : worker.getMaximums();
 
                 //
                 // STEP 2 do the gamma correction by using generic piecewise
@@ -241,15 +241,29 @@ public enum ContrastEnhancementType {
             // IT WORKS ONLY ON BYTE DATA TYPE!!!
             //
 
-            // convert the input image to 8 bit
-            inputWorker.rescaleToBytes();
+            return process(inputWorker, hints, parameters, null);
+        }
 
-            // compute the histogram
-            final Histogram h = inputWorker.removeRenderingHints().getHistogram(null, null, null);
+        @Override
+        RenderedImage process(ImageWorker inputWorker, Hints hints,
+                Map<String, Expression> parameters, RasterStatistics statistics) {
+            Map<String, Object> params = new HashMap<String, Object>();
+            if (statistics != null) {
+                // convert the input image to 8 bit the same way the statistics have been computed
+                inputWorker.rescaleToBytes(new double[] { statistics.getMinimum() },
+                        new double[] { statistics.getMaximum() });
+                params.put(KEY_STATISTICS, statistics);
+            } else {
+                // convert the input image to 8 bit
+                inputWorker.rescaleToBytes();
+
+                // compute the histogram
+                final Histogram h = inputWorker.removeRenderingHints().getHistogram(null, null,
+                        null);
+                params.put(KEY_HISTOGRAM, h);
+            }
 
             // do the actual lookup
-            Map<String, Object> params = new HashMap<String, Object>();
-            params.put(KEY_HISTOGRAM, h);
             LookupTable table = createByteLookupTable(params);
             inputWorker.setRenderingHints(hints);
             inputWorker.lookup(table);
@@ -259,37 +273,38 @@ public enum ContrastEnhancementType {
         @Override
         LookupTable createByteLookupTable(Map<String, Object> params) {
             Utilities.ensureNonNull("params", params);
-            Histogram h = (Histogram) params.get(KEY_HISTOGRAM);
-            final byte[] cumulative = new byte[h.getNumBins(0)];
-
-            // sum of bins (we might have excluded 0 hence we cannot really optimise)
-            float totalBinSum = 0;
-            for (int i = 0; i < cumulative.length; i++) {
-                totalBinSum += h.getBinSize(0, i);
-            }
-
-            // this is the scale factor for the histogram equalization process
-            final float scale = (float) (h.getHighValue(0) - 1 - h.getLowValue(0)) / totalBinSum;
-            float sum = 0;
-            for (int i = 1; i < cumulative.length; i++) {
-                sum += h.getBinSize(0, i - 1);
-                cumulative[i] = (byte) ((sum * scale + h.getLowValue(0)) + .5F);
+            RasterStatistics statistics = (RasterStatistics) params.get(KEY_STATISTICS);
+            if (statistics != null) {
+                return generateEqualizationLookupTable(statistics.getBins(),
+                        statistics.getLowValue(), statistics.getHighValue());
             }
-
-            return generateLookupTableByte(cumulative);
+            Histogram h = (Histogram) params.get(KEY_HISTOGRAM);
+            return generateEqualizationLookupTable(h.getBins(0), h.getLowValue(0),
+                    h.getHighValue(0));
         }
     },
 
     NORMALIZE_DEFAULT {
         @Override
         RenderedImage process(ImageWorker inputWorker, Hints hints, Map<String, Expression> parameters) {
+            return process(inputWorker, hints, parameters, null);
+        }
 
-            // step 1 do the extrema to get the statistics for this image
+        @Override
+        RenderedImage process(ImageWorker inputWorker, Hints hints,
+                Map<String, Expression> parameters, RasterStatistics statistics) {
+
+            // step 1 do the extrema to get the statistics for this image, unless they are known
             final double[][] extrema = new double[2][];
             inputWorker.removeRenderingHints();
             RenderedImage inputImage = inputWorker.getRenderedImage();
-            extrema[0] = inputWorker.getMinimums();
-            extrema[1] = inputWorker.getMaximums();
+            if (statistics != null) {
+                extrema[0] = new double[] { statistics.getMinimum() };
+                extrema[1] = new double[] { statistics.getMaximum() };
+            } else {
+                extrema[0] = inputWorker.getMinimums();
+                extrema[1] = inputWorker.getMaximums();
+            }
             final int numBands = extrema[0].length;
             assert numBands == 1 : inputWorker.getRenderedOperation();
             final int dataType = inputImage.getSampleModel().getDataType();
@@ -647,13 +662,43 @@ public enum ContrastEnhancementType {
         // create the lookup table
         final byte[] lut = new byte[256];
         for (int i = 1; i < lut.length; i++) {
-            lut[i] = (byte) (scale * i + offset + 0.5d);
+            // clamp, the extrema might come from precomputed statistics
+            lut[i] = (byte) Math.max(MIN_BYTE, Math.min(MAX_BYTE, scale * i + offset + 0.5d));
         }
 
         return generateLookupTableByte(lut);
 
     }
 
+    /**
+     * Generate the histogram equalization byte LookupTable for the specified histogram
+     * 
+     * @param bins the histogram bins
+     * @param lowValue the lowest value of the histogram
+     * @param highValue the highest value of the histogram
+     * @return
+     */
+    static LookupTable generateEqualizationLookupTable(int[] bins, double lowValue,
+            double highValue) {
+        final byte[] cumulative = new byte[bins.length];
+
+        // sum of bins (we might have excluded 0 hence we cannot really optimise)
+        float totalBinSum = 0;
+        for (int i = 0; i < cumulative.length; i++) {
+            totalBinSum += bins[i];
+        }
+
+        // this is the scale factor for the histogram equalization process
+        final float scale = (float) (highValue - 1 - lowValue) / totalBinSum;
+        float sum = 0;
+        for (int i = 1; i < cumulative.length; i++) {
+            sum += bins[i - 1];
+            cumulative[i] = (byte) ((sum * scale + lowValue) + .5F);
+        }
+
+        return generateLookupTableByte(cumulative);
+    }
+
     /** 
      * Main processing methods to be implemented by specific
      * contrast enhancement algorithm to return an enhanced
@@ -666,6 +711,22 @@ public enum ContrastEnhancementType {
      */
     abstract RenderedImage process(ImageWorker inputWorker, Hints hints, Map<String, Expression> parameters);
 
+    /**
+     * Same as {@link #process(ImageWorker, Hints, Map)}, but using the provided statistics of the
+     * whole raster, when available, instead of computing them on the input image. The default
+     * implementation ignores them, as most algorithms do not depend on the image statistics.
+     * 
+     * @param inputWorker
+     * @param hints
+     * @param parameters
+     * @param statistics the precomputed statistics of the input band, or null
+     * @return
+     */
+    RenderedImage process(ImageWorker inputWorker, Hints hints,
+            Map<String, Expression> parameters, RasterStatistics statistics) {
+        return process(inputWorker, hints, parameters);
+    }
+
     /**
      * Create a byte LookupTable, specific for optimized byte cases.
      *
@@ -716,6 +777,9 @@ public enum ContrastEnhancementType {
     /** Parameter Key used to refer to the histogram instance*/
     public static final String KEY_HISTOGRAM = "histogram";
 
+    /** Parameter Key used to refer to the precomputed {@link RasterStatistics} instance */
+    public static final String KEY_STATISTICS = "statistics";
+
     /** Parameter Key used to refer to the correctionFactor value */
     public static final String KEY_CORRECTION_FACTOR = "correctionFactor";
 
@@ -838,6 +838,20 @@ public final class GridCoverageRenderer {
             }
         }
 
+        // attach the precomputed statistics of the source levels, if the contrast enhancement
+        // needs them, to avoid computing them over each rendered area
+        final RasterStatisticsStore statisticsStore = RasterStatisticsStore.getInstance();
+        if (statisticsStore.isEnabled() && !GridCoverageReaderHelper.isReprojectingReader(reader)
+                && RasterStatisticsStore.needsStatistics(finalSymbolizer)) {
+            for (int i = 0; i < coverages.size(); i++) {
+                GridCoverage2D coverage = coverages.get(i);
+                if (coverage != null) {
+                    coverages.set(i, statisticsStore.attachStatistics(reader, readParams,
+                            coverage, gridCoverageFactory));
+                }
+            }
+        }
+
         // establish the background values, and expand palettes if the bgcolor cannot be represented
         double[] bgValues = GridCoverageRendererUtilities.colorToArray(background);
         //If coverage is out of view area, coverages has size 1 but the first element is null
@@ -865,6 +879,23 @@ public final class GridCoverageRenderer {
             }
         }
 
+        // symbolize in the raster space of the reader, if the outcome is not going to change,
+        // so that the symbolized source tiles can be cached and shared among requests
+        final SymbolizedTileCache tileCache = SymbolizedTileCache.getInstance();
+        boolean preSymbolized = false;
+        if (!reprojectionNeeded && tileCache.isEnabled()
+                && !GridCoverageReaderHelper.isReprojectingReader(reader)
+                && SymbolizedTileCache.accepts(finalSymbolizer, interpolation)) {
+            for (int i = 0; i < coverages.size(); i++) {
+                GridCoverage2D coverage = coverages.get(i);
+                if (coverage != null) {
+                    coverages.set(i, tileCache.symbolize(reader, readParams, coverage,
+                            finalSymbolizer, hints, gridCoverageFactory));
+                }
+            }
+            preSymbolized = true;
+        }
+
         // if we need to reproject, we need to ensure that none of the pixels go out of
         // the projection valid area, not even slightly
         if (reprojectionNeeded && handler != null && handler.getValidAreaBounds() != null) {
@@ -965,8 +996,8 @@ public final class GridCoverageRenderer {
         List<GridCoverage2D> symbolizedCoverages = new ArrayList<>();
         int ii = 0;
         for (GridCoverage2D displaced : displacedCoverages) {
-            GridCoverage2D symbolized = symbolize(displaced, finalSymbolizer,
-                    bgValues);
+            GridCoverage2D symbolized = symbolize(displaced, preSymbolized ? null
+                    : finalSymbolizer, bgValues);
             if(symbolized != null) {
                 symbolizedCoverages.add(symbolized);
             }
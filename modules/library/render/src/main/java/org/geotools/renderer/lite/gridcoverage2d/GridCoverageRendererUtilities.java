@@ -20,6 +20,7 @@ import java.awt.Color;
 import java.awt.Rectangle;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.RenderedImage;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -30,6 +31,7 @@ import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridCoverageFactory;
 import org.geotools.coverage.grid.GridEnvelope2D;
 import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
 import org.geotools.coverage.processing.CoverageProcessor;
 import org.geotools.coverage.processing.operation.Crop;
 import org.geotools.coverage.processing.operation.Mosaic;
@@ -43,6 +45,8 @@ import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.geotools.renderer.i18n.ErrorKeys;
 import org.geotools.renderer.i18n.Errors;
 import org.opengis.coverage.grid.GridEnvelope;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
 import org.opengis.parameter.ParameterValueGroup;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -523,6 +527,37 @@ final class GridCoverageRendererUtilities {
         
     }
 
+    /**
+     * Encodes the read parameters that can change the data read, that is, all of them but the
+     * requested grid geometry, in a string that can be used to compare them
+     */
+    static String encodeReadParameters(GeneralParameterValue[] readParams) {
+        if (readParams == null) {
+            return "";
+        }
+        final String gridGeometry = AbstractGridFormat.READ_GRIDGEOMETRY2D.getName().getCode();
+        final StringBuilder sb = new StringBuilder();
+        for (GeneralParameterValue param : readParams) {
+            if (param == null) {
+                continue;
+            }
+            final String code = param.getDescriptor().getName().getCode();
+            if (gridGeometry.equals(code)) {
+                continue;
+            }
+            sb.append(code).append('=');
+            if (param instanceof ParameterValue) {
+                Object value = ((ParameterValue<?>) param).getValue();
+                sb.append(value instanceof Object[] ? Arrays.deepToString((Object[]) value)
+                        : String.valueOf(value));
+            } else {
+                sb.append(param);
+            }
+            sb.append(';');
+        }
+        return sb.toString();
+    }
+
     /**
      * @param color
      * @return
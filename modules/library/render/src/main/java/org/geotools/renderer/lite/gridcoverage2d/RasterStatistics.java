@@ -0,0 +1,171 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.renderer.lite.gridcoverage2d;
+
+import it.geosolutions.jaiext.range.NoDataContainer;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import javax.media.jai.Histogram;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.image.ImageWorker;
+import org.geotools.resources.coverage.CoverageUtilities;
+
+/**
+ * Statistics of a single band raster, as used by the {@link ContrastEnhancementType}s: the
+ * extrema of the band, and the histogram of the band values rescaled to bytes with those extrema.
+ * <p>
+ * When attached to a coverage as the {@value #PROPERTY} property, the
+ * {@link ContrastEnhancementNode} uses them in place of the statistics of the rendered area, which
+ * saves a full pass over the pixels and makes adjacent tiles share the same stretch.
+ * </p>
+ *
+ * @see RasterStatisticsStore
+ */
+public final class RasterStatistics implements Serializable {
+
+    private static final long serialVersionUID = -2372845407127318421L;
+
+    /** The coverage property holding the statistics */
+    public static final String PROPERTY = "GC_RASTER_STATISTICS";
+
+    private final double minimum;
+
+    private final double maximum;
+
+    private final int[] bins;
+
+    private final double lowValue;
+
+    private final double highValue;
+
+    /**
+     * @param minimum the minimum value of the band
+     * @param maximum the maximum value of the band
+     * @param bins the histogram of the band values rescaled to bytes
+     * @param lowValue the lowest value included in the histogram
+     * @param highValue the highest value, excluded, of the histogram
+     */
+    public RasterStatistics(double minimum, double maximum, int[] bins, double lowValue,
+            double highValue) {
+        if (bins == null || bins.length == 0) {
+            throw new IllegalArgumentException("The histogram must have at least one bin");
+        }
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.bins = bins.clone();
+        this.lowValue = lowValue;
+        this.highValue = highValue;
+    }
+
+    public double getMinimum() {
+        return minimum;
+    }
+
+    public double getMaximum() {
+        return maximum;
+    }
+
+    /**
+     * Returns a copy of the histogram bins
+     */
+    public int[] getBins() {
+        return bins.clone();
+    }
+
+    public double getLowValue() {
+        return lowValue;
+    }
+
+    public double getHighValue() {
+        return highValue;
+    }
+
+    /**
+     * Returns the statistics attached to the coverage, if any, and if they can be used for it, that
+     * is, if the coverage has a single band
+     */
+    static RasterStatistics get(GridCoverage2D coverage) {
+        final Object statistics = coverage.getProperty(PROPERTY);
+        if (statistics instanceof RasterStatistics && coverage.getNumSampleDimensions() == 1
+                && coverage.getRenderedImage().getSampleModel().getNumBands() == 1) {
+            return (RasterStatistics) statistics;
+        }
+        return null;
+    }
+
+    /**
+     * Computes the statistics of a single band coverage, honoring its ROI and NoData
+     */
+    public static RasterStatistics compute(GridCoverage2D coverage) {
+        if (coverage.getRenderedImage().getSampleModel().getNumBands() != 1) {
+            throw new IllegalArgumentException("Statistics can be computed on single band "
+                    + "coverages only, " + coverage.getName() + " has "
+                    + coverage.getRenderedImage().getSampleModel().getNumBands() + " bands");
+        }
+        final NoDataContainer noData = CoverageUtilities.getNoDataProperty(coverage);
+        final ImageWorker worker = new ImageWorker(coverage.getRenderedImage())
+                .setROI(CoverageUtilities.getROIProperty(coverage))
+                .setNoData(noData != null ? noData.getAsRange() : null);
+        final double minimum = worker.getMinimums()[0];
+        final double maximum = worker.getMaximums()[0];
+        // same steps as the histogram contrast enhancement
+        worker.rescaleToBytes(new double[] { minimum }, new double[] { maximum });
+        final Histogram histogram = worker.removeRenderingHints().getHistogram(null, null, null);
+        return new RasterStatistics(minimum, maximum, histogram.getBins(0),
+                histogram.getLowValue(0), histogram.getHighValue(0));
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = Arrays.hashCode(bins);
+        long temp = Double.doubleToLongBits(minimum);
+        result = prime * result + (int) (temp ^ (temp >>> 32));
+        temp = Double.doubleToLongBits(maximum);
+        result = prime * result + (int) (temp ^ (temp >>> 32));
+        temp = Double.doubleToLongBits(lowValue);
+        result = prime * result + (int) (temp ^ (temp >>> 32));
+        temp = Double.doubleToLongBits(highValue);
+        result = prime * result + (int) (temp ^ (temp >>> 32));
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof RasterStatistics)) {
+            return false;
+        }
+        final RasterStatistics other = (RasterStatistics) obj;
+        return Double.doubleToLongBits(minimum) == Double.doubleToLongBits(other.minimum)
+                && Double.doubleToLongBits(maximum) == Double.doubleToLongBits(other.maximum)
+                && Double.doubleToLongBits(lowValue) == Double.doubleToLongBits(other.lowValue)
+                && Double.doubleToLongBits(highValue) == Double.doubleToLongBits(other.highValue)
+                && Arrays.equals(bins, other.bins);
+    }
+
+    @Override
+    public String toString() {
+        return "RasterStatistics [minimum=" + minimum + ", maximum=" + maximum + ", bins="
+                + bins.length + ", lowValue=" + lowValue + ", highValue=" + highValue + "]";
+    }
+}
@@ -0,0 +1,452 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.renderer.lite.gridcoverage2d;
+
+import java.awt.geom.AffineTransform;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.GridCoverage2DReader;
+import org.geotools.data.DataUtilities;
+import org.geotools.styling.ChannelSelection;
+import org.geotools.styling.ContrastEnhancement;
+import org.geotools.styling.RasterSymbolizer;
+import org.opengis.coverage.grid.GridEnvelope;
+import org.opengis.filter.expression.Expression;
+import org.opengis.geometry.Envelope;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.style.ContrastMethod;
+
+/**
+ * Computes and keeps the {@link RasterStatistics} of the overview levels of single band
+ * coverages, so that the histogram and normalize contrast enhancements, and the gamma correction
+ * of non byte data, do not need a full pass over the pixels of every rendered tile.
+ * <p>
+ * The statistics of a level are computed the first time the level is rendered, by reading it
+ * whole, and then kept in memory for the reader. For readers whose source is a file, they are
+ * also persisted in a <code>.stats</code> sidecar file next to it, which is ignored once the
+ * source is modified. Sidecar entries are keyed by level and by a digest of the read parameters,
+ * which are also stored in full and compared when loading, so that statistics computed with
+ * different parameters are never mixed up.
+ * </p>
+ * <p>
+ * Using the statistics of the whole level in place of the ones of the rendered area changes the
+ * outcome of the contrast enhancement, for this reason the store is disabled by default, and can
+ * be enabled with the {@value #ENABLED_KEY} system property or {@link #setEnabled(boolean)}.
+ * </p>
+ */
+public final class RasterStatisticsStore {
+
+    /** Logger. */
+    private static final Logger LOGGER = org.geotools.util.logging.Logging
+            .getLogger(RasterStatisticsStore.class);
+
+    /** System property enabling the store */
+    public static final String ENABLED_KEY =
+            "org.geotools.renderer.lite.gridcoverage2d.rasterStatistics";
+
+    /** The extension of the sidecar files */
+    public static final String EXTENSION = "stats";
+
+    private static final double EPS = 1e-6;
+
+    private static final RasterStatisticsStore INSTANCE = new RasterStatisticsStore(
+            Boolean.getBoolean(ENABLED_KEY));
+
+    private volatile boolean enabled;
+
+    /** Serializes the updates of the sidecar files */
+    private static final Object SIDECAR_LOCK = new Object();
+
+    /** The statistics of each reader, by level and read parameters */
+    private final Map<GridCoverage2DReader, ConcurrentMap<String, RasterStatistics>> statistics =
+            new WeakHashMap<GridCoverage2DReader, ConcurrentMap<String, RasterStatistics>>();
+
+    RasterStatisticsStore(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns the store shared by all renderers
+     */
+    public static RasterStatisticsStore getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Drops the statistics kept in memory, the sidecar files are left untouched
+     */
+    public synchronized void flush() {
+        statistics.clear();
+    }
+
+    /**
+     * Returns true if the symbolizer contains a contrast enhancement that depends on the
+     * statistics of the raster
+     */
+    static boolean needsStatistics(RasterSymbolizer symbolizer) {
+        if (symbolizer == null) {
+            return false;
+        }
+        if (needsStatistics(symbolizer.getContrastEnhancement())) {
+            return true;
+        }
+        final ChannelSelection channelSelection = symbolizer.getChannelSelection();
+        return channelSelection != null && channelSelection.getGrayChannel() != null
+                && needsStatistics(channelSelection.getGrayChannel().getContrastEnhancement());
+    }
+
+    private static boolean needsStatistics(ContrastEnhancement ce) {
+        if (ce == null) {
+            return false;
+        }
+        final ContrastMethod method = ce.getMethod();
+        if (method != null && !"NONE".equalsIgnoreCase(method.name())) {
+            return true;
+        }
+        final Expression gamma = ce.getGammaValue();
+        if (gamma != null) {
+            final Number number = gamma.evaluate(null, Double.class);
+            return number != null && Math.abs(number.doubleValue() - 1) >= EPS;
+        }
+        return false;
+    }
+
+    /**
+     * Returns a copy of the coverage carrying the statistics of the reader level it has been read
+     * from, or the coverage itself if it has more than one band, or the statistics cannot be
+     * computed
+     */
+    GridCoverage2D attachStatistics(GridCoverage2DReader reader,
+            GeneralParameterValue[] readParams, GridCoverage2D coverage,
+            GridCoverageFactory factory) {
+        if (coverage.getNumSampleDimensions() != 1
+                || coverage.getRenderedImage().getSampleModel().getNumBands() != 1) {
+            return coverage;
+        }
+        final RasterStatistics levelStatistics;
+        try {
+            levelStatistics = getStatistics(reader, readParams, coverage);
+        } catch (IOException e) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Unable to compute the raster statistics", e);
+            }
+            return coverage;
+        }
+        if (levelStatistics == null) {
+            return coverage;
+        }
+        final Map<Object, Object> properties = new HashMap<Object, Object>();
+        if (coverage.getProperties() != null) {
+            properties.putAll(coverage.getProperties());
+        }
+        properties.put(RasterStatistics.PROPERTY, levelStatistics);
+        return factory.create(coverage.getName(), coverage.getRenderedImage(),
+                coverage.getGridGeometry(), coverage.getSampleDimensions(),
+                new GridCoverage2D[] { coverage }, properties);
+    }
+
+    /**
+     * Returns the statistics of the reader level closest to the coverage resolution, computing
+     * them if needed, or null if the level cannot be determined
+     */
+    RasterStatistics getStatistics(GridCoverage2DReader reader,
+            GeneralParameterValue[] readParams, GridCoverage2D coverage) throws IOException {
+        final int level = getLevel(reader, coverage);
+        if (level < 0) {
+            return null;
+        }
+        final String parameters = GridCoverageRendererUtilities.encodeReadParameters(readParams);
+        final String memoryKey = level + ";" + parameters;
+
+        ConcurrentMap<String, RasterStatistics> readerStatistics;
+        synchronized (this) {
+            readerStatistics = statistics.get(reader);
+            if (readerStatistics == null) {
+                readerStatistics = new ConcurrentHashMap<String, RasterStatistics>();
+                statistics.put(reader, readerStatistics);
+            }
+        }
+        RasterStatistics result = readerStatistics.get(memoryKey);
+        if (result != null) {
+            return result;
+        }
+
+        // computing the statistics of a level is expensive, but holding a lock meanwhile would
+        // block the other levels too, concurrent requests might compute them twice instead
+        final File sidecar = getSidecar(reader);
+        final String key = "level" + level + "." + digest(parameters);
+        result = decode(load(sidecar), key, parameters);
+        if (result == null) {
+            result = compute(reader, readParams, level);
+            if (result == null) {
+                return null;
+            }
+            if (sidecar != null) {
+                // merge into the current sidecar contents, other levels might have been added
+                synchronized (SIDECAR_LOCK) {
+                    final Properties persisted = load(sidecar);
+                    encode(persisted, key, parameters, result);
+                    store(sidecar, persisted);
+                }
+            }
+        }
+        final RasterStatistics previous = readerStatistics.putIfAbsent(memoryKey, result);
+        return previous != null ? previous : result;
+    }
+
+    /**
+     * Returns the hex encoded SHA-256 digest of the read parameters, used to keep the sidecar
+     * keys short
+     */
+    static String digest(String parameters) {
+        try {
+            final byte[] hash = MessageDigest.getInstance("SHA-256").digest(
+                    parameters.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(
+                        Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the index of the reader level whose resolution is the closest to the coverage one
+     */
+    static int getLevel(GridCoverage2DReader reader, GridCoverage2D coverage) throws IOException {
+        final MathTransform transform = coverage.getGridGeometry().getGridToCRS2D();
+        final double[][] levels = reader.getResolutionLevels();
+        if (!(transform instanceof AffineTransform) || levels == null || levels.length == 0) {
+            return -1;
+        }
+        final AffineTransform at = (AffineTransform) transform;
+        final double resolution = Math.hypot(at.getScaleX(), at.getShearY());
+        int level = -1;
+        double distance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < levels.length; i++) {
+            if (levels[i] == null || levels[i].length == 0 || !(levels[i][0] > 0)) {
+                continue;
+            }
+            final double d = Math.abs(Math.log(resolution / levels[i][0]));
+            if (d < distance) {
+                distance = d;
+                level = i;
+            }
+        }
+        return level;
+    }
+
+    /**
+     * Reads the whole level and computes its statistics
+     */
+    static RasterStatistics compute(GridCoverage2DReader reader,
+            GeneralParameterValue[] readParams, int level) throws IOException {
+        final double[][] levels = reader.getResolutionLevels();
+        final GridEnvelope range = reader.getOriginalGridRange();
+        final Envelope envelope = reader.getOriginalEnvelope();
+        final double scaleX = levels[0][0] / levels[level][0];
+        final double scaleY = levels[0][1] / levels[level][1];
+        final int width = (int) Math.max(1, Math.round(range.getSpan(0) * scaleX));
+        final int height = (int) Math.max(1, Math.round(range.getSpan(1) * scaleY));
+        final GridGeometry2D gridGeometry = new GridGeometry2D(new GridEnvelope2D(0, 0, width,
+                height), envelope);
+
+        final List<GeneralParameterValue> params = new ArrayList<GeneralParameterValue>();
+        final String gridGeometryCode = AbstractGridFormat.READ_GRIDGEOMETRY2D.getName()
+                .getCode();
+        if (readParams != null) {
+            for (GeneralParameterValue param : readParams) {
+                if (param != null
+                        && !gridGeometryCode.equals(param.getDescriptor().getName().getCode())) {
+                    params.add(param);
+                }
+            }
+        }
+        final ParameterValue<GridGeometry2D> readGridGeometry =
+                AbstractGridFormat.READ_GRIDGEOMETRY2D.createValue();
+        readGridGeometry.setValue(gridGeometry);
+        params.add(readGridGeometry);
+
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Computing the raster statistics of level " + level + " of "
+                    + reader.getSource());
+        }
+        final GridCoverage2D coverage = reader.read(params
+                .toArray(new GeneralParameterValue[params.size()]));
+        if (coverage == null) {
+            return null;
+        }
+        try {
+            if (coverage.getRenderedImage().getSampleModel().getNumBands() != 1) {
+                return null;
+            }
+            return RasterStatistics.compute(coverage);
+        } finally {
+            coverage.dispose(true);
+        }
+    }
+
+    /**
+     * Returns the sidecar file of the reader, or null if the reader is not backed by a file
+     */
+    static File getSidecar(GridCoverage2DReader reader) {
+        final Object source = reader.getSource();
+        File file = null;
+        if (source instanceof File) {
+            file = (File) source;
+        } else if (source instanceof URL) {
+            file = DataUtilities.urlToFile((URL) source);
+        } else if (source instanceof String) {
+            file = new File((String) source);
+        }
+        if (file == null || !file.exists()) {
+            return null;
+        }
+        return new File(file.getPath() + "." + EXTENSION);
+    }
+
+    /**
+     * Loads the sidecar file, returning empty properties if missing or older than the source
+     */
+    static Properties load(File sidecar) {
+        final Properties properties = new Properties();
+        if (sidecar == null || !sidecar.exists()) {
+            return properties;
+        }
+        final String path = sidecar.getPath();
+        final File source = new File(path.substring(0, path.length() - EXTENSION.length() - 1));
+        if (sidecar.lastModified() < source.lastModified()) {
+            return properties;
+        }
+        try (InputStream is = new FileInputStream(sidecar)) {
+            properties.load(is);
+        } catch (IOException e) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Unable to read the raster statistics from " + sidecar, e);
+            }
+            properties.clear();
+        }
+        return properties;
+    }
+
+    /**
+     * Writes the sidecar file, failures are not fatal as the statistics are kept in memory anyway
+     */
+    static void store(File sidecar, Properties properties) {
+        final File temp = new File(sidecar.getPath() + ".tmp");
+        try {
+            try (OutputStream os = new FileOutputStream(temp)) {
+                properties.store(os, "Raster statistics, by level and read parameters");
+            }
+            if (sidecar.exists() && !sidecar.delete() || !temp.renameTo(sidecar)) {
+                throw new IOException("Unable to replace " + sidecar);
+            }
+        } catch (IOException e) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Unable to store the raster statistics in " + sidecar, e);
+            }
+            temp.delete();
+        }
+    }
+
+    /**
+     * Decodes the statistics stored under the key, or returns null if missing, invalid, or
+     * computed with different read parameters
+     */
+    static RasterStatistics decode(Properties properties, String key, String parameters) {
+        if (!parameters.equals(properties.getProperty(key + ".parameters"))) {
+            return null;
+        }
+        final String minimum = properties.getProperty(key + ".minimum");
+        final String maximum = properties.getProperty(key + ".maximum");
+        final String low = properties.getProperty(key + ".low");
+        final String high = properties.getProperty(key + ".high");
+        final String bins = properties.getProperty(key + ".bins");
+        if (minimum == null || maximum == null || low == null || high == null || bins == null) {
+            return null;
+        }
+        try {
+            final String[] values = bins.split(",");
+            final int[] counts = new int[values.length];
+            for (int i = 0; i < values.length; i++) {
+                counts[i] = Integer.parseInt(values[i].trim());
+            }
+            return new RasterStatistics(Double.parseDouble(minimum), Double.parseDouble(maximum),
+                    counts, Double.parseDouble(low), Double.parseDouble(high));
+        } catch (IllegalArgumentException e) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Ignoring invalid raster statistics " + key, e);
+            }
+            return null;
+        }
+    }
+
+    static void encode(Properties properties, String key, String parameters,
+            RasterStatistics statistics) {
+        properties.setProperty(key + ".parameters", parameters);
+        properties.setProperty(key + ".minimum", Double.toString(statistics.getMinimum()));
+        properties.setProperty(key + ".maximum", Double.toString(statistics.getMaximum()));
+        properties.setProperty(key + ".low", Double.toString(statistics.getLowValue()));
+        properties.setProperty(key + ".high", Double.toString(statistics.getHighValue()));
+        final StringBuilder sb = new StringBuilder();
+        for (int count : statistics.getBins()) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(count);
+        }
+        properties.setProperty(key + ".bins", sb.toString());
+    }
+}
@@ -82,6 +82,9 @@ public class SLDColorMapBuilder {
 
 	private String name;
 
+	/** The quantities and colors of the entries added so far, see {@link #getFingerprint()} */
+	private final StringBuilder entriesFingerprint = new StringBuilder();
+
 	/**
 	 * Default constructor for the {@link SLDColorMapBuilder} class.
 	 */
@@ -239,6 +242,8 @@ public class SLDColorMapBuilder {
 		newColorValue = new Color(newColorValue.getRed(), newColorValue
 				.getGreen(), newColorValue.getBlue(),
 				(int) (opacityValue * 255 + 0.5));
+		entriesFingerprint.append(q).append(':')
+				.append(Integer.toHexString(newColorValue.getRGB())).append(';');
 		
 		
 		////
@@ -613,6 +618,22 @@ public class SLDColorMapBuilder {
 		return numberOfColorMapElements;
 	}
 
+	/**
+	 * Returns a string identifying the color map this builder creates, made of its settings and
+	 * of the evaluated quantities and colors of its entries. Builders returning the same string
+	 * create equivalent color maps, so that the structures derived from them can be shared.
+	 */
+	public String getFingerprint() {
+		return new StringBuilder().append(linearColorMapType).append(';')
+				.append(extendedColors).append(';').append(numberColorMapEntries).append(';')
+				.append(gapsColor == null ? null : Integer.toHexString(gapsColor.getRGB()))
+				.append(';')
+				.append(preservedValuesColor == null ? null
+						: Integer.toHexString(preservedValuesColor.getRGB()))
+				.append(';').append(preservedValues).append(';').append(entriesFingerprint)
+				.toString();
+	}
+
 	/**
 	 */
 	public LinearColorMap buildLinearColorMap() {
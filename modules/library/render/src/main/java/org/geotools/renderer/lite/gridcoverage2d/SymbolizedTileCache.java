@@ -0,0 +1,503 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.renderer.lite.gridcoverage2d;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.media.jai.ImageLayout;
+import javax.media.jai.Interpolation;
+import javax.media.jai.InterpolationNearest;
+import javax.media.jai.PlanarImage;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.coverage.grid.io.GridCoverage2DReader;
+import org.geotools.data.DataUtilities;
+import org.geotools.factory.Hints;
+import org.geotools.styling.ChannelSelection;
+import org.geotools.styling.ColorMap;
+import org.geotools.styling.ColorMapEntry;
+import org.geotools.styling.ContrastEnhancement;
+import org.geotools.styling.RasterSymbolizer;
+import org.geotools.styling.SelectedChannelType;
+import org.geotools.util.SizeBoundedLRUCache;
+import org.opengis.coverage.grid.GridCoverage;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.metadata.spatial.PixelOrientation;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.referencing.datum.PixelInCell;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.style.ContrastMethod;
+
+/**
+ * A LRU cache of symbolized source tiles, bounded by the size in bytes of the cached rasters and
+ * shared by all the {@link GridCoverageRenderer} instances.
+ * <p>
+ * Adjacent map tiles and repeated requests usually read the same source tiles and apply the same
+ * {@link RasterSymbolizer} to them, yet the symbolization chain (channel selection, color map,
+ * contrast enhancement) is rebuilt and recomputed for every output tile. When the symbolizer
+ * works pixel by pixel and the interpolation is nearest neighbor, the symbolization can be moved
+ * before the final affine transformation, in the raster space of the reader overview level, and
+ * its tiles cached with a key made of the reader, the read parameters, the overview level, the
+ * position of the tile in the level and the symbolizer. Each source tile is then symbolized once.
+ * </p>
+ * <p>
+ * The reader is only weakly referenced by the cached tiles, and local files are identified along
+ * with their last modification time, so that changed files are read again. Tiles of a reader
+ * can be dropped with {@link #invalidate(GridCoverage2DReader)}, which
+ * {@link org.geotools.map.GridReaderLayer} does when disposing its reader.
+ * </p>
+ * <p>
+ * The max size is set by the {@value #CACHE_SIZE_KEY} system property, in bytes, or by
+ * {@link #setMaxSize(long)}. The cache is disabled by default.
+ * </p>
+ */
+public final class SymbolizedTileCache {
+
+    /** Logger. */
+    private static final Logger LOGGER = org.geotools.util.logging.Logging
+            .getLogger(SymbolizedTileCache.class);
+
+    /** System property setting the cache size, in bytes */
+    public static final String CACHE_SIZE_KEY =
+            "org.geotools.renderer.lite.gridcoverage2d.symbolizedTileCacheSize";
+
+    private static final double EPS = 1e-6;
+
+    /** Max distance, in pixels, of a coverage origin from the level grid to consider it aligned */
+    private static final double ALIGNMENT_TOLERANCE = 1e-3;
+
+    private static final SymbolizedTileCache INSTANCE = new SymbolizedTileCache(Long.getLong(
+            CACHE_SIZE_KEY, 0));
+
+    private final SizeBoundedLRUCache<TileKey, Raster> tiles;
+
+    SymbolizedTileCache(long maxSize) {
+        this.tiles = new SizeBoundedLRUCache<TileKey, Raster>(maxSize) {
+
+            @Override
+            protected long sizeOf(TileKey key, Raster tile) {
+                return SymbolizedTileCache.sizeOf(tile);
+            }
+        };
+    }
+
+    /**
+     * Returns the cache shared by all renderers
+     */
+    public static SymbolizedTileCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sets the max size of the cache, in bytes, evicting tiles as needed. 0 disables the cache.
+     */
+    public void setMaxSize(long maxSize) {
+        tiles.setMaxSize(maxSize);
+    }
+
+    public long getMaxSize() {
+        return tiles.getMaxSize();
+    }
+
+    /**
+     * Returns the size in bytes of the cached tiles
+     */
+    public long getSize() {
+        return tiles.getSize();
+    }
+
+    public long getHits() {
+        return tiles.getHits();
+    }
+
+    public long getMisses() {
+        return tiles.getMisses();
+    }
+
+    public boolean isEnabled() {
+        return tiles.isEnabled();
+    }
+
+    /**
+     * Removes all the tiles from the cache
+     */
+    public void flush() {
+        tiles.flush();
+    }
+
+    /**
+     * Removes the tiles read from the given reader, to be called when the reader gets disposed
+     * or its data changes. The tiles of readers that have been garbage collected are removed
+     * too.
+     */
+    public void invalidate(final GridCoverage2DReader reader) {
+        tiles.removeIf(new Predicate<TileKey>() {
+
+            @Override
+            public boolean test(TileKey key) {
+                GridCoverage2DReader keyReader = key.reader.get();
+                return keyReader == null || keyReader == reader;
+            }
+        });
+    }
+
+    Raster get(TileKey key) {
+        return tiles.get(key);
+    }
+
+    void put(TileKey key, Raster tile) {
+        tiles.put(key, tile);
+    }
+
+    static long sizeOf(Raster raster) {
+        DataBuffer buffer = raster.getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks()
+                * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    /**
+     * Returns true if applying the symbolizer before the final affine transformation gives the
+     * same result as applying it after, that is, if the interpolation is nearest neighbor and the
+     * symbolizer does not depend on the statistics of the rendered area (histogram and normalize
+     * contrast enhancements, gamma correction). The symbolizer expressions
+     * must be literals too, as functions such as env() make the equality of two symbolizers
+     * meaningless for caching.
+     */
+    static boolean accepts(RasterSymbolizer symbolizer, Interpolation interpolation) {
+        if (symbolizer == null || !(interpolation instanceof InterpolationNearest)) {
+            return false;
+        }
+        if (!isLiteral(symbolizer.getOpacity())) {
+            return false;
+        }
+        final ColorMap colorMap = symbolizer.getColorMap();
+        if (colorMap != null && colorMap.getColorMapEntries() != null) {
+            for (ColorMapEntry entry : colorMap.getColorMapEntries()) {
+                if (!isLiteral(entry.getColor()) || !isLiteral(entry.getOpacity())
+                        || !isLiteral(entry.getQuantity())) {
+                    return false;
+                }
+            }
+        }
+        if (!isPixelWise(symbolizer.getContrastEnhancement())) {
+            return false;
+        }
+        final ChannelSelection channelSelection = symbolizer.getChannelSelection();
+        if (channelSelection != null) {
+            if (channelSelection.getGrayChannel() != null
+                    && !isPixelWise(channelSelection.getGrayChannel().getContrastEnhancement())) {
+                return false;
+            }
+            final SelectedChannelType[] rgb = channelSelection.getRGBChannels();
+            if (rgb != null) {
+                for (SelectedChannelType channel : rgb) {
+                    if (channel != null && !isPixelWise(channel.getContrastEnhancement())) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLiteral(Expression expression) {
+        return expression == null || expression instanceof Literal;
+    }
+
+    private static boolean isPixelWise(ContrastEnhancement ce) {
+        if (ce == null) {
+            return true;
+        }
+        if (!isLiteral(ce.getGammaValue())) {
+            return false;
+        }
+        final ContrastMethod method = ce.getMethod();
+        if (method != null && !"NONE".equalsIgnoreCase(method.name())) {
+            return false;
+        }
+        // gamma correction uses the extrema of non byte data, keep it simple and leave it out
+        final Expression gamma = ce.getGammaValue();
+        if (gamma != null) {
+            final Number number = gamma.evaluate(null, Double.class);
+            if (number != null && Math.abs(number.doubleValue() - 1) >= EPS) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Symbolizes the coverage read from the reader, caching the symbolized tiles if the coverage
+     * raster is aligned with one of the reader overview levels.
+     */
+    GridCoverage2D symbolize(GridCoverage2DReader reader, GeneralParameterValue[] readParams,
+            GridCoverage2D coverage, RasterSymbolizer symbolizer, Hints hints,
+            GridCoverageFactory factory) {
+        final RasterSymbolizerHelper rsp = new RasterSymbolizerHelper(coverage, hints);
+        rsp.visit(symbolizer);
+        final GridCoverage2D symbolized = (GridCoverage2D) rsp.getOutput();
+        if (symbolized == null) {
+            return null;
+        }
+
+        final int[] location;
+        try {
+            location = locate(reader, coverage);
+        } catch (IOException e) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Unable to locate the coverage in the reader levels", e);
+            }
+            return symbolized;
+        }
+        if (location == null) {
+            return symbolized;
+        }
+        final TileKey base = new TileKey(sourceId(reader), reader,
+                GridCoverageRendererUtilities.encodeReadParameters(readParams), location[0],
+                symbolizer, null, null);
+        final RenderedImage image = new CachedTileImage(this, symbolized.getRenderedImage(),
+                base, location[1], location[2]);
+        return factory.create(symbolized.getName(), image, symbolized.getGridGeometry(),
+                symbolized.getSampleDimensions(), new GridCoverage[] { symbolized },
+                symbolized.getProperties());
+    }
+
+    /**
+     * Returns the overview level the coverage has been read from, and the offset of its raster
+     * space in the level grid, as <code>{level, offsetX, offsetY}</code>, or null if the coverage
+     * raster is not aligned to any of the reader levels
+     */
+    static int[] locate(GridCoverage2DReader reader, GridCoverage2D coverage) throws IOException {
+        final MathTransform coverageTransform = coverage.getGridGeometry().getGridToCRS2D(
+                PixelOrientation.UPPER_LEFT);
+        final MathTransform levelTransform = reader
+                .getOriginalGridToWorld(PixelInCell.CELL_CORNER);
+        if (!(coverageTransform instanceof AffineTransform)
+                || !(levelTransform instanceof AffineTransform)) {
+            return null;
+        }
+        final AffineTransform at = (AffineTransform) coverageTransform;
+        final AffineTransform lt = (AffineTransform) levelTransform;
+        if (at.getShearX() != 0 || at.getShearY() != 0 || lt.getShearX() != 0
+                || lt.getShearY() != 0
+                || Math.signum(at.getScaleX()) != Math.signum(lt.getScaleX())
+                || Math.signum(at.getScaleY()) != Math.signum(lt.getScaleY())) {
+            return null;
+        }
+        final double[][] levels = reader.getResolutionLevels();
+        if (levels == null) {
+            return null;
+        }
+        for (int i = 0; i < levels.length; i++) {
+            if (levels[i] == null || levels[i].length < 2
+                    || !sameResolution(Math.abs(at.getScaleX()), levels[i][0])
+                    || !sameResolution(Math.abs(at.getScaleY()), levels[i][1])) {
+                continue;
+            }
+            // all levels share the upper left corner of the original envelope
+            final double dx = (at.getTranslateX() - lt.getTranslateX()) / at.getScaleX();
+            final double dy = (at.getTranslateY() - lt.getTranslateY()) / at.getScaleY();
+            final long offsetX = Math.round(dx);
+            final long offsetY = Math.round(dy);
+            if (Math.abs(dx - offsetX) > ALIGNMENT_TOLERANCE
+                    || Math.abs(dy - offsetY) > ALIGNMENT_TOLERANCE
+                    || Math.abs(offsetX) > Integer.MAX_VALUE / 2
+                    || Math.abs(offsetY) > Integer.MAX_VALUE / 2) {
+                return null;
+            }
+            return new int[] { i, (int) offsetX, (int) offsetY };
+        }
+        return null;
+    }
+
+    private static boolean sameResolution(double r1, double r2) {
+        return Math.abs(r1 - r2) <= EPS * Math.max(Math.abs(r1), Math.abs(r2));
+    }
+
+    /**
+     * Identifies the data source of the reader, including the last modification time of local
+     * files so that tiles read before a change are not served
+     */
+    static String sourceId(GridCoverage2DReader reader) {
+        final Object source = reader.getSource();
+        File file = null;
+        if (source instanceof File) {
+            file = (File) source;
+        } else if (source instanceof URL) {
+            file = DataUtilities.urlToFile((URL) source);
+        }
+        final StringBuilder sb = new StringBuilder(reader.getClass().getName()).append('@')
+                .append(source);
+        if (file != null) {
+            sb.append('@').append(file.lastModified());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Identifies a symbolized tile. The reader is weakly referenced, so that the cache does not
+     * prevent readers from being garbage collected, and the key of a collected reader matches no
+     * other key.
+     */
+    static final class TileKey {
+
+        final String sourceId;
+
+        final WeakReference<GridCoverage2DReader> reader;
+
+        final String params;
+
+        final int level;
+
+        final RasterSymbolizer symbolizer;
+
+        /** The tile bounds, in the level raster space */
+        final Rectangle tile;
+
+        /** The tile area actually covered by the image, in the level raster space */
+        final Rectangle valid;
+
+        final int hashCode;
+
+        TileKey(String sourceId, GridCoverage2DReader reader, String params, int level,
+                RasterSymbolizer symbolizer, Rectangle tile, Rectangle valid) {
+            this(sourceId, new WeakReference<GridCoverage2DReader>(reader), params, level,
+                    symbolizer, tile, valid);
+        }
+
+        private TileKey(String sourceId, WeakReference<GridCoverage2DReader> reader,
+                String params, int level, RasterSymbolizer symbolizer, Rectangle tile,
+                Rectangle valid) {
+            this.sourceId = sourceId;
+            this.reader = reader;
+            this.params = params;
+            this.level = level;
+            this.symbolizer = symbolizer;
+            this.tile = tile;
+            this.valid = valid;
+            int result = sourceId.hashCode();
+            result = 31 * result + params.hashCode();
+            result = 31 * result + level;
+            result = 31 * result + symbolizer.hashCode();
+            result = 31 * result + (tile == null ? 0 : tile.hashCode());
+            result = 31 * result + (valid == null ? 0 : valid.hashCode());
+            this.hashCode = result;
+        }
+
+        TileKey derive(Rectangle tile, Rectangle valid) {
+            return new TileKey(sourceId, reader, params, level, symbolizer, tile, valid);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof TileKey)) {
+                return false;
+            }
+            TileKey other = (TileKey) obj;
+            final GridCoverage2DReader r = reader.get();
+            return hashCode == other.hashCode && r != null && r == other.reader.get()
+                    && level == other.level && sourceId.equals(other.sourceId)
+                    && params.equals(other.params) && symbolizer.equals(other.symbolizer)
+                    && (tile == null ? other.tile == null : tile.equals(other.tile))
+                    && (valid == null ? other.valid == null : valid.equals(other.valid));
+        }
+    }
+
+    /**
+     * Serves the tiles of the symbolized image from the cache, computing and caching the missing
+     * ones. Cached rasters are stored in the level raster space, and translated back on the way
+     * out.
+     */
+    static final class CachedTileImage extends PlanarImage {
+
+        private final SymbolizedTileCache cache;
+
+        private final RenderedImage source;
+
+        private final TileKey base;
+
+        private final int offsetX;
+
+        private final int offsetY;
+
+        CachedTileImage(SymbolizedTileCache cache, RenderedImage source, TileKey base,
+                int offsetX, int offsetY) {
+            super(new ImageLayout(source), null, null);
+            this.cache = cache;
+            this.source = source;
+            this.base = base;
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+        }
+
+        @Override
+        public Raster getTile(int tileX, int tileY) {
+            final Rectangle valid = getTileRect(tileX, tileY);
+            if (valid.isEmpty()) {
+                return source.getTile(tileX, tileY);
+            }
+            final Rectangle tile = new Rectangle(tileXToX(tileX), tileYToY(tileY),
+                    getTileWidth(), getTileHeight());
+            tile.translate(offsetX, offsetY);
+            valid.translate(offsetX, offsetY);
+            final TileKey key = base.derive(tile, valid);
+            Raster cached = cache.get(key);
+            if (cached == null) {
+                final Raster computed = source.getTile(tileX, tileY);
+                if (computed == null) {
+                    return null;
+                }
+                cache.put(key, computed.createTranslatedChild(computed.getMinX() + offsetX,
+                        computed.getMinY() + offsetY));
+                return computed;
+            }
+            return cached.createTranslatedChild(cached.getMinX() - offsetX, cached.getMinY()
+                    - offsetY);
+        }
+
+        @Override
+        public Object getProperty(String name) {
+            return source.getProperty(name);
+        }
+
+        @Override
+        public String[] getPropertyNames() {
+            return source.getPropertyNames();
+        }
+    }
+}
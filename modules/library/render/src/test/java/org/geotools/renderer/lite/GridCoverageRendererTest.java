@@ -32,7 +32,9 @@ import java.awt.image.BufferedImage;
 import java.awt.image.ComponentColorModel;
 import java.awt.image.RenderedImage;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.text.ParseException;
 import java.util.ArrayList;
@@ -41,9 +43,11 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 
 import javax.imageio.ImageIO;
 import javax.media.jai.Interpolation;
+import javax.media.jai.PlanarImage;
 import javax.media.jai.ROI;
 
 import org.geotools.TestData;
@@ -85,9 +89,12 @@ import org.geotools.referencing.cs.DefaultCartesianCS;
 import org.geotools.referencing.operation.DefaultMathTransformFactory;
 import org.geotools.referencing.operation.projection.MapProjection;
 import org.geotools.renderer.lite.gridcoverage2d.GridCoverageRenderer;
+import org.geotools.renderer.lite.gridcoverage2d.RasterStatisticsStore;
+import org.geotools.renderer.lite.gridcoverage2d.SymbolizedTileCache;
 import org.geotools.resources.image.ImageUtilities;
 import org.geotools.styling.ColorMap;
 import org.geotools.styling.ContrastEnhancement;
+import org.geotools.styling.ContrastEnhancementImpl;
 import org.geotools.styling.RasterSymbolizer;
 import org.geotools.styling.SelectedChannelType;
 import org.geotools.styling.Style;
@@ -109,6 +116,7 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.crs.GeographicCRS;
 import org.opengis.referencing.datum.Ellipsoid;
 import org.opengis.referencing.operation.MathTransform;
+import org.opengis.style.ContrastMethod;
 
 import com.vividsolutions.jts.geom.Envelope;
 
@@ -523,6 +531,146 @@ public class GridCoverageRendererTest  {
         ImageAssert.assertEquals(reference, image, 0);
     }
 
+    @Test
+    public void testSymbolizedTileCache() throws Exception {
+        RasterSymbolizer rasterSymbolizer = new StyleBuilder().createRasterSymbolizer();
+        rasterSymbolizer.setOpacity(new StyleBuilder().literalExpression(0.5));
+        Interpolation nearest = Interpolation.getInstance(Interpolation.INTERP_NEAREST);
+        ReferencedEnvelope[] extents = new ReferencedEnvelope[] {
+                new ReferencedEnvelope(-90, 0, 0, 45, DefaultGeographicCRS.WGS84),
+                new ReferencedEnvelope(0, 90, 0, 45, DefaultGeographicCRS.WGS84),
+                new ReferencedEnvelope(-90, 0, 0, 45, DefaultGeographicCRS.WGS84) };
+        Rectangle screenSize = new Rectangle(256, 128);
+
+        // render without the cache first
+        SymbolizedTileCache cache = SymbolizedTileCache.getInstance();
+        long maxSize = cache.getMaxSize();
+        List<RenderedImage> expected = new ArrayList<>();
+        for (ReferencedEnvelope extent : extents) {
+            GridCoverageRenderer renderer = new GridCoverageRenderer(DefaultGeographicCRS.WGS84,
+                    extent, screenSize, null);
+            RenderedImage image = renderer.renderImage(worldReader, null, rasterSymbolizer,
+                    nearest, null, 256, 256);
+            expected.add(getBufferedImage(image));
+        }
+
+        try {
+            cache.setMaxSize(64 * 1024 * 1024);
+            cache.flush();
+            for (int i = 0; i < extents.length; i++) {
+                GridCoverageRenderer renderer = new GridCoverageRenderer(
+                        DefaultGeographicCRS.WGS84, extents[i], screenSize, null);
+                long hits = cache.getHits();
+                RenderedImage image = renderer.renderImage(worldReader, null, rasterSymbolizer,
+                        nearest, null, 256, 256);
+                ImageAssert.assertEquals(expected.get(i), getBufferedImage(image), 0);
+                if (i == 2) {
+                    // same request as the first one, the source tiles have been symbolized already
+                    assertTrue(cache.getHits() > hits);
+                }
+            }
+            long size = cache.getSize();
+            assertTrue(size > 0);
+
+            // another reader on the same file does not share the tiles, and drops its own ones
+            // when disposed along with its layer
+            GridCoverage2DReader otherReader = new GeoTiffReader(worldReader.getSource());
+            GridCoverageRenderer renderer = new GridCoverageRenderer(DefaultGeographicCRS.WGS84,
+                    extents[0], screenSize, null);
+            long hits = cache.getHits();
+            RenderedImage image = renderer.renderImage(otherReader, null, rasterSymbolizer,
+                    nearest, null, 256, 256);
+            ImageAssert.assertEquals(expected.get(0), getBufferedImage(image), 0);
+            assertEquals(hits, cache.getHits());
+            assertTrue(cache.getSize() > size);
+            new GridReaderLayer(otherReader, new StyleBuilder().createStyle(rasterSymbolizer))
+                    .dispose();
+            assertEquals(size, cache.getSize());
+
+            cache.invalidate(worldReader);
+            assertEquals(0, cache.getSize());
+        } finally {
+            cache.setMaxSize(maxSize);
+            cache.flush();
+        }
+    }
+
+    @Test
+    public void testRasterStatisticsStore() throws Exception {
+        // a single band ushort gradient
+        BufferedImage bi = new BufferedImage(256, 256, BufferedImage.TYPE_USHORT_GRAY);
+        for (int y = 0; y < bi.getHeight(); y++) {
+            for (int x = 0; x < bi.getWidth(); x++) {
+                bi.getRaster().setSample(x, y, 0, 1000 + x * 50 + y);
+            }
+        }
+        ReferencedEnvelope envelope = new ReferencedEnvelope(0, 256, 0, 256,
+                DefaultGeographicCRS.WGS84);
+        GridCoverage2D coverage = CoverageFactoryFinder.getGridCoverageFactory(null).create(
+                "gradient", bi, envelope);
+        File testFile = new File("./target/rasterStatistics.tiff");
+        File sidecar = new File(testFile.getPath() + "." + RasterStatisticsStore.EXTENSION);
+        sidecar.delete();
+        GeoTiffWriter writer = new GeoTiffWriter(testFile);
+        writer.write(coverage, null);
+        writer.dispose();
+
+        StyleBuilder sb = new StyleBuilder();
+        RasterSymbolizer rasterSymbolizer = sb.createRasterSymbolizer();
+        ContrastEnhancement ce = new ContrastEnhancementImpl();
+        ce.setMethod(ContrastMethod.NORMALIZE);
+        rasterSymbolizer.setContrastEnhancement(ce);
+        Interpolation nearest = Interpolation.getInstance(Interpolation.INTERP_NEAREST);
+        ReferencedEnvelope left = new ReferencedEnvelope(0, 128, 0, 256,
+                DefaultGeographicCRS.WGS84);
+
+        RasterStatisticsStore store = RasterStatisticsStore.getInstance();
+        boolean enabled = store.isEnabled();
+        GeoTiffReader reader = new GeoTiffReader(testFile);
+        try {
+            // whole raster, the statistics are the same as the ones of the rendered area
+            store.setEnabled(false);
+            BufferedImage expected = getBufferedImage(new GridCoverageRenderer(
+                    DefaultGeographicCRS.WGS84, envelope, new Rectangle(256, 256), null)
+                    .renderImage(reader, null, rasterSymbolizer, nearest, null, 256, 256));
+            store.setEnabled(true);
+            store.flush();
+            BufferedImage whole = getBufferedImage(new GridCoverageRenderer(
+                    DefaultGeographicCRS.WGS84, envelope, new Rectangle(256, 256), null)
+                    .renderImage(reader, null, rasterSymbolizer, nearest, null, 256, 256));
+            ImageAssert.assertEquals(expected, whole, 0);
+            assertTrue(sidecar.exists());
+            // the read parameters are persisted in full next to the statistics
+            Properties persisted = new Properties();
+            try (InputStream is = new FileInputStream(sidecar)) {
+                persisted.load(is);
+            }
+            int entries = 0;
+            for (String name : persisted.stringPropertyNames()) {
+                if (name.endsWith(".parameters")) {
+                    assertTrue(name.matches("level\\d+\\.[0-9a-f]{64}\\.parameters"));
+                    entries++;
+                }
+            }
+            assertEquals(1, entries);
+
+            // half of the raster, stretched like the whole one
+            store.flush();
+            BufferedImage half = getBufferedImage(new GridCoverageRenderer(
+                    DefaultGeographicCRS.WGS84, left, new Rectangle(128, 256), null)
+                    .renderImage(reader, null, rasterSymbolizer, nearest, null, 256, 256));
+            ImageAssert.assertEquals(whole.getSubimage(0, 0, 128, 256), half, 0);
+        } finally {
+            store.setEnabled(enabled);
+            store.flush();
+            reader.dispose();
+        }
+    }
+
+    private BufferedImage getBufferedImage(RenderedImage image) {
+        return PlanarImage.wrapRenderedImage(image).getAsBufferedImage();
+    }
+
     @Test
     public void testReprojectGoogleMercatorLargerThanWorld() throws Exception {
         CoordinateReferenceSystem googleMercator = CRS.decode("EPSG:3857");
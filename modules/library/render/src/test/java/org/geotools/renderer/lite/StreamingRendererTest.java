@@ -33,8 +33,10 @@ import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -284,6 +286,67 @@ public class StreamingRendererTest {
         assertTrue(errors > 0);
     }
 
+    @Test
+    public void testApproximateTransformTolerance() throws Exception {
+        DefaultFeatureCollection fc = new DefaultFeatureCollection();
+        fc.add(createLine(-179, 21, -171, 39));
+        fc.add(createLine(-179, 39, -171, 21));
+        fc.add(createLine(-175, 20, -175, 40));
+        MapContent mc = new MapContent();
+        mc.addLayer(new FeatureLayer(fc, createLineStyle()));
+        ReferencedEnvelope reUtm = new ReferencedEnvelope(new Envelope(-180, -170, 20, 40),
+                DefaultGeographicCRS.WGS84).transform(CRS.decode("EPSG:32601"), true);
+
+        BufferedImage exact = renderWithTolerance(mc, reUtm, null);
+        assertEquals(3, features);
+        assertEquals(0, errors);
+
+        // an invalid tolerance does not break the rendering, it is just ignored
+        BufferedImage invalid = renderWithTolerance(mc, reUtm, "not a number");
+        assertEquals(3, features);
+        assertEquals(0, errors);
+        for (int y = 0; y < exact.getHeight(); y++) {
+            for (int x = 0; x < exact.getWidth(); x++) {
+                assertEquals(exact.getRGB(x, y), invalid.getRGB(x, y));
+            }
+        }
+
+        renderWithTolerance(mc, reUtm, "0.5");
+        assertEquals(3, features);
+        assertEquals(0, errors);
+        renderWithTolerance(mc, reUtm, 0.5);
+        assertEquals(3, features);
+        assertEquals(0, errors);
+        mc.dispose();
+    }
+
+    private BufferedImage renderWithTolerance(MapContent mc, ReferencedEnvelope envelope,
+            Object tolerance) {
+        StreamingRenderer sr = new StreamingRenderer();
+        sr.setMapContent(mc);
+        Map<Object, Object> hints = new HashMap<Object, Object>();
+        if (tolerance != null) {
+            hints.put(StreamingRenderer.APPROXIMATE_TRANSFORM_TOLERANCE_KEY, tolerance);
+        }
+        sr.setRendererHints(hints);
+        sr.addRenderListener(new RenderListener() {
+            public void featureRenderer(SimpleFeature feature) {
+                features++;
+            }
+
+            public void errorOccurred(Exception e) {
+                errors++;
+            }
+        });
+        errors = 0;
+        features = 0;
+        BufferedImage image = new BufferedImage(200, 200, BufferedImage.TYPE_4BYTE_ABGR);
+        Graphics2D graphics = image.createGraphics();
+        sr.paint(graphics, new Rectangle(200, 200), envelope);
+        graphics.dispose();
+        return image;
+    }
+
     @Test
     public void testInfiniteLoopAvoidance() throws Exception {
         final Exception sentinel = new RuntimeException("This is the one that should be thrown in hasNext()");
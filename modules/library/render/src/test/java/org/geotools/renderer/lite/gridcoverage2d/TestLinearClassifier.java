@@ -21,6 +21,7 @@ import it.geosolutions.imageio.plugins.arcgrid.spi.AsciiGridsImageReaderSpi;
 import it.geosolutions.imageio.utilities.ImageIOUtilities;
 import it.geosolutions.jaiext.classifier.LinearColorMap;
 import it.geosolutions.jaiext.classifier.LinearColorMapElement;
+import it.geosolutions.jaiext.lookup.LookupTable;
 import it.geosolutions.jaiext.piecewise.TransformationException;
 import it.geosolutions.jaiext.range.RangeFactory;
 
@@ -42,11 +43,15 @@ import javax.media.jai.RasterFactory;
 import javax.media.jai.RenderedOp;
 
 import org.geotools.TestData;
+import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.image.ImageWorker;
 import org.geotools.resources.image.ComponentColorModelJAI;
+import org.geotools.styling.ColorMap;
+import org.geotools.styling.ColorMapEntryImpl;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.opengis.filter.FilterFactory;
 import org.opengis.referencing.operation.TransformException;
 
 /**
@@ -606,4 +611,105 @@ public class TestLinearClassifier extends Assert {
 	
 		}
 	}
+
+	/**
+	 * The compiled color maps must give the same palette indexes as the classifier
+	 */
+	@Test
+	public void compiledColorMap() throws Exception {
+		final BufferedImage bytes = new BufferedImage(256, 16, BufferedImage.TYPE_BYTE_GRAY);
+		final BufferedImage ushorts = new BufferedImage(512, 256, BufferedImage.TYPE_USHORT_GRAY);
+		final WritableRaster floats = RasterFactory.createBandedRaster(DataBuffer.TYPE_FLOAT, 64,
+				64, 1, null);
+		for (int y = 0; y < 256; y++) {
+			for (int x = 0; x < 512; x++) {
+				if (x < 256 && y < 16) {
+					bytes.getRaster().setSample(x, y, 0, x);
+				}
+				ushorts.getRaster().setSample(x, y, 0, x * y);
+				if (x < 64 && y < 64) {
+					floats.setSample(x, y, 0, x == y ? Float.NaN : (x * 64 + y) / 10f - 30);
+				}
+			}
+		}
+		final ColorModel floatCM = new ComponentColorModelJAI(
+				ColorSpace.getInstance(ColorSpace.CS_GRAY), false, false,
+				Transparency.OPAQUE, DataBuffer.TYPE_FLOAT);
+		final RenderedImage floatImage = new BufferedImage(floatCM, floats, false, null);
+
+		for (int type : new int[] { ColorMap.TYPE_RAMP, ColorMap.TYPE_INTERVALS,
+				ColorMap.TYPE_VALUES }) {
+			final LinearColorMap colorMap = buildColorMap(type);
+			assertCompiled(bytes, colorMap, true);
+			assertCompiled(ushorts, colorMap, true);
+			// interpolated indexes are left to the classifier with floating point data
+			assertCompiled(floatImage, colorMap, type != ColorMap.TYPE_RAMP);
+		}
+	}
+
+	/**
+	 * The lookup tables are built once per color map content and data types
+	 */
+	@Test
+	public void compiledColorMapCache() throws Exception {
+		final SLDColorMapBuilder builder = createColorMapBuilder(ColorMap.TYPE_INTERVALS);
+		final String key = builder.getFingerprint();
+		final LinearColorMap colorMap = builder.buildLinearColorMap();
+		Assert.assertEquals(key, createColorMapBuilder(ColorMap.TYPE_INTERVALS).getFingerprint());
+		Assert.assertNotEquals(key, createColorMapBuilder(ColorMap.TYPE_VALUES).getFingerprint());
+
+		final LookupTable table = ColorMapLookup.getLookupTable(colorMap, key,
+				DataBuffer.TYPE_BYTE, DataBuffer.TYPE_BYTE);
+		Assert.assertNotNull(table);
+		Assert.assertSame(table, ColorMapLookup.getLookupTable(colorMap, key,
+				DataBuffer.TYPE_BYTE, DataBuffer.TYPE_BYTE));
+		Assert.assertNotSame(table, ColorMapLookup.getLookupTable(colorMap, key,
+				DataBuffer.TYPE_USHORT, DataBuffer.TYPE_BYTE));
+		// an equivalent color map, built again, shares the table
+		Assert.assertSame(table, ColorMapLookup.getLookupTable(
+				createColorMapBuilder(ColorMap.TYPE_INTERVALS).buildLinearColorMap(), key,
+				DataBuffer.TYPE_BYTE, DataBuffer.TYPE_BYTE));
+	}
+
+	private LinearColorMap buildColorMap(int type) {
+		return createColorMapBuilder(type).buildLinearColorMap();
+	}
+
+	private SLDColorMapBuilder createColorMapBuilder(int type) {
+		final FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+		final double[] quantities = new double[] { 0, 10, 50, 100, 200, 255 };
+		final String[] colors = new String[] { "#000000", "#0000FF", "#00FF00", "#FFFF00",
+				"#FF0000", "#FFFFFF" };
+		final SLDColorMapBuilder builder = new SLDColorMapBuilder();
+		builder.setLinearColorMapType(type).setNumberColorMapEntries(quantities.length)
+				.setColorForValuesToPreserve(new Color(0, 0, 0, 0))
+				.setGapsColor(new Color(0, 0, 0, 0));
+		for (int i = 0; i < quantities.length; i++) {
+			final ColorMapEntryImpl entry = new ColorMapEntryImpl();
+			entry.setColor(ff.literal(colors[i]));
+			entry.setQuantity(ff.literal(quantities[i]));
+			entry.setOpacity(ff.literal(1.0));
+			builder.addColorMapEntry(entry);
+		}
+		builder.addValueToPreserve(Double.NaN);
+		return builder;
+	}
+
+	private void assertCompiled(RenderedImage image, LinearColorMap colorMap,
+			boolean compilable) {
+		final RenderedOp classified = new ImageWorker(image).classify(colorMap, null)
+				.getRenderedOperation();
+		final RenderedImage compiled = ColorMapLookup.classify(image, colorMap, null);
+		if (!compilable) {
+			Assert.assertNull(compiled);
+			return;
+		}
+		Assert.assertNotNull(compiled);
+		Assert.assertEquals(classified.getColorModel(), compiled.getColorModel());
+		final int[] expected = classified.getData().getSamples(0, 0, image.getWidth(),
+				image.getHeight(), 0, (int[]) null);
+		final int[] actual = compiled.getData().getSamples(0, 0, image.getWidth(),
+				image.getHeight(), 0, (int[]) null);
+		Assert.assertArrayEquals(expected, actual);
+	}
 }
@@ -68,7 +68,8 @@ public class CoverageSlicesCatalog {
 
     /**
      * CoverageSlicesCatalog always used an hidden H2 DB to store granules
-     * index related to a specific file.
+     * index related to a specific file, optionally replaced by a 
+     * {@link SliceIndexDataStore}.
      * 
      * Starting from 14.x it also can be setup on top of a shared PostGIS
      * datastore.
@@ -162,10 +163,11 @@ public class CoverageSlicesCatalog {
             // creating a brand new one
             boolean isPostgis = Utils.isPostgisStore(spi);
             boolean isH2 = Utils.isH2Store(spi);
-            if (!(isH2 || isPostgis)) {
+            boolean isSliceIndex = spi instanceof SliceIndexDataStoreFactory;
+            if (!(isH2 || isPostgis || isSliceIndex)) {
                 throw new IllegalArgumentException(
                         "Low level index for multidim granules only supports"
-                        + " H2 and PostGIS databases");
+                        + " slice indexes, H2 and PostGIS databases");
             }
             if (isPostgis) {
                 Utils.fixPostgisDBCreationParams(params);
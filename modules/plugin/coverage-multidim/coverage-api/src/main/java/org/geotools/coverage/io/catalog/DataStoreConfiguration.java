@@ -40,16 +40,26 @@ import org.geotools.util.Utilities;
  * A new attribute LOCATION is used to distinguish granules coming from specific
  * file/reader instances.
  * 
+ * Per file indexes can also be stored in a {@link SliceIndexDataStore}, by setting the
+ * {@link #USE_SLICE_INDEX_KEY} system property to true, or by configuring the
+ * {@link SliceIndexDataStoreFactory#DBTYPE_STRING} dbtype explicitly. Existing indexes keep
+ * being opened with the store that created them, whatever the property.
+ * 
  *  
  * @author Daniele Romagnoli, GeoSolutions
  */
 public class DataStoreConfiguration {
 
+    /** System property enabling slice indexes, instead of H2 databases, for new per file indexes */
+    public static final String USE_SLICE_INDEX_KEY = "org.geotools.coverage.io.catalog.useSliceIndex";
+
     private final static H2DataStoreFactory INTERNAL_STORE_SPI = new H2DataStoreFactory();
 
-    /** Default instance is using a H2 DB for each file */
+    private final static SliceIndexDataStoreFactory SLICE_INDEX_SPI = new SliceIndexDataStoreFactory();
+
+    /** Default instance is using a slice index, or a H2 DB, for each file, depending on the dbtype param */
     public DataStoreConfiguration(Map<String, Serializable> datastoreParams) {
-        this(INTERNAL_STORE_SPI, datastoreParams);
+        this(getDefaultSpi(datastoreParams), datastoreParams);
     }
 
     public DataStoreConfiguration(DataStoreFactorySpi datastoreSpi,
@@ -88,8 +98,18 @@ public class DataStoreConfiguration {
     /** The connection params */
     private Map<String, Serializable> params;
 
+    private static DataStoreFactorySpi getDefaultSpi(Map<String, Serializable> datastoreParams) {
+        if (datastoreParams != null && SliceIndexDataStoreFactory.DBTYPE_STRING
+                .equals(datastoreParams.get(SliceIndexDataStoreFactory.DBTYPE.key))) {
+            return SLICE_INDEX_SPI;
+        }
+        return INTERNAL_STORE_SPI;
+    }
+
     /**
-     * Return default params for the 1 File <-> 1 H2 DB classic configuration. 
+     * Return default params for the 1 File <-> 1 index classic configuration. 
+     * The index is a H2 DB, unless a slice index already exists for the file
+     * or slice indexes have been enabled by the {@link #USE_SLICE_INDEX_KEY} system property.
      * 
      * @param database
      * @param parentLocation
@@ -107,15 +127,28 @@ public class DataStoreConfiguration {
                     + (new File(DataUtilities.urlToFile(new URL(url)), database)).getPath();
             params.put("ParentLocation", url);
             params.put("database", updatedDB);
-            params.put("dbtype", "h2");
-            params.put("user", "geotools");
-            params.put("passwd", "geotools");
+            if (isSliceIndex(database, parentLocation)) {
+                params.put("dbtype", SliceIndexDataStoreFactory.DBTYPE_STRING);
+            } else {
+                params.put("dbtype", "h2");
+                params.put("user", "geotools");
+                params.put("passwd", "geotools");
+            }
         } catch (MalformedURLException e) {
             throw new IllegalArgumentException(e);
         }
         return params;
     }
 
+    private static boolean isSliceIndex(String database, File parentLocation) {
+        if (new File(parentLocation, database + "." + SliceIndexFile.EXTENSION).exists()) {
+            return true;
+        }
+        return Boolean.getBoolean(USE_SLICE_INDEX_KEY)
+                && !new File(parentLocation, database + ".mv.db").exists()
+                && !new File(parentLocation, database + ".h2.db").exists();
+    }
+
     /**
      * a boolean stating whether the granules index is stored "the classic way", 
      * which is using an internal H2 DB for each file or it's a shared DB.
@@ -0,0 +1,320 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.coverage.io.catalog;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.Query;
+import org.geotools.data.store.ContentDataStore;
+import org.geotools.data.store.ContentEntry;
+import org.geotools.data.store.ContentFeatureSource;
+import org.geotools.feature.FeatureTypes;
+import org.geotools.feature.NameImpl;
+import org.geotools.feature.SchemaException;
+import org.geotools.referencing.CRS;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.feature.type.Name;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * A lightweight store for the slices index of a multidimensional file, alternative to the H2
+ * database.
+ * <p>
+ * The whole index lives in a single append-only file (see {@link SliceIndexFile}) which is read
+ * through memory mapping and kept in memory, where each type is held as an immutable snapshot.
+ * Opening the index does not lock the file, queries never block, and filters on the
+ * dimensions are resolved with a binary search on the sorted dimension values. Changes made by
+ * other store instances on the same file are picked up as soon as the file grows.
+ * </p>
+ * <p>
+ * Several stores, in the same process or in others, can write the same file: each change is
+ * appended under a file lock, new features get random ids, and concurrent updates of the same
+ * feature are resolved by keeping the last one written. Once the records superseded by later
+ * updates and removals outnumber the live ones, the writer {@linkplain #compact() compacts} the
+ * file.
+ * </p>
+ */
+public class SliceIndexDataStore extends ContentDataStore {
+
+    static final Logger LOGGER = Logging.getLogger(SliceIndexDataStore.class);
+
+    private final SliceIndexFile indexFile;
+
+    /** Number of superseded records past which the file is compacted, when they are the most */
+    static final int MIN_DEAD_RECORDS = 1000;
+
+    private final Map<String, SliceTable> tables = new LinkedHashMap<String, SliceTable>();
+
+    /** Number of records read so far superseded by later ones, or removals */
+    private int deadRecords;
+
+    public SliceIndexDataStore(File file) throws IOException {
+        this.indexFile = new SliceIndexFile(file);
+        refresh();
+    }
+
+    /**
+     * Returns the file backing this store
+     */
+    public File getFile() {
+        return indexFile.getFile();
+    }
+
+    @Override
+    protected List<Name> createTypeNames() throws IOException {
+        checkRefresh();
+        final List<Name> names = new ArrayList<Name>();
+        synchronized (this) {
+            for (String typeName : tables.keySet()) {
+                names.add(new NameImpl(namespaceURI, typeName));
+            }
+        }
+        return names;
+    }
+
+    @Override
+    protected ContentFeatureSource createFeatureSource(ContentEntry entry) throws IOException {
+        return new SliceIndexFeatureStore(entry, Query.ALL);
+    }
+
+    @Override
+    public synchronized void createSchema(SimpleFeatureType featureType) throws IOException {
+        try (Closeable lock = indexFile.lock()) {
+            refresh();
+            final String typeName = featureType.getTypeName();
+            if (tables.containsKey(typeName)) {
+                throw new IOException("Type " + typeName + " already exists in " + getFile());
+            }
+            final SliceIndexFile.Records records = new SliceIndexFile.Records();
+            writeSchema(records, featureType);
+            append(records);
+        }
+    }
+
+    /**
+     * Rewrites the file without the records superseded by later updates and removals. Readers
+     * of the file, in this process or others, read it again from scratch on their next access.
+     */
+    public synchronized void compact() throws IOException {
+        try (Closeable lock = indexFile.lock()) {
+            refresh();
+            final SliceIndexFile.Records records = new SliceIndexFile.Records();
+            for (SliceTable table : tables.values()) {
+                writeSchema(records, table.schema);
+            }
+            for (SliceTable table : tables.values()) {
+                final SliceTable.Snapshot snapshot = table.getSnapshot();
+                for (int i = 0; i < snapshot.size(); i++) {
+                    final SimpleFeature feature = snapshot.get(i);
+                    writeFeature(records, table, feature.getID(), feature);
+                }
+            }
+            indexFile.rewrite(records);
+            deadRecords = 0;
+        }
+    }
+
+    /**
+     * Returns the table of the specified type, picking up the changes made to the file by other
+     * stores first
+     */
+    SliceTable getTable(String typeName) throws IOException {
+        checkRefresh();
+        final SliceTable table;
+        synchronized (this) {
+            table = tables.get(typeName);
+        }
+        if (table == null) {
+            throw new IOException("Type " + typeName + " not found in " + getFile());
+        }
+        return table;
+    }
+
+    synchronized String newFid(SliceTable table) {
+        return table.newFid();
+    }
+
+    /**
+     * Writes the records to the file, and applies them to the tables
+     */
+    synchronized void append(SliceIndexFile.Records records) throws IOException {
+        indexFile.append(records);
+        refresh();
+        if (deadRecords > MIN_DEAD_RECORDS && deadRecords > getLiveRecords()) {
+            try {
+                compact();
+            } catch (IOException e) {
+                // the file is still valid, just larger than needed
+                LOGGER.log(Level.WARNING, "Failed to compact the slice index " + getFile(), e);
+            }
+        }
+    }
+
+    private int getLiveRecords() {
+        int live = tables.size();
+        for (SliceTable table : tables.values()) {
+            live += table.size();
+        }
+        return live;
+    }
+
+    static void writeSchema(SliceIndexFile.Records records, SimpleFeatureType featureType)
+            throws IOException {
+        final DataOutputStream out = records.start(SliceIndexFile.SCHEMA);
+        SliceIndexFile.Records.writeString(out, featureType.getTypeName());
+        SliceIndexFile.Records.writeString(out, encodeAttributes(featureType));
+        SliceIndexFile.Records.writeString(out,
+                encodeCRS(featureType.getCoordinateReferenceSystem()));
+        records.end();
+    }
+
+    static void writeFeature(SliceIndexFile.Records records, SliceTable table, String fid,
+            SimpleFeature feature) throws IOException {
+        final DataOutputStream out = records.start(SliceIndexFile.FEATURE);
+        SliceIndexFile.Records.writeString(out, table.schema.getTypeName());
+        SliceIndexFile.Records.writeString(out, fid);
+        table.encode(feature, out);
+        records.end();
+    }
+
+    private void checkRefresh() throws IOException {
+        if (indexFile.isChanged()) {
+            refresh();
+        }
+    }
+
+    private synchronized void refresh() throws IOException {
+        List<ByteBuffer> records = indexFile.readRecords();
+        if (records == null) {
+            // the file has been rewritten
+            tables.clear();
+            deadRecords = 0;
+            records = indexFile.readRecords();
+            if (records == null) {
+                return;
+            }
+        }
+        final Set<SliceTable> changed = new HashSet<SliceTable>();
+        for (ByteBuffer record : records) {
+            final byte type = record.get();
+            if (type == SliceIndexFile.SCHEMA) {
+                final String typeName = SliceIndexFile.readString(record);
+                final String attributes = SliceIndexFile.readString(record);
+                final String crs = SliceIndexFile.readString(record);
+                if (!tables.containsKey(typeName)) {
+                    tables.put(typeName, new SliceTable(decodeSchema(typeName, attributes, crs)));
+                }
+            } else if (type == SliceIndexFile.FEATURE || type == SliceIndexFile.REMOVE) {
+                final String typeName = SliceIndexFile.readString(record);
+                final String fid = SliceIndexFile.readString(record);
+                final SliceTable table = tables.get(typeName);
+                if (table == null) {
+                    throw new IOException("Slice " + fid + " refers to unknown type "
+                            + typeName + " in " + getFile());
+                }
+                if (type == SliceIndexFile.FEATURE) {
+                    if (table.put(table.decode(fid, record))) {
+                        deadRecords++;
+                    }
+                } else {
+                    // the tombstone, and the record it removes
+                    deadRecords += table.remove(fid) ? 2 : 1;
+                }
+                changed.add(table);
+            } else if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Skipping unknown record type " + type + " in " + getFile());
+            }
+        }
+        for (SliceTable table : changed) {
+            table.publish();
+        }
+    }
+
+    /**
+     * Encodes the attributes in the {@link DataUtilities#createType(String, String)} format,
+     * leaving the CRS out
+     */
+    static String encodeAttributes(SimpleFeatureType featureType) {
+        final StringBuilder sb = new StringBuilder();
+        final GeometryDescriptor defaultGeometry = featureType.getGeometryDescriptor();
+        boolean firstGeometry = true;
+        for (AttributeDescriptor descriptor : featureType.getAttributeDescriptors()) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            if (descriptor instanceof GeometryDescriptor) {
+                if (descriptor == defaultGeometry && !firstGeometry) {
+                    sb.append('*');
+                }
+                firstGeometry = false;
+            }
+            sb.append(descriptor.getLocalName()).append(':')
+                    .append(descriptor.getType().getBinding().getName());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Encodes the CRS as WKT, so that non EPSG ones (common with NetCDF) survive
+     */
+    static String encodeCRS(CoordinateReferenceSystem crs) {
+        if (crs == null) {
+            return "";
+        }
+        try {
+            return crs.toWKT();
+        } catch (UnsupportedOperationException e) {
+            String srs = CRS.toSRS(crs);
+            return srs != null ? srs : "";
+        }
+    }
+
+    static SimpleFeatureType decodeSchema(String typeName, String attributes, String crs)
+            throws IOException {
+        try {
+            SimpleFeatureType schema = DataUtilities.createType(null, typeName, attributes);
+            if (!crs.isEmpty()) {
+                CoordinateReferenceSystem decoded = crs.indexOf('[') >= 0 ? CRS.parseWKT(crs)
+                        : CRS.decode(crs);
+                schema = FeatureTypes.transform(schema, decoded);
+            }
+            return schema;
+        } catch (SchemaException e) {
+            throw new IOException("Invalid schema for type " + typeName, e);
+        } catch (FactoryException e) {
+            throw new IOException("Invalid CRS for type " + typeName, e);
+        }
+    }
+}
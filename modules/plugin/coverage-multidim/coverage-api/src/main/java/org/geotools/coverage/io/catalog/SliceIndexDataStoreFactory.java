@@ -0,0 +1,103 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.coverage.io.catalog;
+
+import java.awt.RenderingHints.Key;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+
+import org.geotools.data.DataStore;
+import org.geotools.data.DataStoreFactorySpi;
+
+/**
+ * Factory for {@link SliceIndexDataStore}.
+ * <p>
+ * The parameters mimic the H2 ones used by the multidimensional readers: the {@link #DATABASE}
+ * is the path of the index, without extension and optionally prefixed by <code>file:</code>.
+ * </p>
+ */
+public class SliceIndexDataStoreFactory implements DataStoreFactorySpi {
+
+    /** The {@link #DBTYPE} value identifying slice index stores */
+    public static final String DBTYPE_STRING = "slices";
+
+    public static final Param DBTYPE = new Param("dbtype", String.class, "Type", true,
+            DBTYPE_STRING);
+
+    public static final Param DATABASE = new Param("database", String.class,
+            "Path of the slice index, without extension", true);
+
+    public DataStore createDataStore(Map<String, Serializable> params) throws IOException {
+        final File file = getFile(params);
+        final File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Unable to create the slice index directory " + parent);
+        }
+        SliceIndexDataStore store = new SliceIndexDataStore(file);
+        store.setDataStoreFactory(this);
+        return store;
+    }
+
+    public DataStore createNewDataStore(Map<String, Serializable> params) throws IOException {
+        return createDataStore(params);
+    }
+
+    /**
+     * Returns the file the index is stored into
+     */
+    static File getFile(Map<String, Serializable> params) throws IOException {
+        String database = (String) DATABASE.lookUp(params);
+        if (database.startsWith("file:")) {
+            database = database.substring("file:".length());
+        }
+        if (!database.endsWith("." + SliceIndexFile.EXTENSION)) {
+            database = database + "." + SliceIndexFile.EXTENSION;
+        }
+        return new File(database);
+    }
+
+    public String getDisplayName() {
+        return "Slice index";
+    }
+
+    public String getDescription() {
+        return "Index of the 2D slices of multidimensional coverages, stored in a single file";
+    }
+
+    public Param[] getParametersInfo() {
+        return new Param[] { DBTYPE, DATABASE };
+    }
+
+    public boolean canProcess(Map<String, Serializable> params) {
+        try {
+            return DBTYPE_STRING.equals(DBTYPE.lookUp(params)) && DATABASE.lookUp(params) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public boolean isAvailable() {
+        return true;
+    }
+
+    public Map<Key, ?> getImplementationHints() {
+        return Collections.emptyMap();
+    }
+}
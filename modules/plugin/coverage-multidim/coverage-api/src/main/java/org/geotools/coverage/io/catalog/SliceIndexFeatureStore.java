@@ -0,0 +1,242 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.coverage.io.catalog;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+import org.geotools.data.FeatureReader;
+import org.geotools.data.FeatureWriter;
+import org.geotools.data.Query;
+import org.geotools.data.store.ContentEntry;
+import org.geotools.data.store.ContentFeatureStore;
+import org.geotools.factory.Hints;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Feature store on a type of a {@link SliceIndexDataStore}. Filtering is handled natively,
+ * everything else is left to the base class.
+ */
+class SliceIndexFeatureStore extends ContentFeatureStore {
+
+    SliceIndexFeatureStore(ContentEntry entry, Query query) {
+        super(entry, query);
+    }
+
+    @Override
+    public SliceIndexDataStore getDataStore() {
+        return (SliceIndexDataStore) super.getDataStore();
+    }
+
+    private SliceTable getTable() throws IOException {
+        return getDataStore().getTable(entry.getTypeName());
+    }
+
+    @Override
+    protected SimpleFeatureType buildFeatureType() throws IOException {
+        return getTable().schema;
+    }
+
+    @Override
+    protected ReferencedEnvelope getBoundsInternal(Query query) throws IOException {
+        return getTable().getSnapshot().getBounds(query.getFilter());
+    }
+
+    @Override
+    protected int getCountInternal(Query query) throws IOException {
+        return getTable().getSnapshot().select(query.getFilter()).length;
+    }
+
+    @Override
+    protected FeatureReader<SimpleFeatureType, SimpleFeature> getReaderInternal(Query query)
+            throws IOException {
+        final SliceTable table = getTable();
+        final SliceTable.Snapshot snapshot = table.getSnapshot();
+        return new SliceReader(table.schema, snapshot, snapshot.select(query.getFilter()));
+    }
+
+    @Override
+    protected FeatureWriter<SimpleFeatureType, SimpleFeature> getWriterInternal(Query query,
+            int flags) throws IOException {
+        final SliceTable table = getTable();
+        final SliceTable.Snapshot snapshot = table.getSnapshot();
+        final int[] positions = (flags & (WRITER_UPDATE | WRITER_COMMIT)) != 0 ? snapshot
+                .select(query.getFilter()) : new int[0];
+        return new SliceWriter(getDataStore(), table, snapshot, positions);
+    }
+
+    @Override
+    protected boolean canFilter() {
+        return true;
+    }
+
+    static class SliceReader implements FeatureReader<SimpleFeatureType, SimpleFeature> {
+
+        private final SimpleFeatureType schema;
+
+        private SliceTable.Snapshot snapshot;
+
+        private final int[] positions;
+
+        private int next;
+
+        SliceReader(SimpleFeatureType schema, SliceTable.Snapshot snapshot, int[] positions) {
+            this.schema = schema;
+            this.snapshot = snapshot;
+            this.positions = positions;
+        }
+
+        @Override
+        public SimpleFeatureType getFeatureType() {
+            return schema;
+        }
+
+        @Override
+        public SimpleFeature next() throws IOException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException("There are no more Features");
+            }
+            // the snapshot features are shared, hand out copies
+            return SimpleFeatureBuilder.copy(snapshot.get(positions[next++]));
+        }
+
+        @Override
+        public boolean hasNext() throws IOException {
+            return snapshot != null && next < positions.length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            snapshot = null;
+        }
+    }
+
+    /**
+     * Collects the changes as records, appended to the file in a single write on close
+     */
+    static class SliceWriter implements FeatureWriter<SimpleFeatureType, SimpleFeature> {
+
+        private final SliceIndexDataStore store;
+
+        private final SliceTable table;
+
+        private final SliceTable.Snapshot snapshot;
+
+        private final int[] positions;
+
+        private int next;
+
+        private SliceIndexFile.Records records = new SliceIndexFile.Records();
+
+        private SimpleFeature live;
+
+        private SimpleFeature current;
+
+        SliceWriter(SliceIndexDataStore store, SliceTable table, SliceTable.Snapshot snapshot,
+                int[] positions) {
+            this.store = store;
+            this.table = table;
+            this.snapshot = snapshot;
+            this.positions = positions;
+        }
+
+        @Override
+        public SimpleFeatureType getFeatureType() {
+            return table.schema;
+        }
+
+        @Override
+        public boolean hasNext() throws IOException {
+            checkOpen();
+            return next < positions.length;
+        }
+
+        @Override
+        public SimpleFeature next() throws IOException {
+            if (hasNext()) {
+                live = snapshot.get(positions[next++]);
+                current = SimpleFeatureBuilder.copy(live);
+            } else {
+                live = null;
+                current = SimpleFeatureBuilder.template(table.schema, null);
+            }
+            return current;
+        }
+
+        @Override
+        public void remove() throws IOException {
+            checkOpen();
+            if (current == null) {
+                throw new IOException("No feature available to remove");
+            }
+            if (live != null) {
+                DataOutputStream out = records.start(SliceIndexFile.REMOVE);
+                SliceIndexFile.Records.writeString(out, table.schema.getTypeName());
+                SliceIndexFile.Records.writeString(out, live.getID());
+                records.end();
+            }
+            live = null;
+            current = null;
+        }
+
+        @Override
+        public void write() throws IOException {
+            checkOpen();
+            if (current == null) {
+                throw new IOException("No feature available to write");
+            }
+            String fid;
+            if (live != null) {
+                fid = live.getID();
+            } else if (Boolean.TRUE.equals(current.getUserData().get(Hints.USE_PROVIDED_FID))) {
+                Object provided = current.getUserData().get(Hints.PROVIDED_FID);
+                fid = provided != null ? provided.toString() : current.getID();
+            } else {
+                fid = store.newFid(table);
+            }
+            if (live == null || !live.equals(current)) {
+                SliceIndexDataStore.writeFeature(records, table, fid, current);
+            }
+            live = null;
+            current = null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (records == null) {
+                return;
+            }
+            try {
+                store.append(records);
+            } finally {
+                records = null;
+                live = null;
+                current = null;
+            }
+        }
+
+        private void checkOpen() throws IOException {
+            if (records == null) {
+                throw new IOException("FeatureWriter has been closed");
+            }
+        }
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.coverage.io.catalog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The append-only file backing a {@link SliceIndexDataStore}.
+ * <p>
+ * The file starts with a magic number, a version and a random generation, followed by a
+ * sequence of records, each one made of its length, its type and a payload. Records are never
+ * modified once written: schemas and features are added by appending a record, features are
+ * updated by appending a new record with the same id and removed by appending a tombstone. New
+ * records are read by mapping the portion of the file grown since the last read, so readers never
+ * lock the file, and a record being written by someone else is just ignored until complete.
+ * </p>
+ * <p>
+ * Writers, in this process or others, serialize on a lock taken on a companion
+ * <code>.lock</code> file, see {@link #lock()}. Besides appending, a writer can
+ * {@linkplain #rewrite rewrite} the file to drop the records superseded by later ones, the new
+ * file gets a new generation, which tells readers to read it again from scratch.
+ * </p>
+ */
+class SliceIndexFile {
+
+    static final String EXTENSION = "slices";
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static final int MAGIC = 0x47544958;
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 16;
+
+    /** Offset of the generation in the header */
+    static final int GENERATION_OFFSET = 8;
+
+    /** Serializes the writers of this process, file locks are held on behalf of the whole JVM */
+    private static final ConcurrentMap<File, ReentrantLock> WRITE_LOCKS = new ConcurrentHashMap<File, ReentrantLock>();
+
+    /** Record types */
+    static final byte SCHEMA = 1;
+
+    static final byte FEATURE = 2;
+
+    static final byte REMOVE = 3;
+
+    private final File file;
+
+    /** Number of bytes already read */
+    private long loaded;
+
+    /** Generation of the file read so far */
+    private long generation;
+
+    SliceIndexFile(File file) {
+        this.file = file.getAbsoluteFile();
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns true if the file changed since the last call to {@link #readRecords()}
+     */
+    boolean isChanged() {
+        return file.length() != loaded;
+    }
+
+    /**
+     * Returns the records appended since the last call, each buffer holding the record type
+     * followed by its payload. Returns {@code null} if the file has been rewritten or removed in
+     * the meantime, meaning it has to be read again from scratch.
+     */
+    synchronized List<ByteBuffer> readRecords() throws IOException {
+        if (!file.exists()) {
+            if (loaded > 0) {
+                loaded = 0;
+                return null;
+            }
+            return Collections.emptyList();
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < loaded || (loaded > 0 && readGeneration(channel) != generation)) {
+                loaded = 0;
+                return null;
+            }
+            if (size == loaded || size < HEADER_SIZE) {
+                return Collections.emptyList();
+            }
+            if (size - loaded > Integer.MAX_VALUE) {
+                throw new IOException("Slice index too large: " + file);
+            }
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, loaded,
+                    size - loaded);
+            if (loaded == 0) {
+                if (buffer.getInt() != MAGIC) {
+                    throw new IOException(file + " is not a slice index");
+                }
+                int version = buffer.getInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported slice index version " + version + " in "
+                            + file);
+                }
+                generation = buffer.getLong();
+            }
+            final List<ByteBuffer> records = new ArrayList<ByteBuffer>();
+            while (buffer.remaining() >= 4) {
+                final int length = buffer.getInt(buffer.position());
+                if (length <= 0) {
+                    throw new IOException("Corrupted slice index " + file + " at "
+                            + (loaded + buffer.position()));
+                }
+                if (buffer.remaining() - 4 < length) {
+                    // being written, will be read next time
+                    break;
+                }
+                buffer.position(buffer.position() + 4);
+                ByteBuffer record = buffer.slice();
+                record.limit(length);
+                records.add(record);
+                buffer.position(buffer.position() + length);
+            }
+            loaded += buffer.position();
+            return records;
+        }
+    }
+
+    private static long readGeneration(FileChannel channel) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(8);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, GENERATION_OFFSET + buffer.position()) < 0) {
+                return 0;
+            }
+        }
+        buffer.flip();
+        return buffer.getLong();
+    }
+
+    /**
+     * Acquires the write lock of the file, shared by all the processes, to be released by
+     * closing the returned object. The lock is reentrant for the calling thread.
+     */
+    Closeable lock() throws IOException {
+        ReentrantLock local = WRITE_LOCKS.get(file);
+        if (local == null) {
+            ReentrantLock created = new ReentrantLock();
+            local = WRITE_LOCKS.putIfAbsent(file, created);
+            if (local == null) {
+                local = created;
+            }
+        }
+        final ReentrantLock threadLock = local;
+        threadLock.lock();
+        if (threadLock.getHoldCount() > 1) {
+            // the file lock is held already
+            return new Closeable() {
+
+                @Override
+                public void close() {
+                    threadLock.unlock();
+                }
+            };
+        }
+        FileChannel channel = null;
+        try {
+            final File lockFile = new File(file.getPath() + ".lock");
+            channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+            final FileChannel lockChannel = channel;
+            final FileLock fileLock = channel.lock();
+            return new Closeable() {
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        fileLock.release();
+                        lockChannel.close();
+                    } finally {
+                        threadLock.unlock();
+                    }
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            threadLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends the records to the file, writing the header first if the file is new
+     */
+    synchronized void append(Records records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        try (Closeable lock = lock();
+                FileChannel channel = FileChannel.open(file.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND)) {
+            ByteBuffer data;
+            if (channel.size() == 0) {
+                data = ByteBuffer.allocate(HEADER_SIZE + records.size());
+                writeHeader(data);
+                data.put(records.toByteArray());
+                data.flip();
+            } else {
+                data = ByteBuffer.wrap(records.toByteArray());
+            }
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+    }
+
+    /**
+     * Replaces the file with one holding only the given records, under a new generation. The
+     * caller must hold the {@link #lock()} and have read the current records already, the
+     * records are considered read.
+     */
+    synchronized void rewrite(Records records) throws IOException {
+        final File temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        try {
+            final long newGeneration;
+            try (FileChannel channel = FileChannel.open(temp.toPath(),
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer data = ByteBuffer.allocate(HEADER_SIZE + records.size());
+                newGeneration = writeHeader(data);
+                data.put(records.toByteArray());
+                data.flip();
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+                channel.force(true);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            loaded = HEADER_SIZE + records.size();
+            generation = newGeneration;
+        } finally {
+            if (temp.exists()) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes the header with a new generation, returning it
+     */
+    private static long writeHeader(ByteBuffer data) {
+        long newGeneration = ThreadLocalRandom.current().nextLong();
+        data.putInt(MAGIC);
+        data.putInt(VERSION);
+        data.putLong(newGeneration);
+        return newGeneration;
+    }
+
+    static String readString(ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Accumulates records in memory, to be appended in a single write
+     */
+    static class Records {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+
+        private final DataOutputStream record = new DataOutputStream(recordBytes);
+
+        /**
+         * Starts a new record, returning the stream its payload is written to
+         */
+        DataOutputStream start(byte type) throws IOException {
+            recordBytes.reset();
+            record.writeByte(type);
+            return record;
+        }
+
+        /**
+         * Completes the record started last
+         */
+        void end() throws IOException {
+            record.flush();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(recordBytes.size());
+            recordBytes.writeTo(out);
+            out.flush();
+        }
+
+        boolean isEmpty() {
+            return bytes.size() == 0;
+        }
+
+        int size() {
+            return bytes.size();
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+
+        static void writeString(DataOutputStream out, String value) throws IOException {
+            byte[] encoded = value.getBytes(UTF8);
+            out.writeInt(encoded.length);
+            out.write(encoded);
+        }
+    }
+}
@@ -0,0 +1,523 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.coverage.io.catalog;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.util.Converters;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.filter.And;
+import org.opengis.filter.BinaryComparisonOperator;
+import org.opengis.filter.Filter;
+import org.opengis.filter.PropertyIsBetween;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.PropertyIsGreaterThan;
+import org.opengis.filter.PropertyIsGreaterThanOrEqualTo;
+import org.opengis.filter.PropertyIsLessThan;
+import org.opengis.filter.PropertyIsLessThanOrEqualTo;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKBWriter;
+
+/**
+ * The slices of a single type of a {@link SliceIndexDataStore}.
+ * <p>
+ * Changes are applied to a mutable map and then published as an immutable {@link Snapshot},
+ * so that queries never block. Each snapshot lazily builds, for the attributes queries filter
+ * on, an array of the attribute values sorted along with the positions of the features holding
+ * them, and uses a binary search on it to locate the candidate features.
+ * </p>
+ */
+class SliceTable {
+
+    /** Value tags */
+    private static final byte NULL = 0;
+
+    private static final byte STRING = 1;
+
+    private static final byte INTEGER = 2;
+
+    private static final byte LONG = 3;
+
+    private static final byte DOUBLE = 4;
+
+    private static final byte FLOAT = 5;
+
+    private static final byte SHORT = 6;
+
+    private static final byte BYTE = 7;
+
+    private static final byte BOOLEAN = 8;
+
+    private static final byte DATE = 9;
+
+    private static final byte GEOMETRY = 10;
+
+    private static final byte OTHER = 11;
+
+    final SimpleFeatureType schema;
+
+    private final LinkedHashMap<String, SimpleFeature> features = new LinkedHashMap<String, SimpleFeature>();
+
+    private volatile Snapshot snapshot;
+
+    SliceTable(SimpleFeatureType schema) {
+        this.schema = schema;
+        this.snapshot = new Snapshot(schema, new SimpleFeature[0]);
+    }
+
+    Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Returns a new feature id, random so that it is unique among the ones other writers of the
+     * same file may generate concurrently
+     */
+    String newFid() {
+        return schema.getTypeName() + "." + UUID.randomUUID();
+    }
+
+    /**
+     * Adds or updates a feature, returning true if it replaced an existing one
+     */
+    boolean put(SimpleFeature feature) {
+        // updates keep the original position
+        return features.put(feature.getID(), feature) != null;
+    }
+
+    /**
+     * Removes a feature, returning true if it existed
+     */
+    boolean remove(String fid) {
+        return features.remove(fid) != null;
+    }
+
+    /**
+     * Returns the number of features, including the changes not published yet
+     */
+    int size() {
+        return features.size();
+    }
+
+    /**
+     * Makes the changes applied so far visible to queries
+     */
+    void publish() {
+        snapshot = new Snapshot(schema, features.values().toArray(
+                new SimpleFeature[features.size()]));
+    }
+
+    void encode(SimpleFeature feature, DataOutputStream out) throws IOException {
+        for (AttributeDescriptor descriptor : schema.getAttributeDescriptors()) {
+            Object value = feature.getAttribute(descriptor.getLocalName());
+            if (value == null) {
+                out.writeByte(NULL);
+            } else if (value instanceof Geometry) {
+                out.writeByte(GEOMETRY);
+                byte[] wkb = new WKBWriter().write((Geometry) value);
+                out.writeInt(wkb.length);
+                out.write(wkb);
+            } else if (value instanceof String) {
+                out.writeByte(STRING);
+                SliceIndexFile.Records.writeString(out, (String) value);
+            } else if (value instanceof Integer) {
+                out.writeByte(INTEGER);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(LONG);
+                out.writeLong((Long) value);
+            } else if (value instanceof Double) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof Float) {
+                out.writeByte(FLOAT);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Short) {
+                out.writeByte(SHORT);
+                out.writeShort((Short) value);
+            } else if (value instanceof Byte) {
+                out.writeByte(BYTE);
+                out.writeByte((Byte) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte(BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            } else if (value instanceof Date) {
+                out.writeByte(DATE);
+                out.writeLong(((Date) value).getTime());
+            } else {
+                String converted = Converters.convert(value, String.class);
+                if (converted == null) {
+                    throw new IOException("Cannot store value " + value + " of attribute "
+                            + descriptor.getLocalName());
+                }
+                out.writeByte(OTHER);
+                SliceIndexFile.Records.writeString(out, converted);
+            }
+        }
+    }
+
+    SimpleFeature decode(String fid, ByteBuffer buffer) throws IOException {
+        final List<AttributeDescriptor> descriptors = schema.getAttributeDescriptors();
+        final Object[] values = new Object[descriptors.size()];
+        for (int i = 0; i < values.length; i++) {
+            final Class<?> binding = descriptors.get(i).getType().getBinding();
+            final byte tag = buffer.get();
+            Object value;
+            switch (tag) {
+            case NULL:
+                value = null;
+                break;
+            case GEOMETRY:
+                byte[] wkb = new byte[buffer.getInt()];
+                buffer.get(wkb);
+                try {
+                    value = new WKBReader().read(wkb);
+                } catch (ParseException e) {
+                    throw new IOException("Invalid geometry in slice " + fid, e);
+                }
+                break;
+            case STRING:
+            case OTHER:
+                value = SliceIndexFile.readString(buffer);
+                break;
+            case INTEGER:
+                value = buffer.getInt();
+                break;
+            case LONG:
+                value = buffer.getLong();
+                break;
+            case DOUBLE:
+                value = buffer.getDouble();
+                break;
+            case FLOAT:
+                value = buffer.getFloat();
+                break;
+            case SHORT:
+                value = buffer.getShort();
+                break;
+            case BYTE:
+                value = buffer.get();
+                break;
+            case BOOLEAN:
+                value = buffer.get() != 0;
+                break;
+            case DATE:
+                long time = buffer.getLong();
+                if (java.sql.Timestamp.class.isAssignableFrom(binding)) {
+                    value = new java.sql.Timestamp(time);
+                } else if (java.sql.Date.class.isAssignableFrom(binding)) {
+                    value = new java.sql.Date(time);
+                } else if (java.sql.Time.class.isAssignableFrom(binding)) {
+                    value = new java.sql.Time(time);
+                } else {
+                    value = new Date(time);
+                }
+                break;
+            default:
+                throw new IOException("Unknown value type " + tag + " in slice " + fid);
+            }
+            if (value != null && !binding.isInstance(value)) {
+                // keep values consistent with the schema, so that they can be sorted
+                Object converted = Converters.convert(value, binding);
+                if (converted != null) {
+                    value = converted;
+                }
+            }
+            values[i] = value;
+        }
+        return SimpleFeatureBuilder.build(schema, values, fid);
+    }
+
+    /**
+     * An immutable view of the table contents
+     */
+    static class Snapshot {
+
+        private final SimpleFeatureType schema;
+
+        private final SimpleFeature[] features;
+
+        private final Map<String, SortedIndex> indexes = new ConcurrentHashMap<String, SortedIndex>();
+
+        private volatile ReferencedEnvelope bounds;
+
+        Snapshot(SimpleFeatureType schema, SimpleFeature[] features) {
+            this.schema = schema;
+            this.features = features;
+        }
+
+        int size() {
+            return features.length;
+        }
+
+        SimpleFeature get(int position) {
+            return features[position];
+        }
+
+        /**
+         * Returns the positions, in insertion order, of the features matching the filter
+         */
+        int[] select(Filter filter) {
+            if (filter == null || filter == Filter.INCLUDE) {
+                int[] all = new int[features.length];
+                for (int i = 0; i < all.length; i++) {
+                    all[i] = i;
+                }
+                return all;
+            }
+            if (filter == Filter.EXCLUDE) {
+                return new int[0];
+            }
+            int[] candidates = candidates(filter);
+            final int[] selected = new int[candidates != null ? candidates.length
+                    : features.length];
+            int count = 0;
+            if (candidates != null) {
+                Arrays.sort(candidates);
+                for (int position : candidates) {
+                    if (filter.evaluate(features[position])) {
+                        selected[count++] = position;
+                    }
+                }
+            } else {
+                for (int i = 0; i < features.length; i++) {
+                    if (filter.evaluate(features[i])) {
+                        selected[count++] = i;
+                    }
+                }
+            }
+            return Arrays.copyOf(selected, count);
+        }
+
+        ReferencedEnvelope getBounds(Filter filter) {
+            if (filter == null || filter == Filter.INCLUDE) {
+                ReferencedEnvelope result = bounds;
+                if (result == null) {
+                    result = computeBounds(select(Filter.INCLUDE));
+                    bounds = result;
+                }
+                return new ReferencedEnvelope(result);
+            }
+            return computeBounds(select(filter));
+        }
+
+        private ReferencedEnvelope computeBounds(int[] positions) {
+            ReferencedEnvelope result = new ReferencedEnvelope(
+                    schema.getCoordinateReferenceSystem());
+            for (int position : positions) {
+                Object geometry = features[position].getDefaultGeometry();
+                if (geometry instanceof Geometry) {
+                    result.expandToInclude(((Geometry) geometry).getEnvelopeInternal());
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Uses the sorted indexes to restrict the features to check against the filter, returns
+         * null if the filter cannot be resolved on an index
+         */
+        private int[] candidates(Filter filter) {
+            if (filter instanceof And) {
+                int[] best = null;
+                for (Filter child : ((And) filter).getChildren()) {
+                    int[] candidates = candidates(child);
+                    if (candidates != null && (best == null || candidates.length < best.length)) {
+                        best = candidates;
+                    }
+                }
+                return best;
+            } else if (filter instanceof PropertyIsBetween) {
+                PropertyIsBetween between = (PropertyIsBetween) filter;
+                SortedIndex index = getIndex(between.getExpression());
+                if (index == null) {
+                    return null;
+                }
+                Comparable<Object> lower = index.convert(between.getLowerBoundary());
+                Comparable<Object> upper = index.convert(between.getUpperBoundary());
+                if (lower == null || upper == null) {
+                    return null;
+                }
+                return index.range(index.lowerBound(lower), index.upperBound(upper));
+            } else if (filter instanceof BinaryComparisonOperator) {
+                BinaryComparisonOperator comparison = (BinaryComparisonOperator) filter;
+                Expression property = comparison.getExpression1();
+                Expression literal = comparison.getExpression2();
+                boolean swapped = false;
+                if (property instanceof Literal && literal instanceof PropertyName) {
+                    property = comparison.getExpression2();
+                    literal = comparison.getExpression1();
+                    swapped = true;
+                }
+                SortedIndex index = getIndex(property);
+                if (index == null || !(literal instanceof Literal)) {
+                    return null;
+                }
+                if (index.isString && !comparison.isMatchingCase()) {
+                    return null;
+                }
+                Comparable<Object> value = index.convert(literal);
+                if (value == null) {
+                    return null;
+                }
+                final int n = index.values.length;
+                if (filter instanceof PropertyIsEqualTo) {
+                    return index.range(index.lowerBound(value), index.upperBound(value));
+                } else if (filter instanceof PropertyIsGreaterThan) {
+                    return swapped ? index.range(0, index.lowerBound(value)) : index.range(
+                            index.upperBound(value), n);
+                } else if (filter instanceof PropertyIsGreaterThanOrEqualTo) {
+                    return swapped ? index.range(0, index.upperBound(value)) : index.range(
+                            index.lowerBound(value), n);
+                } else if (filter instanceof PropertyIsLessThan) {
+                    return swapped ? index.range(index.upperBound(value), n) : index.range(0,
+                            index.lowerBound(value));
+                } else if (filter instanceof PropertyIsLessThanOrEqualTo) {
+                    return swapped ? index.range(index.lowerBound(value), n) : index.range(0,
+                            index.upperBound(value));
+                }
+            }
+            return null;
+        }
+
+        private SortedIndex getIndex(Expression expression) {
+            if (!(expression instanceof PropertyName)) {
+                return null;
+            }
+            final String name = ((PropertyName) expression).getPropertyName();
+            final AttributeDescriptor descriptor = schema.getDescriptor(name);
+            if (descriptor == null || descriptor instanceof GeometryDescriptor
+                    || !Comparable.class.isAssignableFrom(descriptor.getType().getBinding())) {
+                return null;
+            }
+            SortedIndex index = indexes.get(name);
+            if (index == null) {
+                index = new SortedIndex(features, descriptor);
+                indexes.put(name, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * The values of an attribute, sorted, along with the positions of the features holding them
+     */
+    static class SortedIndex {
+
+        private final Class<?> binding;
+
+        final boolean isString;
+
+        final Comparable<Object>[] values;
+
+        final int[] positions;
+
+        @SuppressWarnings("unchecked")
+        SortedIndex(SimpleFeature[] features, AttributeDescriptor descriptor) {
+            this.binding = descriptor.getType().getBinding();
+            this.isString = String.class.equals(binding);
+            final String name = descriptor.getLocalName();
+            final List<Integer> order = new ArrayList<Integer>(features.length);
+            final Comparable<Object>[] all = new Comparable[features.length];
+            for (int i = 0; i < features.length; i++) {
+                Object value = features[i].getAttribute(name);
+                // null values never satisfy a comparison, leave them out
+                if (value instanceof Comparable) {
+                    all[i] = (Comparable<Object>) value;
+                    order.add(i);
+                }
+            }
+            Collections.sort(order, new Comparator<Integer>() {
+
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return all[o1].compareTo(all[o2]);
+                }
+            });
+            values = new Comparable[order.size()];
+            positions = new int[order.size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = order.get(i);
+                values[i] = all[positions[i]];
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        Comparable<Object> convert(Expression expression) {
+            if (!(expression instanceof Literal)) {
+                return null;
+            }
+            Object value = Converters.convert(((Literal) expression).getValue(), binding);
+            return value instanceof Comparable ? (Comparable<Object>) value : null;
+        }
+
+        /** First position whose value is greater or equal than the given one */
+        int lowerBound(Comparable<Object> value) {
+            int low = 0, high = values.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (values[mid].compareTo(value) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /** First position whose value is greater than the given one */
+        int upperBound(Comparable<Object> value) {
+            int low = 0, high = values.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (values[mid].compareTo(value) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        int[] range(int from, int to) {
+            return from >= to ? new int[0] : Arrays.copyOfRange(positions, from, to);
+        }
+    }
+}
@@ -207,6 +207,107 @@ public class CatalogSliceTest extends Assert{
 
     }
 
+    @Test
+    public void sliceIndexTest() throws Exception {
+        final File parentLocation = new File(TestData.file(this, "."), "slices");
+        if (parentLocation.exists()) {
+            FileUtils.deleteDirectory(parentLocation);
+        }
+        assertTrue(parentLocation.mkdir());
+        final String databaseName = "test";
+        final String schemaDef = "the_geom:Polygon,coverage:String,imageindex:Integer,time:java.util.Date";
+        final ReferencedEnvelope referencedEnvelope = new ReferencedEnvelope(-180, 180, -90, 90,
+                DefaultGeographicCRS.WGS84);
+        CoverageSlicesCatalog sliceCat = null;
+        Transaction t = new DefaultTransaction(Long.toString(System.nanoTime()));
+        System.setProperty(DataStoreConfiguration.USE_SLICE_INDEX_KEY, "true");
+        try {
+            sliceCat = new CoverageSlicesCatalog(databaseName, parentLocation);
+            sliceCat.createType("1", schemaDef);
+            SimpleFeatureType schema = DataUtilities.createType("1", schemaDef);
+            for (int i = 0; i < 10; i++) {
+                SimpleFeature feat = DataUtilities.template(schema);
+                feat.setAttribute("coverage", "a");
+                feat.setAttribute("imageindex", Integer.valueOf(i));
+                feat.setAttribute("time", new java.util.Date(i * 3600000L));
+                feat.setAttribute("the_geom", GEOM_FACTORY.toGeometry(referencedEnvelope));
+                sliceCat.addGranule("1", feat, t);
+            }
+            t.commit();
+            sliceCat.dispose();
+            t.close();
+
+            // the index is a single slice index file, not a H2 database
+            assertTrue(new File(parentLocation, databaseName + ".slices").exists());
+            assertFalse(new File(parentLocation, databaseName + ".mv.db").exists());
+
+            // reopen and query on the dimensions, the existing index is used whatever the property
+            System.clearProperty(DataStoreConfiguration.USE_SLICE_INDEX_KEY);
+            sliceCat = new CoverageSlicesCatalog(databaseName, parentLocation);
+            assertEquals(1, sliceCat.getTypeNames().length);
+            Query q = new Query("1");
+            q.setFilter(ff.between(ff.property("imageindex"), ff.literal(3), ff.literal(6)));
+            List<CoverageSlice> slices = sliceCat.getGranules(q);
+            assertEquals(4, slices.size());
+            for (int i = 0; i < slices.size(); i++) {
+                assertEquals(Integer.valueOf(i + 3),
+                        slices.get(i).getOriginator().getAttribute("imageindex"));
+                assertTrue(slices.get(i).getGranuleBBOX().contains(referencedEnvelope));
+            }
+            q.setFilter(ff.greaterOrEqual(ff.property("time"),
+                    ff.literal(new java.util.Date(8 * 3600000L))));
+            assertEquals(2, sliceCat.getGranules(q).size());
+
+            // removals survive reopening too
+            t = new DefaultTransaction(Long.toString(System.nanoTime()));
+            sliceCat.removeGranules("1", ff.less(ff.property("imageindex"), ff.literal(5)), t);
+            t.commit();
+            sliceCat.dispose();
+            sliceCat = new CoverageSlicesCatalog(databaseName, parentLocation);
+            CountVisitor cv = new CountVisitor();
+            q = new Query("1");
+            q.setFilter(Filter.INCLUDE);
+            sliceCat.computeAggregateFunction(q, cv);
+            assertEquals(5, cv.getCount());
+        } finally {
+            System.clearProperty(DataStoreConfiguration.USE_SLICE_INDEX_KEY);
+            if (sliceCat != null) {
+                sliceCat.dispose();
+            }
+            t.close();
+            FileUtils.deleteDirectory(parentLocation);
+        }
+    }
+
+    @Test
+    public void defaultIndexTest() throws Exception {
+        final File parentLocation = new File(TestData.file(this, "."), "defaultIndex");
+        if (parentLocation.exists()) {
+            FileUtils.deleteDirectory(parentLocation);
+        }
+        assertTrue(parentLocation.mkdir());
+        try {
+            // H2 unless asked otherwise
+            assertEquals("h2", DataStoreConfiguration.getDefaultParams("test", parentLocation)
+                    .get("dbtype"));
+            System.setProperty(DataStoreConfiguration.USE_SLICE_INDEX_KEY, "true");
+            assertEquals(SliceIndexDataStoreFactory.DBTYPE_STRING,
+                    DataStoreConfiguration.getDefaultParams("test", parentLocation).get("dbtype"));
+
+            // existing indexes are opened with the store that created them
+            assertTrue(new File(parentLocation, "h2index.mv.db").createNewFile());
+            assertEquals("h2", DataStoreConfiguration.getDefaultParams("h2index", parentLocation)
+                    .get("dbtype"));
+            System.clearProperty(DataStoreConfiguration.USE_SLICE_INDEX_KEY);
+            assertTrue(new File(parentLocation, "sliceindex.slices").createNewFile());
+            assertEquals(SliceIndexDataStoreFactory.DBTYPE_STRING, DataStoreConfiguration
+                    .getDefaultParams("sliceindex", parentLocation).get("dbtype"));
+        } finally {
+            System.clearProperty(DataStoreConfiguration.USE_SLICE_INDEX_KEY);
+            FileUtils.deleteDirectory(parentLocation);
+        }
+    }
+
     @Test
     public void basicConnectionTest() throws Exception {
         // connect to test catalog
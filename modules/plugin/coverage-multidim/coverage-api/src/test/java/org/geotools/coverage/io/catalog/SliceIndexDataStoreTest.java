@@ -0,0 +1,232 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.coverage.io.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.data.simple.SimpleFeatureStore;
+import org.geotools.factory.CommonFactoryFinder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory;
+
+/**
+ * Checks the {@link SliceIndexDataStore} with concurrent readers and writers, across reopening
+ * and compaction
+ *
+ * @source $URL$
+ */
+public class SliceIndexDataStoreTest {
+
+    static final FilterFactory FF = CommonFactoryFinder.getFilterFactory(null);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    File file;
+
+    SliceIndexDataStore store;
+
+    @Before
+    public void createStore() throws Exception {
+        file = new File(folder.getRoot(), "index." + SliceIndexFile.EXTENSION);
+        store = new SliceIndexDataStore(file);
+        store.createSchema(DataUtilities.createType(SliceIndexWriter.TYPE_NAME,
+                SliceIndexWriter.SCHEMA));
+    }
+
+    @After
+    public void disposeStore() {
+        store.dispose();
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        SliceIndexWriter.append(store, 0, 10);
+        store.dispose();
+
+        store = new SliceIndexDataStore(file);
+        assertEquals(1, store.getTypeNames().length);
+        SimpleFeatureSource source = store.getFeatureSource(SliceIndexWriter.TYPE_NAME);
+        assertEquals(10, source.getCount(Query.ALL));
+        Filter filter = FF.between(FF.property("imageindex"), FF.literal(3), FF.literal(6));
+        assertEquals(4, source.getFeatures(filter).size());
+
+        // and keeps accepting slices
+        SliceIndexWriter.append(store, 10, 5);
+        assertEquals(15, source.getCount(Query.ALL));
+    }
+
+    @Test
+    public void testConcurrentReaders() throws Exception {
+        final int batches = 50;
+        final int batchSize = 10;
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> readers = new ArrayList<Future<Integer>>();
+            for (int r = 0; r < 4; r++) {
+                readers.add(executor.submit(new Callable<Integer>() {
+
+                    @Override
+                    public Integer call() throws Exception {
+                        // each reader has its own store, as if it was another process
+                        SliceIndexDataStore reader = new SliceIndexDataStore(file);
+                        try {
+                            SimpleFeatureSource source = reader
+                                    .getFeatureSource(SliceIndexWriter.TYPE_NAME);
+                            int last = 0;
+                            int reads = 0;
+                            while (writing.get() || last < batches * batchSize) {
+                                int count = source.getCount(Query.ALL);
+                                // batches are seen whole, and never go away
+                                assertEquals(0, count % batchSize);
+                                assertTrue(count >= last);
+                                Filter filter = FF.less(FF.property("imageindex"),
+                                        FF.literal(count));
+                                assertEquals(count, source.getFeatures(filter).size());
+                                last = count;
+                                reads++;
+                            }
+                            return reads;
+                        } finally {
+                            reader.dispose();
+                        }
+                    }
+                }));
+            }
+            for (int i = 0; i < batches; i++) {
+                SliceIndexWriter.append(store, i * batchSize, batchSize);
+            }
+            writing.set(false);
+            for (Future<Integer> reader : readers) {
+                assertTrue(reader.get() > 0);
+            }
+        } finally {
+            writing.set(false);
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSecondWriterProcess() throws Exception {
+        final int count = 100;
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator
+                + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                SliceIndexWriter.class.getName(), file.getPath(), String.valueOf(count),
+                String.valueOf(count)).inheritIO().start();
+        try {
+            for (int i = 0; i < count; i++) {
+                SliceIndexWriter.append(store, i, 1);
+            }
+        } finally {
+            assertEquals(0, process.waitFor());
+        }
+
+        store.dispose();
+        store = new SliceIndexDataStore(file);
+        Set<String> fids = new HashSet<String>();
+        Set<Integer> indexes = new HashSet<Integer>();
+        SimpleFeatureIterator it = store.getFeatureSource(SliceIndexWriter.TYPE_NAME)
+                .getFeatures().features();
+        try {
+            while (it.hasNext()) {
+                SimpleFeature feature = it.next();
+                fids.add(feature.getID());
+                indexes.add((Integer) feature.getAttribute("imageindex"));
+            }
+        } finally {
+            it.close();
+        }
+        assertEquals(2 * count, fids.size());
+        assertEquals(2 * count, indexes.size());
+    }
+
+    @Test
+    public void testRemoveAndCompact() throws Exception {
+        SliceIndexWriter.append(store, 0, 20);
+        SimpleFeatureStore featureStore = (SimpleFeatureStore) store
+                .getFeatureSource(SliceIndexWriter.TYPE_NAME);
+        Filter firstHalf = FF.less(FF.property("imageindex"), FF.literal(10));
+        featureStore.removeFeatures(firstHalf);
+        featureStore.modifyFeatures("time", new java.util.Date(0), Filter.INCLUDE);
+        assertEquals(10, featureStore.getCount(Query.ALL));
+
+        // a store opened before the compaction
+        SliceIndexDataStore reader = new SliceIndexDataStore(file);
+        try {
+            SimpleFeatureSource source = reader.getFeatureSource(SliceIndexWriter.TYPE_NAME);
+            assertEquals(10, source.getCount(Query.ALL));
+
+            long length = file.length();
+            store.compact();
+            assertTrue(file.length() < length);
+            assertEquals(10, featureStore.getCount(Query.ALL));
+
+            // it reads the compacted file again, and can keep writing
+            assertEquals(10, source.getCount(Query.ALL));
+            assertEquals(0, source.getFeatures(firstHalf).size());
+            assertEquals(10, source.getFeatures(FF.equals(FF.property("time"),
+                    FF.literal(new java.util.Date(0)))).size());
+            SliceIndexWriter.append(reader, 20, 5);
+            assertEquals(15, featureStore.getCount(Query.ALL));
+        } finally {
+            reader.dispose();
+        }
+
+        store.dispose();
+        store = new SliceIndexDataStore(file);
+        assertEquals(15, store.getFeatureSource(SliceIndexWriter.TYPE_NAME)
+                .getCount(Query.ALL));
+    }
+
+    @Test
+    public void testAutomaticCompaction() throws Exception {
+        int count = SliceIndexDataStore.MIN_DEAD_RECORDS;
+        SliceIndexWriter.append(store, 0, count);
+        long length = file.length();
+        SimpleFeatureStore featureStore = (SimpleFeatureStore) store
+                .getFeatureSource(SliceIndexWriter.TYPE_NAME);
+        featureStore.removeFeatures(FF.greaterOrEqual(FF.property("imageindex"),
+                FF.literal(1)));
+        assertEquals(1, featureStore.getCount(Query.ALL));
+        // only the schema and the remaining slice are left
+        assertTrue(file.length() < length / 100);
+    }
+}
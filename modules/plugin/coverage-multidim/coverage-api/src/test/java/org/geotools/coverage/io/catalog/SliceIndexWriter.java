@@ -0,0 +1,79 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.coverage.io.catalog;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.simple.SimpleFeatureStore;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Appends slices to a {@link SliceIndexDataStore}, one at a time, run in a separate process by
+ * {@link SliceIndexDataStoreTest} to check concurrent writers
+ *
+ * @source $URL$
+ */
+public class SliceIndexWriter {
+
+    static final String TYPE_NAME = "slices";
+
+    static final String SCHEMA = "the_geom:Point,imageindex:Integer,time:java.util.Date";
+
+    static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
+    /**
+     * Arguments: the index file, the first image index, the number of slices to append
+     */
+    public static void main(String[] args) throws Exception {
+        SliceIndexDataStore store = new SliceIndexDataStore(new File(args[0]));
+        try {
+            int first = Integer.parseInt(args[1]);
+            int count = Integer.parseInt(args[2]);
+            for (int i = first; i < first + count; i++) {
+                append(store, i, 1);
+            }
+        } finally {
+            store.dispose();
+        }
+    }
+
+    /**
+     * Appends the slices with image indexes starting at the given one, in a single write
+     */
+    static void append(SliceIndexDataStore store, int first, int count) throws IOException {
+        SimpleFeatureStore featureStore = (SimpleFeatureStore) store.getFeatureSource(TYPE_NAME);
+        SimpleFeatureType schema = featureStore.getSchema();
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        for (int i = first; i < first + count; i++) {
+            SimpleFeature feature = DataUtilities.template(schema);
+            feature.setAttribute("the_geom", GEOMETRY_FACTORY.createPoint(new Coordinate(i, i)));
+            feature.setAttribute("imageindex", i);
+            feature.setAttribute("time", new Date(i * 3600000L));
+            features.add(feature);
+        }
+        featureStore.addFeatures(DataUtilities.collection(features));
+    }
+}
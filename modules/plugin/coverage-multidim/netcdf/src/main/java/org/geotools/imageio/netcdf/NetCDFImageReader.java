@@ -30,6 +30,7 @@ import java.nio.DoubleBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -157,6 +158,15 @@ public class NetCDFImageReader extends GeoSpatialImageReader implements FileSetM
     /** Internal Cache for CoverageSourceDescriptor.**/
     private final SoftValueHashMap<String, VariableAdapter> coverageSourceDescriptorsCache= new SoftValueHashMap<String, VariableAdapter>();
 
+    /** Pool of handles serving concurrent reads, {@code null} if reads are serialized */
+    private NetCDFReadPool readPool;
+
+    /** Prefix of the keys of this file slices in the {@link SliceCache}, {@code null} if not cached */
+    private String sliceCacheKey;
+
+    /** Whether the Y axis needs to be flipped, by axis name */
+    private final Map<String, Boolean> flipYAxisCache = new ConcurrentHashMap<String, Boolean>();
+
     public NetCDFImageReader(ImageReaderSpi originatingProvider ) {
         super(originatingProvider);
     }
@@ -420,6 +430,12 @@ public class NetCDFImageReader extends GeoSpatialImageReader implements FileSetM
 
         georeferencing.dispose();
         numImages = -1;
+        flipYAxisCache.clear();
+        sliceCacheKey = null;
+        if (readPool != null) {
+            readPool.dispose();
+            readPool = null;
+        }
         try {
             if (dataset != null) {
                 dataset.close();
@@ -449,6 +465,14 @@ public class NetCDFImageReader extends GeoSpatialImageReader implements FileSetM
         try {
             if (dataset != null) {
                 checkType = NetCDFUtilities.getCheckType(dataset);
+                if (file != null) {
+                    // the slices of local files can be read concurrently, and cached
+                    final int poolSize = Integer.getInteger(NetCDFUtilities.READ_POOL_SIZE_KEY, 0);
+                    if (poolSize > 1) {
+                        readPool = new NetCDFReadPool(dataset.getLocation(), poolSize);
+                    }
+                    sliceCacheKey = dataset.getLocation() + "#" + file.lastModified() + "#";
+                }
 
                 // get the coordinate variables
                 georeferencing = new NetCDFGeoreferenceManager(dataset);
@@ -824,38 +848,108 @@ public class NetCDFImageReader extends GeoSpatialImageReader implements FileSetM
         return image;
     }
 
-    private synchronized Array readSection(VariableAdapter wrapper, Section section) throws IIOException, IOException {
+    private Array readSection(VariableAdapter wrapper, Section section) throws IIOException, IOException {
+        final VariableDS variable = wrapper.variableDS;
         try {
-            //Due to underlying NetCDF file system access (RAF based) 
-            // and internal caching we do this call within a 
-            // synchronized block
-            return wrapper.variableDS.read(section);
+            if (sliceCacheKey != null && SliceCache.INSTANCE.isEnabled()
+                    && variable.findAttribute(NetCDFUtilities.CHUNK_SIZES) != null) {
+                Array slice = readCachedSection(variable, section);
+                if (slice != null) {
+                    return slice;
+                }
+            }
+            return readVariable(variable, section);
         } catch (InvalidRangeException e) {
             throw netcdfFailure(e);
         }
-        
+    }
+
+    /**
+     * Reads the section out of the whole 2D slice containing it, taken from the 
+     * {@link SliceCache}. Chunked variables are decompressed a chunk at a time, so reading 
+     * the whole slice costs little more than reading a portion of it, and the following 
+     * requests on the same slice skip decompression altogether.
+     * 
+     * @return the section, or {@code null} if the slice cannot be cached
+     */
+    private Array readCachedSection(VariableDS variable, Section section)
+            throws IOException, InvalidRangeException {
+        final int[] shape = variable.getShape();
+        final int rank = shape.length;
+        if (section.getRank() != rank || rank < 2) {
+            return null;
+        }
+        final long sliceSize = (long) shape[rank - 2] * shape[rank - 1] * variable.getElementSize();
+        if (!SliceCache.INSTANCE.accepts(sliceSize)) {
+            return null;
+        }
+
+        // the slice is identified by the indexes of the non XY dimensions
+        final StringBuilder key = new StringBuilder(sliceCacheKey).append(variable.getFullNameEscaped());
+        final List<Range> sliceRanges = new ArrayList<Range>(rank);
+        final List<Range> subRanges = new ArrayList<Range>(rank);
+        for (int i = 0; i < rank - 2; i++) {
+            final Range range = section.getRange(i);
+            if (range.length() != 1) {
+                return null;
+            }
+            key.append('#').append(range.first());
+            sliceRanges.add(range);
+            subRanges.add(new Range(0, 0, 1));
+        }
+        sliceRanges.add(new Range(0, shape[rank - 2] - 1, 1));
+        sliceRanges.add(new Range(0, shape[rank - 1] - 1, 1));
+        subRanges.add(section.getRange(rank - 2));
+        subRanges.add(section.getRange(rank - 1));
+
+        final String sliceKey = key.toString();
+        Array slice = SliceCache.INSTANCE.get(sliceKey);
+        if (slice == null) {
+            slice = readVariable(variable, new Section(sliceRanges));
+            SliceCache.INSTANCE.put(sliceKey, slice);
+        }
+        // the cached slice is shared, copy out the requested portion
+        return slice.section(subRanges).copy();
+    }
+
+    private Array readVariable(VariableDS variable, Section section) throws IOException,
+            InvalidRangeException {
+        if (readPool != null) {
+            return readPool.read(variable.getFullNameEscaped(), section);
+        }
+        //Due to underlying NetCDF file system access (RAF based) 
+        // and internal caching we do this call within a 
+        // synchronized block
+        synchronized (this) {
+            return variable.read(section);
+        }
     }
 
     /**
      * Check whether the Y axis need to be flipped.
-     * Note that the method is synchronized since it access 
-     * the underlying Variable
+     * Note that the check is synchronized since it access 
+     * the underlying Variable, the outcome is cached to avoid 
+     * contention on the following reads
      *  
      * @param axis
      * @return
      * @throws IOException
      */
-    private synchronized boolean needFlipYAxis(CoordinateAxis axis) throws IOException {
-        boolean flipYAxis = false; 
-        try {
-            Array yAxisStart = axis.read(new Section().appendRange(2));
-            float y1 = yAxisStart.getFloat(0);
-            float y2 = yAxisStart.getFloat(1);
-            if (y2 > y1) {
-                flipYAxis = true;
+    private boolean needFlipYAxis(CoordinateAxis axis) throws IOException {
+        final String axisName = axis.getFullName();
+        Boolean flipYAxis = flipYAxisCache.get(axisName);
+        if (flipYAxis == null) {
+            synchronized (this) {
+                try {
+                    Array yAxisStart = axis.read(new Section().appendRange(2));
+                    float y1 = yAxisStart.getFloat(0);
+                    float y2 = yAxisStart.getFloat(1);
+                    flipYAxis = y2 > y1;
+                } catch (InvalidRangeException e) {
+                    throw new RuntimeException(e);
+                }
             }
-        } catch (InvalidRangeException e) {
-            throw new RuntimeException(e);
+            flipYAxisCache.put(axisName, flipYAxis);
         }
         return flipYAxis;
     }
@@ -0,0 +1,132 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.imageio.netcdf;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Section;
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.NetcdfDataset;
+
+/**
+ * A bounded pool of {@link NetcdfDataset} handles on the same NetCDF file, used to read data
+ * sections concurrently.
+ * <p>
+ * A {@link NetcdfDataset} wraps a single random access file and caches data internally, so it
+ * cannot serve concurrent reads. Each handle of the pool has its own random access file, and is
+ * used by one thread at a time. The handles are only used to read data, the metadata parsed by
+ * the main dataset of the reader (variables, coordinate systems, georeferencing) is shared.
+ * Handles are opened lazily, so the pool only grows up to the actual read concurrency.
+ * </p>
+ */
+class NetCDFReadPool {
+
+    private final static Logger LOGGER = Logging.getLogger(NetCDFReadPool.class);
+
+    private final String location;
+
+    private final Semaphore permits;
+
+    private final ConcurrentLinkedQueue<NetcdfDataset> idle = new ConcurrentLinkedQueue<NetcdfDataset>();
+
+    private volatile boolean closed;
+
+    /**
+     * @param location the location of the NetCDF file, as returned by
+     *        {@link NetcdfDataset#getLocation()}
+     * @param maxHandles the max number of handles opened at the same time
+     */
+    NetCDFReadPool(String location, int maxHandles) {
+        this.location = location;
+        this.permits = new Semaphore(maxHandles);
+    }
+
+    /**
+     * Reads a section of the specified variable, blocking if all the handles are in use
+     *
+     * @param variableName the escaped full name of the variable
+     * @param section the section to read
+     */
+    Array read(String variableName, Section section) throws IOException, InvalidRangeException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for a NetCDF handle on "
+                    + location);
+        }
+        NetcdfDataset handle = null;
+        boolean healthy = false;
+        try {
+            handle = idle.poll();
+            if (handle == null) {
+                handle = NetcdfDataset.openDataset(location);
+            }
+            Variable variable = handle.findVariable(variableName);
+            if (variable == null) {
+                throw new IOException("Unable to find variable " + variableName + " in "
+                        + location);
+            }
+            Array result = variable.read(section);
+            healthy = true;
+            return result;
+        } finally {
+            if (handle != null) {
+                // a handle that failed might be in an inconsistent state, don't reuse it
+                if (healthy && !closed) {
+                    idle.offer(handle);
+                    if (closed) {
+                        // disposed in the meantime
+                        dispose();
+                    }
+                } else {
+                    close(handle);
+                }
+            }
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes all the idle handles, the ones in use get closed as soon as they are released
+     */
+    void dispose() {
+        closed = true;
+        NetcdfDataset handle;
+        while ((handle = idle.poll()) != null) {
+            close(handle);
+        }
+    }
+
+    private void close(NetcdfDataset handle) {
+        try {
+            handle.close();
+        } catch (IOException e) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Errors closing NetCDF dataset " + location, e);
+            }
+        }
+    }
+}
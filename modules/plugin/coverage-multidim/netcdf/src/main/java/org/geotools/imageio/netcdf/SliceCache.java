@@ -0,0 +1,52 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.imageio.netcdf;
+
+import org.geotools.imageio.netcdf.utilities.NetCDFUtilities;
+import org.geotools.util.SizeBoundedLRUCache;
+
+import ucar.ma2.Array;
+
+/**
+ * A LRU cache of decoded 2D slices of chunked (compressed NetCDF4/HDF5) variables, bounded by
+ * the size in bytes of the cached data and shared by all the readers.
+ * <p>
+ * Reading a region of a chunked variable decompresses every chunk intersecting it, so requests
+ * hitting the same slice with different regions (e.g. the tiles of a map, or the frames of an
+ * animation seen through several tiles) keep decoding the same chunks over and over. Caching
+ * the whole decoded slice allows to pay the decompression once, at the price of decoding the
+ * whole slice on the first access. The cache is disabled by default, the max size is set by the
+ * {@value NetCDFUtilities#SLICE_CACHE_SIZE_KEY} system property, in bytes.
+ * </p>
+ * The keys contain the file location and last modification time, so slices of a file that
+ * changed are not served. The cached arrays are shared, callers should copy them before
+ * changing them.
+ */
+class SliceCache extends SizeBoundedLRUCache<String, Array> {
+
+    static final SliceCache INSTANCE = new SliceCache(Long.getLong(
+            NetCDFUtilities.SLICE_CACHE_SIZE_KEY, 0));
+
+    SliceCache(long maxSize) {
+        super(maxSize);
+    }
+
+    @Override
+    protected long sizeOf(String key, Array slice) {
+        return slice.getSizeBytes();
+    }
+}
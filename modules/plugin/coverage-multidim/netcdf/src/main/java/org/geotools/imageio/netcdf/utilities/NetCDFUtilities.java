@@ -251,6 +251,18 @@ public class NetCDFUtilities {
 
     public static final String ENHANCE_SCALE_MISSING_DEFER = "org.geotools.coverage.io.netcdf.enhance.ScaleMissingDefer";
 
+    /**
+     * Max number of NetCDF handles each reader opens to serve concurrent slice reads. When not
+     * set, or lower than 2, reads on the same file are serialized.
+     */
+    public static final String READ_POOL_SIZE_KEY = "org.geotools.coverage.io.netcdf.readPoolSize";
+
+    /** Size in bytes of the cache of decoded slices of chunked variables, disabled (0) by default */
+    public static final String SLICE_CACHE_SIZE_KEY = "org.geotools.coverage.io.netcdf.sliceCacheSize";
+
+    /** Attribute reporting the chunk sizes of chunked NetCDF4/HDF5 variables */
+    public static final String CHUNK_SIZES = "_ChunkSizes";
+
     public static boolean ENHANCE_SCALE_OFFSET = false;
 
     static {
@@ -16,13 +16,19 @@
  */
 package org.geotools.coverage.io.netcdf;
 
+import java.awt.image.Raster;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import org.apache.commons.io.FileUtils;
@@ -191,6 +197,74 @@ public final class NetCDFBasicTest extends Assert {
         }
     }
 
+    @Test
+    public void testConcurrentSliceReads() throws Exception {
+        final File file = TestData.file(this, "O3-NO2.nc");
+        final NetCDFImageReaderSpi unidataImageReaderSpi = new NetCDFImageReaderSpi();
+        NetCDFImageReader reader = null;
+        NetCDFImageReader concurrentReader = null;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // serialized reads first, as a reference
+            reader = (NetCDFImageReader) unidataImageReaderSpi.createReaderInstance();
+            reader.setInput(file);
+            final int numImages = reader.getNumImages(true);
+            assertTrue(numImages > 1);
+            final List<Raster> expected = new ArrayList<Raster>();
+            for (int i = 0; i < numImages; i++) {
+                expected.add(reader.read(i).getData());
+            }
+            reader.dispose();
+            reader = null;
+
+            System.setProperty(NetCDFUtilities.READ_POOL_SIZE_KEY, "4");
+            concurrentReader = (NetCDFImageReader) unidataImageReaderSpi.createReaderInstance();
+            concurrentReader.setInput(file);
+            final NetCDFImageReader sharedReader = concurrentReader;
+            final List<Future<Raster>> results = new ArrayList<Future<Raster>>();
+            // read every slice a few times, from different threads
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < numImages; i++) {
+                    final int imageIndex = i;
+                    results.add(executor.submit(new Callable<Raster>() {
+
+                        @Override
+                        public Raster call() throws Exception {
+                            return sharedReader.read(imageIndex).getData();
+                        }
+                    }));
+                }
+            }
+            for (int i = 0; i < results.size(); i++) {
+                Raster reference = expected.get(i % numImages);
+                Raster raster = results.get(i).get();
+                assertEquals(reference.getWidth(), raster.getWidth());
+                assertEquals(reference.getHeight(), raster.getHeight());
+                assertArrayEquals(
+                        reference.getSamples(0, 0, reference.getWidth(), reference.getHeight(), 0, (double[]) null),
+                        raster.getSamples(0, 0, raster.getWidth(), raster.getHeight(), 0, (double[]) null),
+                        0d);
+            }
+        } finally {
+            System.clearProperty(NetCDFUtilities.READ_POOL_SIZE_KEY);
+            executor.shutdown();
+            if (reader != null) {
+                try {
+                    reader.dispose();
+                } catch (Throwable t) {
+                    // Does nothing
+                }
+            }
+            if (concurrentReader != null) {
+                try {
+                    concurrentReader.dispose();
+                } catch (Throwable t) {
+                    // Does nothing
+                }
+            }
+        }
+    }
+
     @Test
     public void testNoValid2DVariable() throws Exception {
         final File file = TestData.file(this, "noVars.nc");
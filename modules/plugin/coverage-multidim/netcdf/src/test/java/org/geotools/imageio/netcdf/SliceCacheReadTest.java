@@ -0,0 +1,196 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.imageio.netcdf;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageReadParam;
+
+import org.geotools.imageio.netcdf.utilities.NetCDFUtilities;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ucar.ma2.Array;
+import ucar.ma2.ArrayFloat;
+import ucar.ma2.DataType;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+
+/**
+ * Checks the reads served by the {@link SliceCache} match the ones going to the file, on a
+ * generated file whose variable is marked as chunked
+ *
+ * @source $URL$
+ */
+public class SliceCacheReadTest {
+
+    static final int TIMES = 3;
+
+    static final int HEIGHT = 20;
+
+    static final int WIDTH = 30;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    long maxSize;
+
+    @Before
+    public void saveMaxSize() {
+        maxSize = SliceCache.INSTANCE.getMaxSize();
+        SliceCache.INSTANCE.flush();
+    }
+
+    @After
+    public void restoreMaxSize() {
+        SliceCache.INSTANCE.setMaxSize(maxSize);
+        SliceCache.INSTANCE.flush();
+    }
+
+    @Test
+    public void testCachedReads() throws Exception {
+        File file = createChunkedFile(new File(folder.getRoot(), "chunked.nc"));
+
+        // reference reads, with the cache disabled
+        SliceCache.INSTANCE.setMaxSize(0);
+        List<Raster> expected = readAll(file);
+
+        // each slice is 2400 bytes, let the three of them fit
+        SliceCache.INSTANCE.setMaxSize(TIMES * HEIGHT * WIDTH * 4 * 4);
+        long hits = SliceCache.INSTANCE.getHits();
+        long misses = SliceCache.INSTANCE.getMisses();
+        List<Raster> first = readAll(file);
+        // one miss per slice, the portions read afterwards are hits
+        assertEquals(misses + TIMES, SliceCache.INSTANCE.getMisses());
+        assertTrue(SliceCache.INSTANCE.getHits() > hits);
+        assertEquals(TIMES * HEIGHT * WIDTH * 4, SliceCache.INSTANCE.getSize());
+        hits = SliceCache.INSTANCE.getHits();
+        List<Raster> second = readAll(file);
+        assertEquals(misses + TIMES, SliceCache.INSTANCE.getMisses());
+        assertTrue(SliceCache.INSTANCE.getHits() > hits);
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameSamples(expected.get(i), first.get(i));
+            assertSameSamples(expected.get(i), second.get(i));
+        }
+    }
+
+    /**
+     * Reads each slice whole, and a few portions of it
+     */
+    List<Raster> readAll(File file) throws Exception {
+        Rectangle[] regions = { null, new Rectangle(0, 0, 10, 10), new Rectangle(7, 3, 15, 12),
+                new Rectangle(WIDTH - 5, HEIGHT - 4, 5, 4) };
+        List<Raster> rasters = new ArrayList<Raster>();
+        NetCDFImageReader reader = (NetCDFImageReader) new NetCDFImageReaderSpi()
+                .createReaderInstance();
+        try {
+            reader.setInput(file);
+            assertEquals(TIMES, reader.getNumImages(true));
+            for (int i = 0; i < TIMES; i++) {
+                for (Rectangle region : regions) {
+                    ImageReadParam param = new ImageReadParam();
+                    if (region != null) {
+                        param.setSourceRegion(region);
+                    }
+                    rasters.add(reader.read(i, param).getData());
+                }
+            }
+        } finally {
+            reader.dispose();
+        }
+        return rasters;
+    }
+
+    void assertSameSamples(Raster expected, Raster actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        assertArrayEquals(
+                expected.getSamples(0, 0, expected.getWidth(), expected.getHeight(), 0,
+                        (double[]) null),
+                actual.getSamples(0, 0, actual.getWidth(), actual.getHeight(), 0,
+                        (double[]) null), 0d);
+    }
+
+    /**
+     * Writes a small time series of lat/lon grids, with the chunking attribute the NetCDF-4
+     * files carry
+     */
+    File createChunkedFile(File file) throws Exception {
+        NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3,
+                file.getAbsolutePath());
+        try {
+            writer.addDimension(null, "time", TIMES);
+            writer.addDimension(null, "lat", HEIGHT);
+            writer.addDimension(null, "lon", WIDTH);
+            writer.addGroupAttribute(null, new Attribute("Conventions", "CF-1.6"));
+            Variable time = writer.addVariable(null, "time", DataType.DOUBLE, "time");
+            writer.addVariableAttribute(time, new Attribute("units",
+                    "hours since 2017-01-01 00:00:00"));
+            Variable lat = writer.addVariable(null, "lat", DataType.FLOAT, "lat");
+            writer.addVariableAttribute(lat, new Attribute("units", "degrees_north"));
+            Variable lon = writer.addVariable(null, "lon", DataType.FLOAT, "lon");
+            writer.addVariableAttribute(lon, new Attribute("units", "degrees_east"));
+            Variable temperature = writer.addVariable(null, "temperature", DataType.FLOAT,
+                    "time lat lon");
+            writer.addVariableAttribute(temperature, new Attribute("units", "K"));
+            List<Integer> chunks = new ArrayList<Integer>();
+            chunks.add(1);
+            chunks.add(10);
+            chunks.add(10);
+            writer.addVariableAttribute(temperature, new Attribute(NetCDFUtilities.CHUNK_SIZES,
+                    chunks));
+            writer.create();
+
+            writer.write(time, Array.factory(new double[] { 0, 1, 2 }));
+            float[] lats = new float[HEIGHT];
+            for (int y = 0; y < HEIGHT; y++) {
+                lats[y] = 40 + y * 0.5f;
+            }
+            writer.write(lat, Array.factory(lats));
+            float[] lons = new float[WIDTH];
+            for (int x = 0; x < WIDTH; x++) {
+                lons[x] = 10 + x * 0.5f;
+            }
+            writer.write(lon, Array.factory(lons));
+            ArrayFloat.D3 values = new ArrayFloat.D3(TIMES, HEIGHT, WIDTH);
+            for (int t = 0; t < TIMES; t++) {
+                for (int y = 0; y < HEIGHT; y++) {
+                    for (int x = 0; x < WIDTH; x++) {
+                        values.set(t, y, x, 1000 * t + WIDTH * y + x);
+                    }
+                }
+            }
+            writer.write(temperature, values);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.imageio.netcdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.geotools.imageio.netcdf.utilities.NetCDFUtilities;
+import org.junit.Test;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+
+/**
+ * Checks the {@link SliceCache} bookkeeping
+ *
+ * @source $URL$
+ */
+public class SliceCacheTest {
+
+    @Test
+    public void testDisabledByDefault() {
+        if (System.getProperty(NetCDFUtilities.SLICE_CACHE_SIZE_KEY) == null) {
+            assertFalse(SliceCache.INSTANCE.isEnabled());
+        }
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        // 10x10 floats, 400 bytes each
+        SliceCache cache = new SliceCache(4000);
+        String key = "/data/file.nc#1000#temperature#0";
+        assertNull(cache.get(key));
+        Array slice = Array.factory(DataType.FLOAT, new int[] { 10, 10 });
+        cache.put(key, slice);
+        assertSame(slice, cache.get(key));
+        assertSame(slice, cache.get(key));
+        // same slice of the file after a change
+        assertNull(cache.get("/data/file.nc#2000#temperature#0"));
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(400, cache.getSize());
+
+        // a slice larger than a quarter of the cache is not cached
+        String largeKey = "/data/file.nc#1000#temperature#1";
+        cache.put(largeKey, Array.factory(DataType.FLOAT, new int[] { 20, 20 }));
+        assertNull(cache.get(largeKey));
+        assertEquals(400, cache.getSize());
+
+        // the least recently used slices go first
+        for (int i = 2; i < 12; i++) {
+            cache.get(key);
+            cache.put("/data/file.nc#1000#temperature#" + i,
+                    Array.factory(DataType.FLOAT, new int[] { 10, 10 }));
+        }
+        assertEquals(4000, cache.getSize());
+        assertSame(slice, cache.get(key));
+        assertNull(cache.get("/data/file.nc#1000#temperature#2"));
+    }
+}
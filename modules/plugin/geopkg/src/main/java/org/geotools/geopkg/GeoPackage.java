@@ -62,6 +62,7 @@ import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.geopkg.geom.GeoPkgGeomReader;
 import org.geotools.geopkg.geom.GeoPkgGeomWriter;
 import org.geotools.geopkg.geom.GeometryFunction;
+import org.geotools.geopkg.geom.IntersectsFunction;
 import org.geotools.jdbc.JDBCDataStore;
 import org.geotools.jdbc.JDBCFeatureStore;
 import org.geotools.jdbc.PrimaryKey;
@@ -310,6 +311,9 @@ public class GeoPackage {
                 return reader.getHeader().getFlags().isEmpty();
             }
         });
+
+        //intersects, used to encode spatial filters
+        Function.create(cx, "ST_Intersects", new IntersectsFunction());
     }
 
     /**
@@ -1222,6 +1226,44 @@ public class GeoPackage {
         }
     }
 
+    /**
+     * Returns a writer used to bulk load tiles, using the default commit size and the current
+     * journal mode.
+     *
+     * @param entry The tile metadata entry.
+     * @see #writer(TileEntry, int, boolean)
+     */
+    public TileWriter writer(TileEntry entry) throws IOException {
+        return writer(entry, TileWriter.DEFAULT_COMMIT_SIZE, false);
+    }
+
+    /**
+     * Returns a writer used to bulk load tiles.
+     * <p>
+     * The writer batches inserts inside transactions of <tt>commitSize</tt> tiles, which is much
+     * faster than calling {@link #add(TileEntry, Tile)} for each tile. The writer must be closed
+     * to commit the last batch and release the connection.
+     * </p>
+     *
+     * @param entry The tile metadata entry.
+     * @param commitSize Number of tiles inserted per transaction.
+     * @param walMode Switches the database to write ahead log journaling, which reduces the cost
+     *   of each commit. The setting is persistent for the database file.
+     */
+    public TileWriter writer(TileEntry entry, int commitSize, boolean walMode) throws IOException {
+        try {
+            Connection cx = connPool.getConnection();
+            try {
+                return new TileWriter(cx, entry, commitSize, walMode);
+            } catch (SQLException | RuntimeException e) {
+                close(cx);
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
     /**
      * Retrieve tiles within certain zooms and column/row boundaries
      * 
@@ -1321,7 +1363,8 @@ public class GeoPackage {
     }
     
     /**
-     * Searches a spatial index.
+     * Searches a spatial index, returning the identifiers of the features whose bounds intersect
+     * the search area.
      * 
      * @param entry The feature entry.
      * @param minX Optional minimum x boundary.
@@ -1331,18 +1374,23 @@ public class GeoPackage {
      */
     public Set<Identifier> searchSpatialIndex(FeatureEntry entry, Double minX, Double minY, Double maxX, Double maxY) throws IOException {
         List<String> q = new ArrayList();
+        List<Double> values = new ArrayList<Double>();
         
         if (minX != null) {
-            q.add("minx >= " + minX);
+            q.add("maxx >= ?");
+            values.add(minX);
         }
         if (minY != null) {
-            q.add("miny >= " + minY);
+            q.add("maxy >= ?");
+            values.add(minY);
         }
         if (maxX != null) {
-            q.add("maxx <= " + maxX);
+            q.add("minx <= ?");
+            values.add(maxX);
         }
         if (maxY != null) {
-            q.add("maxy <= " + maxY);
+            q.add("miny <= ?");
+            values.add(maxY);
         }
 
         StringBuffer sql = new StringBuffer("SELECT id FROM ").append(getSpatialIndexName(entry));
@@ -1359,9 +1407,13 @@ public class GeoPackage {
             Connection cx = connPool.getConnection();
 
             try {
-                Statement st = cx.createStatement();
+                SqlUtil.PreparedStatementBuilder psb = prepare(cx, sql.toString());
+                for (Double value : values) {
+                    psb.set(value);
+                }
+                PreparedStatement ps = psb.log(Level.FINE).statement();
                 try {
-                    ResultSet rs = st.executeQuery(sql.toString());
+                    ResultSet rs = ps.executeQuery();
                     
                     try {
                         HashSet<Identifier> ids = new HashSet<Identifier>();
@@ -1375,7 +1427,7 @@ public class GeoPackage {
                         close(rs);
                     }
                 } finally {
-                    close(st);
+                    close(ps);
                 }
             } finally {
                 close(cx);
@@ -1431,6 +1483,43 @@ public class GeoPackage {
         }
     }
 
+    /**
+     * Retrieve all tile boundaries for a particular zoom level in a single query, available in the
+     * actual data
+     *
+     * @param entry The tile entry
+     * @param zoom the zoom level
+     * @return an array containing min column, max column, min row and max row, in this order. As
+     *   with {@link #getTileBound(TileEntry, int, boolean, boolean)} the values are zero if the
+     *   zoom level contains no tiles
+     * @throws IOException
+     */
+    public int[] getTileBounds(TileEntry entry, int zoom) throws IOException {
+        String sql = format("SELECT MIN(tile_column), MAX(tile_column), MIN(tile_row), MAX(tile_row)"
+                + " FROM %s WHERE zoom_level = ?", entry.getTableName());
+        try {
+            Connection cx = connPool.getConnection();
+            try {
+                PreparedStatement ps = prepare(cx, sql).set(zoom).log(Level.FINE).statement();
+                try {
+                    ResultSet rs = ps.executeQuery();
+                    try {
+                        rs.next();
+                        return new int[] { rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getInt(4) };
+                    } finally {
+                        close(rs);
+                    }
+                } finally {
+                    close(ps);
+                }
+            } finally {
+                close(cx);
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
     static TileEntry createTileEntry(ResultSet rs, Connection cx) throws SQLException, IOException {
         TileEntry e = new TileEntry();
         initEntry(e, rs);
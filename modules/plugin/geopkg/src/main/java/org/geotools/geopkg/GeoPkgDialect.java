@@ -23,6 +23,7 @@ import static org.geotools.geopkg.GeoPackage.SPATIAL_REF_SYS;
 
 import java.io.IOException;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -43,6 +44,7 @@ import org.geotools.jdbc.PreparedFilterToSQL;
 import org.geotools.jdbc.PreparedStatementSQLDialect;
 import org.geotools.referencing.CRS;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.feature.type.PropertyDescriptor;
 import org.opengis.referencing.FactoryException;
@@ -60,7 +62,11 @@ import com.vividsolutions.jts.geom.GeometryFactory;
  *
  */
 public class GeoPkgDialect extends PreparedStatementSQLDialect {
-   
+
+    /**
+     * Geometry descriptor user data key holding the name of the rtree spatial index table
+     */
+    public static final String GEOPKG_SPATIAL_INDEX = "org.geotools.geopkg.spatialIndex";
     
 
     protected GeoPkgGeomWriter.Configuration geomWriterConfig;
@@ -113,8 +119,16 @@ public class GeoPkgDialect extends PreparedStatementSQLDialect {
     @Override
     public Envelope decodeGeometryEnvelope(ResultSet rs, int column, Connection cx)
         throws SQLException, IOException {
-        Geometry g = geometry(rs.getBytes(column));
-        return g != null ? g.getEnvelopeInternal() : null;
+        byte[] bytes = rs.getBytes(column);
+        if (bytes == null) {
+            return null;
+        }
+        // use the header envelope when available, without parsing the geometry
+        GeoPkgGeomReader reader = new GeoPkgGeomReader(bytes);
+        if (reader.getHeader().getFlags().isEmpty()) {
+            return new Envelope();
+        }
+        return reader.getEnvelope();
     }
 
     @Override
@@ -303,6 +317,36 @@ public class GeoPkgDialect extends PreparedStatementSQLDialect {
         }
     }
 
+    @Override
+    public void postCreateFeatureType(SimpleFeatureType featureType, DatabaseMetaData metadata,
+            String schemaName, Connection cx) throws SQLException {
+        //figure out if the table has rtree spatial indexes and mark the feature type as so
+        for (AttributeDescriptor ad : featureType.getAttributeDescriptors()) {
+            if (!(ad instanceof GeometryDescriptor)) {
+                continue;
+            }
+
+            GeometryDescriptor gd = (GeometryDescriptor) ad;
+            String idxTableName = "rtree_" + featureType.getTypeName() + "_" + gd.getLocalName();
+
+            PreparedStatement ps = cx.prepareStatement(
+                    "SELECT name FROM sqlite_master WHERE type='table' AND name=?");
+            try {
+                ps.setString(1, idxTableName);
+                ResultSet rs = ps.executeQuery();
+                try {
+                    if (rs.next()) {
+                        gd.getUserData().put(GEOPKG_SPATIAL_INDEX, idxTableName);
+                    }
+                } finally {
+                    dataStore.closeSafe(rs);
+                }
+            } finally {
+                dataStore.closeSafe(ps);
+            }
+        }
+    }
+
     @Override
     public void postDropTable(String schemaName, SimpleFeatureType featureType, Connection cx) throws SQLException {
         super.postDropTable(schemaName, featureType, cx);
@@ -22,10 +22,17 @@ import java.sql.Time;
 import java.sql.Timestamp;
 import java.util.Date;
 
+import org.geotools.filter.FilterCapabilities;
 import org.geotools.jdbc.PreparedFilterToSQL;
 import org.geotools.jdbc.PreparedStatementSQLDialect;
+import org.opengis.filter.expression.Expression;
 import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.spatial.BBOX;
+import org.opengis.filter.spatial.BinarySpatialOperator;
+import org.opengis.filter.spatial.Intersects;
 
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 
 /**
@@ -53,6 +60,96 @@ public class GeoPkgFilterToSQL extends PreparedFilterToSQL {
         // TODO Auto-generated constructor stub
     }
 
+    @Override
+    protected FilterCapabilities createFilterCapabilities() {
+        FilterCapabilities caps = super.createFilterCapabilities();
+        caps.addType(BBOX.class);
+        caps.addType(Intersects.class);
+        return caps;
+    }
+
+    @Override
+    protected Object visitBinarySpatialOperator(BinarySpatialOperator filter,
+            PropertyName property, Literal geometry, boolean swapped, Object extraData) {
+        if (!(filter instanceof BBOX || filter instanceof Intersects)) {
+            throw new RuntimeException("Unsupported spatial operator: " + filter);
+        }
+
+        try {
+            //use the rtree to restrict the exact test to candidate rows, bounds are compared
+            //with intersection semantics
+            String spatialIndex = currentGeometry != null ?
+                    (String) currentGeometry.getUserData().get(GeoPkgDialect.GEOPKG_SPATIAL_INDEX)
+                    : null;
+            if (spatialIndex != null && primaryKey != null && primaryKey.getColumns().size() == 1) {
+                Envelope e = geometry.evaluate(null, Envelope.class);
+                String bounds = e != null && !e.isNull() ? encodeIndexBounds(e) : null;
+                if (bounds != null) {
+                    String pk = primaryKey.getColumns().get(0).getName();
+                    out.write(fieldEncoder.encode(escapeName(pk)));
+                    out.write(" IN (SELECT id FROM ");
+                    out.write(escapeName(spatialIndex));
+                    out.write(" WHERE ");
+                    out.write(bounds);
+                    out.write(") AND ");
+                }
+            }
+
+            //intersects is symmetric, no need to care about swapping
+            out.write("ST_Intersects(");
+            property.accept(this, extraData);
+            out.write(", ");
+            geometry.accept(this, extraData);
+            out.write(") = 1");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return extraData;
+    }
+
+    /**
+     * Returns the rtree conditions selecting the entries intersecting the envelope, leaving out
+     * the infinite sides. Returns null if no side restricts the search, or if a bound is not a
+     * number.
+     */
+    static String encodeIndexBounds(Envelope e) {
+        double[] bounds = { e.getMaxX(), e.getMinX(), e.getMaxY(), e.getMinY() };
+        String[] conditions = { "minx <= ", "maxx >= ", "miny <= ", "maxy >= " };
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < bounds.length; i++) {
+            if (Double.isNaN(bounds[i])) {
+                return null;
+            }
+            if (!Double.isInfinite(bounds[i])) {
+                if (sb.length() > 0) {
+                    sb.append(" AND ");
+                }
+                sb.append(conditions[i]).append(bounds[i]);
+            }
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    @Override
+    protected Object visitBinarySpatialOperator(BinarySpatialOperator filter, Expression e1,
+            Expression e2, Object extraData) {
+        if (!(filter instanceof BBOX || filter instanceof Intersects)) {
+            throw new RuntimeException("Unsupported spatial operator: " + filter);
+        }
+
+        try {
+            out.write("ST_Intersects(");
+            e1.accept(this, extraData);
+            out.write(", ");
+            e2.accept(this, extraData);
+            out.write(") = 1");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return extraData;
+    }
     
     @Override
     public Object visit(Literal expression, Object context) throws RuntimeException {
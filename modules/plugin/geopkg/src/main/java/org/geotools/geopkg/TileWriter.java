@@ -0,0 +1,158 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.geopkg;
+
+import static java.lang.String.format;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Level;
+
+/**
+ * The TileWriter bulk loads tiles into a tile layer inside a GeoPackage.
+ * <p>
+ * Tiles are added to a JDBC batch and committed every <tt>commitSize</tt> tiles, instead of
+ * running one auto committed insert per tile as {@link GeoPackage#add(TileEntry, Tile)} does.
+ * The writer holds on to a single connection until it is closed, closing it commits any pending
+ * tiles.
+ * </p>
+ *
+ * @see GeoPackage#writer(TileEntry, int, boolean)
+ */
+public class TileWriter implements Closeable {
+
+    /**
+     * Default number of tiles inserted per transaction
+     */
+    public static final int DEFAULT_COMMIT_SIZE = 1000;
+
+    Connection cx;
+    PreparedStatement ps;
+    int commitSize;
+    int pending;
+    long written;
+
+    TileWriter(Connection cx, TileEntry entry, int commitSize, boolean walMode)
+            throws SQLException {
+        if (commitSize <= 0) {
+            throw new IllegalArgumentException("Commit size must be positive: " + commitSize);
+        }
+        this.cx = cx;
+        this.commitSize = commitSize;
+
+        if (walMode) {
+            // journal mode cannot be changed inside a transaction, and it sticks to the file
+            try (Statement st = cx.createStatement()) {
+                st.execute("PRAGMA journal_mode=WAL");
+            }
+        }
+        cx.setAutoCommit(false);
+
+        ps = cx.prepareStatement(format("INSERT INTO %s (zoom_level, tile_column,"
+                + " tile_row, tile_data) VALUES (?,?,?,?)", entry.getTableName()));
+    }
+
+    /**
+     * Queues a tile for insertion, committing the current batch when it reaches the commit size.
+     *
+     * @param tile The tile.
+     */
+    public void write(Tile tile) throws IOException {
+        try {
+            ps.setInt(1, tile.getZoom());
+            ps.setInt(2, tile.getColumn());
+            ps.setInt(3, tile.getRow());
+            ps.setBytes(4, tile.getData());
+            ps.addBatch();
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+
+        if (++pending >= commitSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Inserts and commits all the queued tiles.
+     */
+    public void flush() throws IOException {
+        if (pending == 0) {
+            return;
+        }
+        try {
+            ps.executeBatch();
+            cx.commit();
+            written += pending;
+            pending = 0;
+        } catch (SQLException e) {
+            try {
+                // drop the failed rows, so that the next flush does not send them again
+                ps.clearBatch();
+            } catch (SQLException e2) {
+                GeoPackage.LOGGER.log(Level.WARNING, "Error clearing tile batch", e2);
+            }
+            try {
+                cx.rollback();
+            } catch (SQLException e2) {
+                GeoPackage.LOGGER.log(Level.WARNING, "Error rolling back tile batch", e2);
+            }
+            pending = 0;
+            throw new IOException(e);
+        }
+        if (GeoPackage.LOGGER.isLoggable(Level.FINE)) {
+            GeoPackage.LOGGER.fine("Committed tile batch, " + written + " tiles written so far");
+        }
+    }
+
+    /**
+     * Returns the number of tiles committed so far.
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            try {
+                ps.close();
+            } catch (SQLException e) {
+                throw new IOException(e);
+            } finally {
+                try {
+                    cx.setAutoCommit(true);
+                } catch (SQLException e) {
+                    throw new IOException(e);
+                } finally {
+                    try {
+                        cx.close();
+                    } catch (SQLException e) {
+                        throw new IOException(e);
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,209 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.geopkg.geom;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.CoordinateSequenceFactory;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.PrecisionModel;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
+
+/**
+ * Decodes the WKB section of a GeoPackage geometry BLOB directly from the byte array.
+ * <p>
+ * Unlike {@link com.vividsolutions.jts.io.WKBReader} the ordinates are read in place, without
+ * copying them through an intermediate stream. When the geometry factory uses a
+ * {@link PackedCoordinateSequenceFactory} the ordinates are decoded into a single array per
+ * sequence and no {@link Coordinate} object is allocated. Both extended (EWKB) and ISO dimension
+ * flags are understood, measures are skipped as JTS coordinates cannot hold them.
+ * </p>
+ */
+class ByteArrayWKBReader {
+
+    static final int WKB_POINT = 1;
+
+    static final int WKB_LINESTRING = 2;
+
+    static final int WKB_POLYGON = 3;
+
+    static final int WKB_MULTIPOINT = 4;
+
+    static final int WKB_MULTILINESTRING = 5;
+
+    static final int WKB_MULTIPOLYGON = 6;
+
+    static final int WKB_GEOMETRYCOLLECTION = 7;
+
+    final ByteBuffer buffer;
+
+    final GeometryFactory factory;
+
+    final CoordinateSequenceFactory csFactory;
+
+    final PrecisionModel precisionModel;
+
+    ByteArrayWKBReader(byte[] bytes, int offset, GeometryFactory factory) {
+        this.buffer = ByteBuffer.wrap(bytes);
+        this.buffer.position(offset);
+        this.factory = factory;
+        this.csFactory = factory.getCoordinateSequenceFactory();
+        this.precisionModel = factory.getPrecisionModel();
+    }
+
+    Geometry read() throws IOException {
+        try {
+            return readGeometry();
+        } catch (RuntimeException e) {
+            // buffer underflows and the like, the blob is truncated or corrupted
+            throw new IOException("Invalid WKB geometry", e);
+        }
+    }
+
+    Geometry readGeometry() throws IOException {
+        buffer.order(buffer.get() == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+
+        int typeInt = buffer.getInt();
+        // EWKB style flags
+        boolean hasZ = (typeInt & 0x80000000) != 0;
+        boolean hasM = (typeInt & 0x40000000) != 0;
+        if ((typeInt & 0x20000000) != 0) {
+            // embedded srid, the header one is used instead
+            buffer.getInt();
+        }
+        // ISO style type codes
+        int code = typeInt & 0x0FFFFFFF;
+        int iso = code / 1000;
+        if (iso == 1 || iso == 3) {
+            hasZ = true;
+        }
+        if (iso == 2 || iso == 3) {
+            hasM = true;
+        }
+        int inputDimension = 2 + (hasZ ? 1 : 0) + (hasM ? 1 : 0);
+        int outputDimension = hasZ ? 3 : 2;
+
+        switch (code % 1000) {
+        case WKB_POINT:
+            return factory.createPoint(readCoordinates(1, inputDimension, outputDimension));
+        case WKB_LINESTRING:
+            return factory.createLineString(readCoordinates(inputDimension, outputDimension));
+        case WKB_POLYGON:
+            return readPolygon(inputDimension, outputDimension);
+        case WKB_MULTIPOINT: {
+            Point[] points = new Point[buffer.getInt()];
+            for (int i = 0; i < points.length; i++) {
+                points[i] = (Point) readGeometry(Point.class);
+            }
+            return factory.createMultiPoint(points);
+        }
+        case WKB_MULTILINESTRING: {
+            LineString[] lines = new LineString[buffer.getInt()];
+            for (int i = 0; i < lines.length; i++) {
+                lines[i] = (LineString) readGeometry(LineString.class);
+            }
+            return factory.createMultiLineString(lines);
+        }
+        case WKB_MULTIPOLYGON: {
+            Polygon[] polygons = new Polygon[buffer.getInt()];
+            for (int i = 0; i < polygons.length; i++) {
+                polygons[i] = (Polygon) readGeometry(Polygon.class);
+            }
+            return factory.createMultiPolygon(polygons);
+        }
+        case WKB_GEOMETRYCOLLECTION: {
+            Geometry[] geometries = new Geometry[buffer.getInt()];
+            for (int i = 0; i < geometries.length; i++) {
+                geometries[i] = readGeometry();
+            }
+            return factory.createGeometryCollection(geometries);
+        }
+        default:
+            throw new IOException("Unknown WKB type " + typeInt);
+        }
+    }
+
+    Geometry readGeometry(Class<? extends Geometry> expected) throws IOException {
+        Geometry g = readGeometry();
+        if (!expected.isInstance(g)) {
+            throw new IOException("Invalid geometry type encountered in "
+                    + expected.getSimpleName() + " collection: " + g.getGeometryType());
+        }
+        return g;
+    }
+
+    Polygon readPolygon(int inputDimension, int outputDimension) throws IOException {
+        int numRings = buffer.getInt();
+        if (numRings == 0) {
+            return factory.createPolygon((LinearRing) null, null);
+        }
+        LinearRing shell = factory.createLinearRing(readCoordinates(inputDimension,
+                outputDimension));
+        LinearRing[] holes = new LinearRing[numRings - 1];
+        for (int i = 0; i < holes.length; i++) {
+            holes[i] = factory.createLinearRing(readCoordinates(inputDimension, outputDimension));
+        }
+        return factory.createPolygon(shell, holes);
+    }
+
+    CoordinateSequence readCoordinates(int inputDimension, int outputDimension) {
+        return readCoordinates(buffer.getInt(), inputDimension, outputDimension);
+    }
+
+    CoordinateSequence readCoordinates(int size, int inputDimension, int outputDimension) {
+        boolean makePrecise = !precisionModel.isFloating();
+        if (csFactory instanceof PackedCoordinateSequenceFactory) {
+            double[] ordinates = new double[size * outputDimension];
+            for (int i = 0, k = 0; i < size; i++) {
+                for (int j = 0; j < inputDimension; j++) {
+                    double ordinate = buffer.getDouble();
+                    if (j < outputDimension) {
+                        ordinates[k++] = makePrecise && j < 2 ? precisionModel
+                                .makePrecise(ordinate) : ordinate;
+                    }
+                }
+            }
+            return ((PackedCoordinateSequenceFactory) csFactory).create(ordinates,
+                    outputDimension);
+        }
+
+        Coordinate[] coordinates = new Coordinate[size];
+        for (int i = 0; i < size; i++) {
+            double x = buffer.getDouble();
+            double y = buffer.getDouble();
+            double z = outputDimension > 2 ? buffer.getDouble() : Coordinate.NULL_ORDINATE;
+            for (int j = outputDimension; j < inputDimension; j++) {
+                buffer.getDouble();
+            }
+            if (makePrecise) {
+                x = precisionModel.makePrecise(x);
+                y = precisionModel.makePrecise(y);
+            }
+            coordinates[i] = new Coordinate(x, y, z);
+        }
+        return csFactory.create(coordinates);
+    }
+}
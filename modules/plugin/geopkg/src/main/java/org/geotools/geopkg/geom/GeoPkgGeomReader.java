@@ -38,6 +38,11 @@ import com.vividsolutions.jts.io.WKBReader;
 public class GeoPkgGeomReader {
     
     protected InStream input;
+
+    /**
+     * The whole BLOB, when available, allows to decode the geometry in place
+     */
+    protected byte[] bytes;
     
     protected GeometryHeader header = null;
     
@@ -55,6 +60,7 @@ public class GeoPkgGeomReader {
     
     public GeoPkgGeomReader(byte[] bytes) {
         this.input = new ByteArrayInStream(bytes);
+        this.bytes = bytes;
     }
         
     public GeometryHeader getHeader() throws IOException {
@@ -74,6 +80,10 @@ public class GeoPkgGeomReader {
         return geometry;
     }
     
+    /**
+     * Returns the geometry envelope. When the header contains it this is a fast path that does
+     * not parse the geometry itself.
+     */
     public Envelope getEnvelope() throws IOException {
         if (getHeader().getFlags().getEnvelopeIndicator() == EnvelopeType.NONE) {
             return get().getEnvelopeInternal();
@@ -84,6 +94,12 @@ public class GeoPkgGeomReader {
     
     protected Geometry read() throws IOException { //header must be read!      
         // read the geometry
+        if (bytes != null) {
+            int offset = 8 + header.getFlags().getEnvelopeIndicator().getLength();
+            Geometry g = new ByteArrayWKBReader(bytes, offset, factory).read();
+            g.setSRID(header.getSrid());
+            return g;
+        }
         try {
             WKBReader wkbReader = new WKBReader(factory);
             Geometry g = wkbReader.read(input);
@@ -0,0 +1,94 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.geopkg.geom;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.sqlite.Function;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+
+/**
+ * An sqlite function testing whether two GeoPackage Geometry BLOBs intersect.
+ * <p>
+ * The function is meant to be called with a column as first argument and a constant as the
+ * second one: the second geometry is parsed and prepared once, and reused as long as the same
+ * value is passed. The header envelope of the first geometry is checked before parsing its WKB.
+ * </p>
+ */
+public class IntersectsFunction extends Function {
+
+    byte[] lastValue;
+
+    PreparedGeometry prepared;
+
+    Envelope envelope;
+
+    boolean rectangle;
+
+    @Override
+    protected void xFunc() throws SQLException {
+        if (args() != 2) {
+            throw new SQLException("Intersects Function expects two arguments.");
+        }
+
+        byte[] value = value_blob(0);
+        byte[] other = value_blob(1);
+        if (value == null || other == null) {
+            result();
+            return;
+        }
+
+        try {
+            result(intersects(value, other) ? 1 : 0);
+        } catch (IOException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    boolean intersects(byte[] value, byte[] other) throws IOException {
+        if (!Arrays.equals(other, lastValue)) {
+            GeoPkgGeomReader reader = new GeoPkgGeomReader(other);
+            if (reader.getHeader().getFlags().isEmpty()) {
+                return false;
+            }
+            Geometry g = reader.get();
+            prepared = PreparedGeometryFactory.prepare(g);
+            envelope = g.getEnvelopeInternal();
+            rectangle = g.isRectangle();
+            lastValue = other;
+        }
+
+        GeoPkgGeomReader reader = new GeoPkgGeomReader(value);
+        if (reader.getHeader().getFlags().isEmpty()) {
+            return false;
+        }
+        Envelope e = reader.getEnvelope();
+        if (!envelope.intersects(e)) {
+            return false;
+        }
+        if (rectangle && envelope.contains(e)) {
+            return true;
+        }
+        return prepared.intersects(reader.get());
+    }
+}
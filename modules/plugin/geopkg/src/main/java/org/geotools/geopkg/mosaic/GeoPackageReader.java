@@ -26,11 +26,17 @@ import java.awt.image.WritableRaster;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -84,9 +90,22 @@ public class GeoPackageReader extends AbstractGridCoverage2DReader {
     protected File sourceFile;
                 
     protected Map<String, TileEntry> tiles = new HashMap<String, TileEntry>();
+
+    /**
+     * Executor used to decode tiles in parallel, taken from the {@link Hints#EXECUTOR_SERVICE}
+     * hint, or the common fork join pool if missing
+     */
+    protected ExecutorService executor;
     
     public GeoPackageReader(Object source, Hints hints) throws IOException {
        coverageFactory = CoverageFactoryFinder.getGridCoverageFactory(this.hints);
+
+       Object executor = hints != null ? hints.get(Hints.EXECUTOR_SERVICE) : null;
+       if (executor instanceof ExecutorService) {
+           this.executor = (ExecutorService) executor;
+       } else {
+           this.executor = ForkJoinPool.commonPool();
+       }
        
        sourceFile = GeoPackageFormat.getFileFromSource(source);
        GeoPackage file = new GeoPackage(sourceFile);
@@ -224,10 +243,11 @@ public class GeoPackageReader extends AbstractGridCoverage2DReader {
             }
 
             //take available tiles from database
-            leftTile = file.getTileBound(entry, bestMatrix.getZoomLevel(), false, false);
-            rightTile = file.getTileBound(entry, bestMatrix.getZoomLevel(), true, false);
-            bottomTile = file.getTileBound(entry, bestMatrix.getZoomLevel(), false, true);
-            topTile = file.getTileBound(entry, bestMatrix.getZoomLevel(), true, true);  
+            int[] tileBounds = file.getTileBounds(entry, bestMatrix.getZoomLevel());
+            leftTile = tileBounds[0];
+            rightTile = tileBounds[1];
+            bottomTile = tileBounds[2];
+            topTile = tileBounds[3];
 
             double resX = (crs.getCoordinateSystem().getAxis(0).getMaximumValue() - crs.getCoordinateSystem().getAxis(0).getMinimumValue()) / bestMatrix.getMatrixWidth();
             double resY = (crs.getCoordinateSystem().getAxis(1).getMaximumValue() - crs.getCoordinateSystem().getAxis(1).getMinimumValue()) / bestMatrix.getMatrixHeight();
@@ -247,13 +267,19 @@ public class GeoPackageReader extends AbstractGridCoverage2DReader {
             //recalculate the envelope we are actually returning
             resultEnvelope = new ReferencedEnvelope(offsetX + leftTile * resX, offsetX + (rightTile+1) * resX, offsetY + bottomTile * resY, offsetY + (topTile+1) * resY, crs);
 
-            TileReader it;
-            it = file.reader(entry, bestMatrix.getZoomLevel(), bestMatrix.getZoomLevel(), leftTile, rightTile, bottomTile, topTile);
-
-            while (it.hasNext()) {                
-                Tile tile = it.next();
+            //fetch all the tiles in one range query, then decode them concurrently
+            List<Tile> tileList = new ArrayList<Tile>();
+            try (TileReader it = file.reader(entry, bestMatrix.getZoomLevel(),
+                    bestMatrix.getZoomLevel(), leftTile, rightTile, bottomTile, topTile)) {
+                while (it.hasNext()) {
+                    tileList.add(it.next());
+                }
+            }
 
-                BufferedImage tileImage = readImage(tile.getData());
+            List<BufferedImage> tileImages = readImages(tileList);
+            for (int i = 0; i < tileList.size(); i++) {
+                Tile tile = tileList.get(i);
+                BufferedImage tileImage = tileImages.get(i);
 
                 if (image == null) {
                     image = getStartImage(tileImage, width, height);
@@ -266,8 +292,6 @@ public class GeoPackageReader extends AbstractGridCoverage2DReader {
                 image.getRaster().setRect(posx, posy, tileImage.getData() );
             }
 
-            it.close();
-
             if (image == null){ // no tiles ??
                 image = getStartImage(width, height);
             }
@@ -278,16 +302,63 @@ public class GeoPackageReader extends AbstractGridCoverage2DReader {
         return coverageFactory.create(entry.getTableName(), image, resultEnvelope);
     }
     
+    /**
+     * Decodes the tiles data, using the executor service when there is more than one tile. The
+     * returned images are in the same order as the tiles.
+     */
+    protected List<BufferedImage> readImages(List<Tile> tiles) throws IOException {
+        List<BufferedImage> images = new ArrayList<BufferedImage>(tiles.size());
+        if (tiles.size() <= 1) {
+            for (Tile tile : tiles) {
+                images.add(readImage(tile.getData()));
+            }
+            return images;
+        }
+
+        List<Future<BufferedImage>> futures = new ArrayList<Future<BufferedImage>>(tiles.size());
+        for (final Tile tile : tiles) {
+            futures.add(executor.submit(new Callable<BufferedImage>() {
+                @Override
+                public BufferedImage call() throws Exception {
+                    return readImage(tile.getData());
+                }
+            }));
+        }
+        try {
+            for (Future<BufferedImage> future : futures) {
+                images.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while decoding tiles", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            for (Future<BufferedImage> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return images;
+    }
+
     protected static BufferedImage readImage(byte[] data) throws IOException {
         ByteArrayInputStream bis = new ByteArrayInputStream(data);
         Object source = bis; 
         ImageInputStream iis = ImageIO.createImageInputStream(source); 
         Iterator<?> readers = ImageIO.getImageReaders(iis);
         ImageReader reader = (ImageReader) readers.next();
-        reader.setInput(iis, true);
-        ImageReadParam param = reader.getDefaultReadParam();
- 
-        return reader.read(0, param);
+        try {
+            reader.setInput(iis, true);
+            ImageReadParam param = reader.getDefaultReadParam();
+
+            return reader.read(0, param);
+        } finally {
+            reader.dispose();
+        }
     }
     
     protected BufferedImage getStartImage(BufferedImage copyFrom, int width, int height) {
@@ -16,9 +16,11 @@
  */
 package org.geotools.geopkg;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -66,7 +68,9 @@ import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.feature.type.PropertyDescriptor;
+import org.opengis.filter.Filter;
 import org.opengis.filter.FilterFactory;
+import org.opengis.filter.FilterFactory2;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
@@ -500,6 +504,93 @@ public class GeoPackageTest {
         }
     }
 
+    @Test
+    public void testSpatialIndexFiltering() throws Exception {
+        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2();
+
+        ShapefileDataStore shp = new ShapefileDataStore(setUpShapefile());
+
+        FeatureEntry entry = new FeatureEntry();
+        geopkg.add(entry, shp.getFeatureSource(), null);
+        geopkg.createSpatialIndex(entry);
+
+        //reopen so that the feature type is built after the index got created
+        GeoPackage other = new GeoPackage(geopkg.getFile());
+        try {
+            SimpleFeatureType schema = other.dataStore().getSchema(entry.getTableName());
+            assertEquals("rtree_bugsites_the_geom", schema.getGeometryDescriptor().getUserData()
+                    .get(GeoPkgDialect.GEOPKG_SPATIAL_INDEX));
+
+            Filter bbox = ff.bbox("the_geom", 590230.0, 4915038.0, 590234.0, 4915040.0, null);
+            try(SimpleFeatureReader sfr = other.reader(entry, bbox, null)) {
+                assertTrue(sfr.hasNext());
+                assertEquals("bugsites.1", sfr.next().getID().toString());
+                assertFalse(sfr.hasNext());
+            }
+
+            //the query geometry bounds overlap all points, but the triangle only a subset
+            ReferencedEnvelope bounds = shp.getFeatureSource().getBounds();
+            Geometry triangle = new GeometryFactory().createPolygon(new Coordinate[] {
+                    new Coordinate(bounds.getMinX(), bounds.getMinY()),
+                    new Coordinate(bounds.getMaxX(), bounds.getMinY()),
+                    new Coordinate(bounds.getMinX(), bounds.getMaxY()),
+                    new Coordinate(bounds.getMinX(), bounds.getMinY()) });
+            Filter intersects = ff.intersects(ff.property("the_geom"), ff.literal(triangle));
+            int expected = 0;
+            try (SimpleFeatureIterator it = shp.getFeatureSource().getFeatures().features()) {
+                while (it.hasNext()) {
+                    if (triangle.intersects((Geometry) it.next().getDefaultGeometry())) {
+                        expected++;
+                    }
+                }
+            }
+            assertTrue(expected > 0);
+            int count = 0;
+            try(SimpleFeatureReader sfr = other.reader(entry, intersects, null)) {
+                while (sfr.hasNext()) {
+                    assertTrue(triangle.intersects((Geometry) sfr.next().getDefaultGeometry()));
+                    count++;
+                }
+            }
+            assertEquals(expected, count);
+
+            //unbounded sides do not restrict the rtree search
+            Filter unbounded = ff.bbox("the_geom", 590230.0, 4915038.0, Double.POSITIVE_INFINITY,
+                    Double.POSITIVE_INFINITY, null);
+            expected = 0;
+            try (SimpleFeatureIterator it = shp.getFeatureSource().getFeatures().features()) {
+                while (it.hasNext()) {
+                    Envelope e = ((Geometry) it.next().getDefaultGeometry()).getEnvelopeInternal();
+                    if (e.getMaxX() >= 590230.0 && e.getMaxY() >= 4915038.0) {
+                        expected++;
+                    }
+                }
+            }
+            assertTrue(expected > 0);
+            count = 0;
+            try(SimpleFeatureReader sfr = other.reader(entry, unbounded, null)) {
+                while (sfr.hasNext()) {
+                    sfr.next();
+                    count++;
+                }
+            }
+            assertEquals(expected, count);
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void testEncodeIndexBounds() throws Exception {
+        assertEquals("minx <= 3.0 AND maxx >= 1.0 AND miny <= 4.0 AND maxy >= 2.0",
+                GeoPkgFilterToSQL.encodeIndexBounds(new Envelope(1, 3, 2, 4)));
+        assertEquals("maxx >= 1.0", GeoPkgFilterToSQL.encodeIndexBounds(new Envelope(1,
+                Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY)));
+        assertNull(GeoPkgFilterToSQL.encodeIndexBounds(new Envelope(Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY)));
+        assertNull(GeoPkgFilterToSQL.encodeIndexBounds(new Envelope(1, Double.NaN, 2, 4)));
+    }
+
     @Test
     public void testCreateTileEntry() throws Exception {
         TileEntry e = new TileEntry();
@@ -527,6 +618,83 @@ public class GeoPackageTest {
         }
     }
     
+    @Test
+    public void testTileWriter() throws Exception {
+        TileEntry e = new TileEntry();
+        e.setTableName("foo");
+        e.setBounds(new ReferencedEnvelope(-180,180,-90,90,DefaultGeographicCRS.WGS84));
+        e.getTileMatricies().add(new TileMatrix(0, 1, 1, 256, 256, 0.1, 0.1));
+        e.getTileMatricies().add(new TileMatrix(1, 2, 2, 256, 256, 0.1, 0.1));
+
+        geopkg.create(e);
+
+        List<Tile> tiles = new ArrayList();
+        tiles.add(new Tile(0,0,0,new byte[]{0}));
+        tiles.add(new Tile(1,0,0,new byte[]{1}));
+        tiles.add(new Tile(1,0,1,new byte[]{2}));
+        tiles.add(new Tile(1,1,0,new byte[]{3}));
+        tiles.add(new Tile(1,1,1,new byte[]{4}));
+
+        // commit size not dividing the tile count, so that close has to commit the rest
+        try (TileWriter w = geopkg.writer(e, 2, true)) {
+            for (Tile t : tiles) {
+                w.write(t);
+            }
+            assertEquals(4, w.getWritten());
+        }
+
+        try(TileReader r = geopkg.reader(e, null, null, null, null, null, null)) {
+            assertTiles(tiles, r);
+        }
+
+        try (Connection cx = geopkg.getDataSource().getConnection();
+                Statement st = cx.createStatement();
+                ResultSet rs = st.executeQuery("PRAGMA journal_mode")) {
+            assertTrue(rs.next());
+            assertEquals("wal", rs.getString(1).toLowerCase());
+        }
+
+        assertArrayEquals(new int[] { 0, 1, 0, 1 }, geopkg.getTileBounds(e, 1));
+        assertArrayEquals(new int[] { 0, 0, 0, 0 }, geopkg.getTileBounds(e, 0));
+    }
+
+    @Test
+    public void testTileWriterFailedBatch() throws Exception {
+        TileEntry e = new TileEntry();
+        e.setTableName("foo");
+        e.setBounds(new ReferencedEnvelope(-180,180,-90,90,DefaultGeographicCRS.WGS84));
+        e.getTileMatricies().add(new TileMatrix(0, 1, 1, 256, 256, 0.1, 0.1));
+        e.getTileMatricies().add(new TileMatrix(1, 2, 2, 256, 256, 0.1, 0.1));
+
+        geopkg.create(e);
+
+        List<Tile> tiles = new ArrayList();
+        tiles.add(new Tile(1,0,0,new byte[]{1}));
+        tiles.add(new Tile(1,1,1,new byte[]{4}));
+        try (TileWriter w = geopkg.writer(e, 10, false)) {
+            // the tile data cannot be null
+            w.write(new Tile(0,0,0,null));
+            try {
+                w.flush();
+                fail("The batch should have failed");
+            } catch (IOException ex) {
+                // fine
+            }
+            assertEquals(0, w.getWritten());
+
+            // the failed row is not sent again
+            for (Tile t : tiles) {
+                w.write(t);
+            }
+            w.flush();
+            assertEquals(2, w.getWritten());
+        }
+
+        try(TileReader r = geopkg.reader(e, null, null, null, null, null, null)) {
+            assertTiles(tiles, r);
+        }
+    }
+
     @Test
     public void testIndependentTileMatrix() throws Exception {
         TileEntry e = new TileEntry();
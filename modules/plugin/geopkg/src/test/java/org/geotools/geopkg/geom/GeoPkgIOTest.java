@@ -25,6 +25,11 @@ import org.geotools.geometry.jts.GeometryBuilder;
 import org.junit.Test;
 
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequence;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
+import com.vividsolutions.jts.io.WKTReader;
 
 public class GeoPkgIOTest {
 
@@ -37,6 +42,52 @@ public class GeoPkgIOTest {
         assertTrue(g1.equals(g2));
     }
 
+    @Test
+    public void testReadWriteTypes() throws Exception {
+        WKTReader wkt = new WKTReader();
+        String[] geometries = new String[] { "POINT (1 2)", "LINESTRING (0 0, 1 1, 2 0)",
+                "POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0), (1 1, 2 1, 2 2, 1 1))",
+                "MULTIPOINT ((0 0), (1 1))", "MULTILINESTRING ((0 0, 1 1), (2 2, 3 3))",
+                "MULTIPOLYGON (((0 0, 1 0, 1 1, 0 0)), ((5 5, 6 5, 6 6, 5 5)))",
+                "GEOMETRYCOLLECTION (POINT (1 2), LINESTRING (0 0, 1 1))",
+                "LINESTRING (0 0 1, 1 1 2, 2 0 3)" };
+        GeometryFactory packed = new GeometryFactory(
+                PackedCoordinateSequenceFactory.DOUBLE_FACTORY);
+        for (String text : geometries) {
+            Geometry g1 = wkt.read(text);
+            g1.setSRID(4326);
+            int dim = Double.isNaN(g1.getCoordinate().z) ? 2 : 3;
+            byte[] bytes = new GeoPkgGeomWriter(dim).write(g1);
+
+            Geometry g2 = new GeoPkgGeomReader(bytes).get();
+            assertTrue(text, g1.equalsExact(g2));
+            assertEquals(4326, g2.getSRID());
+
+            GeoPkgGeomReader reader = new GeoPkgGeomReader(bytes);
+            reader.setFactory(packed);
+            Geometry g3 = reader.get();
+            assertTrue(text, g1.equalsExact(g3));
+            if (dim == 3) {
+                assertEquals(g1.getCoordinates()[1].z, g3.getCoordinates()[1].z, 0d);
+            }
+            if (g3 instanceof LineString) {
+                assertTrue(((LineString) g3).getCoordinateSequence() 
+                        instanceof PackedCoordinateSequence);
+            }
+        }
+    }
+
+    @Test
+    public void testEnvelopeFromHeader() throws IOException {
+        Geometry g1 = new GeometryBuilder().point(0,0).buffer(10);
+        byte[] bytes = new GeoPkgGeomWriter().write(g1);
+
+        // the envelope is read from the header, a broken WKB section is not touched
+        byte[] truncated = new byte[8 + 32];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        assertEquals(g1.getEnvelopeInternal(), new GeoPkgGeomReader(truncated).getEnvelope());
+    }
+
     @Test
     public void testHeader() throws IOException {
         Geometry g1 = new GeometryBuilder().point(0,0).buffer(10);
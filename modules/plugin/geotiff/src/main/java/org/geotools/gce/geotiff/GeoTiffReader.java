@@ -54,6 +54,7 @@ import java.net.URL;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -144,6 +145,22 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
 	/** With this java switch I can control whether or not an external PRJ files takes precedence over the internal CRS definition*/
 	static boolean OVERRIDE_INNER_CRS=Boolean.valueOf(System.getProperty(GeoTiffReader.OVERRIDE_CRS_SWITCH, "True"));
 
+	/**
+	 * With this java switch I can enable reading the tiles of local files through a channel that
+	 * fetches the byte ranges of the needed tiles upfront, and collects {@link TileReadStatistics}
+	 */
+	public static final String TILE_CHANNEL_READ_SWITCH = "org.geotools.gce.geotiff.tile.channel.read";
+
+	static boolean TILE_CHANNEL_READ=Boolean.valueOf(System.getProperty(GeoTiffReader.TILE_CHANNEL_READ_SWITCH, "False"));
+
+	/**
+	 * With this java switch I can make the tile channel reads (see {@link #TILE_CHANNEL_READ_SWITCH})
+	 * also align the tiles of the read image to the file ones, when no layout is requested
+	 */
+	public static final String TILE_ALIGNED_LAYOUT_SWITCH = "org.geotools.gce.geotiff.tile.aligned.layout";
+
+	static boolean TILE_ALIGNED_LAYOUT=Boolean.valueOf(System.getProperty(GeoTiffReader.TILE_ALIGNED_LAYOUT_SWITCH, "False"));
+
 	/** SPI for creating tiff readers in ImageIO tools */
 	private final static TIFFImageReaderSpi READER_SPI = new TIFFImageReaderSpi();
 
@@ -172,6 +189,11 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
      */
     private GroundControlPoints gcps;
 
+    /**
+     * The tile layouts of the images in the source file, by image index
+     */
+    private final Map<Integer, TiffTileIndex> tileIndexes = new HashMap<>();
+
 	/**
 	 * Creates a new instance of GeoTiffReader
 	 * 
@@ -597,6 +619,16 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
 			new DataSourceException(e);
 		}
 
+		//
+		// TILES ACCESS, for images stored inside a local file
+		//
+		TiffTileIndex tileIndex = null;
+		if (TILE_CHANNEL_READ && source instanceof File && maskOvrProvider == null
+		        && !(extOvrImgChoice >= 0 && imageChoice >= extOvrImgChoice)) {
+		    int overviewImageIndex = dtLayout.getInternalOverviewImageIndex(imageChoice);
+		    tileIndex = getTileIndex(overviewImageIndex >= 0 ? overviewImageIndex : 0);
+		}
+
 		//
 		// IMAGE READ OPERATION
 		//
@@ -609,7 +641,16 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
             layout.setTileHeight(suggestedTileSize[1]);
             layout.setTileWidth(suggestedTileSize[0]);
             newHints.add(new RenderingHints(JAI.KEY_IMAGE_LAYOUT, layout));
+		} else if (TILE_ALIGNED_LAYOUT && tileIndex != null
+		        && !hints.containsKey(JAI.KEY_IMAGE_LAYOUT)) {
+		    // align the image tiles to the file ones, so that each of them decodes a single tile
+		    final ImageLayout layout = tileIndex.getAlignedLayout(readP);
+		    if (layout != null) {
+		        newHints = hints.clone();
+		        newHints.add(new RenderingHints(JAI.KEY_IMAGE_LAYOUT, layout));
+		    }
 		}
+		TileReadStatistics statistics = null;
 		final ParameterBlock pbjRead = new ParameterBlock();
             // Image Index used for the Overview management
             if (maskOvrProvider != null) {
@@ -631,6 +672,11 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
                 } else {
                     if(inStream instanceof ImageInputStream && !closeMe) {
                         pbjRead.add(inStream);
+                    } else if (tileIndex != null) {
+                        final BitSet neededTiles = tileIndex.getNeededTiles(readP);
+                        statistics = new TileReadStatistics(imageChoice, neededTiles.cardinality());
+                        pbjRead.add(new TileChannelImageInputStream((File) source, tileIndex,
+                                neededTiles, statistics));
                     }
                     else {
                         pbjRead.add(inStreamSPI != null ? inStreamSPI.createInputStreamInstance(source,
@@ -685,6 +731,10 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
             }
         }
 
+        if (statistics != null) {
+            coverageRaster.setProperty(TileReadStatistics.PROPERTY_NAME, statistics);
+        }
+
         //
         // BUILDING COVERAGE
         //
@@ -703,6 +753,41 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
         }
 	}
 
+    /**
+     * Returns the tile layout of the specified image in the source file, null if not available
+     */
+    private TiffTileIndex getTileIndex(int imageIndex) throws IOException {
+        synchronized (tileIndexes) {
+            if (tileIndexes.containsKey(imageIndex)) {
+                return tileIndexes.get(imageIndex);
+            }
+            TiffTileIndex tileIndex = null;
+            ImageReader reader = null;
+            ImageInputStream stream = null;
+            try {
+                reader = READER_SPI.createReaderInstance();
+                stream = inStreamSPI.createInputStreamInstance(source, ImageIO.getUseCache(),
+                        ImageIO.getCacheDirectory());
+                reader.setInput(stream);
+                tileIndex = TiffTileIndex.create(reader, imageIndex);
+            } catch (IOException | RuntimeException e) {
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.log(Level.FINE, "Unable to collect the tiles layout of image "
+                            + imageIndex + ", reading without it", e);
+                }
+            } finally {
+                if (reader != null) {
+                    reader.dispose();
+                }
+                if (stream != null) {
+                    stream.close();
+                }
+            }
+            tileIndexes.put(imageIndex, tileIndex);
+            return tileIndex;
+        }
+    }
+
     /**
      * General method for reading an input ROI Mask from a file
      * 
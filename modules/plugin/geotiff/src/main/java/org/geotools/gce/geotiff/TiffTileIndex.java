@@ -0,0 +1,239 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.gce.geotiff;
+
+import it.geosolutions.imageio.plugins.tiff.BaselineTIFFTagSet;
+import it.geosolutions.imageio.plugins.tiff.TIFFField;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageMetadata;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.media.jai.ImageLayout;
+
+/**
+ * The tile (or strip) layout of a single image inside a TIFF file, along with the position of
+ * each tile in the file.
+ * <p>
+ * Used to compute the exact set of tiles a read needs, and to map file positions back to tiles.
+ * </p>
+ */
+class TiffTileIndex {
+
+    final int width;
+
+    final int height;
+
+    final int tileWidth;
+
+    final int tileHeight;
+
+    final boolean tiled;
+
+    final int tilesAcross;
+
+    final int tilesDown;
+
+    /** Tiles per plane, the offsets hold one set of tiles per band in planar images */
+    final int tilesPerPlane;
+
+    final long[] offsets;
+
+    final long[] byteCounts;
+
+    /** Tile ids sorted by offset */
+    private final int[] sortedTiles;
+
+    /** Tile offsets, sorted */
+    private final long[] sortedOffsets;
+
+    private TiffTileIndex(int width, int height, int tileWidth, int tileHeight, boolean tiled,
+            long[] offsets, long[] byteCounts) {
+        this.width = width;
+        this.height = height;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.tiled = tiled;
+        this.tilesAcross = (width + tileWidth - 1) / tileWidth;
+        this.tilesDown = (height + tileHeight - 1) / tileHeight;
+        this.tilesPerPlane = tilesAcross * tilesDown;
+        this.offsets = offsets;
+        this.byteCounts = byteCounts;
+
+        // sort the tiles by position, packing offset and id in a single long is not safe
+        // with BigTIFF, sort an index array instead
+        Integer[] order = new Integer[offsets.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(offsets[a], offsets[b]));
+        sortedTiles = new int[order.length];
+        sortedOffsets = new long[order.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedTiles[i] = order[i];
+            sortedOffsets[i] = offsets[order[i]];
+        }
+    }
+
+    /**
+     * Builds the tile index of the specified image, returns null if the image metadata does not
+     * provide the tile positions
+     */
+    static TiffTileIndex create(ImageReader reader, int imageIndex) throws IOException {
+        IIOMetadata metadata = reader.getImageMetadata(imageIndex);
+        if (!(metadata instanceof TIFFImageMetadata)) {
+            return null;
+        }
+        TIFFImageMetadata tiffMetadata = (TIFFImageMetadata) metadata;
+        boolean tiled = true;
+        TIFFField offsetsField = tiffMetadata.getTIFFField(BaselineTIFFTagSet.TAG_TILE_OFFSETS);
+        TIFFField countsField = tiffMetadata.getTIFFField(BaselineTIFFTagSet.TAG_TILE_BYTE_COUNTS);
+        if (offsetsField == null) {
+            tiled = false;
+            offsetsField = tiffMetadata.getTIFFField(BaselineTIFFTagSet.TAG_STRIP_OFFSETS);
+            countsField = tiffMetadata.getTIFFField(BaselineTIFFTagSet.TAG_STRIP_BYTE_COUNTS);
+        }
+        if (offsetsField == null || countsField == null
+                || offsetsField.getCount() != countsField.getCount()) {
+            return null;
+        }
+
+        int width = reader.getWidth(imageIndex);
+        int height = reader.getHeight(imageIndex);
+        int tileWidth = reader.getTileWidth(imageIndex);
+        int tileHeight = reader.getTileHeight(imageIndex);
+        long[] offsets = new long[offsetsField.getCount()];
+        long[] byteCounts = new long[offsets.length];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = offsetsField.getAsLong(i);
+            byteCounts[i] = countsField.getAsLong(i);
+        }
+        TiffTileIndex index = new TiffTileIndex(width, height, tileWidth, tileHeight, tiled,
+                offsets, byteCounts);
+        if (offsets.length % index.tilesPerPlane != 0) {
+            // inconsistent metadata, better not guessing
+            return null;
+        }
+        return index;
+    }
+
+    private Rectangle getSourceRegion(ImageReadParam readP) {
+        Rectangle bounds = new Rectangle(0, 0, width, height);
+        Rectangle region = readP.getSourceRegion();
+        return region != null ? region.intersection(bounds) : bounds;
+    }
+
+    /**
+     * Returns the tiles, in the first plane, that the read described by the parameters needs
+     * to decode. Rows and columns of tiles skipped by the subsampling are not included.
+     */
+    BitSet getNeededTiles(ImageReadParam readP) {
+        final Rectangle region = getSourceRegion(readP);
+        final BitSet needed = new BitSet(tilesPerPlane);
+        if (region.isEmpty()) {
+            return needed;
+        }
+        final int ssx = readP.getSourceXSubsampling();
+        final int ssy = readP.getSourceYSubsampling();
+        final int originX = region.x + readP.getSubsamplingXOffset();
+        final int originY = region.y + readP.getSubsamplingYOffset();
+        final int maxX = region.x + region.width;
+        final int maxY = region.y + region.height;
+        for (int ty = region.y / tileHeight; ty <= (maxY - 1) / tileHeight; ty++) {
+            if (!isSampled(ty * tileHeight, (ty + 1) * tileHeight, originY, ssy, maxY)) {
+                continue;
+            }
+            for (int tx = region.x / tileWidth; tx <= (maxX - 1) / tileWidth; tx++) {
+                if (isSampled(tx * tileWidth, (tx + 1) * tileWidth, originX, ssx, maxX)) {
+                    needed.set(ty * tilesAcross + tx);
+                }
+            }
+        }
+        return needed;
+    }
+
+    /**
+     * Checks if a pixel sampled starting at origin with the given step falls in [start, end)
+     */
+    private static boolean isSampled(int start, int end, int origin, int step, int limit) {
+        int first = origin;
+        if (start > origin) {
+            first = origin + ((start - origin + step - 1) / step) * step;
+        }
+        return first < Math.min(end, limit);
+    }
+
+    /**
+     * Returns a layout whose tiles map one to one on the TIFF tiles in the source region, so
+     * that computing a tile of the read image decodes a single TIFF tile. Returns null if the
+     * image is stripped, or the subsampling does not allow the alignment.
+     */
+    ImageLayout getAlignedLayout(ImageReadParam readP) {
+        if (!tiled || readP.getSubsamplingXOffset() != 0 || readP.getSubsamplingYOffset() != 0) {
+            return null;
+        }
+        final Rectangle region = getSourceRegion(readP);
+        final int ssx = readP.getSourceXSubsampling();
+        final int ssy = readP.getSourceYSubsampling();
+        if (tileWidth % ssx != 0 || tileHeight % ssy != 0 || region.x % ssx != 0
+                || region.y % ssy != 0) {
+            return null;
+        }
+        final ImageLayout layout = new ImageLayout();
+        layout.setTileWidth(tileWidth / ssx);
+        layout.setTileHeight(tileHeight / ssy);
+        layout.setTileGridXOffset(-((region.x % tileWidth) / ssx));
+        layout.setTileGridYOffset(-((region.y % tileHeight) / ssy));
+        return layout;
+    }
+
+    /**
+     * Returns the index, in the offset sorted order, of the last tile starting at or before the
+     * given position, -1 if none
+     */
+    private int floorTile(long position) {
+        int idx = Arrays.binarySearch(sortedOffsets, position);
+        if (idx < 0) {
+            idx = -idx - 2;
+        } else {
+            // multiple empty tiles might share the same offset, move to the last one
+            while (idx + 1 < sortedOffsets.length && sortedOffsets[idx + 1] == position) {
+                idx++;
+            }
+        }
+        return idx;
+    }
+
+    /**
+     * Reports to the statistics the tiles whose data overlaps the given range of the file
+     */
+    void markTiles(long position, int length, TileReadStatistics statistics) {
+        final long end = position + length;
+        int idx = Math.max(0, floorTile(position));
+        for (; idx < sortedOffsets.length && sortedOffsets[idx] < end; idx++) {
+            int tile = sortedTiles[idx];
+            if (sortedOffsets[idx] + byteCounts[tile] > position) {
+                statistics.tileRead(tile % tilesPerPlane);
+            }
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.gce.geotiff;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * An {@link javax.imageio.stream.ImageInputStream} over a TIFF file that knows in advance which
+ * tiles are going to be decoded.
+ * <p>
+ * The byte ranges of the needed tiles are coalesced into blocks, merging ranges that are close
+ * to each other in the file. The first access to a block fetches it whole with a single
+ * positional read on a {@link FileChannel}, the other accesses are served from memory. A block
+ * is released as soon as all the tiles in it have been read, it will be fetched again if they
+ * are read a second time. Data outside the blocks (headers, directories) is read through a
+ * small buffer. All the accesses are reported to a {@link TileReadStatistics}.
+ * </p>
+ */
+class TileChannelImageInputStream extends ImageInputStreamImpl {
+
+    /** Max number of bytes between two tiles for them to be fetched in the same read */
+    static final int MAX_GAP = 64 * 1024;
+
+    /** Max size of a coalesced block */
+    static final int MAX_BLOCK = 8 * 1024 * 1024;
+
+    /** Size of the buffer used for the data outside the blocks */
+    static final int BUFFER_SIZE = 8 * 1024;
+
+    private final FileChannel channel;
+
+    private final TiffTileIndex index;
+
+    private final TileReadStatistics statistics;
+
+    private final long[] blockStarts;
+
+    private final long[] blockEnds;
+
+    private final ByteBuffer[] blocks;
+
+    /** The needed tile ranges, sorted by start, and the bytes read so far in each of them */
+    private final long[] rangeStarts;
+
+    private final long[] rangeEnds;
+
+    private final long[] rangeConsumed;
+
+    /** The ranges of each block, and the number of them not fully read yet */
+    private final int[] blockFirstRange;
+
+    private final int[] blockRanges;
+
+    private final int[] blockPending;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private long bufferStart;
+
+    private int bufferLength;
+
+    private final byte[] singleByte = new byte[1];
+
+    TileChannelImageInputStream(File file, TiffTileIndex index, BitSet neededTiles,
+            TileReadStatistics statistics) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.index = index;
+        this.statistics = statistics;
+
+        // collect the ranges of the needed tiles, in all planes
+        final List<long[]> ranges = new ArrayList<>();
+        final int planes = index.offsets.length / index.tilesPerPlane;
+        for (int tile = neededTiles.nextSetBit(0); tile >= 0; tile = neededTiles
+                .nextSetBit(tile + 1)) {
+            for (int p = 0; p < planes; p++) {
+                int id = tile + p * index.tilesPerPlane;
+                if (index.byteCounts[id] > 0) {
+                    ranges.add(new long[] { index.offsets[id],
+                            index.offsets[id] + index.byteCounts[id] });
+                }
+            }
+        }
+        ranges.sort((a, b) -> Long.compare(a[0], b[0]));
+
+        rangeStarts = new long[ranges.size()];
+        rangeEnds = new long[ranges.size()];
+        rangeConsumed = new long[ranges.size()];
+        for (int i = 0; i < rangeStarts.length; i++) {
+            rangeStarts[i] = ranges.get(i)[0];
+            rangeEnds[i] = ranges.get(i)[1];
+        }
+
+        // coalesce them
+        final List<long[]> merged = new ArrayList<>();
+        long[] current = null;
+        for (int i = 0; i < rangeStarts.length; i++) {
+            if (current != null && rangeStarts[i] - current[1] <= MAX_GAP
+                    && Math.max(current[1], rangeEnds[i]) - current[0] <= MAX_BLOCK) {
+                current[1] = Math.max(current[1], rangeEnds[i]);
+                current[3]++;
+            } else {
+                current = new long[] { rangeStarts[i], rangeEnds[i], i, 1 };
+                merged.add(current);
+            }
+        }
+        blockStarts = new long[merged.size()];
+        blockEnds = new long[merged.size()];
+        blockFirstRange = new int[merged.size()];
+        blockRanges = new int[merged.size()];
+        blockPending = new int[merged.size()];
+        for (int i = 0; i < blockStarts.length; i++) {
+            blockStarts[i] = merged.get(i)[0];
+            blockEnds[i] = merged.get(i)[1];
+            blockFirstRange[i] = (int) merged.get(i)[2];
+            blockRanges[i] = (int) merged.get(i)[3];
+            blockPending[i] = blockRanges[i];
+        }
+        blocks = new ByteBuffer[blockStarts.length];
+    }
+
+    /**
+     * Returns the block containing the position, or -(next block) - 1 if none does
+     */
+    private int findBlock(long position) {
+        int idx = Arrays.binarySearch(blockStarts, position);
+        if (idx >= 0) {
+            return idx;
+        }
+        int next = -idx - 1;
+        if (next > 0 && position < blockEnds[next - 1]) {
+            return next - 1;
+        }
+        return -next - 1;
+    }
+
+    private ByteBuffer getBlock(int block) throws IOException {
+        if (blocks[block] == null) {
+            ByteBuffer data = ByteBuffer.allocate((int) (blockEnds[block] - blockStarts[block]));
+            readFully(data, blockStarts[block]);
+            data.flip();
+            blocks[block] = data;
+        }
+        return blocks[block];
+    }
+
+    /**
+     * Accounts for the bytes read from a block, releasing it once all its ranges have been read
+     */
+    private void consume(int block, long position, int length) {
+        final long end = position + length;
+        final int first = blockFirstRange[block];
+        final int last = first + blockRanges[block];
+        for (int r = first; r < last && rangeStarts[r] < end; r++) {
+            if (rangeEnds[r] <= position || rangeConsumed[r] >= rangeEnds[r] - rangeStarts[r]) {
+                continue;
+            }
+            rangeConsumed[r] += Math.min(end, rangeEnds[r]) - Math.max(position, rangeStarts[r]);
+            if (rangeConsumed[r] >= rangeEnds[r] - rangeStarts[r] && --blockPending[block] == 0) {
+                // all read, start over in case the block gets fetched again
+                blocks[block] = null;
+                Arrays.fill(rangeConsumed, first, last, 0);
+                blockPending[block] = blockRanges[block];
+                return;
+            }
+        }
+    }
+
+    private int readFully(ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        statistics.bytesRead(total);
+        return total;
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        int read = read(singleByte, 0, 1);
+        return read < 0 ? -1 : singleByte[0] & 0xff;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (len == 0) {
+            return 0;
+        }
+
+        int read;
+        int block = findBlock(streamPos);
+        if (block >= 0) {
+            ByteBuffer data = getBlock(block).duplicate();
+            int position = (int) (streamPos - blockStarts[block]);
+            if (position >= data.limit()) {
+                // the file is shorter than the metadata says
+                return -1;
+            }
+            data.position(position);
+            read = Math.min(len, data.remaining());
+            data.get(b, off, read);
+            consume(block, streamPos, read);
+        } else {
+            // stop at the next block, so that its data gets fetched as a whole
+            int next = -block - 1;
+            long limit = next < blockStarts.length ? blockStarts[next] : Long.MAX_VALUE;
+            int length = (int) Math.min(len, limit - streamPos);
+            if (streamPos >= bufferStart && streamPos < bufferStart + bufferLength) {
+                read = Math.min(length, (int) (bufferStart + bufferLength - streamPos));
+                System.arraycopy(buffer, (int) (streamPos - bufferStart), b, off, read);
+            } else if (length >= BUFFER_SIZE) {
+                read = readFully(ByteBuffer.wrap(b, off, length), streamPos);
+            } else {
+                bufferStart = streamPos;
+                bufferLength = readFully(
+                        ByteBuffer.wrap(buffer, 0, (int) Math.min(BUFFER_SIZE, limit - streamPos)),
+                        streamPos);
+                read = Math.min(length, bufferLength);
+                System.arraycopy(buffer, 0, b, off, read);
+            }
+            if (read == 0) {
+                return -1;
+            }
+        }
+
+        index.markTiles(streamPos, read, statistics);
+        streamPos += read;
+        return read;
+    }
+
+    @Override
+    public long length() {
+        try {
+            return channel.size();
+        } catch (IOException e) {
+            return -1L;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        channel.close();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.gce.geotiff;
+
+import java.util.BitSet;
+
+/**
+ * Statistics about the TIFF tiles accessed by a single {@link GeoTiffReader#read} call.
+ * <p>
+ * The statistics are attached to the returned coverage as the {@value #PROPERTY_NAME} property,
+ * when the tile channel reads are enabled (see {@link GeoTiffReader#TILE_CHANNEL_READ_SWITCH}).
+ * As the raster is loaded lazily the number of tiles read grows while the coverage image gets
+ * computed, once the whole image has been computed it should match the number of tiles needed.
+ * Strips are counted as tiles spanning the whole image width.
+ * </p>
+ */
+public class TileReadStatistics {
+
+    /** Name of the coverage property holding the statistics */
+    public static final String PROPERTY_NAME = "GeoTiffTileReadStatistics";
+
+    private final int overviewLevel;
+
+    private final int tilesNeeded;
+
+    private final BitSet tilesRead = new BitSet();
+
+    private long bytesRead;
+
+    private int readOperations;
+
+    TileReadStatistics(int overviewLevel, int tilesNeeded) {
+        this.overviewLevel = overviewLevel;
+        this.tilesNeeded = tilesNeeded;
+    }
+
+    synchronized void tileRead(int tile) {
+        tilesRead.set(tile);
+    }
+
+    synchronized void bytesRead(long bytes) {
+        bytesRead += bytes;
+        readOperations++;
+    }
+
+    /**
+     * Returns the overview level the request has been served from, 0 for the native resolution
+     */
+    public int getOverviewLevel() {
+        return overviewLevel;
+    }
+
+    /**
+     * Returns the number of tiles intersecting the requested source region, taking subsampling
+     * into account
+     */
+    public int getTilesNeeded() {
+        return tilesNeeded;
+    }
+
+    /**
+     * Returns the number of distinct tiles whose data has been accessed so far
+     */
+    public synchronized int getTilesRead() {
+        return tilesRead.cardinality();
+    }
+
+    /**
+     * Returns the number of bytes fetched from the file so far
+     */
+    public synchronized long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Returns the number of positional reads issued against the file so far
+     */
+    public synchronized int getReadOperations() {
+        return readOperations;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TileReadStatistics [overviewLevel=" + overviewLevel + ", tilesNeeded=" + tilesNeeded
+                + ", tilesRead=" + tilesRead.cardinality() + ", bytesRead=" + bytesRead
+                + ", readOperations=" + readOperations + "]";
+    }
+}
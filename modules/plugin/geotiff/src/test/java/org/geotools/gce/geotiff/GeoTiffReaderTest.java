@@ -28,7 +28,9 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
@@ -36,6 +38,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
+import javax.imageio.ImageReader;
 import javax.imageio.stream.FileImageInputStream;
 import javax.media.jai.ImageLayout;
 import javax.media.jai.Interpolation;
@@ -78,10 +81,12 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.crs.GeographicCRS;
 import org.opengis.referencing.crs.ProjectedCRS;
 import org.opengis.referencing.datum.Ellipsoid;
+import org.opengis.referencing.datum.PixelInCell;
 import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.Projection;
 
 import it.geosolutions.imageio.maskband.DatasetLayout;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageReaderSpi;
 import it.geosolutions.imageio.utilities.ImageIOUtilities;
 import it.geosolutions.jaiext.JAIExt;
 import it.geosolutions.jaiext.range.NoDataContainer;
@@ -1200,4 +1205,93 @@ public class GeoTiffReaderTest extends org.junit.Assert {
             }
         }
     }
+
+    /**
+     * A windowed read on a tiled GeoTIFF decodes only the tiles intersecting the window, each
+     * tile of the read image mapping to a single file tile
+     */
+    @Test
+    public void testTileReadStatistics() throws Exception {
+        final File file = TestData.file(GeoTiffReaderTest.class, "milanogeo1.tif");
+        final GeoTiffReader reader = new GeoTiffReader(file);
+        final boolean oldTileChannelRead = GeoTiffReader.TILE_CHANNEL_READ;
+        final boolean oldTileAlignedLayout = GeoTiffReader.TILE_ALIGNED_LAYOUT;
+        try {
+            // 200x200 pixels window, starting at 100,200, in a 910x996 image with 64x64 tiles
+            MathTransform g2w = reader.getOriginalGridToWorld(PixelInCell.CELL_CORNER);
+            GeneralEnvelope envelope = CRS.transform(g2w,
+                    new GeneralEnvelope(new Rectangle(100, 200, 200, 200)));
+            envelope.setCoordinateReferenceSystem(reader.getCoordinateReferenceSystem());
+            final ParameterValue<GridGeometry2D> gg = AbstractGridFormat.READ_GRIDGEOMETRY2D
+                    .createValue();
+            gg.setValue(new GridGeometry2D(new GridEnvelope2D(0, 0, 200, 200), envelope));
+
+            // disabled by default
+            GridCoverage2D coverage = reader.read(new GeneralParameterValue[] { gg });
+            assertNull(coverage.getProperty(TileReadStatistics.PROPERTY_NAME));
+            coverage.dispose(true);
+
+            GeoTiffReader.TILE_CHANNEL_READ = true;
+            GeoTiffReader.TILE_ALIGNED_LAYOUT = true;
+            coverage = reader.read(new GeneralParameterValue[] { gg });
+
+            TileReadStatistics statistics = (TileReadStatistics) coverage
+                    .getProperty(TileReadStatistics.PROPERTY_NAME);
+            assertNotNull(statistics);
+            assertEquals(0, statistics.getOverviewLevel());
+            // 4 tiles per axis, 5 if the window got padded
+            assertTrue(statistics.getTilesNeeded() >= 16);
+            assertTrue(statistics.getTilesNeeded() <= 25);
+
+            RenderedImage image = coverage.getRenderedImage();
+            assertEquals(64, image.getTileWidth());
+            assertEquals(64, image.getTileHeight());
+            image.getData();
+            assertEquals(statistics.getTilesNeeded(), statistics.getTilesRead());
+            assertTrue(statistics.getBytesRead() > 0);
+
+            coverage.dispose(true);
+        } finally {
+            GeoTiffReader.TILE_CHANNEL_READ = oldTileChannelRead;
+            GeoTiffReader.TILE_ALIGNED_LAYOUT = oldTileAlignedLayout;
+            reader.dispose();
+        }
+    }
+
+    /**
+     * The tile channel stream returns the file contents, also when tiles are read again after
+     * their block has been released, buffering the small reads outside the tiles
+     */
+    @Test
+    public void testTileChannelStream() throws Exception {
+        final File file = TestData.file(GeoTiffReaderTest.class, "milanogeo1.tif");
+        final byte[] expected = Files.readAllBytes(file.toPath());
+        TiffTileIndex index;
+        ImageReader imageReader = new TIFFImageReaderSpi().createReaderInstance();
+        try (FileImageInputStream fis = new FileImageInputStream(file)) {
+            imageReader.setInput(fis);
+            index = TiffTileIndex.create(imageReader, 0);
+        } finally {
+            imageReader.dispose();
+        }
+        final BitSet needed = new BitSet();
+        needed.set(0, index.tilesPerPlane);
+
+        TileReadStatistics statistics = new TileReadStatistics(0, needed.cardinality());
+        try (TileChannelImageInputStream stream = new TileChannelImageInputStream(file, index,
+                needed, statistics)) {
+            // the whole file one byte at a time, twice
+            for (int pass = 0; pass < 2; pass++) {
+                stream.seek(0);
+                for (int i = 0; i < expected.length; i++) {
+                    assertEquals(expected[i] & 0xff, stream.read());
+                }
+                assertEquals(-1, stream.read());
+            }
+        }
+        assertEquals(index.tilesPerPlane, statistics.getTilesRead());
+        // far less reads than bytes, and each block got fetched again on the second pass
+        assertTrue(statistics.getReadOperations() < expected.length / 100);
+        assertTrue(statistics.getBytesRead() >= 2 * expected.length - 2 * 8 * 1024);
+    }
 }
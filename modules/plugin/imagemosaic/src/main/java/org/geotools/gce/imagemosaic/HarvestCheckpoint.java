@@ -0,0 +1,156 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.gce.imagemosaic;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of the files that have been committed into the mosaic catalog by a harvest, along
+ * with their last modification time and size.
+ * <p>
+ * The checkpoint is an append only log, one line per committed file, stored next to the mosaic
+ * index. Files are recorded as pending while being harvested, and written to the log only once
+ * the catalog transaction holding their granules has been committed, so that a harvest that gets
+ * interrupted can be resumed skipping the files already in the catalog. Files whose modification
+ * time and size did not change since they have been recorded are reported as unchanged.
+ * </p>
+ */
+class HarvestCheckpoint {
+
+    /** Default Logger * */
+    final static Logger LOGGER = org.geotools.util.logging.Logging
+            .getLogger(HarvestCheckpoint.class);
+
+    /** Extension of the checkpoint file, the base name being the index name */
+    static final String EXTENSION = "harvest";
+
+    private final File file;
+
+    private final Map<String, long[]> committed = new HashMap<>();
+
+    private final Map<String, long[]> pending = new LinkedHashMap<>();
+
+    HarvestCheckpoint(File file) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            load();
+        }
+    }
+
+    private void load() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(),
+                StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // path, last modified and size, tab separated. Parse from the end, the path
+                // might contain tabs on exotic file systems
+                int sizeIdx = line.lastIndexOf('\t');
+                int timeIdx = sizeIdx > 0 ? line.lastIndexOf('\t', sizeIdx - 1) : -1;
+                if (timeIdx <= 0) {
+                    // truncated line, the harvest got killed while writing it
+                    continue;
+                }
+                try {
+                    long lastModified = Long.parseLong(line.substring(timeIdx + 1, sizeIdx));
+                    long length = Long.parseLong(line.substring(sizeIdx + 1));
+                    committed.put(line.substring(0, timeIdx), new long[] { lastModified, length });
+                } catch (NumberFormatException e) {
+                    if (LOGGER.isLoggable(Level.FINE)) {
+                        LOGGER.fine("Skipping invalid checkpoint entry: " + line);
+                    }
+                }
+            }
+        }
+    }
+
+    static String getKey(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Returns true if the file has been committed by a previous harvest and did not change since
+     */
+    boolean isUnchanged(File file) {
+        long[] recorded = committed.get(getKey(file));
+        return recorded != null && recorded[0] == file.lastModified()
+                && recorded[1] == file.length();
+    }
+
+    /**
+     * Records a file as harvested, it will be written down on the next {@link #commit()}
+     */
+    void record(File file) {
+        pending.put(getKey(file), new long[] { file.lastModified(), file.length() });
+    }
+
+    /**
+     * Appends the pending files to the checkpoint file, to be called once the catalog transaction
+     * has been committed.
+     */
+    void commit() throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (Map.Entry<String, long[]> entry : pending.entrySet()) {
+                long[] values = entry.getValue();
+                writer.write(entry.getKey() + '\t' + values[0] + '\t' + values[1] + '\n');
+            }
+        }
+        committed.putAll(pending);
+        pending.clear();
+    }
+
+    /**
+     * Forgets about the pending files, the catalog transaction has been rolled back
+     */
+    void rollback() {
+        pending.clear();
+    }
+
+    /**
+     * Drops all the recorded files, to be used when the catalog is rebuilt from scratch
+     */
+    void reset() throws IOException {
+        committed.clear();
+        pending.clear();
+        Files.deleteIfExists(file.toPath());
+    }
+
+    /**
+     * Returns the number of files committed so far
+     */
+    int size() {
+        return committed.size();
+    }
+}
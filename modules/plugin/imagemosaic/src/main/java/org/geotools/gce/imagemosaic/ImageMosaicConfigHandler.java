@@ -32,6 +32,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -56,6 +57,7 @@ import org.geotools.data.DataSourceException;
 import org.geotools.data.DataStoreFactorySpi;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.DefaultTransaction;
+import org.geotools.data.Transaction;
 import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.shapefile.ShapefileDataStoreFactory;
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -167,6 +169,60 @@ public class ImageMosaicConfigHandler {
 
     private CoverageNameHandler coverageNameHandler = new CoverageNameHandler(new DefaultCoverageNameCollectorSPI());
 
+    /**
+     * Granules collected by the harvest and not yet written in the catalog, by coverage name
+     */
+    private final Map<String, PendingGranules> pendingGranules = new LinkedHashMap<>();
+
+    private int harvestBatchSize = Utils.DEFAULT_HARVEST_BATCH_SIZE;
+
+    /**
+     * Granules waiting to be written in the store of a coverage, along with the filter removing
+     * the granules they replace
+     */
+    private static final class PendingGranules {
+
+        final GranuleStore store;
+
+        final SimpleFeatureType schema;
+
+        /** The granules of each file, by location */
+        final Map<String, ListFeatureCollection> granules = new LinkedHashMap<>();
+
+        /** The filters removing the granules of each file from the catalog, by location */
+        final Map<String, Filter> replaced = new LinkedHashMap<>();
+
+        PendingGranules(GranuleStore store, SimpleFeatureType schema) {
+            this.store = store;
+            this.schema = schema;
+        }
+
+        /**
+         * Adds the granules of a file. The removal filter only reaches the granules already in
+         * the catalog, so a file harvested again within the batch replaces its pending granules
+         * here
+         */
+        void add(String location, Filter filter, ListFeatureCollection collection) {
+            replaced.put(location, filter);
+            granules.put(location, collection);
+        }
+
+        int size() {
+            return replaced.size();
+        }
+
+        void flush(Transaction transaction) throws IOException {
+            store.setTransaction(transaction);
+            List<Filter> filters = new ArrayList<>(replaced.values());
+            store.removeGranules(filters.size() == 1 ? filters.get(0) : Utils.FF.or(filters));
+            ListFeatureCollection all = new ListFeatureCollection(schema);
+            for (ListFeatureCollection collection : granules.values()) {
+                all.addAll(collection);
+            }
+            store.addGranules(all);
+        }
+    }
+
     /**
      * Default constructor
      *
@@ -568,12 +624,52 @@ public class ImageMosaicConfigHandler {
         }
 
         // drop all the granules associated to the same
+        final boolean caseSensitive = isCaseSensitiveFileSystem(fileBeingProcessed);
         Filter filter = Utils.FF.equal(Utils.FF.property(locationAttribute),
-                Utils.FF.literal(fileLocation), !isCaseSensitiveFileSystem(fileBeingProcessed));
-        store.removeGranules(filter);
+                Utils.FF.literal(fileLocation), !caseSensitive);
+
+        // Add the granules collection to the batch for this store, it will be written down
+        // along with the granules of the other files in the batch
+        PendingGranules pending = pendingGranules.get(coverageName);
+        if (pending == null) {
+            pending = new PendingGranules(store, indexSchema);
+            pendingGranules.put(coverageName, pending);
+        }
+        pending.add(caseSensitive ? fileLocation : fileLocation.toLowerCase(), filter, collection);
+        if (pending.size() >= harvestBatchSize) {
+            pendingGranules.remove(coverageName);
+            pending.flush(transaction);
+        }
+    }
+
+    /**
+     * Writes the granules collected so far by {@link #updateConfiguration} into the catalog.
+     *
+     * @param transaction the transaction in progress
+     * @throws IOException
+     */
+    void flushGranules(Transaction transaction) throws IOException {
+        try {
+            for (PendingGranules pending : pendingGranules.values()) {
+                pending.flush(transaction);
+            }
+        } finally {
+            pendingGranules.clear();
+        }
+    }
 
-        // Add the granules collection to the store
-        store.addGranules(collection);
+    /**
+     * Drops the granules collected so far, the transaction they belong to is being rolled back
+     */
+    void discardGranules() {
+        pendingGranules.clear();
+    }
+
+    /**
+     * Returns the number of files whose granules are written in the catalog at once
+     */
+    int getHarvestBatchSize() {
+        return harvestBatchSize;
     }
 
     private void handleStructuredGridCoverage(GranuleSource granules, final File fileBeingProcessed,
@@ -935,6 +1031,16 @@ public class ImageMosaicConfigHandler {
 
         this.catalog = buildCatalog();
 
+        String batchSize = runConfiguration.getParameter(Prop.HARVEST_BATCH_SIZE);
+        if (batchSize != null) {
+            try {
+                this.harvestBatchSize = Math.max(1, Integer.parseInt(batchSize.trim()));
+            } catch (NumberFormatException e) {
+                if (LOGGER.isLoggable(Level.WARNING))
+                    LOGGER.log(Level.WARNING, "Unable to parse harvest batch size " + batchSize, e);
+            }
+        }
+
         //
         // IMPOSED ENVELOPE
         //
@@ -95,7 +95,7 @@ public class ImageMosaicDirectoryWalker extends ImageMosaicWalker {
         protected void handleFile(final File fileBeingProcessed, final int depth,
                 final Collection results) throws IOException {
 
-            walker.handleFile(fileBeingProcessed);
+            walker.submitFile(fileBeingProcessed);
 
             super.handleFile(fileBeingProcessed, depth, results);
         }
@@ -109,6 +109,8 @@ public class ImageMosaicDirectoryWalker extends ImageMosaicWalker {
             configHandler.indexingPreamble();
 
             try {
+                startWalk();
+
                 // start walking directories
                 for (String indexingDirectory : indexingDirectories) {
                     walk(new File(indexingDirectory), null);
@@ -118,6 +120,9 @@ public class ImageMosaicDirectoryWalker extends ImageMosaicWalker {
                         break;
                     }
                 }
+                // wait for the files still being inspected
+                drainFiles();
+
                 // did we cancel?
                 if (getStop()) {
                     rollbackTransaction();
@@ -128,6 +133,8 @@ public class ImageMosaicDirectoryWalker extends ImageMosaicWalker {
                 LOGGER.log(Level.WARNING, "Failure occurred while collecting the granules", e);
                 rollbackTransaction();
             } finally {
+                endWalk();
+
                 try {
                     configHandler.indexingPostamble(!getStop());
                 } catch (Exception e) {
@@ -226,6 +233,7 @@ public class ImageMosaicDirectoryWalker extends ImageMosaicWalker {
                 FileFilterUtils.suffixFileFilter("gbx9"), FileFilterUtils.suffixFileFilter("ncx"),
                 FileFilterUtils.nameFileFilter("error.txt"),
                 FileFilterUtils.nameFileFilter("error.txt.lck"),
+                FileFilterUtils.suffixFileFilter(HarvestCheckpoint.EXTENSION),
                 FileFilterUtils.suffixFileFilter("properties"),
                 FileFilterUtils.suffixFileFilter("svn-base"));
         filesFilter = FileFilterUtils.or(filesFilter,
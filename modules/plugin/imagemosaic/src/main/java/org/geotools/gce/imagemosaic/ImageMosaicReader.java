@@ -1397,6 +1397,7 @@ public class ImageMosaicReader extends AbstractGridCoverage2DReader
                 // Initialization steps
                 configHandler.indexingPreamble();
                 startTransaction();
+                startWalk();
 
                 // Setting of the Collection size
                 setNumFiles(files.size());
@@ -1415,12 +1416,14 @@ public class ImageMosaicReader extends AbstractGridCoverage2DReader
 
                     // Check if the File has an absolute path
                     if (checkFile(file)) {
-                        handleFile(file);
+                        submitFile(file);
                     } else {
                         // SKIP and log
                         skipFile(file.getAbsolutePath());
                     }
                 }
+                // wait for the files still being inspected
+                drainFiles();
 
                 // close transaction
                 if (getStop()) {
@@ -1439,6 +1442,8 @@ public class ImageMosaicReader extends AbstractGridCoverage2DReader
                     throw new IllegalStateException(e);
                 }
             } finally {
+                endWalk();
+
                 // close transaction
                 try {
                     closeTransaction();
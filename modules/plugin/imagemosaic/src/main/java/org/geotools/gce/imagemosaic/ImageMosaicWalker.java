@@ -19,10 +19,15 @@ package org.geotools.gce.imagemosaic;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,7 +45,9 @@ import org.geotools.coverage.grid.io.UnknownFormat;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.DefaultTransaction;
 import org.geotools.factory.Hints;
+import org.geotools.gce.imagemosaic.Utils.Prop;
 import org.geotools.gce.imagemosaic.acceptors.GranuleAcceptor;
+import org.geotools.gce.imagemosaic.catalogbuilder.CatalogBuilderConfiguration;
 import org.geotools.util.Utilities;
 
 /**
@@ -84,7 +91,21 @@ abstract class ImageMosaicWalker implements Runnable {
 
     protected final Hints excludeMosaicHints = new Hints(Utils.EXCLUDE_MOSAIC, true);
 
-    private AbstractGridFormat cachedFormat;
+    private volatile AbstractGridFormat cachedFormat;
+
+    /** The pool inspecting the files, null if files are handled by the walking thread */
+    private ExecutorService executor;
+
+    private boolean ownExecutor;
+
+    private int maxPendingInspections;
+
+    /** Files being inspected by the pool, in the order they have been found */
+    private final Queue<Future<InspectedFile>> inspections = new ArrayDeque<>();
+
+    private HarvestCheckpoint checkpoint;
+
+    private int uncommittedFiles;
 
     /**
      * index of the file being processed
@@ -126,41 +147,133 @@ abstract class ImageMosaicWalker implements Runnable {
         return true;
     }
 
-    protected void handleFile(final File fileBeingProcessed) throws IOException {
+    /**
+     * The outcome of opening a candidate file, before the catalog gets touched.
+     * <p>
+     * Files can be inspected concurrently, the results are then registered in the catalog
+     * sequentially, in the order the files have been found.
+     */
+    static final class InspectedFile {
 
-        // increment counter
-        fileIndex++;
+        final File file;
+
+        /** The canonical file name, null if the path could not be resolved */
+        String fileName;
+
+        String extension;
+
+        /** The reader for the file, null if the file is not supported */
+        GridCoverage2DReader reader;
+
+        Exception error;
+
+        InspectedFile(File file) {
+            this.file = file;
+        }
 
+        void dispose() {
+            try {
+                if (reader != null)
+                    // release resources
+                    reader.dispose();
+            } catch (Throwable e) {
+                // ignore exception
+                if (LOGGER.isLoggable(Level.FINEST))
+                    LOGGER.log(Level.FINEST, e.getLocalizedMessage(), e);
+            }
+            reader = null;
+        }
+    }
+
+    protected void handleFile(final File fileBeingProcessed) throws IOException {
         //
         // Check that this file is actually good to go
         //
-        if (!checkFile(fileBeingProcessed))
+        if (!checkFile(fileBeingProcessed)) {
+            // increment counter
+            fileIndex++;
+            return;
+        }
+
+        registerFile(inspectFile(fileBeingProcessed));
+    }
+
+    /**
+     * Handles a file found by the walk. If the harvest is concurrent the file gets opened by the
+     * worker pool, and registered later by {@link #drainFiles()} or by a subsequent call to this
+     * method, otherwise it's handled right away. Files that did not change since the last
+     * checkpointed harvest are skipped.
+     */
+    protected void submitFile(final File fileBeingProcessed) throws IOException {
+        if (!checkFile(fileBeingProcessed)) {
+            fileIndex++;
+            return;
+        }
+
+        if (checkpoint != null && checkpoint.isUnchanged(fileBeingProcessed)) {
+            fileIndex++;
+            eventHandler.fireFileEvent(Level.FINE, fileBeingProcessed, false,
+                    "Skipped file " + fileBeingProcessed + ": unchanged since last harvest",
+                    ((fileIndex * 99.0) / numFiles));
             return;
+        }
+
+        if (executor == null) {
+            handleFile(fileBeingProcessed);
+            return;
+        }
+
+        inspections.add(executor.submit(() -> inspectFile(fileBeingProcessed)));
+        // keep the number of open readers bounded
+        while (inspections.size() > maxPendingInspections && !getStop()) {
+            registerFile(nextInspection());
+        }
+    }
+
+    /**
+     * Registers all the files still being inspected by the worker pool
+     */
+    protected void drainFiles() throws IOException {
+        while (!inspections.isEmpty() && !getStop()) {
+            registerFile(nextInspection());
+        }
+    }
 
+    private InspectedFile nextInspection() throws IOException {
+        Future<InspectedFile> future = inspections.poll();
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the file inspection", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Opens the file and gets a reader for it. Thread safe, it does not modify the catalog nor
+     * fire events.
+     */
+    InspectedFile inspectFile(final File fileBeingProcessed) {
+        InspectedFile inspected = new InspectedFile(fileBeingProcessed);
         // replacing chars on input path
-        String validFileName;
-        String extension;
         try {
-            validFileName = fileBeingProcessed.getCanonicalPath();
+            String validFileName = fileBeingProcessed.getCanonicalPath();
             validFileName = FilenameUtils.normalize(validFileName);
-            extension = FilenameUtils.getExtension(validFileName);
+            inspected.extension = FilenameUtils.getExtension(validFileName);
+            inspected.fileName = FilenameUtils.getName(validFileName);
         } catch (IOException e) {
-            eventHandler.fireFileEvent(Level.FINER,
-                    fileBeingProcessed, false, "Exception occurred while processing file "
-                            + fileBeingProcessed + ": " + e.getMessage(),
-                    ((fileIndex * 100.0) / numFiles));
-            eventHandler.fireException(e);
-            return;
+            inspected.error = e;
+            return inspected;
         }
-        validFileName = FilenameUtils.getName(validFileName);
-        eventHandler.fireEvent(Level.INFO, "Now indexing file " + validFileName,
-                ((fileIndex * 100.0) / numFiles));
-        GridCoverage2DReader coverageReader = null;
+
         try {
             // STEP 1
             // Getting a coverage reader for this coverage.
             //
             final AbstractGridFormat format;
+            final AbstractGridFormat cachedFormat = this.cachedFormat;
             if (cachedFormat == null) {
                 // When looking for formats which may parse this file, make sure to exclude the ImageMosaicFormat as return
                 format = (AbstractGridFormat) GridFormatFinder.findFormat(fileBeingProcessed,
@@ -173,54 +286,91 @@ abstract class ImageMosaicWalker implements Runnable {
                 }
             }
             if ((format instanceof UnknownFormat) || format == null) {
-                if (!logExcludes.contains(extension)) {
-                    eventHandler.fireFileEvent(Level.INFO, fileBeingProcessed, false,
-                            "Skipped file " + fileBeingProcessed
-                                    + ": File format is not supported.",
-                            ((fileIndex * 99.0) / numFiles));
-                }
-                return;
+                return inspected;
             }
-            cachedFormat = format;
+            this.cachedFormat = format;
 
             final Hints configurationHints = configHandler.getRunConfiguration().getHints();
-            coverageReader = (GridCoverage2DReader) format.getReader(fileBeingProcessed,
+            inspected.reader = (GridCoverage2DReader) format.getReader(fileBeingProcessed,
                     configurationHints);
 
             // Setting of the ReaderSPI to use
-            if (configHandler.getCachedReaderSPI() == null) {
-                // Get the URL associated to the file
-                URL granuleUrl = DataUtilities.fileToURL(fileBeingProcessed);
-                // Get the ImageInputStreamSPI associated to the URL
-                ImageInputStreamSpi inStreamSpi = Utils.getInputStreamSPIFromURL(granuleUrl);
-                // Ensure that the ImageInputStreamSPI is available
-                if (inStreamSpi == null) {
-                    throw new IllegalArgumentException("no inputStreamSPI available!");
+            synchronized (configHandler) {
+                if (configHandler.getCachedReaderSPI() == null) {
+                    configHandler.setCachedReaderSPI(getReaderSpi(fileBeingProcessed));
                 }
-                ImageInputStream inStream = null;
-                try {
-                    // Get the ImageInputStream from the SPI
-                    inStream = inStreamSpi.createInputStreamInstance(granuleUrl,
-                            ImageIO.getUseCache(), ImageIO.getCacheDirectory());
-                    // Throws an Exception if the ImageInputStream is not present
-                    if (inStream == null) {
-                        if (LOGGER.isLoggable(Level.WARNING)) {
-                            LOGGER.log(Level.WARNING, Utils.getFileInfo(fileBeingProcessed));
-                        }
-                        throw new IllegalArgumentException(
-                                "Unable to get an input stream for the provided file "
-                                        + granuleUrl.toString());
-                    }
-                    // Selection of the ImageReaderSpi from the Stream
-                    ImageReaderSpi spi = Utils.getReaderSpiFromStream(null, inStream);
-                    // Setting of the ImageReaderSpi to the ImageMosaicConfigHandler in order to set it inside the indexer properties
-                    configHandler.setCachedReaderSPI(spi);
-                } finally {
-                    if (inStream != null) {
-                        inStream.close();
-                    }
+            }
+        } catch (Exception e) {
+            inspected.error = e;
+        }
+        return inspected;
+    }
+
+    private ImageReaderSpi getReaderSpi(final File fileBeingProcessed) throws IOException {
+        // Get the URL associated to the file
+        URL granuleUrl = DataUtilities.fileToURL(fileBeingProcessed);
+        // Get the ImageInputStreamSPI associated to the URL
+        ImageInputStreamSpi inStreamSpi = Utils.getInputStreamSPIFromURL(granuleUrl);
+        // Ensure that the ImageInputStreamSPI is available
+        if (inStreamSpi == null) {
+            throw new IllegalArgumentException("no inputStreamSPI available!");
+        }
+        ImageInputStream inStream = null;
+        try {
+            // Get the ImageInputStream from the SPI
+            inStream = inStreamSpi.createInputStreamInstance(granuleUrl, ImageIO.getUseCache(),
+                    ImageIO.getCacheDirectory());
+            // Throws an Exception if the ImageInputStream is not present
+            if (inStream == null) {
+                if (LOGGER.isLoggable(Level.WARNING)) {
+                    LOGGER.log(Level.WARNING, Utils.getFileInfo(fileBeingProcessed));
                 }
+                throw new IllegalArgumentException(
+                        "Unable to get an input stream for the provided file "
+                                + granuleUrl.toString());
+            }
+            // Selection of the ImageReaderSpi from the Stream
+            return Utils.getReaderSpiFromStream(null, inStream);
+        } finally {
+            if (inStream != null) {
+                inStream.close();
+            }
+        }
+    }
 
+    /**
+     * Adds the granules of an inspected file to the catalog and disposes its reader
+     */
+    void registerFile(final InspectedFile inspected) throws IOException {
+        final File fileBeingProcessed = inspected.file;
+
+        // increment counter
+        fileIndex++;
+
+        if (inspected.fileName == null) {
+            Exception e = inspected.error;
+            eventHandler.fireFileEvent(Level.FINER,
+                    fileBeingProcessed, false, "Exception occurred while processing file "
+                            + fileBeingProcessed + ": " + e.getMessage(),
+                    ((fileIndex * 100.0) / numFiles));
+            eventHandler.fireException(e);
+            return;
+        }
+        eventHandler.fireEvent(Level.INFO, "Now indexing file " + inspected.fileName,
+                ((fileIndex * 100.0) / numFiles));
+        final GridCoverage2DReader coverageReader = inspected.reader;
+        try {
+            if (inspected.error != null) {
+                throw inspected.error;
+            }
+            if (coverageReader == null) {
+                if (!logExcludes.contains(inspected.extension)) {
+                    eventHandler.fireFileEvent(Level.INFO, fileBeingProcessed, false,
+                            "Skipped file " + fileBeingProcessed
+                                    + ": File format is not supported.",
+                            ((fileIndex * 99.0) / numFiles));
+                }
+                return;
             }
 
             // Getting available coverageNames from the reader
@@ -264,17 +414,77 @@ abstract class ImageMosaicWalker implements Runnable {
             //
             // release resources
             //
+            inspected.dispose();
+        }
+
+        if (checkpoint != null) {
+            checkpoint.record(fileBeingProcessed);
+            // commit every batch, so that an interrupted harvest can be resumed
+            if (++uncommittedFiles >= configHandler.getHarvestBatchSize()) {
+                commitTransaction();
+            }
+        }
+    }
+
+    /**
+     * Sets up the worker pool and the checkpoint for this walk, as configured by the
+     * {@link Prop#HARVEST_THREADS} and {@link Prop#HARVEST_CHECKPOINT} parameters. To be called
+     * after the indexing preamble.
+     */
+    protected void startWalk() throws IOException {
+        final CatalogBuilderConfiguration runConfiguration = configHandler.getRunConfiguration();
+        if (Boolean.parseBoolean(runConfiguration.getParameter(Prop.HARVEST_CHECKPOINT))) {
+            File checkpointFile = new File(runConfiguration.getParameter(Prop.ROOT_MOSAIC_DIR),
+                    runConfiguration.getParameter(Prop.INDEX_NAME) + "."
+                            + HarvestCheckpoint.EXTENSION);
+            checkpoint = new HarvestCheckpoint(checkpointFile);
+            String[] coverageNames = configHandler.getParentReader().getGridCoverageNames();
+            if (coverageNames == null || coverageNames.length == 0) {
+                // the catalog is going to be created from scratch
+                checkpoint.reset();
+            }
+        }
+
+        int threads = 1;
+        String threadsParam = runConfiguration.getParameter(Prop.HARVEST_THREADS);
+        if (threadsParam != null) {
             try {
-                if (coverageReader != null)
-                    // release resources
-                    coverageReader.dispose();
-            } catch (Throwable e) {
-                // ignore exception
+                threads = Integer.parseInt(threadsParam.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.log(Level.WARNING, "Unable to parse harvest threads " + threadsParam, e);
+            }
+        }
+        if (threads > 1) {
+            final Hints hints = runConfiguration.getHints();
+            if (hints != null && hints.get(Hints.EXECUTOR_SERVICE) instanceof ExecutorService) {
+                executor = (ExecutorService) hints.get(Hints.EXECUTOR_SERVICE);
+            } else {
+                executor = Executors.newFixedThreadPool(threads);
+                ownExecutor = true;
+            }
+            maxPendingInspections = threads * 2;
+        }
+    }
+
+    /**
+     * Releases the readers of the files that have been inspected but not registered, if the walk
+     * has been stopped, and the worker pool. To be called once the walk is over.
+     */
+    protected void endWalk() {
+        Future<InspectedFile> future;
+        while ((future = inspections.poll()) != null) {
+            try {
+                future.get().dispose();
+            } catch (Exception e) {
                 if (LOGGER.isLoggable(Level.FINEST))
                     LOGGER.log(Level.FINEST, e.getLocalizedMessage(), e);
             }
         }
-
+        if (ownExecutor) {
+            executor.shutdown();
+        }
+        executor = null;
+        ownExecutor = false;
     }
 
     /**
@@ -288,11 +498,21 @@ abstract class ImageMosaicWalker implements Runnable {
     }
 
     public void rollbackTransaction() throws IOException {
+        configHandler.discardGranules();
         transaction.rollback();
+        if (checkpoint != null) {
+            checkpoint.rollback();
+        }
+        uncommittedFiles = 0;
     }
 
     public void commitTransaction() throws IOException {
+        configHandler.flushGranules(transaction);
         transaction.commit();
+        if (checkpoint != null) {
+            checkpoint.commit();
+        }
+        uncommittedFiles = 0;
     }
 
     public void closeTransaction() {
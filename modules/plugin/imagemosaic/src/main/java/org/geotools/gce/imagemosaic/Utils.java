@@ -279,6 +279,25 @@ public class Utils {
         public static final String HETEROGENEOUS_CRS = "HeterogeneousCRS";
 
         public static final String GRANULE_COLLECTOR_FACTORY = "GranuleCollectorFactory";
+
+        /**
+         * Number of threads opening the candidate files while harvesting (default is 1, files
+         * are inspected by the walking thread)
+         */
+        public static final String HARVEST_THREADS = "HarvestThreads";
+
+        /**
+         * Number of files whose granules are written in the catalog at once while harvesting
+         * (default is 1)
+         */
+        public static final String HARVEST_BATCH_SIZE = "HarvestBatchSize";
+
+        /**
+         * Sets if the harvest should commit each batch and record the committed files, skipping
+         * the files that did not change on the next harvest (default is FALSE)<br/>
+         * {@value TRUE|FALSE}
+         */
+        public static final String HARVEST_CHECKPOINT = "HarvestCheckpoint";
     }
 
     /**
@@ -884,6 +903,12 @@ public class Utils {
 
     public static final String DEFAULT_INDEX_NAME = "index";
 
+    /**
+     * Default number of files whose granules are written in the catalog at once while harvesting,
+     * one file at a time unless {@link Prop#HARVEST_BATCH_SIZE} says otherwise
+     */
+    public static final int DEFAULT_HARVEST_BATCH_SIZE = 1;
+
     /**
      * Checks that a {@link File} is a real file, exists and is readable.
      *
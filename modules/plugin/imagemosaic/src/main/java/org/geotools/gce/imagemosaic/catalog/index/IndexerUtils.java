@@ -722,6 +722,18 @@ public class IndexerUtils {
             setParam(parameters, props, Utils.Prop.HETEROGENEOUS_CRS);
         }
 
+        if (props.containsKey(Utils.Prop.HARVEST_THREADS)) {
+            setParam(parameters, props, Utils.Prop.HARVEST_THREADS);
+        }
+
+        if (props.containsKey(Utils.Prop.HARVEST_BATCH_SIZE)) {
+            setParam(parameters, props, Utils.Prop.HARVEST_BATCH_SIZE);
+        }
+
+        if (props.containsKey(Utils.Prop.HARVEST_CHECKPOINT)) {
+            setParam(parameters, props, Utils.Prop.HARVEST_CHECKPOINT);
+        }
+
         return indexer;
     }
 
@@ -2699,6 +2699,142 @@ public class ImageMosaicReaderTest extends Assert{
         }
     }
 
+    @Test
+    public void testHarvestDirectoryCheckpoint() throws Exception {
+        File source = DataUtilities.urlToFile(timeURL);
+        File testDataDir = TestData.file(this, ".");
+        File directory1 = new File(testDataDir, "harvest_checkpoint1");
+        File directory2 = new File(testDataDir, "harvest_checkpoint2");
+        if (directory1.exists()) {
+            FileUtils.deleteDirectory(directory1);
+        }
+        FileUtils.copyDirectory(source, directory1);
+        if (directory2.exists()) {
+            FileUtils.deleteDirectory(directory2);
+        }
+        directory2.mkdirs();
+        // move all files besides month 2 and 5 to the second directory
+        for (File file : FileUtils.listFiles(directory1,
+                new RegexFileFilter("world\\.20040[^25].*\\.tiff"), null)) {
+            File renamed = new File(directory2, file.getName());
+            assertTrue(file.renameTo(renamed));
+        }
+        // remove all mosaic related files
+        for (File file : FileUtils.listFiles(directory1, new RegexFileFilter("time_geotiff.*"),
+                null)) {
+            assertTrue(file.delete());
+        }
+        // concurrent harvest, committing and recording each file
+        try (FileWriter out = new FileWriter(new File(directory1, "indexer.properties"), true)) {
+            out.write("\nHarvestThreads=2\nHarvestBatchSize=1\nHarvestCheckpoint=true\n");
+        }
+
+        URL harvestURL = DataUtilities.fileToURL(directory1);
+        final AbstractGridFormat format = TestUtils.getFormat(harvestURL);
+        ImageMosaicReader reader = TestUtils.getReader(harvestURL, format);
+        try {
+            String coverageName = reader.getGridCoverageNames()[0];
+            File checkpoint = new File(directory1, coverageName + ".harvest");
+            assertTrue(checkpoint.exists());
+            assertEquals(2, FileUtils.readLines(checkpoint).size());
+
+            // harvest the other directory
+            List<HarvestedSource> summary = reader.harvest(null, directory2, null);
+            assertEquals(2, summary.size());
+            for (HarvestedSource hf : summary) {
+                assertTrue(hf.success());
+            }
+            GranuleSource granules = reader.getGranules(coverageName, true);
+            assertEquals(4, granules.getCount(Query.ALL));
+            assertEquals(4, FileUtils.readLines(checkpoint).size());
+            assertEquals("2004-02-01T00:00:00.000Z,2004-03-01T00:00:00.000Z,2004-04-01T00:00:00.000Z,2004-05-01T00:00:00.000Z",
+                    reader.getMetadataValue(reader.getMetadataNames()[0]));
+
+            // harvesting again skips the files, they did not change
+            summary = reader.harvest(null, directory2, null);
+            assertEquals(2, summary.size());
+            for (HarvestedSource hf : summary) {
+                assertFalse(hf.success());
+            }
+            assertEquals(4, granules.getCount(Query.ALL));
+
+            // touch one file, it gets harvested again, replacing its granule
+            File touched = new File(directory2, "world.200403.3x5400x2700.tiff");
+            assertTrue(touched.setLastModified(touched.lastModified() + 60000));
+            summary = reader.harvest(null, directory2, null);
+            int harvested = 0;
+            for (HarvestedSource hf : summary) {
+                if (hf.success()) {
+                    harvested++;
+                    assertEquals(touched.getCanonicalFile(),
+                            ((File) hf.getSource()).getCanonicalFile());
+                }
+            }
+            assertEquals(1, harvested);
+            assertEquals(4, granules.getCount(Query.ALL));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testHarvestDuplicatesInBatch() throws Exception {
+        File source = DataUtilities.urlToFile(timeURL);
+        File testDataDir = TestData.file(this, ".");
+        File directory1 = new File(testDataDir, "harvest_duplicates1");
+        File directory2 = new File(testDataDir, "harvest_duplicates2");
+        if (directory1.exists()) {
+            FileUtils.deleteDirectory(directory1);
+        }
+        FileUtils.copyDirectory(source, directory1);
+        // remove all files besides month 2 and 5
+        for (File file : FileUtils.listFiles(directory1,
+                new RegexFileFilter("world\\.20040[^25].*\\.tiff"), null)) {
+            assertTrue(file.delete());
+        }
+        // remove all mosaic related files
+        for (File file : FileUtils.listFiles(directory1, new RegexFileFilter("time_geotiff.*"),
+                null)) {
+            assertTrue(file.delete());
+        }
+        // move month 5 to another dir, we'll harvest it later
+        String monthFiveName = "world.200405.3x5400x2700.tiff";
+        if (directory2.exists()) {
+            FileUtils.deleteDirectory(directory2);
+        }
+        directory2.mkdirs();
+        File renamed = new File(directory2, monthFiveName);
+        assertTrue(new File(directory1, monthFiveName).renameTo(renamed));
+        // all the harvested files in a single batch
+        try (FileWriter out = new FileWriter(new File(directory1, "indexer.properties"), true)) {
+            out.write("\nHarvestBatchSize=10\n");
+        }
+
+        URL harvestURL = DataUtilities.fileToURL(directory1);
+        final AbstractGridFormat format = TestUtils.getFormat(harvestURL);
+        ImageMosaicReader reader = TestUtils.getReader(harvestURL, format);
+        try {
+            String coverageName = reader.getGridCoverageNames()[0];
+            GranuleSource granules = reader.getGranules(coverageName, true);
+            assertEquals(1, granules.getCount(Query.ALL));
+
+            // the same file twice, the second one replaces the first one
+            List<File> files = new ArrayList<File>();
+            files.add(renamed);
+            files.add(renamed);
+            List<HarvestedSource> summary = reader.harvest(null, files, null);
+            assertFalse(summary.isEmpty());
+            for (HarvestedSource hf : summary) {
+                assertTrue(hf.success());
+            }
+            assertEquals(2, granules.getCount(Query.ALL));
+            assertEquals("2004-02-01T00:00:00.000Z,2004-05-01T00:00:00.000Z",
+                    reader.getMetadataValue(reader.getMetadataNames()[0]));
+        } finally {
+            reader.dispose();
+        }
+    }
+
     @Test
     public void testHarvestListSingleDirectory() throws Exception {
         File source = DataUtilities.urlToFile(timeURL);
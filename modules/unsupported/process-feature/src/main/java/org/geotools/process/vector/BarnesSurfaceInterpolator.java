@@ -17,8 +17,12 @@
  */
 package org.geotools.process.vector;
 
+import java.util.Arrays;
+import java.util.List;
+
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.index.strtree.STRtree;
 
 /**
  * Interpolates a surface across a regular grid from an irregular set of data points 
@@ -92,6 +96,11 @@ import com.vividsolutions.jts.geom.Envelope;
  * Grid cells which are not supported are not
  * computed and are output as NO_DATA values.
  * <p>
+ * The grid is computed in tiles, in parallel (see {@link GridTasks}). Each tile only considers
+ * the observations close enough to have a non-zero weight, found with a spatial index, the
+ * others contributing nothing to the estimates. The computed values are the same as when all the
+ * observations are summed sequentially.
+ * <p>
  * <b>References</b>
  * <ol>
  * <li>Barnes, S. L (1964). "A technique for maximizing details in numerical weather-map analysis". <i>Journal of Applied Meterology</i> 3 (4): 396 - 409
@@ -109,6 +118,18 @@ public class BarnesSurfaceInterpolator {
 
     private static final double INTERNAL_NO_DATA = Double.NaN;
 
+    /**
+     * Width and height of the tiles of grid cells computed together, using the same subset of
+     * the observations
+     */
+    private static final int TILE_SIZE = 32;
+
+    /**
+     * Distance, in length scales, beyond which the weights computed with a convergence factor of
+     * 1 underflow to zero, exp(-750) being zero as a double
+     */
+    private static final double ZERO_WEIGHT_DISTANCE = Math.sqrt(750);
+
     // =========== Input parameters
     /**
      * These parameters control which grid points are considered to be supported, i.e. have enough nearby observation points to be reasonably
@@ -147,6 +168,12 @@ public class BarnesSurfaceInterpolator {
     // ============ Working data
     private float[] estimatedObs;
 
+    /**
+     * Index of the observation positions, null if all the observations have to be used for every
+     * estimate
+     */
+    private STRtree obsIndex;
+
     /**
      * Creates a Barnes Interpolator over a specified dataset of observation values. The observation data is provided as an array of
      * {@link Coordinate} values, where the X,Y ordinates are the observation location, and the Z ordinate contains the observation value.
@@ -238,6 +265,7 @@ public class BarnesSurfaceInterpolator {
         float[][] grid = new float[xSize][ySize];
         GridTransform trans = new GridTransform(srcEnv, xSize, ySize);
 
+        buildObservationIndex();
         estimateGrid(grid, trans);
 
         if (passCount > 1) {
@@ -258,53 +286,166 @@ public class BarnesSurfaceInterpolator {
         return grid;
     }
 
-    private float[] computeEstimatedObservations() {
-        float[] estimate = new float[inputObs.length];
+    /**
+     * Indexes the observations, unless the weights of far away observations might not underflow
+     * to zero, in which case all the observations are used for every estimate
+     */
+    private void buildObservationIndex() {
+        obsIndex = null;
+        if (!(lengthScale > 0) || Double.isInfinite(lengthScale)) {
+            return;
+        }
+        for (Coordinate obs : inputObs) {
+            if (Double.isNaN(obs.x) || Double.isInfinite(obs.x) || Double.isNaN(obs.y)
+                    || Double.isInfinite(obs.y) || Double.isNaN(obs.z)
+                    || Double.isInfinite(obs.z)) {
+                return;
+            }
+        }
+        obsIndex = new STRtree();
         for (int i = 0; i < inputObs.length; i++) {
-            Coordinate dp = inputObs[i];
-            float est = (float) estimatedValue(dp.x, dp.y);
-            if (! Float.isNaN(est))
-                estimate[i] = est;
-            else
-                estimate[i] = (float) inputObs[i].z;
+            obsIndex.insert(new Envelope(inputObs[i]), i);
         }
-        return estimate;
+        // built now, queries are then read only and can run in parallel
+        obsIndex.build();
     }
 
-    private float[] refineEstimatedObservations(float[] currEst) {
-        float[] estimate = new float[inputObs.length];
-        for (int i = 0; i < inputObs.length; i++) {
-            Coordinate dp = inputObs[i];
-            float del = (float) refinedDelta(dp.x, dp.y, convergenceFactor);
-            if (! Float.isNaN(del))
-                estimate[i] = (float) currEst[i] + del;
-            else
-                estimate[i] = (float) inputObs[i].z;
+    /**
+     * Returns the distance beyond which the observation weights are zero
+     */
+    private double getZeroWeightDistance(double convergenceFactor) {
+        if (obsIndex == null || !(convergenceFactor > 0) || Double.isInfinite(convergenceFactor)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return lengthScale * Math.sqrt(convergenceFactor) * ZERO_WEIGHT_DISTANCE;
+    }
+
+    /**
+     * Returns the indexes of the observations possibly within a distance of an area, in
+     * ascending order, or null if all the observations have to be considered
+     */
+    private int[] getObservations(Envelope area, double distance) {
+        if (obsIndex == null || Double.isInfinite(distance) || Double.isNaN(distance)) {
+            return null;
+        }
+        Envelope search = new Envelope(area);
+        search.expandBy(distance);
+        List<?> found = obsIndex.query(search);
+        int[] result = new int[found.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (Integer) found.get(i);
         }
+        // the sums are accumulated in the same order as over the whole set of observations
+        Arrays.sort(result);
+        return result;
+    }
+
+    private float[] computeEstimatedObservations() {
+        final float[] estimate = new float[inputObs.length];
+        final double distance = getZeroWeightDistance(1.0);
+        GridTasks.run(inputObs.length, new GridTasks.Task() {
+
+            @Override
+            public void run(int start, int end) {
+                for (int i = start; i < end; i++) {
+                    Coordinate dp = inputObs[i];
+                    int[] obs = getObservations(new Envelope(dp), distance);
+                    float est = (float) estimatedValue(dp.x, dp.y, obs);
+                    if (! Float.isNaN(est))
+                        estimate[i] = est;
+                    else
+                        estimate[i] = (float) inputObs[i].z;
+                }
+            }
+        });
+        return estimate;
+    }
+
+    private float[] refineEstimatedObservations(final float[] currEst) {
+        final float[] estimate = new float[inputObs.length];
+        final double distance = getZeroWeightDistance(convergenceFactor);
+        GridTasks.run(inputObs.length, new GridTasks.Task() {
+
+            @Override
+            public void run(int start, int end) {
+                for (int i = start; i < end; i++) {
+                    Coordinate dp = inputObs[i];
+                    int[] obs = getObservations(new Envelope(dp), distance);
+                    float del = (float) refinedDelta(dp.x, dp.y, convergenceFactor, obs);
+                    if (! Float.isNaN(del))
+                        estimate[i] = (float) currEst[i] + del;
+                    else
+                        estimate[i] = (float) inputObs[i].z;
+                }
+            }
+        });
         return estimate;
     }
 
+    /**
+     * Runs a task over the tiles of the grid, in parallel
+     */
+    private void runTiles(final float[][] grid, final GridTransform trans, final double distance,
+            final TileTask task) {
+        final int xSize = grid.length;
+        final int ySize = grid[0].length;
+        final int xTiles = (xSize + TILE_SIZE - 1) / TILE_SIZE;
+        final int yTiles = (ySize + TILE_SIZE - 1) / TILE_SIZE;
+        GridTasks.run(xTiles * yTiles, new GridTasks.Task() {
+
+            @Override
+            public void run(int start, int end) {
+                for (int t = start; t < end; t++) {
+                    int iMin = (t / yTiles) * TILE_SIZE;
+                    int iMax = Math.min(xSize, iMin + TILE_SIZE);
+                    int jMin = (t % yTiles) * TILE_SIZE;
+                    int jMax = Math.min(ySize, jMin + TILE_SIZE);
+                    Envelope area = new Envelope(trans.x(iMin), trans.x(iMax - 1),
+                            trans.y(jMin), trans.y(jMax - 1));
+                    task.run(iMin, iMax, jMin, jMax, getObservations(area, distance));
+                }
+            }
+        });
+    }
+
+    /**
+     * Computes the cells of a tile, given the observations to consider
+     */
+    private interface TileTask {
+        void run(int iMin, int iMax, int jMin, int jMax, int[] obs);
+    }
+
     /**
      * Computes an initial estimate of the interpolated surface.
      * 
      * @param grid the grid matrix buffer to use
      * @param trans the transform mapping from data space to the grid
      */
-    private void estimateGrid(float[][] grid, GridTransform trans) {
-        for (int i = 0; i < grid.length; i++) {
-            for (int j = 0; j < grid[0].length; j++) {
-                double x = trans.x(i);
-                double y = trans.y(j);
-
-                grid[i][j] = (float) noDataValue;
-                if (useObservationMask && !isSupportedGridPt(x, y))
-                    continue;
-
-                float est = (float) estimatedValue(x, y);
-                if (!Float.isNaN(est))
-                    grid[i][j] = est;
-            }
+    private void estimateGrid(final float[][] grid, final GridTransform trans) {
+        double distance = getZeroWeightDistance(1.0);
+        if (useObservationMask) {
+            distance = Math.max(distance, maxObservationDistance);
         }
+        runTiles(grid, trans, distance, new TileTask() {
+
+            @Override
+            public void run(int iMin, int iMax, int jMin, int jMax, int[] obs) {
+                for (int i = iMin; i < iMax; i++) {
+                    for (int j = jMin; j < jMax; j++) {
+                        double x = trans.x(i);
+                        double y = trans.y(j);
+
+                        grid[i][j] = (float) noDataValue;
+                        if (useObservationMask && !isSupportedGridPt(x, y, obs))
+                            continue;
+
+                        float est = (float) estimatedValue(x, y, obs);
+                        if (!Float.isNaN(est))
+                            grid[i][j] = est;
+                    }
+                }
+            }
+        });
     }
 
     /**
@@ -313,32 +454,34 @@ public class BarnesSurfaceInterpolator {
      * @param grid the grid matrix buffer to use
      * @param trans the transform mapping from data space to the grid
      */
-    private void refineGrid(float[][] grid, GridTransform trans) {
-        for (int i = 0; i < grid.length; i++) {
-            for (int j = 0; j < grid[0].length; j++) {
-                double x = trans.x(i);
-                double y = trans.y(j);
-
-                // skip NO_DATA values
-                if (grid[i][j] == noDataValue)
-                    continue;
-
-                float del = (float) refinedDelta(x, y, convergenceFactor);
-                /*
-                 // DEBUGGING
-                if (del < 0) {
-                    float d = (float) refinedDelta(x, y, convergenceFactor);
+    private void refineGrid(final float[][] grid, final GridTransform trans) {
+        runTiles(grid, trans, getZeroWeightDistance(convergenceFactor), new TileTask() {
+
+            @Override
+            public void run(int iMin, int iMax, int jMin, int jMax, int[] obs) {
+                for (int i = iMin; i < iMax; i++) {
+                    for (int j = jMin; j < jMax; j++) {
+                        double x = trans.x(i);
+                        double y = trans.y(j);
+
+                        // skip NO_DATA values
+                        if (grid[i][j] == noDataValue)
+                            continue;
+
+                        float del = (float) refinedDelta(x, y, convergenceFactor, obs);
+                        if (! Float.isNaN(del))
+                            grid[i][j] = grid[i][j] + del;
+                    }
                 }
-                */
-                if (! Float.isNaN(del))
-                    grid[i][j] = grid[i][j] + del;
             }
-        }
+        });
     }
 
-    private boolean isSupportedGridPt(double x, double y) {
+    private boolean isSupportedGridPt(double x, double y, int[] obs) {
         int count = 0;
-        for (int i = 0; i < inputObs.length; i++) {
+        int n = obs == null ? inputObs.length : obs.length;
+        for (int k = 0; k < n; k++) {
+            int i = obs == null ? k : obs[k];
             double dist = distance(x, y, inputObs[i]);
             if (dist <= maxObservationDistance)
                 count++;
@@ -357,15 +500,20 @@ public class BarnesSurfaceInterpolator {
      * 
      * @param x the x ordinate of the grid point location
      * @param y the y ordinate of the grid point location
+     * @param obs the indexes of the observations whose weight might not be zero, in ascending
+     *        order, or null to consider all of them
      * @return the estimated value, or INTERNAL_NO_DATA if the grid cell is not supported
      */
-    private double estimatedValue(double x, double y) {
+    private double estimatedValue(double x, double y, int[] obs) {
         Coordinate p = new Coordinate(x, y);
 
         double sumWgtVal = 0;
         double sumWgt = 0;
-        int dataCount = 0;
-        for (int i = 0; i < inputObs.length; i++) {
+        int n = obs == null ? inputObs.length : obs.length;
+        // the observations left out have a zero weight, they add nothing to the sums
+        int dataCount = inputObs.length - n;
+        for (int k = 0; k < n; k++) {
+            int i = obs == null ? k : obs[k];
             double wgt = weight(p, inputObs[i], lengthScale);
             /**
              * Skip observation if unusable due to too great a distance
@@ -392,15 +540,20 @@ public class BarnesSurfaceInterpolator {
      * @param x the x ordinate of the grid point location
      * @param y the y ordinate of the grid point location
      * @param convergenceFactor the convergence factor
+     * @param obs the indexes of the observations whose weight might not be zero, in ascending
+     *        order, or null to consider all of them
      * @return the refinement delta value, or INTERNAL_NO_DATA if the grid cell is not supported
      */
-    private double refinedDelta(double x, double y, double convergenceFactor) {
+    private double refinedDelta(double x, double y, double convergenceFactor, int[] obs) {
         Coordinate p = new Coordinate(x, y);
 
         double sumWgtVal = 0;
         double sumWgt = 0;
-        int dataCount = 0;
-        for (int i = 0; i < inputObs.length; i++) {
+        int n = obs == null ? inputObs.length : obs.length;
+        // the observations left out have a zero weight, they add nothing to the sums
+        int dataCount = inputObs.length - n;
+        for (int k = 0; k < n; k++) {
+            int i = obs == null ? k : obs[k];
             double wgt = weight(p, inputObs[i], lengthScale, convergenceFactor);
             /**
              * Check if observation is unusable (e.g. due to too great a distance)
@@ -65,6 +65,8 @@ import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.geom.impl.CoordinateArraySequence;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
 
 /**
  * Modified version that can preserve Z values after the clip
@@ -188,7 +190,7 @@ public class ClipProcess implements VectorProcess {
 
         SimpleFeature next;
 
-        Geometry clip;
+        PreparedGeometry clip;
 
         boolean preserveZ;
 
@@ -200,7 +202,8 @@ public class ClipProcess implements VectorProcess {
             if(clip.getEnvelope().equals(clip)) {
                 this.clipper = new GeometryClipper(clip.getEnvelopeInternal());
             } else {
-                this.clip = clip;
+                // prepared once, it speeds up the intersection tests against each feature
+                this.clip = PreparedGeometryFactory.prepare(clip);
             }
                 
             fb = new SimpleFeatureBuilder(schema);
@@ -259,9 +262,8 @@ public class ClipProcess implements VectorProcess {
             if(clipper != null) {
                 clipped = clipper.clip(geom, true);
             } else {
-                if(geom.getEnvelopeInternal().intersects(clip.getEnvelopeInternal())) {
-                    clipped = clip.intersection(geom);
-                }
+                // skips the overlay for the geometries fully inside or outside the clip
+                clipped = SpatialJoin.intersection(clip, geom);
             }
             
             // empty intersection?
@@ -0,0 +1,127 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.vector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geotools.process.ProcessException;
+
+/**
+ * Runs the independent parts of a grid computation, such as rows or tiles, in parallel. Each part
+ * is computed exactly as it would be sequentially, so the resulting grids don't depend on the
+ * number of threads.
+ * <p>
+ * The threads are daemon threads shared by all the grid computations, their number is set by the
+ * {@link #THREADS_KEY} system property, read when the threads are first needed, and defaults to
+ * the number of available processors.
+ * </p>
+ */
+class GridTasks {
+
+    /**
+     * System property setting the number of threads used by grid computations, 1 meaning they
+     * run in the calling thread
+     */
+    public static final String THREADS_KEY = "org.geotools.process.vector.gridThreads";
+
+    /** Number of chunks per thread, so that uneven chunks don't leave threads idle */
+    static final int CHUNKS_PER_THREAD = 4;
+
+    static ExecutorService executor;
+
+    /**
+     * Computes the parts of a grid in the range [start, end)
+     */
+    interface Task {
+        void run(int start, int end);
+    }
+
+    /**
+     * Returns the number of threads used by grid computations
+     */
+    static int getThreads() {
+        return Math.max(1,
+                Integer.getInteger(THREADS_KEY, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Runs a task over the parts [0, count), split in contiguous chunks computed in parallel, and
+     * waits for all of them to complete
+     */
+    static void run(int count, final Task task) {
+        int threads = getThreads();
+        if (threads <= 1 || count <= 1) {
+            task.run(0, count);
+            return;
+        }
+
+        int chunks = Math.min(count, threads * CHUNKS_PER_THREAD);
+        int chunkSize = (count + chunks - 1) / chunks;
+        ExecutorService executor = getExecutor(threads);
+        List<Future<?>> futures = new ArrayList<Future<?>>(chunks);
+        for (int start = 0; start < count; start += chunkSize) {
+            final int s = start;
+            final int e = Math.min(count, start + chunkSize);
+            futures.add(executor.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    task.run(s, e);
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new ProcessException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ProcessException(e.getCause());
+        }
+    }
+
+    static synchronized ExecutorService getExecutor(int threads) {
+        if (executor == null) {
+            final AtomicInteger counter = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "GridTasks-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+}
@@ -29,6 +29,9 @@ import com.vividsolutions.jts.geom.Envelope;
  * "edge effects" from distorting the surface within the requested envelope.
  * <p>
  * The values in the output surface are normalized to lie in the range [0, 1].
+ * <p>
+ * The blur passes and the normalization are computed in parallel, see {@link GridTasks}, the
+ * surface values are the same as for a sequential computation.
  * 
  * @author Martin Davis, OpenGeo
  * 
@@ -39,6 +42,12 @@ public class HeatmapSurface {
      */
     private static final int GAUSSIAN_APPROX_ITER = 4;
 
+    /**
+     * Number of rows blurred together, sized so that their running totals and the input values
+     * read for them stay in cache
+     */
+    private static final int BAND_HEIGHT = 64;
+
     private Envelope srcEnv;
 
     private int xSize;
@@ -207,22 +216,41 @@ public class HeatmapSurface {
      * 
      * @param grid
      */
-    private void normalize(float[][] grid) {
-        float max = Float.NEGATIVE_INFINITY;
-        for (int i = 0; i < grid.length; i++) {
-            for (int j = 0; j < grid[0].length; j++) {
-                if (grid[i][j] > max)
-                    max = grid[i][j];
+    private void normalize(final float[][] grid) {
+        final float[] maxs = new float[grid.length];
+        GridTasks.run(grid.length, new GridTasks.Task() {
+
+            @Override
+            public void run(int start, int end) {
+                for (int i = start; i < end; i++) {
+                    float max = Float.NEGATIVE_INFINITY;
+                    for (int j = 0; j < grid[0].length; j++) {
+                        if (grid[i][j] > max)
+                            max = grid[i][j];
+                    }
+                    maxs[i] = max;
+                }
             }
+        });
+        float max = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < maxs.length; i++) {
+            if (maxs[i] > max)
+                max = maxs[i];
         }
 
-        float normFactor = 1.0f / max;
+        final float normFactor = 1.0f / max;
 
-        for (int i = 0; i < grid.length; i++) {
-            for (int j = 0; j < grid[0].length; j++) {
-                grid[i][j] *= normFactor;
+        GridTasks.run(grid.length, new GridTasks.Task() {
+
+            @Override
+            public void run(int start, int end) {
+                for (int i = start; i < end; i++) {
+                    for (int j = 0; j < grid[0].length; j++) {
+                        grid[i][j] *= normFactor;
+                    }
+                }
             }
-        }
+        });
     }
 
     private float kernelVal(int kernelRadius) {
@@ -231,42 +259,71 @@ public class HeatmapSurface {
         return val;
     }
 
-    private void boxBlur(int kernelRadius, float[][] input, float[][] output) {
+    /**
+     * Blurs the rows of the input, writing them as the columns of the output. Rows are
+     * independent, they are blurred in parallel bands.
+     */
+    private void boxBlur(final int kernelRadius, final float[][] input, final float[][] output) {
+        GridTasks.run(input[0].length, new GridTasks.Task() {
+
+            @Override
+            public void run(int start, int end) {
+                for (int j = start; j < end; j += BAND_HEIGHT) {
+                    boxBlur(kernelRadius, input, output, j, Math.min(end, j + BAND_HEIGHT));
+                }
+            }
+        });
+    }
+
+    /**
+     * Blurs the rows of a band. The running totals of the rows are updated together, so that the
+     * input columns are read sequentially, each row total being updated in the same order as if
+     * the rows were blurred one at a time.
+     */
+    private void boxBlur(int kernelRadius, float[][] input, float[][] output, int jStart,
+            int jEnd) {
         int width = input.length;
-        int height = input[0].length;
+        int bandHeight = jEnd - jStart;
 
         // init moving average total
         float kernelVal = kernelVal(kernelRadius);
         // System.out.println("boxblur: radius = " + kernelRadius + " kernel val = " + kernelVal);
 
-        for (int j = 0; j < height; j++) {
-
-            double tot = 0.0;
-
-            for (int i = -kernelRadius; i <= kernelRadius; i++) {
-                if (i < 0 || i >= width)
-                    continue;
-                tot += kernelVal * input[i][j];
+        double[] tot = new double[bandHeight];
+        for (int i = -kernelRadius; i <= kernelRadius; i++) {
+            if (i < 0 || i >= width)
+                continue;
+            float[] column = input[i];
+            for (int b = 0; b < bandHeight; b++) {
+                tot[b] += kernelVal * column[jStart + b];
             }
+        }
 
-            // System.out.println(tot);
-
-            output[j][0] = (float) tot;
-
-            for (int i = 1; i < width; i++) {
+        for (int b = 0; b < bandHeight; b++) {
+            output[jStart + b][0] = (float) tot[b];
+        }
 
-                // update box running total
-                int iprev = i - 1 - kernelRadius;
-                if (iprev >= 0)
-                    tot -= kernelVal * input[iprev][j];
+        for (int i = 1; i < width; i++) {
 
-                int inext = i + kernelRadius;
-                if (inext < width)
-                    tot += kernelVal * input[inext][j];
+            // update box running total
+            int iprev = i - 1 - kernelRadius;
+            if (iprev >= 0) {
+                float[] column = input[iprev];
+                for (int b = 0; b < bandHeight; b++) {
+                    tot[b] -= kernelVal * column[jStart + b];
+                }
+            }
 
-                output[j][i] = (float) tot;
-                // if (i==49 && j==147) System.out.println("val[ " + i + ", " + j + "] = " + tot);
+            int inext = i + kernelRadius;
+            if (inext < width) {
+                float[] column = input[inext];
+                for (int b = 0; b < bandHeight; b++) {
+                    tot[b] += kernelVal * column[jStart + b];
+                }
+            }
 
+            for (int b = 0; b < bandHeight; b++) {
+                output[jStart + b][i] = (float) tot[b];
             }
         }
     }
@@ -17,27 +17,24 @@
  */
 package org.geotools.process.vector;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
-import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.collection.DecoratingSimpleFeatureCollection;
-import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.process.factory.DescribeParameter;
 import org.geotools.process.factory.DescribeProcess;
 import org.geotools.process.factory.DescribeResult;
-import org.geotools.process.gs.GSProcess;
 import org.opengis.feature.simple.SimpleFeature;
-import org.opengis.feature.simple.SimpleFeatureType;
-import org.opengis.filter.Filter;
-import org.opengis.filter.FilterFactory2;
 
 import com.vividsolutions.jts.geom.Geometry;
 
 /**
  * A process providing a feature collection containing the features of the first input collection
- * which are included in the second feature collection
+ * which are included in the second feature collection. The second collection is loaded in a
+ * spatial index once, see {@link SpatialJoin}, and the first one is streamed against it.
  * 
  * @author Gianni Barrotta - Sinergis
  * @author Andrea Di Nora - Sinergis
@@ -59,6 +56,8 @@ public class InclusionFeatureCollection implements VectorProcess {
 
         SimpleFeatureCollection features;
 
+        SpatialJoin join;
+
         public IncludedFeatureCollection(SimpleFeatureCollection delegate,
                 SimpleFeatureCollection features) {
             super(delegate);
@@ -66,9 +65,20 @@ public class InclusionFeatureCollection implements VectorProcess {
 
         }
 
+        /**
+         * The second collection is indexed once, on first use, and shared among iterators
+         */
+        synchronized SpatialJoin getJoin() {
+            if (join == null) {
+                join = new SpatialJoin(features);
+            }
+            return join;
+        }
+
         @Override
         public SimpleFeatureIterator features() {
-            return new IncludedFeatureIterator(delegate.features(), delegate, features, getSchema());
+            return new IncludedFeatureIterator(delegate.features(), getJoin(),
+                    SpatialJoin.getThreads());
         }
 
     }
@@ -77,30 +87,24 @@ public class InclusionFeatureCollection implements VectorProcess {
      * Computes the inclusion property as we stream
      */
     static class IncludedFeatureIterator implements SimpleFeatureIterator {
-        SimpleFeatureIterator delegate;
-
-        SimpleFeatureCollection firstFeatures;
-
-        SimpleFeatureCollection secondFeatures;
-
-        SimpleFeatureBuilder fb;
-
-        SimpleFeature next;
-
-        String dataGeomName;
-        
-        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
-
-        public IncludedFeatureIterator(SimpleFeatureIterator delegate,
-                SimpleFeatureCollection firstFeatures, SimpleFeatureCollection secondFeatures,
-                SimpleFeatureType schema) {
-            this.delegate = delegate;
-            this.firstFeatures = firstFeatures;
-            this.secondFeatures = secondFeatures;
-            this.fb = new SimpleFeatureBuilder(schema);
-            this.dataGeomName = this.firstFeatures.getSchema().getGeometryDescriptor()
-                    .getLocalName();
-
+        SpatialJoin.JoinIterator<SimpleFeature> delegate;
+
+        public IncludedFeatureIterator(SimpleFeatureIterator delegate, final SpatialJoin join,
+                int threads) {
+            this.delegate = new SpatialJoin.JoinIterator<SimpleFeature>(delegate,
+                    new SpatialJoin.Joiner<SimpleFeature>() {
+
+                        @Override
+                        public List<SimpleFeature> join(SimpleFeature f) {
+                            for (Object attribute : f.getAttributes()) {
+                                if (attribute instanceof Geometry
+                                        && join.isContained((Geometry) attribute)) {
+                                    return Collections.singletonList(f);
+                                }
+                            }
+                            return Collections.emptyList();
+                        }
+                    }, threads);
         }
 
         public void close() {
@@ -108,32 +112,11 @@ public class InclusionFeatureCollection implements VectorProcess {
         }
 
         public boolean hasNext() {
-            while (next == null && delegate.hasNext()) {
-                SimpleFeature f = delegate.next();
-                for (Object attribute : f.getAttributes()) {
-                    if (attribute instanceof Geometry) {
-                        Geometry geom = (Geometry) attribute;
-                        Filter overFilter = ff
-                                .contains(ff.property(dataGeomName), ff.literal(geom));
-                        SimpleFeatureCollection subFeatureCollectionInclusion = this.secondFeatures
-                                .subCollection(overFilter);
-                        if (subFeatureCollectionInclusion.size() > 0) {
-                            next = f;
-                        }
-                    }
-                }
-            }
-            return next != null;
+            return delegate.hasNext();
         }
 
         public SimpleFeature next() throws NoSuchElementException {
-            if (!hasNext()) {
-                throw new NoSuchElementException("hasNext() returned false!");
-            }
-
-            SimpleFeature result = next;
-            next = null;
-            return result;
+            return delegate.next();
         }
 
     }
@@ -18,6 +18,7 @@
 package org.geotools.process.vector;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -25,7 +26,6 @@ import java.util.logging.Logger;
 
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
-import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.AttributeTypeBuilder;
 import org.geotools.feature.collection.DecoratingSimpleFeatureCollection;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
@@ -34,13 +34,10 @@ import org.geotools.geometry.jts.JTS;
 import org.geotools.process.factory.DescribeParameter;
 import org.geotools.process.factory.DescribeProcess;
 import org.geotools.process.factory.DescribeResult;
-import org.geotools.process.gs.WrappingIterator;
 import org.geotools.referencing.CRS;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
-import org.opengis.filter.Filter;
-import org.opengis.filter.FilterFactory2;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.MathTransform;
@@ -57,6 +54,8 @@ import com.vividsolutions.jts.geom.MultiPoint;
 import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
 
 /**
  * A process providing the intersection between two feature collections
@@ -287,6 +286,8 @@ public class IntersectionFeatureCollection implements VectorProcess {
         SimpleFeatureBuilder fb;
         AttributeDescriptor geomType = null;
 
+        SpatialJoin join;
+
         public IntersectedFeatureCollection(SimpleFeatureCollection delegate,
                 List<String> firstAttributes, SimpleFeatureCollection features,
                 List<String> sndAttributes, IntersectionMode intersectionMode,
@@ -373,11 +374,22 @@ public class IntersectionFeatureCollection implements VectorProcess {
             }
         }
 
+        /**
+         * The second collection is indexed once, on first use, and shared among iterators
+         */
+        synchronized SpatialJoin getJoin() {
+            if (join == null) {
+                join = new SpatialJoin(features);
+            }
+            return join;
+        }
+
         @Override
         public SimpleFeatureIterator features() {
             return new IntersectedFeatureIterator(delegate.features(), delegate, features,
                     delegate.getSchema(), features.getSchema(), firstAttributes, sndAttributes,
-                    intersectionMode, percentagesEnabled, areasEnabled,fb);
+                    intersectionMode, percentagesEnabled, areasEnabled, fb, getJoin(),
+                    SpatialJoin.getThreads());
         }
     }
 
@@ -385,32 +397,16 @@ public class IntersectionFeatureCollection implements VectorProcess {
      * Builds the intersections while streaming
      */
     static class IntersectedFeatureIterator implements SimpleFeatureIterator {
-        SimpleFeatureIterator delegate;
+        SpatialJoin.JoinIterator<Intersection> delegate;
 
         SimpleFeatureCollection firstFeatures;
 
         SimpleFeatureCollection secondFeatures;
 
-        SimpleFeatureCollection subFeatureCollection;
-
         SimpleFeatureBuilder fb;
 
-        SimpleFeature next;
-
-        SimpleFeature first;
-
         Integer iterationIndex = 0;
 
-        boolean complete = true;
-
-        boolean added = false;
-
-        SimpleFeatureCollection intersectedGeometries;
-
-        SimpleFeatureIterator iterator;
-
-        String dataGeomName;
-
         List<String> retainAttributesFst = null;
 
         List<String> retainAttributesSnd = null;
@@ -430,10 +426,9 @@ public class IntersectionFeatureCollection implements VectorProcess {
                 SimpleFeatureType secondFeatureCollectionSchema,
                 List<String> retainAttributesFstPar, List<String> retainAttributesSndPar,
                 IntersectionMode intersectionMode, boolean percentagesEnabled, boolean areasEnabled, 
-                SimpleFeatureBuilder sfb) {
+                SimpleFeatureBuilder sfb, final SpatialJoin join, int threads) {
             this.retainAttributesFst = retainAttributesFstPar;
             this.retainAttributesSnd = retainAttributesSndPar;
-            this.delegate = delegate;
             this.firstFeatures = firstFeatures;
             this.secondFeatures = secondFeatures;
             this.percentagesEnabled = percentagesEnabled;
@@ -442,7 +437,6 @@ public class IntersectionFeatureCollection implements VectorProcess {
 
             logger.fine("Creating schema");
             // create the geometry attribute descriptor for the result
-  //          SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
             if (intersectionMode == IntersectionMode.FIRST) {
                 geomType = firstFeatureCollectionSchema.getGeometryDescriptor();
             }
@@ -454,103 +448,75 @@ public class IntersectionFeatureCollection implements VectorProcess {
             }
 
             this.fb = sfb;
-            subFeatureCollection = this.secondFeatures;
-
-            this.dataGeomName = this.firstFeatures.getSchema().getGeometryDescriptor()
-                    .getLocalName();
             logger.fine("Schema created");
-        }
 
+            // the pairs and their geometries are computed by the join, possibly in parallel,
+            // the features are then built in order
+            this.delegate = new SpatialJoin.JoinIterator<Intersection>(delegate,
+                    new SpatialJoin.Joiner<Intersection>() {
 
-        public void close() {
-            delegate.close();
+                        @Override
+                        public List<Intersection> join(SimpleFeature first) {
+                            return intersect(first, join);
+                        }
+                    }, threads);
         }
 
-        public boolean hasNext() {
-         //   logger.info("qui");
-            logger.finer("HAS NEXT");
-            while ((next == null && delegate.hasNext()) || (next == null && added)) {
-                       //     logger.info("qui nel while");
-                if (complete) {
-                    first = delegate.next();
-                    intersectedGeometries = null;
-                }
-                         //               logger.info("qui dopo check if (complete)");
-                //logger.finer("control HAS NEXT");
-                for (Object attribute : first.getAttributes()) {
-                    if (attribute instanceof Geometry
-                            && attribute.equals(first.getDefaultGeometry())) {
-                        Geometry currentGeom = (Geometry) attribute;
-
-                        if (intersectedGeometries == null && !added) {
-                            intersectedGeometries = filteredCollection(currentGeom,
-                                    subFeatureCollection);
-                            iterator = intersectedGeometries.features();
-                        }
-                        try {
-                            while (iterator.hasNext()) {
-                                added = false;
-                                SimpleFeature second = iterator.next();
-                                if (currentGeom.getEnvelope().intersects(
-                                        ((Geometry) second.getDefaultGeometry()))) {
-                                    // compute geometry
-                                    if (intersectionMode == IntersectionMode.INTERSECTION) {
-                                        attribute = currentGeom.intersection((Geometry) second
-                                                .getDefaultGeometry());
-
-                                        GeometryFilterImpl filter = new GeometryFilterImpl(geomType
-                                                .getType().getBinding());
-                                        ((Geometry) attribute).apply(filter);
-                                        attribute = filter.getGeometry();
-                                    } else if (intersectionMode == IntersectionMode.FIRST) {
-                                        attribute = currentGeom;
-                                    } else if (intersectionMode == IntersectionMode.SECOND) {
-                                        attribute = (Geometry) second.getDefaultGeometry();
-                                    }
-                                    if (((Geometry) attribute).getNumGeometries() > 0) {
-                                        fb.add(attribute);
-                                        fb.set("INTERSECTION_ID", id++);
-                                        // add the non geometric attributes
-                                        addAttributeValues(first, retainAttributesFst, fb);
-                                        addAttributeValues(second, retainAttributesSnd, fb);
-                                        // add the dynamic attributes
-                                        if (percentagesEnabled) {
-                                            addPercentages(currentGeom, second);
-                                        }
-                                        if (areasEnabled) {
-                                            addAreas(currentGeom, second);
-                                        }
-
-                                        // build the feature
-                                        next = fb.buildFeature(iterationIndex.toString());
-
-                                        // update iterator status
-                                        if (iterator.hasNext()) {
-                                            complete = false;
-                                            added = true;
-                                            iterationIndex++;
-                                            return next != null;
-                                        }
-                                        iterationIndex++;
-                                    }
-
-                                }
-                                complete = false;
-                            }
-                            complete = true;
-                        } finally {
-                            if (!added) {
-                                iterator.close();
-                            }
-                        }
+        /**
+         * Computes the output geometries of a feature of the first collection against all the
+         * features of the second collection it intersects
+         */
+        List<Intersection> intersect(SimpleFeature first, SpatialJoin join) {
+            Geometry currentGeom = (Geometry) first.getDefaultGeometry();
+            if (currentGeom == null || currentGeom.isEmpty()) {
+                return Collections.emptyList();
+            }
+            PreparedGeometry prepared = PreparedGeometryFactory.prepare(currentGeom);
+            List<Intersection> result = new ArrayList<Intersection>();
+            for (SpatialJoin.Entry entry : join.getCandidates(currentGeom.getEnvelopeInternal())) {
+                SimpleFeature second = entry.feature;
+                Geometry geometry;
+                // compute geometry
+                if (intersectionMode == IntersectionMode.INTERSECTION) {
+                    geometry = SpatialJoin.intersection(prepared, entry.geometry);
+                    if (geometry == null) {
+                        continue;
+                    }
+                    GeometryFilterImpl filter = new GeometryFilterImpl(geomType.getType()
+                            .getBinding());
+                    geometry.apply(filter);
+                    geometry = filter.getGeometry();
+                } else {
+                    if (!prepared.intersects(entry.geometry)) {
+                        continue;
                     }
+                    geometry = intersectionMode == IntersectionMode.FIRST ? currentGeom
+                            : entry.geometry;
                 }
+                if (geometry == null || geometry.getNumGeometries() == 0) {
+                    continue;
+                }
+                Intersection intersection = new Intersection(first, second, geometry);
+                // compute the dynamic attributes
+                if (percentagesEnabled) {
+                    intersection.percentages = computePercentages(currentGeom, second);
+                }
+                if (areasEnabled) {
+                    intersection.areas = computeAreas(currentGeom, second);
+                }
+                result.add(intersection);
             }
-            return next != null;
+            return result;
+        }
+
+        public void close() {
+            delegate.close();
         }
 
+        public boolean hasNext() {
+            return delegate.hasNext();
+        }
 
-        
         private void addAttributeValues(SimpleFeature feature, List<String> retained,
                 SimpleFeatureBuilder fb) {
             Iterator<AttributeDescriptor> firstIterator = feature.getType().getAttributeDescriptors()
@@ -565,7 +531,7 @@ public class IntersectionFeatureCollection implements VectorProcess {
             }
         }
 
-        private void addAreas(Geometry currentGeom, SimpleFeature second) {
+        private double[] computeAreas(Geometry currentGeom, SimpleFeature second) {
             CoordinateReferenceSystem firstCRS = firstFeatures.getSchema().getCoordinateReferenceSystem();
             CoordinateReferenceSystem secondCRS = secondFeatures.getSchema().getCoordinateReferenceSystem();
 
@@ -574,16 +540,14 @@ public class IntersectionFeatureCollection implements VectorProcess {
                         firstCRS, null).getArea();
                 double areaB = IntersectionFeatureCollection.reprojectAndDensify(
                         (Geometry) second.getDefaultGeometry(), secondCRS, null).getArea();
-                fb.set("areaA", areaA);
-                fb.set("areaB", areaB);
+                return new double[] { areaA, areaB };
             } catch (Exception e) {
                 System.out.println("" + e);
-                fb.set("areaA", -1);
-                fb.set("areaB", -1);
+                return new double[] { -1, -1 };
             }
         }
 
-        private void addPercentages(Geometry currentGeom, SimpleFeature second) {
+        private double[] computePercentages(Geometry currentGeom, SimpleFeature second) {
             CoordinateReferenceSystem firstCRS = firstFeatures.getSchema().getCoordinateReferenceSystem();
 
             CoordinateReferenceSystem secondCRS = secondFeatures.getSchema().getCoordinateReferenceSystem();
@@ -595,33 +559,52 @@ public class IntersectionFeatureCollection implements VectorProcess {
             double percentageB = IntersectionFeatureCollection.getIntersectionArea(currentGeom,
                     firstCRS, (Geometry) second.getDefaultGeometry(), secondCRS, false);
 
-            fb.set("percentageA", percentageA);
-
-            fb.set("percentageB", percentageB);
-
+            return new double[] { percentageA, percentageB };
         }
 
         public SimpleFeature next() throws NoSuchElementException {
-            if (!hasNext()) {
-                throw new NoSuchElementException("hasNext() returned false!");
+            Intersection intersection = delegate.next();
+
+            fb.add(intersection.geometry);
+            fb.set("INTERSECTION_ID", id++);
+            // add the non geometric attributes
+            addAttributeValues(intersection.first, retainAttributesFst, fb);
+            addAttributeValues(intersection.second, retainAttributesSnd, fb);
+            // add the dynamic attributes
+            if (intersection.percentages != null) {
+                fb.set("percentageA", intersection.percentages[0]);
+                fb.set("percentageB", intersection.percentages[1]);
+            }
+            if (intersection.areas != null) {
+                fb.set("areaA", intersection.areas[0]);
+                fb.set("areaB", intersection.areas[1]);
             }
 
-            SimpleFeature result = next;
-            next = null;
+            // build the feature
+            SimpleFeature result = fb.buildFeature(iterationIndex.toString());
+            iterationIndex++;
             return result;
         }
+    }
 
-        private SimpleFeatureCollection filteredCollection(Geometry currentGeom,
-                SimpleFeatureCollection subFeatureCollection) {
-            FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
-            Filter intersectFilter = ff.intersects(ff.property(dataGeomName),
-                    ff.literal(currentGeom));
-            SimpleFeatureCollection subFeatureCollectionIntersection = this.subFeatureCollection
-                    .subCollection(intersectFilter);
-            if (subFeatureCollectionIntersection.size() == 0) {
-                subFeatureCollectionIntersection = subFeatureCollection;
-            }
-            return subFeatureCollectionIntersection;
+    /**
+     * A pair of intersecting features, along with the output geometry and dynamic attributes
+     */
+    static class Intersection {
+        final SimpleFeature first;
+
+        final SimpleFeature second;
+
+        final Geometry geometry;
+
+        double[] percentages;
+
+        double[] areas;
+
+        Intersection(SimpleFeature first, SimpleFeature second, Geometry geometry) {
+            this.first = first;
+            this.second = second;
+            this.geometry = geometry;
         }
     }
 
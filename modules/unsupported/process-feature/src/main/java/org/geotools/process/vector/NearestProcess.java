@@ -17,26 +17,27 @@
  */
 package org.geotools.process.vector;
 
-import java.util.Iterator;
 import java.util.logging.Logger;
 
 import javax.measure.converter.UnitConverter;
 import javax.measure.unit.SI;
 import javax.measure.unit.Unit;
 
+import org.geotools.data.collection.NearestNeighbourIndex;
+import org.geotools.data.collection.NearestNeighbourIndex.DistanceMetric;
+import org.geotools.data.collection.NearestNeighbourIndex.Neighbour;
 import org.geotools.feature.DefaultFeatureCollection;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureCollections;
-import org.geotools.feature.FeatureIterator;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
-import org.geotools.measure.Measure;
 import org.geotools.process.ProcessException;
 import org.geotools.process.factory.DescribeParameter;
 import org.geotools.process.factory.DescribeProcess;
 import org.geotools.process.factory.DescribeResult;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.referencing.operation.LinearTransform;
 import org.geotools.util.logging.Logging;
 import org.opengis.feature.Feature;
 import org.opengis.feature.simple.SimpleFeature;
@@ -47,8 +48,10 @@ import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.feature.type.PropertyDescriptor;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.Point;
@@ -65,6 +68,9 @@ public class NearestProcess implements VectorProcess {
 
     private GeometryFactory geometryFactory = new GeometryFactory();
 
+    /** indexes of the collections searched by this process instance */
+    NearestNeighbourIndex.Cache indexes = new NearestNeighbourIndex.Cache();
+
     /**
      * Process the input data set.
      * 
@@ -96,52 +102,21 @@ public class NearestProcess implements VectorProcess {
                         "The CRS parameter was not provided and the feature collection does not have a default one either");
             }
 
-            CoordinateReferenceSystem epsg4326;
-            try {
-                epsg4326 = CRS.decode("EPSG:4326");
-            } catch (Exception e) {
-                throw new ProcessException("Unknown CRS code: EPSG:4326", e);
-            }
-            MathTransform crsTransform = CRS.findMathTransform(crs, epsg4326);
+            MathTransform crsTransform = CRS.findMathTransform(crs, DefaultGeographicCRS.WGS84);
 
             DefaultFeatureCollection results = new DefaultFeatureCollection();
             FeatureType targetFeatureType = createTargetFeatureType(featureCollection.getSchema());
             Unit fromUnit = SI.METER;
             Unit toUnit = Unit.valueOf("mi");
             UnitConverter unitConvert = fromUnit.getConverterTo(toUnit);
-            Feature nearestFeature = null;
-            double nearestDistance = 9e9;
-            double nearestBearing = 0;
-            FeatureIterator featureIterator = featureCollection.features();
-            try {
-                while (featureIterator.hasNext()) {
-                    SimpleFeature f = (SimpleFeature) featureIterator.next();
-                    if (f.getDefaultGeometryProperty().getValue() == null)
-                        continue;
-                    DistanceOp op = new DistanceOp(point, (Geometry) f.getDefaultGeometryProperty()
-                            .getValue());
-                    Coordinate[] co = op.closestPoints();
-                    double[] co0 = new double[] { co[0].x, co[0].y, };
-                    double[] co1 = new double[] { co[1].x, co[1].y, };
-                    double[] geo0 = new double[2];
-                    double[] geo1 = new double[2];
-                    crsTransform.transform(co0, 0, geo0, 0, 1);
-                    crsTransform.transform(co1, 0, geo1, 0, 1);
-
-                    // get distance
-                    Measure m = DefaultGeographicCRS.WGS84.distance(geo0, geo1);
-                    if (m.doubleValue() > nearestDistance)
-                        continue;
-                    nearestFeature = f;
-                    nearestDistance = m.doubleValue();
-                    nearestBearing = calcBearing(co);
-                }
-            } finally {
-                featureIterator.close();
-            }
-            if (nearestFeature != null) {
-                nearestDistance = unitConvert.convert(nearestDistance);
-                results.add(createTargetFeature(nearestFeature,
+            // the first query streams the collection, the next ones against it use an index
+            Neighbour neighbour = indexes.nearest(featureCollection, null,
+                    new GeodesicDistance(point, crsTransform));
+            if (neighbour != null) {
+                double nearestDistance = unitConvert.convert(neighbour.getDistance());
+                double nearestBearing = calcBearing(new DistanceOp(point, neighbour.getGeometry())
+                        .closestPoints());
+                results.add(createTargetFeature(neighbour.getFeature(),
                         (SimpleFeatureType) targetFeatureType, nearestDistance, nearestBearing));
             }
             return results;
@@ -225,6 +200,168 @@ public class NearestProcess implements VectorProcess {
         }
     }
 
+    /**
+     * Orthodromic distance between the query point and the closest point of a geometry. The lower
+     * bounds are spherical distances from the query point to the envelopes, once transformed to
+     * WGS84, computed on a sphere small enough for them to be lower than the distances on the
+     * ellipsoid. Linear transforms map envelopes to parallelograms, whose boxes are the ones of
+     * the transformed corners. Otherwise each transformed side is approximated by the parabola
+     * going through its ends and middle, whose extremes are computed exactly, and the box is padded
+     * by how far the middles are from the chords, to cover the higher order terms.
+     */
+    static class GeodesicDistance implements DistanceMetric {
+
+        /** Radius of the bounding sphere, a bit less than the smallest WGS84 curvature radius */
+        static final double RADIUS = 6300000;
+
+        Point point;
+
+        MathTransform transform;
+
+        double lon;
+
+        double lat;
+
+        GeodesicDistance(Point point, MathTransform transform) throws TransformException {
+            this.point = point;
+            this.transform = transform;
+            double[] geo = new double[2];
+            transform.transform(new double[] { point.getX(), point.getY() }, 0, geo, 0, 1);
+            this.lon = geo[0];
+            this.lat = geo[1];
+        }
+
+        @Override
+        public double getDistance(Geometry geometry) {
+            Coordinate[] co = new DistanceOp(point, geometry).closestPoints();
+            double[] co0 = new double[] { co[0].x, co[0].y, };
+            double[] co1 = new double[] { co[1].x, co[1].y, };
+            double[] geo0 = new double[2];
+            double[] geo1 = new double[2];
+            try {
+                transform.transform(co0, 0, geo0, 0, 1);
+                transform.transform(co1, 0, geo1, 0, 1);
+            } catch (TransformException e) {
+                throw new ProcessException("Failed to transform to WGS84: " + e, e);
+            }
+            return DefaultGeographicCRS.WGS84.distance(geo0, geo1).doubleValue();
+        }
+
+        @Override
+        public double getLowerBound(Envelope envelope) {
+            if (envelope.getWidth() == 0 && envelope.getHeight() == 0) {
+                // a point, the distance is as cheap to compute
+                return 0;
+            }
+            Envelope geo;
+            try {
+                geo = transform(envelope);
+            } catch (TransformException e) {
+                // can't tell, the envelope will have to be visited
+                return 0;
+            }
+            return Math.max(0, RADIUS * getAngle(geo) - 1);
+        }
+
+        /**
+         * Returns a lon/lat box containing the transformed envelope, out of its four corners if
+         * the transform is linear, of its corners and the middles of its sides otherwise
+         */
+        Envelope transform(Envelope envelope) throws TransformException {
+            double x0 = envelope.getMinX();
+            double x1 = envelope.getMaxX();
+            double y0 = envelope.getMinY();
+            double y1 = envelope.getMaxY();
+            Envelope box = new Envelope();
+            if (transform instanceof LinearTransform) {
+                double[] corners = { x0, y0, x1, y0, x1, y1, x0, y1 };
+                transform.transform(corners, 0, corners, 0, 4);
+                for (int i = 0; i < corners.length; i += 2) {
+                    box.expandToInclude(corners[i], corners[i + 1]);
+                }
+                return box;
+            }
+
+            // the corners and the middles of the sides, going around the envelope
+            double xm = (x0 + x1) / 2;
+            double ym = (y0 + y1) / 2;
+            double[] points = { x0, y0, xm, y0, x1, y0, x1, ym, x1, y1, xm, y1, x0, y1, x0, ym };
+            transform.transform(points, 0, points, 0, 8);
+            double[] min = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+            double[] max = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+            double[] pad = new double[2];
+            for (int side = 0; side < 4; side++) {
+                int a = side * 4;
+                int m = a + 2;
+                int b = (a + 4) % points.length;
+                for (int d = 0; d < 2; d++) {
+                    double pa = points[a + d];
+                    double pm = points[m + d];
+                    double pb = points[b + d];
+                    min[d] = Math.min(min[d], Math.min(pa, pm));
+                    max[d] = Math.max(max[d], Math.max(pa, pm));
+                    // p(t) = pa + bt + ct^2 goes through pa, pm and pb at t = 0, 1/2 and 1
+                    double c = 2 * (pa + pb - 2 * pm);
+                    double t = c == 0 ? -1 : (3 * pa + pb - 4 * pm) / (2 * c);
+                    if (t > 0 && t < 1) {
+                        double extreme = pa + (4 * pm - 3 * pa - pb) * t + c * t * t;
+                        min[d] = Math.min(min[d], extreme);
+                        max[d] = Math.max(max[d], extreme);
+                    }
+                    pad[d] = Math.max(pad[d], Math.abs(pm - (pa + pb) / 2));
+                }
+            }
+            box.init(min[0] - pad[0], max[0] + pad[0], min[1] - pad[1], max[1] + pad[1]);
+            return box;
+        }
+
+        /**
+         * Smallest central angle, in radians, between the query point and a lon/lat box
+         */
+        double getAngle(Envelope box) {
+            double minLat = Math.toRadians(Math.max(-90, box.getMinY()));
+            double maxLat = Math.toRadians(Math.min(90, box.getMaxY()));
+            double phi = Math.toRadians(lat);
+            if (box.getWidth() >= 360 || isWithin(lon, box.getMinX(), box.getMaxX())) {
+                // along the meridian
+                if (phi < minLat) {
+                    return minLat - phi;
+                } else if (phi > maxLat) {
+                    return phi - maxLat;
+                }
+                return 0;
+            }
+            return Math.min(getMeridianAngle(phi, box.getMinX(), minLat, maxLat),
+                    getMeridianAngle(phi, box.getMaxX(), minLat, maxLat));
+        }
+
+        /**
+         * Smallest central angle between the query point and a meridian segment
+         */
+        double getMeridianAngle(double phi, double meridian, double minLat, double maxLat) {
+            double dLon = Math.toRadians(lon - meridian);
+            double x = Math.cos(phi) * Math.cos(dLon);
+            double z = Math.sin(phi);
+            // the points of the segment are (cos t, 0, sin t), the closest one is either an
+            // end or the stationary point of the dot product
+            double dot = Math.max(x * Math.cos(minLat) + z * Math.sin(minLat),
+                    x * Math.cos(maxLat) + z * Math.sin(maxLat));
+            double t = Math.atan2(z, x);
+            if (t > minLat && t < maxLat) {
+                dot = Math.max(dot, x * Math.cos(t) + z * Math.sin(t));
+            }
+            return Math.acos(Math.max(-1, Math.min(1, dot)));
+        }
+
+        static boolean isWithin(double lon, double min, double max) {
+            double offset = (lon - min) % 360;
+            if (offset < 0) {
+                offset += 360;
+            }
+            return offset <= max - min;
+        }
+    }
+
     /**
      * Calculate the bearing between two points.
      * 
@@ -17,15 +17,16 @@
  */
 package org.geotools.process.vector;
 
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
-import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.collection.BaseSimpleFeatureCollection;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.geometry.jts.ReferencedEnvelope;
@@ -68,10 +69,17 @@ import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
  * <ul>
  * <li><code>geom</code> - the point representing the cluster
  * <li><code>count</code> - the total number of points in the cluster
- * <li><code>countunique</code> - the number of unique point locations in the cluster
+ * <li><code>countunique</code> - the number of unique point locations in the cluster, exact up to
+ * 1024 locations, a HyperLogLog estimate above that
  * </ul>
  * Note that as required by the Rendering Transformation API, the output 
  * has the CRS of the input data. 
+ * <p>
+ * The input is streamed and stacked in parallel, only the grid cells are kept in memory,
+ * and the output features are built as the result is iterated. The number of unique locations
+ * is exact up to 1024 locations per cell, and estimated with a HyperLogLog sketch above that,
+ * within a few percent. If the process is canceled, the result is null rather than the
+ * aggregation of the points read so far.
  * 
  * @author mdavis
  *
@@ -98,6 +106,9 @@ public class PointStackerProcess implements VectorProcess {
     public static final String ATTR_COUNT_UNIQUE = "countunique";
     public static final String ATTR_NORM_COUNT = "normCount";
     public static final String ATTR_NORM_COUNT_UNIQUE = "normCountUnique";
+
+    /** Number of points stacked together by a thread */
+    static final int BATCH_SIZE = 4096;
     
     //TODO: add ability to pick index point selection strategy
     //TODO: add ability to set attribute name containing value to be aggregated
@@ -108,7 +119,7 @@ public class PointStackerProcess implements VectorProcess {
     
     // no process state is defined, since RenderingTransformation processes must be stateless
 
-    @DescribeResult(name = "result", description = "Aggregated feature collection")
+    @DescribeResult(name = "result", description = "Aggregated feature collection. The countunique attribute is exact up to 1024 unique locations per cell, and a HyperLogLog estimate above that")
     public SimpleFeatureCollection execute(
 
             // process data
@@ -147,133 +158,156 @@ public class PointStackerProcess implements VectorProcess {
         // assume same CRS for now...
         double cellSizeSrc = cellSize * outputEnv.getWidth() / outputWidth;
 
-        Collection<StackedPoint> stackedPts = stackPoints(data, crsTransform, cellSizeSrc,
-                outputEnv.getMinX(), outputEnv.getMinY());
+        StackedPointGrid grid = stackPoints(data, crsTransform, cellSizeSrc, monitor);
+        if (grid == null) {
+            return null;
+        }
 
         SimpleFeatureType schema = createType(srcCRS, normalize);
-        ListFeatureCollection result = new ListFeatureCollection(schema);
-        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(schema);
-
-        GeometryFactory factory = new GeometryFactory(new PackedCoordinateSequenceFactory());
+        return new StackedPointCollection(schema, grid, invTransform, preserveLocation, normalize);
+    }
 
-        double[] srcPt = new double[2];
-        double[] dstPt = new double[2];
+    /**
+     * Computes the stacked points for the given data collection.
+     * All geometry types are handled - for non-point geometries, the centroid is used.
+     * <p>
+     * The features are read in the calling thread, while their points are transformed and
+     * stacked in batches by the threads of {@link GridTasks}, each into its own partial grid
+     * merged into the result as soon as it is done. Only a few batches are in flight at any
+     * time, so the memory used depends on the number of grid cells, not on the number of points.
+     * 
+     * @param data
+     * @param crsTransform
+     * @param cellSize
+     * @param monitor
+     * @return the grid, or null if the process was canceled
+     * @throws TransformException 
+     */
+    private StackedPointGrid stackPoints(SimpleFeatureCollection data,
+            final MathTransform crsTransform, final double cellSize, ProgressListener monitor)
+            throws TransformException {
+        StackedPointGrid grid = new StackedPointGrid(cellSize);
+        int threads = GridTasks.getThreads();
+        ExecutorService executor = threads > 1 ? GridTasks.getExecutor(threads) : null;
+        LinkedList<Future<StackedPointGrid>> pending = new LinkedList<Future<StackedPointGrid>>();
 
-        // Find maxima of the point stacks if needed.
-        int maxCount = 0;
-        int maxCountUnique = 0;
-        if(normalize){
-            for (StackedPoint sp : stackedPts) {
-                if(maxCount<sp.getCount()) maxCount = sp.getCount();
-                if(maxCountUnique<sp.getCount()) maxCountUnique = sp.getCountUnique();
+        SimpleFeatureIterator featureIt = data.features();
+        try {
+            long position = 0;
+            Geometry[] batch = new Geometry[BATCH_SIZE];
+            int batchSize = 0;
+            while (featureIt.hasNext()) {
+                SimpleFeature feature = featureIt.next();
+                Geometry geom = (Geometry) feature.getDefaultGeometry();
+                if (geom == null || geom.isEmpty()) {
+                    continue;
+                }
+                batch[batchSize++] = geom;
+                if (batchSize == BATCH_SIZE) {
+                    if (isCanceled(monitor)) {
+                        // don't return a grid missing part of the points
+                        return null;
+                    }
+                    if (executor == null) {
+                        stack(grid, batch, batchSize, position, crsTransform);
+                    } else {
+                        pending.add(executor.submit(new StackTask(batch, position, cellSize,
+                                crsTransform)));
+                        batch = new Geometry[BATCH_SIZE];
+                        // bound the number of batches held in memory
+                        while (pending.size() > threads * 2) {
+                            grid.merge(getResult(pending));
+                        }
+                    }
+                    position += batchSize;
+                    batchSize = 0;
+                }
             }
-        }
-
-        for (StackedPoint sp : stackedPts) {
-            // create feature for stacked point
-            Coordinate pt = getStackedPointLocation(preserveLocation, sp);
-            
-            // transform back to src CRS, since RT rendering expects the output to be in the same CRS
-            srcPt[0] = pt.x;
-            srcPt[1] = pt.y;
-            invTransform.transform(srcPt, 0, dstPt, 0, 1);
-            Coordinate psrc = new Coordinate(dstPt[0], dstPt[1]);
-
-            Geometry point = factory.createPoint(psrc);
-            fb.add(point);
-            fb.add(sp.getCount());
-            fb.add(sp.getCountUnique());
-            if(normalize){
-                fb.add(((double)sp.getCount())/maxCount);
-                fb.add(((double)sp.getCountUnique())/maxCountUnique);
+            stack(grid, batch, batchSize, position, crsTransform);
+            while (!pending.isEmpty()) {
+                grid.merge(getResult(pending));
             }
-            
-            result.add(fb.buildFeature(null));
+            if (isCanceled(monitor)) {
+                return null;
+            }
+        } finally {
+            for (Future<StackedPointGrid> future : pending) {
+                future.cancel(true);
+            }
+            featureIt.close();
         }
-        return result;
+        return grid;
+    }
+
+    private static boolean isCanceled(ProgressListener monitor) {
+        return monitor != null && monitor.isCanceled();
     }
 
     /**
-     * Extract the geometry depending on the location preservation flag
-     * @param preserveLocation
-     * @param sp
-     * @return
+     * Waits for the first pending batch and returns its grid
      */
-    private Coordinate getStackedPointLocation(PreserveLocation preserveLocation, StackedPoint sp) {
-        Coordinate pt = null;
-        if(PreserveLocation.Single == preserveLocation) {
-            if(sp.getCount() == 1) {
-                pt = sp.getOriginalLocation();
-            } 
-        } else if(PreserveLocation.Superimposed == preserveLocation) {
-            if(sp.getCountUnique() == 1) {
-                pt = sp.getOriginalLocation();
+    private static StackedPointGrid getResult(LinkedList<Future<StackedPointGrid>> pending)
+            throws TransformException {
+        try {
+            return pending.removeFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TransformException) {
+                throw (TransformException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
+            throw new ProcessException(cause);
         }
-        if(pt == null) {
-            pt = sp.getLocation();
+    }
+
+    /**
+     * Stacks a batch of geometries, the first one being at the specified position in the input
+     */
+    static void stack(StackedPointGrid grid, Geometry[] batch, int batchSize, long position,
+            MathTransform crsTransform) throws TransformException {
+        double[] srcPt = new double[2];
+        double[] dstPt = new double[2];
+        for (int i = 0; i < batchSize; i++) {
+            // get the point location from the geometry
+            Coordinate p = getRepresentativePoint(batch[i]);
+
+            // reproject data point to output CRS, if required
+            srcPt[0] = p.x;
+            srcPt[1] = p.y;
+            crsTransform.transform(srcPt, 0, dstPt, 0, 1);
+            grid.add(dstPt[0], dstPt[1], position + i);
         }
-        return pt;
     }
 
     /**
-     * Computes the stacked points for the given data collection.
-     * All geometry types are handled - for non-point geometries, the centroid is used.
-     * 
-     * @param data
-     * @param cellSize
-     * @param minX
-     * @param minY
-     * @return
-     * @throws TransformException 
+     * Stacks a batch of geometries into a partial grid
      */
-    private Collection<StackedPoint> stackPoints(SimpleFeatureCollection data,
-            MathTransform crsTransform, 
-            double cellSize, double minX, double minY) throws TransformException {
-        SimpleFeatureIterator featureIt = data.features();
+    static class StackTask implements Callable<StackedPointGrid> {
+        final Geometry[] batch;
 
-        Map<Coordinate, StackedPoint> stackedPts = new HashMap<Coordinate, StackedPoint>();
+        final long position;
 
-        double[] srcPt = new double[2];
-        double[] dstPt = new double[2];
+        final double cellSize;
 
-        Coordinate indexPt = new Coordinate();
-        try {
-            while (featureIt.hasNext()) {
-                SimpleFeature feature = featureIt.next();
-                // get the point location from the geometry
-                Geometry geom = (Geometry) feature.getDefaultGeometry();
-                Coordinate p = getRepresentativePoint(geom);
-                
-                // reproject data point to output CRS, if required
-                srcPt[0] = p.x;
-                srcPt[1] = p.y;
-                crsTransform.transform(srcPt, 0, dstPt, 0, 1);
-                Coordinate pout = new Coordinate(dstPt[0], dstPt[1]);
-
-                indexPt.x = pout.x;
-                indexPt.y = pout.y;
-                gridIndex(indexPt, cellSize);
-
-                StackedPoint stkPt = stackedPts.get(indexPt);
-                if (stkPt == null) {
-                    
-                    /**
-                     * Note that the 
-                     */
-                    double centreX = indexPt.x * cellSize + cellSize / 2;
-                    double centreY = indexPt.y * cellSize + cellSize / 2;
-                    
-                    stkPt = new StackedPoint(indexPt, new Coordinate(centreX, centreY));
-                    stackedPts.put(stkPt.getKey(), stkPt);
-                }
-                stkPt.add(pout);
-            }
+        final MathTransform crsTransform;
 
-        } finally {
-            featureIt.close();
+        StackTask(Geometry[] batch, long position, double cellSize, MathTransform crsTransform) {
+            this.batch = batch;
+            this.position = position;
+            this.cellSize = cellSize;
+            this.crsTransform = crsTransform;
+        }
+
+        @Override
+        public StackedPointGrid call() throws TransformException {
+            StackedPointGrid grid = new StackedPointGrid(cellSize);
+            stack(grid, batch, batch.length, position, crsTransform);
+            return grid;
         }
-        return stackedPts.values();
     }
 
     /**
@@ -291,32 +325,6 @@ public class PointStackerProcess implements VectorProcess {
         return g.getCentroid().getCoordinate();
     }
     
-    /**
-     * Computes the grid index for a point for the grid determined by the cellsize.
-     * 
-     * @param griddedPt the point to grid, and also holds the output value
-     * @param cellSize the grid cell size
-     */
-    private void gridIndex(Coordinate griddedPt, double cellSize) {
-        
-        // TODO: is there any situation where this could result in too much loss of precision?  
-        /**
-         * The grid is based at the origin of the entire data space, 
-         * not just the query window.
-         * This makes gridding stable during panning.
-         * 
-         * This should not lose too much precision for any reasonable coordinate system and map size.
-         * The worst case is a CRS with small ordinate values, and a large cell size.
-         * The worst case tested is a map in degrees, zoomed out to show about twice the globe - works fine.
-         */
-        // Use longs to avoid possible overflow issues (e.g. for a very small cell size)
-        long ix = (long) ((griddedPt.x) / cellSize);
-        long iy = (long) ((griddedPt.y) / cellSize);
-        
-        griddedPt.x = ix;
-        griddedPt.y = iy;
-    }
-
     private SimpleFeatureType createType(CoordinateReferenceSystem crs, boolean stretch) {
         SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
         tb.add(ATTR_GEOM, Point.class, crs);
@@ -331,130 +339,118 @@ public class PointStackerProcess implements VectorProcess {
         return sfType;
     }
 
-    private static class StackedPoint {
-        private Coordinate key;
+    /**
+     * The stacked points, built one at a time from the grid as the collection is iterated
+     */
+    static class StackedPointCollection extends BaseSimpleFeatureCollection {
+
+        final StackedPointGrid grid;
 
-        private Coordinate centerPt;
+        final MathTransform invTransform;
 
-        private Coordinate location = null;
+        final PreserveLocation preserveLocation;
 
-        private int count = 0;
+        final boolean normalize;
 
-        private Set<Coordinate> uniquePts;
+        int maxCount;
 
-        /**
-         * Creates a new stacked point grid cell.
-         * The center point of the cell is supplied
-         * so that it may be used as or influence the
-         * location of the final display point
-         * 
-         * @param key a key for the grid cell (using integer ordinates to avoid precision issues)
-         * @param centerPt the center point of the grid cell 
-         */
-        public StackedPoint(Coordinate key, Coordinate centerPt) {
-            this.key = new Coordinate(key);
-            this.centerPt = centerPt;
-        }
+        int maxCountUnique;
 
-        public Coordinate getKey() {
-            return key;
-        }
+        StackedPointCollection(SimpleFeatureType schema, StackedPointGrid grid,
+                MathTransform invTransform, PreserveLocation preserveLocation, boolean normalize) {
+            super(schema);
+            this.grid = grid;
+            this.invTransform = invTransform;
+            this.preserveLocation = preserveLocation;
+            this.normalize = normalize;
 
-        public Coordinate getLocation() {
-            return location;
+            // Find maxima of the point stacks if needed.
+            if (normalize) {
+                for (int id = 0; id < grid.size(); id++) {
+                    maxCount = Math.max(maxCount, grid.getCount(id));
+                    maxCountUnique = Math.max(maxCountUnique, grid.getCountUnique(id));
+                }
+            }
         }
 
-        public int getCount() {
-            return count;
+        @Override
+        public int size() {
+            return grid.size();
         }
 
-        public int getCountUnique() {
-            if (uniquePts == null)
-                return 1;
-            return uniquePts.size();
+        @Override
+        public SimpleFeatureIterator features() {
+            return new StackedPointIterator();
         }
 
-        public void add(Coordinate pt) {
-            count++;
-            /**
-             * Only create set if this is the second point seen
-             * (and assum the first pt is in location)
-             */
-            if (uniquePts == null) {
-                uniquePts = new HashSet<Coordinate>();
-            }
-            uniquePts.add(pt);
+        class StackedPointIterator implements SimpleFeatureIterator {
 
-            pickNearestLocation(pt);
-            //pickCenterLocation(pt);
-        }
-        
-        /**
-         * The original location of the points, in case they are all superimposed (or there is a single
-         * point), otherwise null
-         * @return
-         */
-        public Coordinate getOriginalLocation() {
-            if(uniquePts != null && uniquePts.size() == 1) {
-                return uniquePts.iterator().next();
-            } else {
-                return null;
-            }
-        }
+            SimpleFeatureBuilder fb = new SimpleFeatureBuilder(getSchema());
 
-        /**
-         * Picks the location as the point
-         * which is nearest to the center of the cell.
-         * In addition, the nearest location is averaged with the cell center.
-         * This gives the best chance of avoiding conflicts.
-         * 
-         * @param pt
-         */
-        private void pickNearestLocation(Coordinate pt) {
-            // strategy - pick most central point
-            if (location == null) {
-                location = average(centerPt, pt);
-                return;
-            }
-            if (pt.distance(centerPt) < location.distance(centerPt)) {
-                location = average(centerPt, pt);
+            GeometryFactory factory = new GeometryFactory(new PackedCoordinateSequenceFactory());
+
+            double[] srcPt = new double[2];
+
+            double[] dstPt = new double[2];
+
+            int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < grid.size();
             }
-        }
-        
-        /**
-         * Picks the location as the centre point of the cell.
-         * This does not give a good visualization - the gridding is very obvious
-         * 
-         * @param pt
-         */
-        private void pickCenterLocation(Coordinate pt) {
-            // strategy - pick first point
-            if (location == null) {
-                location = new Coordinate(pt);
-                return;
+
+            @Override
+            public SimpleFeature next() throws NoSuchElementException {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int id = next++;
+
+                // create feature for stacked point
+                setStackedPointLocation(id);
+
+                // transform back to src CRS, since RT rendering expects the output to be in the
+                // same CRS
+                try {
+                    invTransform.transform(srcPt, 0, dstPt, 0, 1);
+                } catch (TransformException e) {
+                    throw new ProcessException(e);
+                }
+                Coordinate psrc = new Coordinate(dstPt[0], dstPt[1]);
+
+                Geometry point = factory.createPoint(psrc);
+                fb.add(point);
+                fb.add(grid.getCount(id));
+                fb.add(grid.getCountUnique(id));
+                if (normalize) {
+                    fb.add(((double) grid.getCount(id)) / maxCount);
+                    fb.add(((double) grid.getCountUnique(id)) / maxCountUnique);
+                }
+                return fb.buildFeature(null);
             }
-            location = centerPt;
-        }
 
-        /**
-         * Picks the first location encountered as the cell location.
-         * This is sub-optimal, since if the first point is near the cell
-         * boundary it is likely to collide with neighbouring points.
-         * 
-         * @param pt
-         */
-        private void pickFirstLocation(Coordinate pt) {
-            // strategy - pick first point
-            if (location == null) {
-                location = new Coordinate(pt);
+            /**
+             * Sets the location of the stacked point in srcPt, depending on the location
+             * preservation flag
+             */
+            void setStackedPointLocation(int id) {
+                if ((PreserveLocation.Single == preserveLocation && grid.getCount(id) == 1)
+                        || (PreserveLocation.Superimposed == preserveLocation && grid
+                                .getCountUnique(id) == 1)) {
+                    // the original location, as all the points are at the first one
+                    srcPt[0] = grid.firstX[id];
+                    srcPt[1] = grid.firstY[id];
+                } else {
+                    srcPt[0] = grid.getLocationX(id);
+                    srcPt[1] = grid.getLocationY(id);
+                }
             }
-        }
 
-        private static Coordinate average(Coordinate p1, Coordinate p2)
-        {
-            double x = (p1.x + p2.x) / 2;
-            double y = (p1.y + p2.y) / 2;
-            return new Coordinate(x, y);
+            @Override
+            public void close() {
+                // nothing to release
+            }
         }
     }
 }
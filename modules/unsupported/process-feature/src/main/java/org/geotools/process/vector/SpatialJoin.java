@@ -0,0 +1,330 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.vector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.process.ProcessException;
+import org.opengis.feature.simple.SimpleFeature;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.ItemVisitor;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * Spatial join support for the vector processes. The features of one side of the join are read
+ * once and bulk loaded in an STR tree, the features of the other side are then streamed and
+ * matched against the tree, instead of issuing one spatial query per streamed feature. Candidates
+ * are refined with {@link PreparedGeometry} predicates, and overlays are skipped when one geometry
+ * contains the other.
+ * <p>
+ * The streamed side can be processed in parallel batches, see {@link #THREADS_KEY}, the results
+ * are returned in the same order as in a sequential run. The threads are daemon threads shared by
+ * all the joins, created when first needed.
+ * </p>
+ */
+class SpatialJoin {
+
+    /**
+     * System property setting the number of threads used to process the streamed side of joins,
+     * defaults to 1, meaning the join runs in the calling thread
+     */
+    public static final String THREADS_KEY = "org.geotools.process.vector.spatialJoinThreads";
+
+    /** Number of streamed features processed by each thread at a time */
+    static final int BATCH_SIZE = 64;
+
+    static ExecutorService executor;
+
+    STRtree index = new STRtree();
+
+    int size;
+
+    /**
+     * Loads the default geometries of the features in the index. Features without a geometry are
+     * skipped.
+     */
+    SpatialJoin(SimpleFeatureCollection features) {
+        SimpleFeatureIterator fi = features.features();
+        try {
+            while (fi.hasNext()) {
+                SimpleFeature feature = fi.next();
+                Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                if (geometry != null && !geometry.isEmpty()) {
+                    index.insert(geometry.getEnvelopeInternal(), new Entry(size++, feature,
+                            geometry));
+                }
+            }
+        } finally {
+            fi.close();
+        }
+        index.build();
+    }
+
+    /**
+     * Returns the number of features indexed
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the indexed entries whose envelope intersects the specified one, in the order the
+     * features were read
+     */
+    List<Entry> getCandidates(Envelope envelope) {
+        final List<Entry> result = new ArrayList<Entry>();
+        if (size > 0) {
+            index.query(envelope, new ItemVisitor() {
+
+                @Override
+                public void visitItem(Object item) {
+                    result.add((Entry) item);
+                }
+            });
+            Collections.sort(result, LOAD_ORDER);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the indexed entries whose geometry intersects the prepared one, in the order the
+     * features were read
+     */
+    List<Entry> getIntersecting(PreparedGeometry prepared) {
+        List<Entry> candidates = getCandidates(prepared.getGeometry().getEnvelopeInternal());
+        for (Iterator<Entry> it = candidates.iterator(); it.hasNext();) {
+            if (!prepared.intersects(it.next().geometry)) {
+                it.remove();
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Checks if any indexed geometry contains the specified one
+     */
+    boolean isContained(Geometry geometry) {
+        final Envelope envelope = geometry.getEnvelopeInternal();
+        for (Entry candidate : getCandidates(envelope)) {
+            if (candidate.geometry.getEnvelopeInternal().contains(envelope)
+                    && candidate.contains(geometry)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Intersects a geometry with a prepared one, avoiding the overlay computation when the two
+     * geometries are disjoint or when the prepared one properly contains the other.
+     *
+     * @return The intersection, or null if the geometries are disjoint
+     */
+    static Geometry intersection(PreparedGeometry prepared, Geometry geometry) {
+        if (!prepared.intersects(geometry)) {
+            return null;
+        }
+        if (prepared.containsProperly(geometry)) {
+            return geometry;
+        }
+        return prepared.getGeometry().intersection(geometry);
+    }
+
+    /**
+     * Returns the number of threads to be used for the streamed side of joins
+     */
+    static int getThreads() {
+        return Math.max(1, Integer.getInteger(THREADS_KEY, 1));
+    }
+
+    static synchronized ExecutorService getExecutor(int threads) {
+        if (executor == null) {
+            final AtomicInteger counter = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "SpatialJoin-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+
+    static final Comparator<Entry> LOAD_ORDER = new Comparator<Entry>() {
+
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            return e1.position < e2.position ? -1 : (e1.position == e2.position ? 0 : 1);
+        }
+    };
+
+    /**
+     * An indexed feature along with its geometry
+     */
+    static class Entry {
+        final int position;
+
+        final SimpleFeature feature;
+
+        final Geometry geometry;
+
+        PreparedGeometry prepared;
+
+        Entry(int position, SimpleFeature feature, Geometry geometry) {
+            this.position = position;
+            this.feature = feature;
+            this.geometry = geometry;
+        }
+
+        /**
+         * Containment test using a prepared version of the indexed geometry, built on first use.
+         * Prepared geometries build their internal structures lazily, hence the synchronization
+         */
+        synchronized boolean contains(Geometry g) {
+            if (prepared == null) {
+                prepared = PreparedGeometryFactory.prepare(geometry);
+            }
+            return prepared.contains(g);
+        }
+    }
+
+    /**
+     * Maps a streamed feature to its join results
+     */
+    interface Joiner<T> {
+        List<T> join(SimpleFeature feature) throws Exception;
+    }
+
+    /**
+     * Streams features and returns their join results in order, joining batches of features in
+     * parallel when more than one thread is configured
+     */
+    static class JoinIterator<T> {
+        SimpleFeatureIterator delegate;
+
+        Joiner<T> joiner;
+
+        int threads;
+
+        LinkedList<T> results = new LinkedList<T>();
+
+        JoinIterator(SimpleFeatureIterator delegate, Joiner<T> joiner, int threads) {
+            this.delegate = delegate;
+            this.joiner = joiner;
+            this.threads = threads;
+        }
+
+        boolean hasNext() {
+            while (results.isEmpty() && delegate.hasNext()) {
+                if (threads <= 1) {
+                    results.addAll(join(delegate.next()));
+                } else {
+                    joinBatch();
+                }
+            }
+            return !results.isEmpty();
+        }
+
+        T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("hasNext() returned false!");
+            }
+            return results.removeFirst();
+        }
+
+        List<T> join(SimpleFeature feature) {
+            try {
+                return joiner.join(feature);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new ProcessException(e);
+            }
+        }
+
+        void joinBatch() {
+            // read a batch per thread, then join them all in parallel
+            ExecutorService executor = getExecutor(threads);
+            List<Future<List<T>>> futures = new ArrayList<Future<List<T>>>(threads);
+            for (int t = 0; t < threads && delegate.hasNext(); t++) {
+                final List<SimpleFeature> batch = new ArrayList<SimpleFeature>(BATCH_SIZE);
+                while (batch.size() < BATCH_SIZE && delegate.hasNext()) {
+                    batch.add(delegate.next());
+                }
+                futures.add(executor.submit(new Callable<List<T>>() {
+
+                    @Override
+                    public List<T> call() throws Exception {
+                        List<T> result = new ArrayList<T>();
+                        for (SimpleFeature feature : batch) {
+                            result.addAll(join(feature));
+                        }
+                        return result;
+                    }
+                }));
+            }
+            try {
+                for (Future<List<T>> future : futures) {
+                    results.addAll(future.get());
+                }
+            } catch (InterruptedException e) {
+                cancel(futures);
+                Thread.currentThread().interrupt();
+                throw new ProcessException(e);
+            } catch (ExecutionException e) {
+                cancel(futures);
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new ProcessException(e.getCause());
+            }
+        }
+
+        void cancel(List<Future<List<T>>> futures) {
+            // the threads are shared, don't leave them busy with a failed join
+            for (Future<List<T>> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        void close() {
+            delegate.close();
+        }
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.vector;
+
+import java.util.Arrays;
+
+/**
+ * The grid cells of a point stacking, kept in primitive arrays so that millions of points can be
+ * stacked without allocating objects per point.
+ * <p>
+ * The cells are found with an open addressing hash table keyed on the grid indexes of the cell,
+ * and their values are stored in parallel arrays indexed by the order the cells were created.
+ * Every point carries its position in the input, which is used to break ties, so that grids
+ * stacked in parts and then merged are the same as if all the points were stacked in order.
+ * <p>
+ * The number of unique locations is counted exactly up to {@link DistinctPoints#EXACT_LIMIT}
+ * locations per cell, above that it is estimated in a constant amount of memory.
+ */
+class StackedPointGrid {
+
+    static final int INITIAL_CAPACITY = 64;
+
+    final double cellSize;
+
+    /** Cell identifier plus one, 0 marking an empty slot */
+    int[] table;
+
+    int size;
+
+    long[] cellX;
+
+    long[] cellY;
+
+    int[] count;
+
+    /** The point nearest to the cell center, and its distance to it */
+    double[] nearestX;
+
+    double[] nearestY;
+
+    double[] nearestDistance;
+
+    long[] nearestPosition;
+
+    /** The first point in input order */
+    double[] firstX;
+
+    double[] firstY;
+
+    long[] firstPosition;
+
+    /** The unique locations, or null as long as all the points are at the first location */
+    DistinctPoints[] distinct;
+
+    StackedPointGrid(double cellSize) {
+        this.cellSize = cellSize;
+        this.table = new int[INITIAL_CAPACITY * 2];
+        allocate(INITIAL_CAPACITY);
+    }
+
+    void allocate(int capacity) {
+        cellX = grow(cellX, capacity);
+        cellY = grow(cellY, capacity);
+        count = count == null ? new int[capacity] : Arrays.copyOf(count, capacity);
+        nearestX = grow(nearestX, capacity);
+        nearestY = grow(nearestY, capacity);
+        nearestDistance = grow(nearestDistance, capacity);
+        nearestPosition = grow(nearestPosition, capacity);
+        firstX = grow(firstX, capacity);
+        firstY = grow(firstY, capacity);
+        firstPosition = grow(firstPosition, capacity);
+        distinct = distinct == null ? new DistinctPoints[capacity] : Arrays.copyOf(distinct,
+                capacity);
+    }
+
+    static long[] grow(long[] array, int capacity) {
+        return array == null ? new long[capacity] : Arrays.copyOf(array, capacity);
+    }
+
+    static double[] grow(double[] array, int capacity) {
+        return array == null ? new double[capacity] : Arrays.copyOf(array, capacity);
+    }
+
+    /**
+     * Returns the number of cells holding points
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds a point to the cell it falls into
+     *
+     * @param position The position of the point in the input
+     */
+    void add(double x, double y, long position) {
+        /**
+         * The grid is based at the origin of the entire data space, not just the query window.
+         * This makes gridding stable during panning. Use longs to avoid possible overflow issues
+         * (e.g. for a very small cell size)
+         */
+        long ix = (long) (x / cellSize);
+        long iy = (long) (y / cellSize);
+        int id = getCell(ix, iy);
+        if (count[id] == 0) {
+            firstX[id] = x;
+            firstY[id] = y;
+            firstPosition[id] = position;
+        } else {
+            addDistinct(id, x, y);
+            if (position < firstPosition[id]) {
+                firstX[id] = x;
+                firstY[id] = y;
+                firstPosition[id] = position;
+            }
+        }
+        count[id]++;
+
+        double dx = x - getCenterX(id);
+        double dy = y - getCenterY(id);
+        pickNearest(id, x, y, Math.sqrt(dx * dx + dy * dy), position);
+    }
+
+    /**
+     * Adds the cells of another grid with the same cell size to this one. The other grid must not
+     * be used afterwards, as some of its state is shared rather than copied.
+     */
+    void merge(StackedPointGrid other) {
+        for (int o = 0; o < other.size; o++) {
+            int id = getCell(other.cellX[o], other.cellY[o]);
+            if (count[id] == 0) {
+                firstX[id] = other.firstX[o];
+                firstY[id] = other.firstY[o];
+                firstPosition[id] = other.firstPosition[o];
+                distinct[id] = other.distinct[o];
+            } else {
+                if (other.distinct[o] != null) {
+                    getDistinct(id).addAll(other.distinct[o]);
+                } else {
+                    addDistinct(id, other.firstX[o], other.firstY[o]);
+                }
+                if (other.firstPosition[o] < firstPosition[id]) {
+                    firstX[id] = other.firstX[o];
+                    firstY[id] = other.firstY[o];
+                    firstPosition[id] = other.firstPosition[o];
+                }
+            }
+            count[id] += other.count[o];
+            pickNearest(id, other.nearestX[o], other.nearestY[o], other.nearestDistance[o],
+                    other.nearestPosition[o]);
+        }
+    }
+
+    /**
+     * Picks the point nearest to the cell center, the first one in input order in case of ties
+     */
+    void pickNearest(int id, double x, double y, double distance, long position) {
+        int compare = Double.compare(distance, nearestDistance[id]);
+        if (compare < 0 || (compare == 0 && position < nearestPosition[id])) {
+            nearestX[id] = x;
+            nearestY[id] = y;
+            nearestDistance[id] = distance;
+            nearestPosition[id] = position;
+        }
+    }
+
+    void addDistinct(int id, double x, double y) {
+        if (distinct[id] == null && x == firstX[id] && y == firstY[id]) {
+            return;
+        }
+        getDistinct(id).add(x, y);
+    }
+
+    /**
+     * Returns the unique locations of a cell, creating them from the first point if missing
+     */
+    DistinctPoints getDistinct(int id) {
+        DistinctPoints points = distinct[id];
+        if (points == null) {
+            points = new DistinctPoints();
+            points.add(firstX[id], firstY[id]);
+            distinct[id] = points;
+        }
+        return points;
+    }
+
+    /**
+     * Returns the identifier of a cell, creating it if missing
+     */
+    int getCell(long ix, long iy) {
+        int mask = table.length - 1;
+        int slot = hash(ix, iy) & mask;
+        while (table[slot] != 0) {
+            int id = table[slot] - 1;
+            if (cellX[id] == ix && cellY[id] == iy) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        int id = size++;
+        if (id == cellX.length) {
+            allocate(cellX.length * 2);
+        }
+        cellX[id] = ix;
+        cellY[id] = iy;
+        nearestDistance[id] = Double.NaN;
+        nearestPosition[id] = Long.MAX_VALUE;
+        table[slot] = id + 1;
+        // keep the table at most half full
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return id;
+    }
+
+    void rehash(int capacity) {
+        table = new int[capacity];
+        int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hash(cellX[id], cellY[id]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+    }
+
+    static int hash(long ix, long iy) {
+        long h = ix * 0x9E3779B97F4A7C15L + iy;
+        h ^= h >>> 32;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 29));
+    }
+
+    double getCenterX(int id) {
+        return cellX[id] * cellSize + cellSize / 2;
+    }
+
+    double getCenterY(int id) {
+        return cellY[id] * cellSize + cellSize / 2;
+    }
+
+    int getCount(int id) {
+        return count[id];
+    }
+
+    int getCountUnique(int id) {
+        if (distinct[id] == null) {
+            return 1;
+        }
+        return Math.min(count[id], distinct[id].size());
+    }
+
+    /**
+     * Returns the location of the stacked point, which is the point nearest to the cell center
+     * averaged with the center. This gives the best chance of avoiding conflicts.
+     */
+    double getLocationX(int id) {
+        return (getCenterX(id) + nearestX[id]) / 2;
+    }
+
+    double getLocationY(int id) {
+        return (getCenterY(id) + nearestY[id]) / 2;
+    }
+
+    /**
+     * Counts the unique locations of a set of points. Locations are kept and compared exactly
+     * until there are more than {@link #EXACT_LIMIT} of them, then they are only counted with a
+     * HyperLogLog sketch, whose relative error is about 2%.
+     */
+    static class DistinctPoints {
+
+        static final int EXACT_LIMIT = 1024;
+
+        static final int SKETCH_BITS = 11;
+
+        static final int SKETCH_SIZE = 1 << SKETCH_BITS;
+
+        long[] xs = new long[8];
+
+        long[] ys = new long[8];
+
+        boolean[] used = new boolean[8];
+
+        int size;
+
+        byte[] sketch;
+
+        void add(double x, double y) {
+            // adding 0 turns -0 into 0, since Coordinate considers them equal
+            long bx = Double.doubleToLongBits(x + 0.0);
+            long by = Double.doubleToLongBits(y + 0.0);
+            if (sketch != null) {
+                addToSketch(bx, by);
+                return;
+            }
+            int mask = used.length - 1;
+            int slot = (int) mix(bx, by) & mask;
+            while (used[slot]) {
+                if (xs[slot] == bx && ys[slot] == by) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            used[slot] = true;
+            xs[slot] = bx;
+            ys[slot] = by;
+            size++;
+            if (size > EXACT_LIMIT) {
+                toSketch();
+            } else if (size * 2 > used.length) {
+                rehash(used.length * 2);
+            }
+        }
+
+        void addAll(DistinctPoints other) {
+            if (other.sketch != null) {
+                if (sketch == null) {
+                    toSketch();
+                }
+                for (int i = 0; i < SKETCH_SIZE; i++) {
+                    sketch[i] = (byte) Math.max(sketch[i], other.sketch[i]);
+                }
+            } else {
+                for (int i = 0; i < other.used.length; i++) {
+                    if (other.used[i]) {
+                        add(Double.longBitsToDouble(other.xs[i]),
+                                Double.longBitsToDouble(other.ys[i]));
+                    }
+                }
+            }
+        }
+
+        void rehash(int capacity) {
+            long[] oldXs = xs;
+            long[] oldYs = ys;
+            boolean[] oldUsed = used;
+            xs = new long[capacity];
+            ys = new long[capacity];
+            used = new boolean[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldUsed.length; i++) {
+                if (oldUsed[i]) {
+                    int slot = (int) mix(oldXs[i], oldYs[i]) & mask;
+                    while (used[slot]) {
+                        slot = (slot + 1) & mask;
+                    }
+                    used[slot] = true;
+                    xs[slot] = oldXs[i];
+                    ys[slot] = oldYs[i];
+                }
+            }
+        }
+
+        void toSketch() {
+            sketch = new byte[SKETCH_SIZE];
+            for (int i = 0; i < used.length; i++) {
+                if (used[i]) {
+                    addToSketch(xs[i], ys[i]);
+                }
+            }
+            xs = null;
+            ys = null;
+            used = null;
+        }
+
+        void addToSketch(long bx, long by) {
+            long h = mix(bx, by);
+            int register = (int) (h >>> (64 - SKETCH_BITS));
+            // position of the first 1 bit after the register bits, the sentinel bit caps it
+            int rank = Long.numberOfLeadingZeros((h << SKETCH_BITS) | (1L << (SKETCH_BITS - 1))) + 1;
+            if (rank > sketch[register]) {
+                sketch[register] = (byte) rank;
+            }
+        }
+
+        int size() {
+            if (sketch == null) {
+                return size;
+            }
+            double sum = 0;
+            int zeros = 0;
+            for (int i = 0; i < SKETCH_SIZE; i++) {
+                sum += 1d / (1L << sketch[i]);
+                if (sketch[i] == 0) {
+                    zeros++;
+                }
+            }
+            double alpha = 0.7213 / (1 + 1.079 / SKETCH_SIZE);
+            double estimate = alpha * SKETCH_SIZE * SKETCH_SIZE / sum;
+            if (estimate <= 2.5 * SKETCH_SIZE && zeros > 0) {
+                // small range correction
+                estimate = SKETCH_SIZE * Math.log((double) SKETCH_SIZE / zeros);
+            }
+            // the sketch is only used once the exact count went over the limit
+            return (int) Math.max(EXACT_LIMIT + 1, Math.min(Integer.MAX_VALUE, Math.round(estimate)));
+        }
+
+        static long mix(long bx, long by) {
+            long h = bx * 0x9E3779B97F4A7C15L ^ by;
+            h ^= h >>> 33;
+            h *= 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 33;
+            h *= 0xC4CEB9FE1A85EC53L;
+            return h ^ (h >>> 33);
+        }
+    }
+}
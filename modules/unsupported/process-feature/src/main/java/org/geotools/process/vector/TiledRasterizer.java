@@ -0,0 +1,466 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.vector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Burns points, lines and polygons into an integer raster split in square tiles.
+ * <p>
+ * The shapes are added in batches while the source is streamed: each shape is transformed to
+ * grid coordinates and binned into the tiles its envelope touches, and once the batch is full
+ * the tiles are rasterized in parallel by {@link GridTasks}, each tile drawing its shapes in the
+ * order they were added, so that later shapes overwrite the earlier ones as with sequential
+ * drawing. Only the current batch is kept in memory, along with the tiles that have been drawn
+ * into.
+ * <p>
+ * Polygons are filled with a scanline algorithm following the even-odd rule, so holes are left
+ * empty: a pixel is filled when its center is inside the polygon, the left and top edges being
+ * inside and the right and bottom ones outside. Lines are drawn one pixel wide through the
+ * pixels holding their vertices, and points fill the pixel holding them. Vertices lying on the
+ * raster border are considered inside it.
+ */
+class TiledRasterizer {
+
+    static final int TILE_SIZE = 256;
+
+    /** Number of coordinates buffered before the tiles are drawn */
+    static final int BATCH_COORDINATES = 1 << 20;
+
+    /** Distance in pixels under which a vertex is snapped to the raster border */
+    static final double BORDER_TOLERANCE = 1e-6;
+
+    static final int POINT = 0;
+
+    static final int LINE = 1;
+
+    static final int POLYGON = 2;
+
+    final int width;
+
+    final int height;
+
+    final int tileSize;
+
+    final int numXTiles;
+
+    final int numYTiles;
+
+    final MathTransform toGrid;
+
+    /** The pixels of each tile, row by row, null for tiles nothing has been drawn into */
+    final int[][] tiles;
+
+    /** The shapes of the current batch falling in each tile */
+    final List<Shape>[] bins;
+
+    /** The tiles holding shapes of the current batch */
+    int[] binnedTiles = new int[16];
+
+    int binnedCount;
+
+    int batchCoordinates;
+
+    /**
+     * @param width The raster width
+     * @param height The raster height
+     * @param tileSize The width and height of the tiles
+     * @param toGrid Transformation from the source coordinates to the grid, with pixel (i, j)
+     *        covering [i, i + 1) x [j, j + 1)
+     */
+    @SuppressWarnings("unchecked")
+    TiledRasterizer(int width, int height, int tileSize, MathTransform toGrid) {
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.numXTiles = (width + tileSize - 1) / tileSize;
+        this.numYTiles = (height + tileSize - 1) / tileSize;
+        this.toGrid = toGrid;
+        this.tiles = new int[numXTiles * numYTiles][];
+        this.bins = new List[tiles.length];
+    }
+
+    /**
+     * Returns the pixels of a tile, row by row with a stride of the tile size, or null if the
+     * tile is empty. The pixels of edge tiles that lie outside of the raster are left to 0.
+     */
+    int[] getTile(int tileX, int tileY) {
+        return tiles[tileY * numXTiles + tileX];
+    }
+
+    /**
+     * Adds a point
+     *
+     * @return true if the point falls within the raster
+     */
+    boolean addPoint(Point point, int value) throws TransformException {
+        if (point.isEmpty()) {
+            return false;
+        }
+        double[] ordinates = toGrid(point.getCoordinateSequence(), false);
+        return bin(new Shape(POINT, value, new double[][] { ordinates }));
+    }
+
+    /**
+     * Adds a line string
+     *
+     * @return true if the envelope of the line intersects the raster
+     */
+    boolean addLine(LineString line, int value) throws TransformException {
+        if (line.isEmpty()) {
+            return false;
+        }
+        double[] ordinates = toGrid(line.getCoordinateSequence(), false);
+        return bin(new Shape(LINE, value, new double[][] { ordinates }));
+    }
+
+    /**
+     * Adds a polygon, along with its holes
+     *
+     * @return true if the envelope of the polygon intersects the raster
+     */
+    boolean addPolygon(Polygon polygon, int value) throws TransformException {
+        if (polygon.isEmpty()) {
+            return false;
+        }
+        double[][] rings = new double[polygon.getNumInteriorRing() + 1][];
+        rings[0] = toGrid(polygon.getExteriorRing().getCoordinateSequence(), true);
+        for (int i = 1; i < rings.length; i++) {
+            rings[i] = toGrid(polygon.getInteriorRingN(i - 1).getCoordinateSequence(), true);
+        }
+        return bin(new Shape(POLYGON, value, rings));
+    }
+
+    /**
+     * Returns the coordinates transformed to the grid, as x, y pairs
+     *
+     * @param ring whether the sequence is a ring, that is not snapped to the raster border
+     */
+    double[] toGrid(CoordinateSequence cs, boolean ring) throws TransformException {
+        int n = cs.size();
+        double[] ordinates = new double[n * 2];
+        for (int i = 0; i < n; i++) {
+            ordinates[2 * i] = cs.getOrdinate(i, 0);
+            ordinates[2 * i + 1] = cs.getOrdinate(i, 1);
+        }
+        toGrid.transform(ordinates, 0, ordinates, 0, n);
+        if (!ring) {
+            for (int i = 0; i < ordinates.length; i += 2) {
+                ordinates[i] = snap(ordinates[i], width);
+                ordinates[i + 1] = snap(ordinates[i + 1], height);
+            }
+        }
+        return ordinates;
+    }
+
+    static double snap(double ordinate, int size) {
+        if (Math.abs(ordinate - size) <= BORDER_TOLERANCE) {
+            return size - BORDER_TOLERANCE;
+        } else if (Math.abs(ordinate) <= BORDER_TOLERANCE) {
+            return 0;
+        }
+        return ordinate;
+    }
+
+    /**
+     * Adds a shape to the bins of the tiles its envelope touches, drawing the batch if full
+     */
+    boolean bin(Shape shape) {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        int coordinates = 0;
+        for (double[] part : shape.parts) {
+            for (int i = 0; i < part.length; i += 2) {
+                minX = Math.min(minX, part[i]);
+                maxX = Math.max(maxX, part[i]);
+                minY = Math.min(minY, part[i + 1]);
+                maxY = Math.max(maxY, part[i + 1]);
+            }
+            coordinates += part.length / 2;
+        }
+        // NaN ordinates fail all the comparisons below
+        if (!(minX < width && minY < height && maxX >= 0 && maxY >= 0)) {
+            return false;
+        }
+
+        int minCol = (int) Math.max(0, Math.floor(minX));
+        int maxCol = (int) Math.min(width - 1, Math.floor(maxX));
+        int minRow = (int) Math.max(0, Math.floor(minY));
+        int maxRow = (int) Math.min(height - 1, Math.floor(maxY));
+        if (shape.type == POLYGON) {
+            shape.buildEdges();
+        }
+        for (int ty = minRow / tileSize; ty <= maxRow / tileSize; ty++) {
+            for (int tx = minCol / tileSize; tx <= maxCol / tileSize; tx++) {
+                int tile = ty * numXTiles + tx;
+                if (bins[tile] == null) {
+                    bins[tile] = new ArrayList<Shape>();
+                }
+                if (bins[tile].isEmpty()) {
+                    if (binnedCount == binnedTiles.length) {
+                        binnedTiles = Arrays.copyOf(binnedTiles, binnedCount * 2);
+                    }
+                    binnedTiles[binnedCount++] = tile;
+                }
+                bins[tile].add(shape);
+            }
+        }
+
+        batchCoordinates += coordinates;
+        if (batchCoordinates >= BATCH_COORDINATES) {
+            flush();
+        }
+        return true;
+    }
+
+    /**
+     * Draws the shapes of the current batch into the tiles, must be called once all the shapes
+     * have been added
+     */
+    void flush() {
+        GridTasks.run(binnedCount, new GridTasks.Task() {
+
+            @Override
+            public void run(int start, int end) {
+                for (int i = start; i < end; i++) {
+                    drawTile(binnedTiles[i]);
+                }
+            }
+        });
+        for (int i = 0; i < binnedCount; i++) {
+            bins[binnedTiles[i]].clear();
+        }
+        binnedCount = 0;
+        batchCoordinates = 0;
+    }
+
+    void drawTile(int tile) {
+        int[] pixels = tiles[tile];
+        if (pixels == null) {
+            pixels = new int[tileSize * tileSize];
+            tiles[tile] = pixels;
+        }
+        int x0 = (tile % numXTiles) * tileSize;
+        int y0 = (tile / numXTiles) * tileSize;
+        // the part of the tile within the raster
+        int x1 = Math.min(width, x0 + tileSize);
+        int y1 = Math.min(height, y0 + tileSize);
+        double[] crossings = new double[16];
+        for (Shape shape : bins[tile]) {
+            switch (shape.type) {
+            case POINT:
+                drawPoint(shape, pixels, x0, y0, x1, y1);
+                break;
+            case LINE:
+                drawLine(shape, pixels, x0, y0, x1, y1);
+                break;
+            default:
+                crossings = fillPolygon(shape, pixels, x0, y0, x1, y1, crossings);
+            }
+        }
+    }
+
+    void drawPoint(Shape shape, int[] pixels, int x0, int y0, int x1, int y1) {
+        double[] ordinates = shape.parts[0];
+        double x = Math.floor(ordinates[0]);
+        double y = Math.floor(ordinates[1]);
+        if (x >= x0 && x < x1 && y >= y0 && y < y1) {
+            pixels[((int) y - y0) * tileSize + (int) x - x0] = shape.value;
+        }
+    }
+
+    /**
+     * Draws the segments of a line between the pixels holding the vertices. Along the major
+     * axis of a segment, the pixel of the other axis is the nearest to the exact position, which
+     * can be computed directly for the part of the segment within the tile.
+     */
+    void drawLine(Shape shape, int[] pixels, int x0, int y0, int x1, int y1) {
+        double[] ordinates = shape.parts[0];
+        long px = (long) Math.floor(ordinates[0]);
+        long py = (long) Math.floor(ordinates[1]);
+        if (ordinates.length == 2) {
+            setPixel(pixels, px, py, x0, y0, x1, y1, shape.value);
+            return;
+        }
+        for (int i = 2; i < ordinates.length; i += 2) {
+            long qx = (long) Math.floor(ordinates[i]);
+            long qy = (long) Math.floor(ordinates[i + 1]);
+            long dx = qx - px;
+            long dy = qy - py;
+            if (dx == 0 && dy == 0) {
+                setPixel(pixels, px, py, x0, y0, x1, y1, shape.value);
+            } else if (Math.abs(dx) >= Math.abs(dy)) {
+                // walk along x, from the leftmost end
+                long sx = dx > 0 ? px : qx, sy = dx > 0 ? py : qy;
+                long adx = Math.abs(dx), sdy = dx > 0 ? dy : -dy;
+                long from = Math.max(sx, x0), to = Math.min(sx + adx, x1 - 1);
+                for (long x = from; x <= to; x++) {
+                    long y = sy + Math.floorDiv(2 * (x - sx) * sdy + adx, 2 * adx);
+                    setPixel(pixels, x, y, x0, y0, x1, y1, shape.value);
+                }
+            } else {
+                // walk along y, from the topmost end
+                long sx = dy > 0 ? px : qx, sy = dy > 0 ? py : qy;
+                long ady = Math.abs(dy), sdx = dy > 0 ? dx : -dx;
+                long from = Math.max(sy, y0), to = Math.min(sy + ady, y1 - 1);
+                for (long y = from; y <= to; y++) {
+                    long x = sx + Math.floorDiv(2 * (y - sy) * sdx + ady, 2 * ady);
+                    setPixel(pixels, x, y, x0, y0, x1, y1, shape.value);
+                }
+            }
+            px = qx;
+            py = qy;
+        }
+    }
+
+    void setPixel(int[] pixels, long x, long y, int x0, int y0, int x1, int y1, int value) {
+        if (x >= x0 && x < x1 && y >= y0 && y < y1) {
+            pixels[(int) (y - y0) * tileSize + (int) (x - x0)] = value;
+        }
+    }
+
+    /**
+     * Fills the rows of the tile crossed by the polygon, keeping the edges crossing the current
+     * row in an active list as the rows are scanned downwards
+     *
+     * @return the crossings buffer, possibly enlarged
+     */
+    double[] fillPolygon(Shape shape, int[] pixels, int x0, int y0, int x1, int y1,
+            double[] crossings) {
+        double[] edges = shape.edges;
+        int edgeCount = edges.length / 4;
+        int[] active = new int[Math.min(edgeCount, 16)];
+        int activeCount = 0;
+        int next = 0;
+        for (int row = y0; row < y1; row++) {
+            double y = row + 0.5;
+            // edges are sorted by their top, add the ones starting above this row
+            while (next < edgeCount && edges[next * 4 + 1] <= y) {
+                if (edges[next * 4 + 3] > y) {
+                    if (activeCount == active.length) {
+                        active = Arrays.copyOf(active, activeCount * 2);
+                    }
+                    active[activeCount++] = next;
+                }
+                next++;
+            }
+            if (activeCount == 0) {
+                if (next == edgeCount) {
+                    break;
+                }
+                continue;
+            }
+
+            // drop the edges ending above this row and compute the crossings of the others
+            if (crossings.length < activeCount) {
+                crossings = new double[activeCount * 2];
+            }
+            int n = 0;
+            for (int i = 0; i < activeCount; i++) {
+                int e = active[i] * 4;
+                if (edges[e + 3] <= y) {
+                    continue;
+                }
+                active[n] = active[i];
+                double top = edges[e + 1];
+                crossings[n++] = edges[e]
+                        + (y - top) * (edges[e + 2] - edges[e]) / (edges[e + 3] - top);
+            }
+            activeCount = n;
+            Arrays.sort(crossings, 0, n);
+
+            int offset = (row - y0) * tileSize - x0;
+            for (int i = 0; i + 1 < n; i += 2) {
+                // pixels whose center is in [crossings[i], crossings[i + 1])
+                int from = (int) Math.max(x0, Math.ceil(crossings[i] - 0.5));
+                int to = (int) Math.min(x1, Math.ceil(crossings[i + 1] - 0.5));
+                for (int x = from; x < to; x++) {
+                    pixels[offset + x] = shape.value;
+                }
+            }
+        }
+        return crossings;
+    }
+
+    /**
+     * A shape in grid coordinates, along with the value to burn
+     */
+    static class Shape {
+        final int type;
+
+        final int value;
+
+        final double[][] parts;
+
+        /**
+         * Polygon edges as x, y of the top end followed by x, y of the bottom end, sorted by
+         * their top. Horizontal edges, which never cross a row center, are left out.
+         */
+        double[] edges;
+
+        Shape(int type, int value, double[][] parts) {
+            this.type = type;
+            this.value = value;
+            this.parts = parts;
+        }
+
+        void buildEdges() {
+            int count = 0;
+            for (double[] ring : parts) {
+                count += ring.length / 2;
+            }
+            double[][] list = new double[count][];
+            int n = 0;
+            for (double[] ring : parts) {
+                int size = ring.length / 2;
+                for (int i = 0; i < size; i++) {
+                    // rings are closed, but also close them in case they are not
+                    int j = (i + 1) % size;
+                    double ax = ring[2 * i], ay = ring[2 * i + 1];
+                    double bx = ring[2 * j], by = ring[2 * j + 1];
+                    if (ay < by) {
+                        list[n++] = new double[] { ax, ay, bx, by };
+                    } else if (by < ay) {
+                        list[n++] = new double[] { bx, by, ax, ay };
+                    }
+                }
+            }
+            Arrays.sort(list, 0, n, new Comparator<double[]>() {
+
+                @Override
+                public int compare(double[] e1, double[] e2) {
+                    return Double.compare(e1[1], e2[1]);
+                }
+            });
+            edges = new double[n * 4];
+            for (int i = 0; i < n; i++) {
+                System.arraycopy(list[i], 0, edges, i * 4, 4);
+            }
+        }
+    }
+}
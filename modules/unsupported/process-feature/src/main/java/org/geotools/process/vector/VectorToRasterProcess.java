@@ -25,17 +25,11 @@
 
 package org.geotools.process.vector;
 
-import java.awt.AlphaComposite;
-import java.awt.Color;
 import java.awt.Dimension;
-import java.awt.Graphics2D;
-import java.awt.Rectangle;
 import java.awt.Transparency;
 import java.awt.color.ColorSpace;
-import java.awt.image.ColorModel;
 import java.awt.image.ComponentColorModel;
 import java.awt.image.DataBuffer;
-import java.awt.image.Raster;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
 import java.util.HashMap;
@@ -46,11 +40,11 @@ import java.util.logging.Logger;
 import javax.media.jai.RasterFactory;
 import javax.media.jai.TiledImage;
 
-import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
 
-import org.geotools.coverage.grid.GridCoordinates2D;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridCoverageFactory;
 import org.geotools.coverage.grid.GridEnvelope2D;
@@ -62,9 +56,7 @@ import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.filter.text.cql2.CQLException;
 import org.geotools.filter.text.ecql.ECQL;
-import org.geotools.geometry.DirectPosition2D;
 import org.geotools.geometry.jts.Geometries;
-import org.geotools.geometry.jts.JTS;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.process.factory.DescribeParameter;
 import org.geotools.process.factory.DescribeProcess;
@@ -72,6 +64,7 @@ import org.geotools.process.factory.DescribeResult;
 import org.geotools.process.feature.AbstractFeatureCollectionProcess;
 import org.geotools.process.feature.AbstractFeatureCollectionProcessFactory;
 import org.geotools.referencing.CRS;
+import org.geotools.referencing.operation.transform.ConcatenatedTransform;
 import org.geotools.text.Text;
 import org.geotools.util.NullProgressListener;
 import org.geotools.util.SimpleInternationalString;
@@ -79,7 +72,7 @@ import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.filter.expression.Expression;
 import org.opengis.geometry.Envelope;
-import org.opengis.geometry.MismatchedDimensionException;
+import org.opengis.metadata.spatial.PixelOrientation;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
@@ -94,6 +87,11 @@ import org.opengis.util.ProgressListener;
  * coverage. If the attribute is of type Long it will be coerced to
  * int values and a warning will be logged. Similarly if the attribute
  * is of type Double it will be coerced to float and a warning logged.
+ * <p>
+ * The features are read once and burnt into the tiles of the output grid
+ * in parallel, see {@link TiledRasterizer} for how polygons, lines and
+ * points are converted to cells. When features overlap, the last one
+ * read wins.
  *
  * @author Steve Ansari, NOAA
  * @author Michael Bedward
@@ -107,8 +105,6 @@ import org.opengis.util.ProgressListener;
 @DescribeProcess(title = "Transform", description = "Converts some or all of a feature collection to a raster grid, using an attribute to specify cell values.")
 public class VectorToRasterProcess implements VectorProcess {
 
-    private static final int COORD_GRID_CHUNK_SIZE = 1000;
-
     private static enum TransferType {
         INTEGRAL,
         FLOAT;
@@ -127,18 +123,15 @@ public class VectorToRasterProcess implements VectorProcess {
     private float nodataValue;
 
     private ReferencedEnvelope extent;
-    private Geometry extentGeometry;
     private GridGeometry2D gridGeom;
     
     private boolean transformFeatures;
     private MathTransform featureToRasterTransform;
 
-    private int[] coordGridX = new int[COORD_GRID_CHUNK_SIZE];
-    private int[] coordGridY = new int[COORD_GRID_CHUNK_SIZE];
     // private double cellsize;
 
+    TiledRasterizer rasterizer;
     TiledImage image;
-    Graphics2D graphics;
 
 
     /**
@@ -217,7 +210,9 @@ public class VectorToRasterProcess implements VectorProcess {
 
         Geometry geometry = (Geometry) feature.getDefaultGeometry();
 
-        if (geometry.intersects(extentGeometry)) {
+        // features to be transformed are culled by the rasterizer, once in the output CRS
+        if (geometry != null
+                && (transformFeatures || extent.intersects(geometry.getEnvelopeInternal()))) {
 
             Number value = getFeatureValue(feature, attribute);
             switch (transferType) {
@@ -244,7 +239,7 @@ public class VectorToRasterProcess implements VectorProcess {
                     break;
             }
 
-            graphics.setColor(valueToColor(value));
+            int cellValue = valueToBits(value);
             
             Geometries geomType = Geometries.get(geometry);
             switch (geomType) {
@@ -254,14 +249,14 @@ public class VectorToRasterProcess implements VectorProcess {
                     final int numGeom = geometry.getNumGeometries();
                     for (int i = 0; i < numGeom; i++) {
                         Geometry geomN = geometry.getGeometryN(i);
-                        drawGeometry(Geometries.get(geomN), geomN);
+                        drawGeometry(Geometries.get(geomN), geomN, cellValue);
                     }
                     break;
                     
                 case POLYGON:
                 case LINESTRING:
                 case POINT:
-                    drawGeometry(geomType, geometry);
+                    drawGeometry(geomType, geometry, cellValue);
                     break;
                     
                 default:
@@ -318,9 +313,10 @@ public class VectorToRasterProcess implements VectorProcess {
         finally {
             fi.close();
         }
+        rasterizer.flush();
         monitor.complete();
 
-        flattenImage();
+        createImage();
         
         GridCoverageFactory gcf = new GridCoverageFactory();
         return gcf.create(covName, image, extent);
@@ -415,11 +411,17 @@ public class VectorToRasterProcess implements VectorProcess {
             throw new VectorToRasterException(ex);
         }
         
-        createImage( gridDim );
-        
         gridGeom = new GridGeometry2D(
                 new GridEnvelope2D(0, 0, gridDim.width, gridDim.height), 
                 extent);
+
+        // features go straight from their CRS to the grid
+        MathTransform toGrid = gridGeom.getCRSToGrid2D(PixelOrientation.UPPER_LEFT);
+        if (transformFeatures) {
+            toGrid = ConcatenatedTransform.create(featureToRasterTransform, toGrid);
+        }
+        rasterizer = new TiledRasterizer(gridDim.width, gridDim.height,
+                TiledRasterizer.TILE_SIZE, toGrid);
     }
 
     /**
@@ -441,8 +443,6 @@ public class VectorToRasterProcess implements VectorProcess {
             extent = new ReferencedEnvelope(bounds);
         }
         
-        extentGeometry = (new GeometryFactory()).toGeometry(extent);
-        
         // Compare the CRS of faetures and requested output bounds. If they 
         // are different (and both non-null) flag that we need to transform
         // features to the output CRS prior to rasterizing them.
@@ -468,154 +468,60 @@ public class VectorToRasterProcess implements VectorProcess {
     }
 
     /**
-     * Create the tiled image and the associated graphics object that we will be used to
-     * draw the vector features into a raster.
-     * <p>
-     * Note, the graphics objects will be an
-     * instance of TiledImageGraphics which is a sub-class of Graphics2D.
-     */
-    private void createImage( Dimension gridDim ) {
-
-        ColorModel cm = ColorModel.getRGBdefault();
-        SampleModel sm = cm.createCompatibleSampleModel(gridDim.width, gridDim.height);
-
-        image = new TiledImage(0, 0, gridDim.width, gridDim.height, 0, 0, sm, cm);
-        graphics = image.createGraphics();
-        graphics.setPaintMode();
-        graphics.setComposite(AlphaComposite.Src);
-    }
-
-    /**
-     * Takes the 4-band ARGB image that we have been drawing into and
-     * converts it to a single-band image.
-     *
-     * @todo There is probably a much easier / faster way to do this that
-     * still takes advantage of image tiling (?)
-     */
-    private void flattenImage() {
-
-        if (transferType == TransferType.FLOAT) {
-            flattenImageToFloat();
-        } else {
-            flattenImageToInt();
-        }
-    }
-
-    /**
-     * Takes the 4-band ARGB image that we have been drawing into and
-     * converts it to a single-band int image.
+     * Creates the single-band output image from the tiles of the rasterizer,
+     * the image having the same tile layout.
      */
-    private void flattenImageToInt() {
-        int numXTiles = image.getNumXTiles();
-        int numYTiles = image.getNumYTiles();
+    private void createImage() {
+        int tileSize = rasterizer.tileSize;
+        int dataType = transferType == TransferType.FLOAT ? DataBuffer.TYPE_FLOAT
+                : DataBuffer.TYPE_INT;
 
         SampleModel sm = RasterFactory.createPixelInterleavedSampleModel(
-                DataBuffer.TYPE_INT, image.getWidth(), image.getHeight(), 1);
+                dataType, tileSize, tileSize, 1);
 
-        TiledImage destImage = new TiledImage(0, 0, image.getWidth(), image.getHeight(),
+        image = new TiledImage(0, 0, rasterizer.width, rasterizer.height,
                 0, 0, sm, new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY), 
-                		false, false, Transparency.OPAQUE, DataBuffer.TYPE_INT));
-
-        for (int yt = 0; yt < numYTiles; yt++) {
-            for (int xt = 0; xt < numXTiles; xt++) {
-                Raster srcTile = image.getTile(xt, yt);
-                WritableRaster destTile = destImage.getWritableTile(xt, yt);
-
-                int[] data = new int[srcTile.getDataBuffer().getSize()];
-                srcTile.getDataElements(srcTile.getMinX(), srcTile.getMinY(),
-                        srcTile.getWidth(), srcTile.getHeight(), data);
-
-                Rectangle bounds = destTile.getBounds();
-                destTile.setPixels(bounds.x, bounds.y, bounds.width, bounds.height, data);
-                destImage.releaseWritableTile(xt, yt);
-            }
-        }
-
-        image = destImage;
-    }
+                		false, false, Transparency.OPAQUE, dataType));
+
+        float[] floatData = null;
+        for (int yt = 0; yt < rasterizer.numYTiles; yt++) {
+            for (int xt = 0; xt < rasterizer.numXTiles; xt++) {
+                int[] data = rasterizer.getTile(xt, yt);
+                if (data == null) {
+                    // nothing drawn, the tile stays at 0
+                    continue;
+                }
 
-    /**
-     * Takes the 4-band ARGB image that we have been drawing into and
-     * converts it to a single-band float image
-     */
-    private void flattenImageToFloat() {
-        int numXTiles = image.getNumXTiles();
-        int numYTiles = image.getNumYTiles();
-
-        SampleModel sm = RasterFactory.createPixelInterleavedSampleModel(DataBuffer.TYPE_FLOAT, image.getWidth(), image.getHeight(), 1);
-        TiledImage destImage = new TiledImage(0, 0, image.getWidth(), image.getHeight(), 0, 0, sm, 
-        		new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY), 
-                		false, false, Transparency.OPAQUE, DataBuffer.TYPE_FLOAT));
-
-        for (int yt = 0; yt < numYTiles; yt++) {
-            for (int xt = 0; xt < numXTiles; xt++) {
-                Raster srcTile = image.getTile(xt, yt);
-                WritableRaster destTile = destImage.getWritableTile(xt, yt);
-
-                int[] data = new int[srcTile.getDataBuffer().getSize()];
-                srcTile.getDataElements(srcTile.getMinX(), srcTile.getMinY(),
-                        srcTile.getWidth(), srcTile.getHeight(), data);
-                
-                Rectangle bounds = destTile.getBounds();
-                
-                int k = 0;
-                for (int dy = bounds.y, drow = 0; drow < bounds.height; dy++, drow++) {
-                    for (int dx = bounds.x, dcol = 0; dcol < bounds.width; dx++, dcol++, k++) {
-                        destTile.setSample(dx, dy, 0, Float.intBitsToFloat(data[k]));
+                WritableRaster destTile = image.getWritableTile(xt, yt);
+                if (transferType == TransferType.FLOAT) {
+                    if (floatData == null) {
+                        floatData = new float[data.length];
+                    }
+                    for (int k = 0; k < data.length; k++) {
+                        floatData[k] = Float.intBitsToFloat(data[k]);
                     }
+                    destTile.setPixels(xt * tileSize, yt * tileSize, tileSize, tileSize, floatData);
+                } else {
+                    destTile.setPixels(xt * tileSize, yt * tileSize, tileSize, tileSize, data);
                 }
-
-                destImage.releaseWritableTile(xt, yt);
+                image.releaseWritableTile(xt, yt);
             }
         }
-
-        image = destImage;
     }
 
-    private void drawGeometry(Geometries geomType, Geometry geometry) throws TransformException {
-        Geometry workingGeometry;
-        if (transformFeatures) {
-            try {
-                workingGeometry = JTS.transform(geometry, featureToRasterTransform);
-            } catch (TransformException ex) {
-                throw ex;
-            } catch (MismatchedDimensionException ex) {
-                throw new RuntimeException(ex);
-            }
-            
-        } else {
-            workingGeometry = geometry;
-        }
-        
-        Coordinate[] coords = geometry.getCoordinates();
-
-        // enlarge if needed
-        if (coords.length > coordGridX.length) {
-            int n = coords.length / COORD_GRID_CHUNK_SIZE + 1;
-            coordGridX = new int[n * COORD_GRID_CHUNK_SIZE];
-            coordGridY = new int[n * COORD_GRID_CHUNK_SIZE];
-        }
-
-        // Go through coordinate array in order received
-        DirectPosition2D worldPos = new DirectPosition2D();
-        for (int n = 0; n < coords.length; n++) {
-            worldPos.setLocation(coords[n].x, coords[n].y);
-            GridCoordinates2D gridPos = gridGeom.worldToGrid(worldPos);
-            coordGridX[n] = gridPos.x;
-            coordGridY[n] = gridPos.y;
-        }
-
+    private void drawGeometry(Geometries geomType, Geometry geometry, int cellValue)
+            throws TransformException {
         switch (geomType) {
             case POLYGON:
-                graphics.fillPolygon(coordGridX, coordGridY, coords.length);
+                rasterizer.addPolygon((Polygon) geometry, cellValue);
                 break;
                 
             case LINESTRING:  // includes LinearRing
-                graphics.drawPolyline(coordGridX, coordGridY, coords.length);
+                rasterizer.addLine((LineString) geometry, cellValue);
                 break;
                 
             case POINT:
-                graphics.fillRect(coordGridX[0], coordGridY[0], 1, 1);
+                rasterizer.addPoint((Point) geometry, cellValue);
                 break;
                 
             default:
@@ -625,19 +531,16 @@ public class VectorToRasterProcess implements VectorProcess {
     }
 
     /**
-     * Encode a value as a Color. The value will be Integer or Float.
-     * @param value the value to enclode
-     * @return the resulting sRGB Color
+     * Encode a value as the bits of a cell. The value will be Integer or Float.
+     * @param value the value to encode
+     * @return the int value, or the bits of the float value
      */
-    private Color valueToColor(Number value) {
-        int intBits;
+    private int valueToBits(Number value) {
         if (transferType == TransferType.FLOAT) {
-            intBits = Float.floatToIntBits(value.floatValue());
+            return Float.floatToIntBits(value.floatValue());
         } else {
-            intBits = value.intValue();
+            return value.intValue();
         }
-
-        return new Color(intBits, true);
     }
 
 }
@@ -0,0 +1,91 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.vector;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Checks the grids computed in parallel are the same as the sequential ones
+ *
+ * @source $URL$
+ */
+public class GridTasksTest {
+
+    @After
+    public void clearThreads() {
+        System.clearProperty(GridTasks.THREADS_KEY);
+    }
+
+    @Test
+    public void testHeatmap() {
+        float[][] serial = heatmap("1");
+        float[][] parallel = heatmap("4");
+        assertSameGrid(serial, parallel);
+    }
+
+    @Test
+    public void testBarnes() {
+        float[][] serial = barnes("1");
+        float[][] parallel = barnes("4");
+        assertSameGrid(serial, parallel);
+    }
+
+    float[][] heatmap(String threads) {
+        System.setProperty(GridTasks.THREADS_KEY, threads);
+        Random random = new Random(1);
+        HeatmapSurface surface = new HeatmapSurface(15, new Envelope(0, 100, 0, 100), 301, 203);
+        for (int i = 0; i < 500; i++) {
+            surface.addPoint(random.nextDouble() * 100, random.nextDouble() * 100, 1);
+        }
+        return surface.computeSurface();
+    }
+
+    float[][] barnes(String threads) {
+        System.setProperty(GridTasks.THREADS_KEY, threads);
+        Random random = new Random(1);
+        Coordinate[] obs = new Coordinate[300];
+        for (int i = 0; i < obs.length; i++) {
+            obs[i] = new Coordinate(random.nextDouble() * 1000, random.nextDouble() * 1000,
+                    random.nextDouble() * 30);
+        }
+        BarnesSurfaceInterpolator barnes = new BarnesSurfaceInterpolator(obs);
+        barnes.setLengthScale(10);
+        barnes.setPassCount(3);
+        barnes.setMaxObservationDistance(25);
+        barnes.setMinObservationCount(2);
+        return barnes.computeSurface(new Envelope(0, 1000, 0, 1000), 150, 170);
+    }
+
+    void assertSameGrid(float[][] expected, float[][] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].length, actual[i].length);
+            for (int j = 0; j < expected[i].length; j++) {
+                assertEquals(Float.floatToIntBits(expected[i][j]),
+                        Float.floatToIntBits(actual[i][j]));
+            }
+        }
+    }
+}
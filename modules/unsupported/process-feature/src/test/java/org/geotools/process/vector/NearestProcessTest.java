@@ -0,0 +1,278 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import javax.measure.unit.SI;
+import javax.measure.unit.Unit;
+
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.collection.NearestNeighbourIndex;
+import org.geotools.data.collection.NearestNeighbourIndex.DistanceMetric;
+import org.geotools.data.collection.NearestNeighbourIndex.Neighbour;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * Checks the nearest feature and the lower bounds of the geodesic distance, with a transverse
+ * mercator far from its central meridian, whose grid lines are curved in WGS84, and that the
+ * bounds actually spare most of the distance computations
+ *
+ * @source $URL$
+ */
+public class NearestProcessTest {
+
+    static final String WKT = "PROJCS[\"TM\", GEOGCS[\"WGS84\", DATUM[\"WGS84\", "
+            + "SPHEROID[\"WGS84\", 6378137.0, 298.257223563]], PRIMEM[\"Greenwich\", 0.0], "
+            + "UNIT[\"degree\", 0.017453292519943295]], PROJECTION[\"Transverse_Mercator\"], "
+            + "PARAMETER[\"central_meridian\", 9.0], PARAMETER[\"latitude_of_origin\", 0.0], "
+            + "PARAMETER[\"scale_factor\", 0.9996], PARAMETER[\"false_easting\", 500000.0], "
+            + "PARAMETER[\"false_northing\", 0.0], UNIT[\"m\", 1.0]]";
+
+    GeometryFactory gf = new GeometryFactory();
+
+    @Test
+    public void testLowerBound() throws Exception {
+        CoordinateReferenceSystem crs = CRS.parseWKT(WKT);
+        MathTransform transform = CRS.findMathTransform(crs, DefaultGeographicCRS.WGS84);
+        Envelope envelope = new Envelope(1500000, 2500000, 6000000, 7000000);
+
+        // queries next to the middle of the sides, where they bulge the most, and the corners
+        double[][] queries = { { 2000000, 5990000 }, { 2000000, 7010000 }, { 1490000, 6500000 },
+                { 2510000, 6500000 }, { 1490000, 5990000 }, { 2510000, 7010000 } };
+        for (double[] query : queries) {
+            Point point = gf.createPoint(new Coordinate(query[0], query[1]));
+            NearestProcess.GeodesicDistance metric = new NearestProcess.GeodesicDistance(point,
+                    transform);
+            double min = Double.MAX_VALUE;
+            for (int i = 0; i <= 1000; i++) {
+                double x = envelope.getMinX() + envelope.getWidth() * i / 1000;
+                double y = envelope.getMinY() + envelope.getHeight() * i / 1000;
+                min = Math.min(min, distance(metric, x, envelope.getMinY()));
+                min = Math.min(min, distance(metric, x, envelope.getMaxY()));
+                min = Math.min(min, distance(metric, envelope.getMinX(), y));
+                min = Math.min(min, distance(metric, envelope.getMaxX(), y));
+            }
+            double bound = metric.getLowerBound(envelope);
+            assertTrue(bound + " > " + min, bound <= min);
+        }
+    }
+
+    @Test
+    public void testTransformedBox() throws Exception {
+        CoordinateReferenceSystem crs = CRS.parseWKT(WKT);
+        MathTransform transform = CRS.findMathTransform(crs, DefaultGeographicCRS.WGS84);
+        NearestProcess.GeodesicDistance metric = new NearestProcess.GeodesicDistance(
+                gf.createPoint(new Coordinate(0, 0)), transform);
+        // small and large envelopes, near and far from the central meridian, and up north
+        Envelope[] envelopes = { new Envelope(400000, 410000, 5000000, 5010000),
+                new Envelope(1500000, 2500000, 6000000, 7000000),
+                new Envelope(-2000000, 3000000, 1000000, 4000000),
+                new Envelope(700000, 1500000, 8000000, 9000000) };
+        for (Envelope envelope : envelopes) {
+            Envelope box = metric.transform(envelope);
+            double[] point = new double[2];
+            for (int i = 0; i <= 1000; i++) {
+                double x = envelope.getMinX() + envelope.getWidth() * i / 1000;
+                double y = envelope.getMinY() + envelope.getHeight() * i / 1000;
+                double[][] sides = { { x, envelope.getMinY() }, { x, envelope.getMaxY() },
+                        { envelope.getMinX(), y }, { envelope.getMaxX(), y } };
+                for (double[] side : sides) {
+                    transform.transform(side, 0, point, 0, 1);
+                    assertTrue(box + " misses " + point[0] + " " + point[1],
+                            box.contains(point[0], point[1]));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNearest() throws Exception {
+        CoordinateReferenceSystem crs = CRS.parseWKT(WKT);
+        ListFeatureCollection features = lines(crs, 200, 2);
+        Point point = gf.createPoint(new Coordinate(2000000, 6500000));
+        assertEquals(bruteForce(features, point, crs), nearestDistance(new NearestProcess(),
+                features, point), 1e-9);
+    }
+
+    @Test
+    public void testRepeatedQueries() throws Exception {
+        CoordinateReferenceSystem crs = CRS.parseWKT(WKT);
+        ListFeatureCollection features = lines(crs, 200, 5);
+        NearestProcess process = new NearestProcess();
+        Random random = new Random(2);
+        for (int i = 0; i < 10; i++) {
+            Point point = gf.createPoint(new Coordinate(1400000 + random.nextDouble() * 1200000,
+                    5900000 + random.nextDouble() * 1200000));
+            assertEquals(bruteForce(features, point, crs), nearestDistance(process, features,
+                    point), 1e-9);
+        }
+    }
+
+    @Test
+    public void testTies() throws Exception {
+        CoordinateReferenceSystem crs = CRS.parseWKT(WKT);
+        ListFeatureCollection features = lines(crs, 3, 2);
+        // the same geometry again, read after the original
+        SimpleFeature first = features.iterator().next();
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(features.getSchema());
+        fb.add(first.getDefaultGeometry());
+        fb.add(3);
+        features.add(fb.buildFeature("nearest.3"));
+        Point point = gf.createPoint(((Geometry) first.getDefaultGeometry()).getCoordinate());
+
+        NearestProcess process = new NearestProcess();
+        for (int i = 0; i < 3; i++) {
+            // streamed, then indexed, the first feature read wins
+            FeatureCollection result = process.execute(features, point, null);
+            SimpleFeatureIterator it = (SimpleFeatureIterator) result.features();
+            try {
+                assertEquals(first.getID(), it.next().getID());
+            } finally {
+                it.close();
+            }
+        }
+    }
+
+    @Test
+    public void testPruning() throws Exception {
+        CoordinateReferenceSystem crs = CRS.parseWKT(WKT);
+        MathTransform transform = CRS.findMathTransform(crs, DefaultGeographicCRS.WGS84);
+        ListFeatureCollection features = lines(crs, 500, 10);
+        Point point = gf.createPoint(new Coordinate(2000000, 6500000));
+
+        CountingDistance scanned = new CountingDistance(new NearestProcess.GeodesicDistance(point,
+                transform));
+        Neighbour nearest = NearestNeighbourIndex.scan(features, null, scanned);
+        CountingDistance indexed = new CountingDistance(new NearestProcess.GeodesicDistance(point,
+                transform));
+        Neighbour fromIndex = new NearestNeighbourIndex(features, null).nearest(indexed, 1).get(0);
+        assertSame(nearest.getFeature(), fromIndex.getFeature());
+        assertEquals(bruteForce(features, point, crs), SI.METER.getConverterTo(
+                Unit.valueOf("mi")).convert(nearest.getDistance()), 1e-9);
+
+        // most of the features are discarded by their bounds, without measuring them
+        assertEquals(499, scanned.bounds);
+        assertTrue(scanned.distances + " distances", scanned.distances < 50);
+        assertTrue(indexed.distances + " distances", indexed.distances < 10);
+        assertTrue(indexed.bounds + " bounds", indexed.bounds < 250);
+    }
+
+    /**
+     * Returns lines of the specified number of points, going east
+     */
+    ListFeatureCollection lines(CoordinateReferenceSystem crs, int count, int points) {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("nearest");
+        tb.add("geom", Geometry.class, crs);
+        tb.add("id", Integer.class);
+        SimpleFeatureType type = tb.buildFeatureType();
+
+        Random random = new Random(1);
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(type);
+        ListFeatureCollection features = new ListFeatureCollection(type);
+        for (int i = 0; i < count; i++) {
+            Coordinate[] coordinates = new Coordinate[points];
+            coordinates[0] = new Coordinate(1500000 + random.nextDouble() * 1000000,
+                    6000000 + random.nextDouble() * 1000000);
+            for (int j = 1; j < points; j++) {
+                coordinates[j] = new Coordinate(coordinates[j - 1].x + random.nextDouble()
+                        * 50000 / (points - 1), coordinates[j - 1].y);
+            }
+            fb.add(gf.createLineString(coordinates));
+            fb.add(i);
+            features.add(fb.buildFeature("nearest." + i));
+        }
+        return features;
+    }
+
+    /**
+     * Returns the distance in miles of the nearest feature, measuring all of them
+     */
+    double bruteForce(ListFeatureCollection features, Point point,
+            CoordinateReferenceSystem crs) throws Exception {
+        NearestProcess.GeodesicDistance metric = new NearestProcess.GeodesicDistance(point,
+                CRS.findMathTransform(crs, DefaultGeographicCRS.WGS84));
+        double expected = Double.MAX_VALUE;
+        for (SimpleFeature f : features) {
+            expected = Math.min(expected, metric.getDistance((Geometry) f.getDefaultGeometry()));
+        }
+        return SI.METER.getConverterTo(Unit.valueOf("mi")).convert(expected);
+    }
+
+    double nearestDistance(NearestProcess process, ListFeatureCollection features, Point point) {
+        FeatureCollection result = process.execute(features, point, null);
+        assertEquals(1, result.size());
+        SimpleFeatureIterator it = (SimpleFeatureIterator) result.features();
+        try {
+            return (Double) it.next().getAttribute("nearest_distance");
+        } finally {
+            it.close();
+        }
+    }
+
+    double distance(NearestProcess.GeodesicDistance metric, double x, double y) {
+        return metric.getDistance(gf.createPoint(new Coordinate(x, y)));
+    }
+
+    /**
+     * Counts the bounds and distances computed by a search
+     */
+    static class CountingDistance implements DistanceMetric {
+        final DistanceMetric delegate;
+
+        int bounds;
+
+        int distances;
+
+        CountingDistance(DistanceMetric delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public double getLowerBound(Envelope envelope) {
+            bounds++;
+            return delegate.getLowerBound(envelope);
+        }
+
+        @Override
+        public double getDistance(Geometry geometry) {
+            distances++;
+            return delegate.getDistance(geometry);
+        }
+    }
+}
@@ -30,6 +30,7 @@ import org.geotools.process.vector.PointStackerProcess;
 import org.geotools.process.vector.PointStackerProcess.PreserveLocation;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.util.NullProgressListener;
 import org.junit.Test;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
@@ -80,6 +81,41 @@ public class PointStackerProcessTest {
         checkResultPoint(result, new Coordinate(8, 8), 1, 1, null, null);
     }
     
+    @Test
+    public void testCanceled() throws ProcessException, TransformException {
+        ReferencedEnvelope bounds = new ReferencedEnvelope(0, 10, 0, 10, DefaultGeographicCRS.WGS84);
+
+        // a few batches worth of points
+        Coordinate[] data = new Coordinate[PointStackerProcess.BATCH_SIZE * 3];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = new Coordinate(i % 100 / 10d, i / 100 % 100 / 10d);
+        }
+        SimpleFeatureCollection fc = createPoints(data, bounds);
+
+        // canceled from the start, and after the first batch
+        NullProgressListener canceled = new NullProgressListener();
+        canceled.setCanceled(true);
+        NullProgressListener cancelLater = new NullProgressListener() {
+            int checks;
+
+            @Override
+            public boolean isCanceled() {
+                return ++checks > 1;
+            }
+        };
+        for (ProgressListener monitor : new ProgressListener[] { canceled, cancelLater }) {
+            PointStackerProcess psp = new PointStackerProcess();
+            SimpleFeatureCollection result = psp.execute(fc, 100, // cellSize
+                    null, // normalize
+                    null, // preserve location
+                    bounds, // outputBBOX
+                    1000, // outputWidth
+                    1000, // outputHeight
+                    monitor);
+            assertNull(result);
+        }
+    }
+
     @Test
     public void testNormal() throws ProcessException, TransformException {
         ReferencedEnvelope bounds = new ReferencedEnvelope(0, 10, 0, 10, DefaultGeographicCRS.WGS84);
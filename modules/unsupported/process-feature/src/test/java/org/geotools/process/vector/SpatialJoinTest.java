@@ -0,0 +1,201 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.process.vector.IntersectionFeatureCollection.IntersectionMode;
+import org.junit.After;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+
+/**
+ *
+ *
+ * @source $URL$
+ */
+public class SpatialJoinTest {
+
+    GeometryFactory gf = new GeometryFactory();
+
+    @After
+    public void clearThreads() {
+        System.clearProperty(SpatialJoin.THREADS_KEY);
+    }
+
+    @Test
+    public void testIntersection() {
+        Polygon square = square(0, 0, 10);
+        PreparedGeometry prepared = PreparedGeometryFactory.prepare(square);
+
+        // disjoint
+        assertNull(SpatialJoin.intersection(prepared, square(20, 20, 1)));
+        // fully inside, no overlay
+        Polygon inside = square(2, 2, 1);
+        assertSame(inside, SpatialJoin.intersection(prepared, inside));
+        // crossing
+        Geometry crossing = SpatialJoin.intersection(prepared, square(5, 5, 10));
+        assertTrue(square(5, 5, 5).equalsTopo(crossing));
+    }
+
+    @Test
+    public void testIndex() {
+        SimpleFeatureCollection grid = grid(5);
+        SpatialJoin join = new SpatialJoin(grid);
+        assertEquals(25, join.size());
+
+        // candidates come back in load order
+        List<SpatialJoin.Entry> candidates = join.getCandidates(new Envelope(0, 5, 0, 5));
+        for (int i = 1; i < candidates.size(); i++) {
+            assertTrue(candidates.get(i - 1).position < candidates.get(i).position);
+        }
+        // only the touching squares are really intersecting
+        assertEquals(4, join.getIntersecting(PreparedGeometryFactory.prepare(square(0.95, 0.95,
+                0.1))).size());
+        assertTrue(join.isContained(square(1.2, 1.2, 0.5)));
+        assertTrue(!join.isContained(square(1.5, 1.5, 1)));
+    }
+
+    @Test
+    public void testParallelIntersection() throws Exception {
+        SimpleFeatureCollection grid = grid(10);
+        SimpleFeatureCollection blobs = blobs(200);
+
+        List<SimpleFeature> serial = intersect(blobs, grid);
+        System.setProperty(SpatialJoin.THREADS_KEY, "4");
+        List<SimpleFeature> parallel = intersect(blobs, grid);
+
+        // same output, in the same order
+        assertEquals(countIntersecting(blobs, grid), serial.size());
+        assertEquals(serial.size(), parallel.size());
+        for (int i = 0; i < serial.size(); i++) {
+            SimpleFeature s = serial.get(i);
+            SimpleFeature p = parallel.get(i);
+            assertEquals(s.getID(), p.getID());
+            assertEquals(s.getAttribute("INTERSECTION_ID"), p.getAttribute("INTERSECTION_ID"));
+            assertTrue(((Geometry) s.getDefaultGeometry()).equalsExact((Geometry) p
+                    .getDefaultGeometry()));
+        }
+
+        // the joins share the same threads, left running for the next ones
+        ExecutorService executor = SpatialJoin.executor;
+        assertEquals(serial.size(), intersect(blobs, grid).size());
+        assertSame(executor, SpatialJoin.executor);
+        assertFalse(executor.isShutdown());
+    }
+
+    List<SimpleFeature> intersect(SimpleFeatureCollection first, SimpleFeatureCollection second) {
+        IntersectionFeatureCollection process = new IntersectionFeatureCollection();
+        SimpleFeatureCollection output = process.execute(first, second, null, null,
+                IntersectionMode.INTERSECTION, false, false);
+        List<SimpleFeature> result = new ArrayList<SimpleFeature>();
+        SimpleFeatureIterator it = output.features();
+        try {
+            while (it.hasNext()) {
+                result.add(it.next());
+            }
+        } finally {
+            it.close();
+        }
+        return result;
+    }
+
+    int countIntersecting(SimpleFeatureCollection first, SimpleFeatureCollection second) {
+        int count = 0;
+        SimpleFeatureIterator fi = first.features();
+        try {
+            while (fi.hasNext()) {
+                Geometry g1 = (Geometry) fi.next().getDefaultGeometry();
+                SimpleFeatureIterator si = second.features();
+                try {
+                    while (si.hasNext()) {
+                        Geometry g2 = (Geometry) si.next().getDefaultGeometry();
+                        if (g1.intersects(g2) && g1.intersection(g2).getArea() > 0) {
+                            count++;
+                        }
+                    }
+                } finally {
+                    si.close();
+                }
+            }
+        } finally {
+            fi.close();
+        }
+        return count;
+    }
+
+    SimpleFeatureCollection grid(int n) {
+        SimpleFeatureBuilder b = new SimpleFeatureBuilder(type("grid"));
+        DefaultFeatureCollection features = new DefaultFeatureCollection(null, b.getFeatureType());
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                b.add(square(i, j, 1));
+                b.add(i * n + j);
+                features.add(b.buildFeature("grid." + (i * n + j)));
+            }
+        }
+        return features;
+    }
+
+    SimpleFeatureCollection blobs(int n) {
+        Random random = new Random(1);
+        SimpleFeatureBuilder b = new SimpleFeatureBuilder(type("blobs"));
+        DefaultFeatureCollection features = new DefaultFeatureCollection(null, b.getFeatureType());
+        for (int i = 0; i < n; i++) {
+            Coordinate center = new Coordinate(random.nextDouble() * 10, random.nextDouble() * 10);
+            b.add(gf.createPoint(center).buffer(0.1 + random.nextDouble()));
+            b.add(i);
+            features.add(b.buildFeature("blobs." + i));
+        }
+        return features;
+    }
+
+    SimpleFeatureType type(String name) {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName(name);
+        tb.add("geometry", Polygon.class);
+        tb.add("integer", Integer.class);
+        return tb.buildFeatureType();
+    }
+
+    Polygon square(double x, double y, double size) {
+        return (Polygon) gf.toGeometry(new Envelope(x, x + size, y, y + size));
+    }
+}
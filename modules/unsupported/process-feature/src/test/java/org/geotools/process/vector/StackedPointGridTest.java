@@ -0,0 +1,133 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Checks the stacking grid counts like a map of cells, and that merging partial grids does not
+ * depend on how the points were split
+ *
+ * @source $URL$
+ */
+public class StackedPointGridTest {
+
+    @Test
+    public void testCounts() {
+        Coordinate[] points = randomPoints(20000, 1);
+        StackedPointGrid grid = new StackedPointGrid(10);
+        Map<String, Set<Coordinate>> unique = new HashMap<String, Set<Coordinate>>();
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < points.length; i++) {
+            grid.add(points[i].x, points[i].y, i);
+            String key = (long) (points[i].x / 10) + "/" + (long) (points[i].y / 10);
+            if (!unique.containsKey(key)) {
+                unique.put(key, new HashSet<Coordinate>());
+                counts.put(key, 0);
+            }
+            unique.get(key).add(points[i]);
+            counts.put(key, counts.get(key) + 1);
+        }
+
+        assertEquals(counts.size(), grid.size());
+        for (int id = 0; id < grid.size(); id++) {
+            String key = grid.cellX[id] + "/" + grid.cellY[id];
+            assertEquals((int) counts.get(key), grid.getCount(id));
+            assertEquals(unique.get(key).size(), grid.getCountUnique(id));
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        Coordinate[] points = randomPoints(20000, 2);
+        StackedPointGrid expected = new StackedPointGrid(10);
+        for (int i = 0; i < points.length; i++) {
+            expected.add(points[i].x, points[i].y, i);
+        }
+
+        // stack in parts, merged out of order
+        StackedPointGrid merged = new StackedPointGrid(10);
+        int[][] ranges = new int[][] { { 7000, 15000 }, { 0, 3000 }, { 15000, 20000 },
+                { 3000, 7000 } };
+        for (int[] range : ranges) {
+            StackedPointGrid part = new StackedPointGrid(10);
+            for (int i = range[0]; i < range[1]; i++) {
+                part.add(points[i].x, points[i].y, i);
+            }
+            merged.merge(part);
+        }
+
+        assertEquals(expected.size(), merged.size());
+        for (int id = 0; id < expected.size(); id++) {
+            int other = merged.getCell(expected.cellX[id], expected.cellY[id]);
+            assertEquals(expected.getCount(id), merged.getCount(other));
+            assertEquals(expected.getCountUnique(id), merged.getCountUnique(other));
+            assertEquals(expected.getLocationX(id), merged.getLocationX(other), 0d);
+            assertEquals(expected.getLocationY(id), merged.getLocationY(other), 0d);
+            assertEquals(expected.firstX[id], merged.firstX[other], 0d);
+            assertEquals(expected.firstY[id], merged.firstY[other], 0d);
+        }
+    }
+
+    @Test
+    public void testEstimatedCountUnique() {
+        StackedPointGrid grid = new StackedPointGrid(1000);
+        StackedPointGrid part = new StackedPointGrid(1000);
+        Random random = new Random(3);
+        int unique = 50000;
+        for (int i = 0; i < unique; i++) {
+            double x = random.nextDouble() * 100;
+            double y = random.nextDouble() * 100;
+            grid.add(x, y, 2 * i);
+            // the same locations again, in another grid
+            part.add(x, y, 2 * i + 1);
+        }
+        grid.merge(part);
+
+        assertEquals(1, grid.size());
+        assertEquals(2 * unique, grid.getCount(0));
+        int estimate = grid.getCountUnique(0);
+        assertTrue("Estimate was " + estimate, Math.abs(estimate - unique) < unique * 0.1);
+    }
+
+    Coordinate[] randomPoints(int count, long seed) {
+        Random random = new Random(seed);
+        Coordinate[] points = new Coordinate[count];
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && random.nextInt(4) == 0) {
+                // superimposed points
+                points[i] = new Coordinate(points[random.nextInt(i)]);
+            } else {
+                // a coarse lattice, so that some points fall on the cell borders and centers
+                points[i] = new Coordinate(random.nextInt(2000) * 0.25,
+                        random.nextInt(2000) * 0.25);
+            }
+        }
+        return points;
+    }
+}
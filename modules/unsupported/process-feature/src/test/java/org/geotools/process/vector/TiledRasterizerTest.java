@@ -0,0 +1,191 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.geotools.referencing.operation.transform.AffineTransform2D;
+import org.junit.After;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Checks the cells burnt by the tiled rasterizer
+ *
+ * @source $URL$
+ */
+public class TiledRasterizerTest {
+
+    GeometryFactory gf = new GeometryFactory();
+
+    /** World [0, 100] x [0, 100] on a 200 x 200 grid, y pointing down */
+    AffineTransform2D toGrid = new AffineTransform2D(2, 0, 0, -2, 0, 200);
+
+    @After
+    public void clearThreads() {
+        System.clearProperty(GridTasks.THREADS_KEY);
+    }
+
+    @Test
+    public void testPolygonPixelCenters() throws Exception {
+        Random random = new Random(1);
+        for (int p = 0; p < 20; p++) {
+            Polygon polygon = randomPolygon(random);
+            TiledRasterizer rasterizer = new TiledRasterizer(200, 200, 32, toGrid);
+            rasterizer.addPolygon(polygon, 1);
+            rasterizer.flush();
+
+            for (int row = 0; row < 200; row++) {
+                for (int col = 0; col < 200; col++) {
+                    // the world location of the pixel center
+                    Point center = gf.createPoint(new Coordinate((col + 0.5) / 2,
+                            100 - (row + 0.5) / 2));
+                    int expected = polygon.contains(center) ? 1 : 0;
+                    assertEquals("Pixel " + col + ", " + row, expected,
+                            getPixel(rasterizer, col, row));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testHole() throws Exception {
+        Polygon polygon = (Polygon) new WKTReader().read(
+                "POLYGON((10 10, 90 10, 90 90, 10 90, 10 10), (40 40, 60 40, 60 60, 40 60, 40 40))");
+        TiledRasterizer rasterizer = new TiledRasterizer(200, 200, 64, toGrid);
+        rasterizer.addPolygon(polygon, 7);
+        rasterizer.flush();
+
+        assertEquals(0, getPixel(rasterizer, 100, 100));
+        // left and top edges are inside, right and bottom ones outside
+        assertEquals(7, getPixel(rasterizer, 20, 20));
+        assertEquals(0, getPixel(rasterizer, 19, 20));
+        assertEquals(7, getPixel(rasterizer, 179, 179));
+        assertEquals(0, getPixel(rasterizer, 180, 179));
+        assertEquals(0, getPixel(rasterizer, 179, 180));
+    }
+
+    @Test
+    public void testLinesAndPoints() throws Exception {
+        TiledRasterizer rasterizer = new TiledRasterizer(200, 200, 32, toGrid);
+        LineString line = (LineString) new WKTReader().read("LINESTRING(0 0, 100 100, 100 0)");
+        assertTrue(rasterizer.addLine(line, 3));
+        assertTrue(rasterizer.addPoint(gf.createPoint(new Coordinate(30.2, 60.7)), 5));
+        assertFalse(rasterizer.addPoint(gf.createPoint(new Coordinate(130, 60)), 5));
+        rasterizer.flush();
+
+        // the vertices on the raster border fall in the border pixels
+        assertEquals(3, getPixel(rasterizer, 0, 199));
+        assertEquals(3, getPixel(rasterizer, 199, 0));
+        assertEquals(3, getPixel(rasterizer, 199, 199));
+        // one pixel per column along the diagonal, one per row along the vertical
+        for (int i = 0; i < 200; i++) {
+            assertEquals(3, getPixel(rasterizer, i, 199 - i));
+            assertEquals(3, getPixel(rasterizer, 199, i));
+        }
+        assertEquals(0, getPixel(rasterizer, 1, 199));
+        assertEquals(5, getPixel(rasterizer, 60, 78));
+    }
+
+    @Test
+    public void testTilesMatchSingleTile() throws Exception {
+        int[] expected = rasterize(1, 1000);
+        int[] actual = rasterize(4, 16);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i]);
+        }
+    }
+
+    /**
+     * Rasterizes overlapping shapes, returning the pixels row by row
+     */
+    int[] rasterize(int threads, int tileSize) throws Exception {
+        System.setProperty(GridTasks.THREADS_KEY, String.valueOf(threads));
+        TiledRasterizer rasterizer = new TiledRasterizer(200, 200, tileSize, toGrid);
+        Random random = new Random(2);
+        for (int i = 0; i < 300; i++) {
+            int value = i + 1;
+            switch (i % 3) {
+            case 0:
+                rasterizer.addPolygon(randomPolygon(random), value);
+                break;
+            case 1:
+                rasterizer.addLine(gf.createLineString(randomCoordinates(random, 5)), value);
+                break;
+            default:
+                rasterizer.addPoint(gf.createPoint(randomCoordinates(random, 1)[0]), value);
+            }
+            if (i % 50 == 0) {
+                // several batches, as when the batch is full
+                rasterizer.flush();
+            }
+        }
+        rasterizer.flush();
+
+        int[] pixels = new int[200 * 200];
+        for (int row = 0; row < 200; row++) {
+            for (int col = 0; col < 200; col++) {
+                pixels[row * 200 + col] = getPixel(rasterizer, col, row);
+            }
+        }
+        return pixels;
+    }
+
+    int getPixel(TiledRasterizer rasterizer, int col, int row) {
+        int size = rasterizer.tileSize;
+        int[] tile = rasterizer.getTile(col / size, row / size);
+        return tile == null ? 0 : tile[(row % size) * size + col % size];
+    }
+
+    /**
+     * Returns a star shaped polygon, which is valid
+     */
+    Polygon randomPolygon(Random random) {
+        double x = random.nextDouble() * 100;
+        double y = random.nextDouble() * 100;
+        Coordinate[] coords = new Coordinate[21];
+        for (int i = 0; i < 20; i++) {
+            double angle = 2 * Math.PI * (i + random.nextDouble() * 0.9) / 20;
+            double radius = 5 + random.nextDouble() * 40;
+            coords[i] = new Coordinate(x + radius * Math.cos(angle), y + radius * Math.sin(angle));
+        }
+        coords[20] = coords[0];
+        LinearRing shell = gf.createLinearRing(coords);
+        return gf.createPolygon(shell, null);
+    }
+
+    Coordinate[] randomCoordinates(Random random, int count) {
+        Coordinate[] coords = new Coordinate[count];
+        for (int i = 0; i < count; i++) {
+            // a bit outside of the grid, to check clipping
+            coords[i] = new Coordinate(random.nextDouble() * 120 - 10,
+                    random.nextDouble() * 120 - 10);
+        }
+        return coords;
+    }
+}
@@ -0,0 +1,685 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.raster;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geotools.coverage.Category;
+import org.geotools.coverage.GridSampleDimension;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.processing.operation.GridCoverage2DRIA;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.collection.DecoratingSimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.process.ProcessException;
+import org.geotools.process.factory.DescribeParameter;
+import org.geotools.process.factory.DescribeProcess;
+import org.geotools.process.factory.DescribeResult;
+import org.geotools.process.raster.RasterZonalStatistics.RasterZonalStatisticsCollection;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.operation.transform.ProjectiveTransform;
+import org.geotools.util.NumberRange;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.metadata.spatial.PixelOrientation;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import com.vividsolutions.jts.simplify.DouglasPeuckerSimplifier;
+
+/**
+ * A process computing the same zonal statistics as {@link RasterZonalStatistics}, meant for large
+ * coverages and large numbers of zones.
+ * <p>
+ * The zones are read in batches of {@value #BATCH_SIZE} and indexed in raster space with a
+ * {@link STRtree}. The coverage is split in blocks following its tile layout, each block touched
+ * by a zone is scanned by a separate task, computing partial statistics for the zones it
+ * intersects, and the partial statistics are then merged in block order, so the results do not
+ * depend on the number of threads. Each pixel is read once per batch, regardless of how many zones
+ * cover it, and the output features are still returned in a streaming fashion, batch by batch.
+ * </p>
+ * <p>
+ * A pixel belongs to a zone when its center is inside the zone. Unlike
+ * {@link RasterZonalStatistics} the count is exact, and the standard deviation is the sample
+ * one.
+ * </p>
+ */
+@DescribeProcess(title = "Parallel Raster Zonal Statistics", description = "Computes statistics for the distribution of a certain quantity in a set of polygonal zones, scanning the raster in parallel blocks.")
+public class ParallelZonalStatistics implements RasterProcess {
+
+    /** System property setting the number of threads used to scan the raster */
+    public static final String THREADS_KEY = "org.geotools.process.raster.zonalStatsThreads";
+
+    /** The number of zones read and processed at once */
+    static final int BATCH_SIZE = 1024;
+
+    /** Tiles larger than this are split in blocks of this size */
+    static final int MAX_BLOCK_SIZE = 512;
+
+    static final int DEFAULT_BLOCK_SIZE = 256;
+
+    @DescribeResult(name = "statistics", description = "A feature collection with the attributes of the zone layer (prefixed by 'z_') and the statistics fields count,min,max,sum,avg,stddev")
+    public SimpleFeatureCollection execute(
+            @DescribeParameter(name = "data", description = "Input raster to compute statistics for") GridCoverage2D coverage,
+            @DescribeParameter(name = "band", description = "Source band used to compute statistics (default is 0)", min = 0, defaultValue = "0") Integer band,
+            @DescribeParameter(name = "zones", description = "Zone polygon features for which to compute statistics") SimpleFeatureCollection zones,
+            @DescribeParameter(name = "classification", description = "Raster whose values will be used as classes for the statistical analysis. Each zone reports statistics partitioned by classes according to the values of the raster. Must be a single band raster with integer values.",
+            min = 0) GridCoverage2D classification,
+            @DescribeParameter(name = "threads", description = "Number of threads scanning the raster (default is the number of processors)", min = 0) Integer threads) {
+        int iband = 0;
+        if (band != null) {
+            iband = band;
+        }
+        int ithreads = threads != null ? threads : Integer.getInteger(THREADS_KEY, Runtime
+                .getRuntime().availableProcessors());
+
+        return new ParallelZonalStatisticsCollection(coverage, iband, zones, classification,
+                Math.max(1, ithreads));
+    }
+
+    /**
+     * A feature collection that computes zonal statitics in a streaming fashion, one batch of
+     * zones at a time
+     */
+    static class ParallelZonalStatisticsCollection extends DecoratingSimpleFeatureCollection {
+        GridCoverage2D coverage;
+
+        SimpleFeatureType targetSchema;
+
+        int band;
+
+        GridCoverage2D classification;
+
+        int threads;
+
+        public ParallelZonalStatisticsCollection(GridCoverage2D coverage, int band,
+                SimpleFeatureCollection zones, GridCoverage2D classification, int threads) {
+            super(zones);
+            this.coverage = coverage;
+            this.band = band;
+            this.classification = classification;
+            this.threads = threads;
+            this.targetSchema = RasterZonalStatisticsCollection.buildTargetSchema(
+                    zones.getSchema(), classification != null);
+        }
+
+        @Override
+        public SimpleFeatureType getSchema() {
+            return targetSchema;
+        }
+
+        @Override
+        public SimpleFeatureIterator features() {
+            return new ParallelZonalStatisticsIterator(delegate.features(), coverage, band,
+                    targetSchema, classification, threads);
+        }
+    }
+
+    /**
+     * The statistics of a zone, or of a zone class, mergeable with the ones computed on other
+     * blocks
+     */
+    static final class ZoneStatistics {
+        long count;
+
+        double min = Double.POSITIVE_INFINITY;
+
+        double max = Double.NEGATIVE_INFINITY;
+
+        double sum;
+
+        double mean;
+
+        /** Sum of the squared differences from the mean */
+        double m2;
+
+        void add(double value) {
+            count++;
+            if (value < min) {
+                min = value;
+            }
+            if (value > max) {
+                max = value;
+            }
+            sum += value;
+            final double delta = value - mean;
+            mean += delta / count;
+            m2 += delta * (value - mean);
+        }
+
+        void merge(ZoneStatistics other) {
+            if (other.count == 0) {
+                return;
+            }
+            if (count == 0) {
+                count = other.count;
+                min = other.min;
+                max = other.max;
+                sum = other.sum;
+                mean = other.mean;
+                m2 = other.m2;
+                return;
+            }
+            final long total = count + other.count;
+            final double delta = other.mean - mean;
+            m2 += other.m2 + delta * delta * ((double) count * other.count / total);
+            mean += delta * other.count / total;
+            count = total;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+
+        double getStandardDeviation() {
+            return count > 1 ? Math.sqrt(m2 / (count - 1)) : Double.NaN;
+        }
+    }
+
+    /**
+     * A zone transformed in raster space, with the non horizontal edges of its rings ready for a
+     * scanline fill
+     */
+    static final class Zone {
+        final SimpleFeature feature;
+
+        /** The pixels whose center might be in the zone, null if the zone misses the coverage */
+        final Rectangle bounds;
+
+        final double[] edges;
+
+        /** The statistics, in a single entry keyed by null if there is no classification */
+        final Map<Integer, ZoneStatistics> statistics = new HashMap<Integer, ZoneStatistics>();
+
+        Zone(SimpleFeature feature, Geometry rasterGeometry, Rectangle imageBounds) {
+            this.feature = feature;
+            if (rasterGeometry == null || rasterGeometry.isEmpty()) {
+                this.bounds = null;
+                this.edges = null;
+                return;
+            }
+            Envelope env = rasterGeometry.getEnvelopeInternal();
+            int minX = (int) Math.floor(env.getMinX());
+            int minY = (int) Math.floor(env.getMinY());
+            int maxX = (int) Math.ceil(env.getMaxX());
+            int maxY = (int) Math.ceil(env.getMaxY());
+            Rectangle r = new Rectangle(minX, minY, maxX - minX, maxY - minY)
+                    .intersection(imageBounds);
+            if (r.isEmpty()) {
+                this.bounds = null;
+                this.edges = null;
+                return;
+            }
+            this.bounds = r;
+            List<LineString> rings = new ArrayList<LineString>();
+            for (int i = 0; i < rasterGeometry.getNumGeometries(); i++) {
+                Geometry g = rasterGeometry.getGeometryN(i);
+                if (g instanceof Polygon) {
+                    Polygon p = (Polygon) g;
+                    rings.add(p.getExteriorRing());
+                    for (int j = 0; j < p.getNumInteriorRing(); j++) {
+                        rings.add(p.getInteriorRingN(j));
+                    }
+                }
+            }
+            double[] edges = new double[64];
+            int n = 0;
+            for (LineString ring : rings) {
+                CoordinateSequence cs = ring.getCoordinateSequence();
+                for (int i = 1; i < cs.size(); i++) {
+                    double y1 = cs.getY(i - 1);
+                    double y2 = cs.getY(i);
+                    if (y1 == y2) {
+                        continue;
+                    }
+                    if (n + 4 > edges.length) {
+                        edges = Arrays.copyOf(edges, edges.length * 2);
+                    }
+                    edges[n++] = cs.getX(i - 1);
+                    edges[n++] = y1;
+                    edges[n++] = cs.getX(i);
+                    edges[n++] = y2;
+                }
+            }
+            this.edges = Arrays.copyOf(edges, n);
+        }
+
+        /**
+         * Fills xs with the sorted abscissas where the horizontal line at the given ordinate
+         * crosses the zone boundary, returns their number
+         */
+        int crossings(double y, double[] xs) {
+            int n = 0;
+            for (int i = 0; i < edges.length; i += 4) {
+                double x1 = edges[i];
+                double y1 = edges[i + 1];
+                double x2 = edges[i + 2];
+                double y2 = edges[i + 3];
+                if ((y1 <= y && y < y2) || (y2 <= y && y < y1)) {
+                    xs[n++] = x1 + (y - y1) * (x2 - x1) / (y2 - y1);
+                }
+            }
+            Arrays.sort(xs, 0, n);
+            return n;
+        }
+    }
+
+    /**
+     * Scans one block of the coverage, computing the partial statistics of the zones intersecting
+     * it
+     */
+    static final class BlockTask implements Callable<List<Map<Integer, ZoneStatistics>>> {
+
+        final Rectangle block;
+
+        final List<Zone> zones;
+
+        final RenderedImage data;
+
+        final int band;
+
+        final RenderedImage classification;
+
+        final double[] nodata;
+
+        BlockTask(Rectangle block, List<Zone> zones, RenderedImage data, int band,
+                RenderedImage classification, double[] nodata) {
+            this.block = block;
+            this.zones = zones;
+            this.data = data;
+            this.band = band;
+            this.classification = classification;
+            this.nodata = nodata;
+        }
+
+        @Override
+        public List<Map<Integer, ZoneStatistics>> call() throws Exception {
+            final int w = block.width;
+            final Raster raster = data.getData(block);
+            final double[] values = raster.getSamples(block.x, block.y, w, block.height, band,
+                    (double[]) null);
+            int[] classes = null;
+            if (classification != null) {
+                Raster classRaster = classification.getData(block);
+                classes = classRaster.getSamples(block.x, block.y, w, block.height, 0,
+                        (int[]) null);
+            }
+
+            List<Map<Integer, ZoneStatistics>> result = new ArrayList<Map<Integer, ZoneStatistics>>(
+                    zones.size());
+            double[] xs = new double[16];
+            for (Zone zone : zones) {
+                Map<Integer, ZoneStatistics> partial = new HashMap<Integer, ZoneStatistics>();
+                result.add(partial);
+                Rectangle r = zone.bounds.intersection(block);
+                if (xs.length < zone.edges.length / 4) {
+                    xs = new double[zone.edges.length / 4];
+                }
+                for (int y = r.y; y < r.y + r.height; y++) {
+                    int n = zone.crossings(y + 0.5, xs);
+                    int row = (y - block.y) * w;
+                    for (int k = 0; k + 1 < n; k += 2) {
+                        // pixels whose center falls in [xs[k], xs[k + 1])
+                        int start = Math.max(r.x, (int) Math.ceil(xs[k] - 0.5));
+                        int end = Math.min(r.x + r.width, (int) Math.ceil(xs[k + 1] - 0.5));
+                        for (int x = start; x < end; x++) {
+                            int idx = row + x - block.x;
+                            double value = values[idx];
+                            if (Double.isNaN(value)
+                                    || (nodata != null && value >= nodata[0] && value <= nodata[1])) {
+                                continue;
+                            }
+                            Integer key = classes != null ? Integer.valueOf(classes[idx]) : null;
+                            ZoneStatistics stats = partial.get(key);
+                            if (stats == null) {
+                                stats = new ZoneStatistics();
+                                partial.put(key, stats);
+                            }
+                            stats.add(value);
+                        }
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * An iterator computing statistics one batch of zones at a time
+     */
+    static class ParallelZonalStatisticsIterator implements SimpleFeatureIterator {
+
+        SimpleFeatureIterator zones;
+
+        SimpleFeatureBuilder builder;
+
+        GridCoverage2D dataCoverage;
+
+        int band;
+
+        RenderedImage classificationRaster;
+
+        int threads;
+
+        ExecutorService executor;
+
+        MathTransform w2gTransform;
+
+        double[] nodata;
+
+        LinkedList<SimpleFeature> features = new LinkedList<SimpleFeature>();
+
+        public ParallelZonalStatisticsIterator(SimpleFeatureIterator zones,
+                GridCoverage2D coverage, int band, SimpleFeatureType targetSchema,
+                GridCoverage2D classification, int threads) {
+            this.zones = zones;
+            this.builder = new SimpleFeatureBuilder(targetSchema);
+            this.dataCoverage = coverage;
+            this.band = band;
+            this.threads = threads;
+
+            // prepare the classification image if necessary
+            if (classification != null) {
+                // find nodata values
+                GridSampleDimension sampleDimension = classification.getSampleDimension(0);
+                double[] nodataarr = sampleDimension.getNoDataValues();
+                double[] nodata = nodataarr != null ? nodataarr : new double[] { Double.NaN };
+
+                // this will adapt the classification image to the projection and image layout
+                // of the data coverage
+                classificationRaster = GridCoverage2DRIA.create(classification, dataCoverage,
+                        nodata);
+            }
+
+            // same transformation as RasterZonalStatistics, lines up the polygons in raster space
+            final AffineTransform dataG2WCorrected = new AffineTransform(
+                    (AffineTransform) ((GridGeometry2D) dataCoverage.getGridGeometry())
+                            .getGridToCRS2D(PixelOrientation.UPPER_LEFT));
+            try {
+                w2gTransform = ProjectiveTransform.create(dataG2WCorrected.createInverse());
+            } catch (NoninvertibleTransformException e) {
+                throw new IllegalArgumentException(e.getLocalizedMessage());
+            }
+
+            // check if the novalue is != from NaN
+            GridSampleDimension sampleDimension = dataCoverage.getSampleDimension(0);
+            List<Category> categories = sampleDimension.getCategories();
+            if (categories != null) {
+                for (Category category : categories) {
+                    String catName = category.getName().toString();
+                    if (catName.equalsIgnoreCase("no data")) {
+                        NumberRange<?> range = category.getRange();
+                        double min = range.getMinimum();
+                        double max = range.getMaximum();
+                        if (!Double.isNaN(min) && !Double.isNaN(max)) {
+                            nodata = new double[] { min, max };
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+
+        public void close() {
+            zones.close();
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+        }
+
+        public boolean hasNext() {
+            return features.size() > 0 || zones.hasNext();
+        }
+
+        public SimpleFeature next() throws NoSuchElementException {
+            if (features.isEmpty()) {
+                if (!zones.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                processBatch();
+            }
+            return features.removeFirst();
+        }
+
+        /**
+         * Reads the next batch of zones, computes their statistics and fills the feature buffer
+         */
+        void processBatch() {
+            final RenderedImage image = dataCoverage.getRenderedImage();
+            final Rectangle imageBounds = new Rectangle(image.getMinX(), image.getMinY(),
+                    image.getWidth(), image.getHeight());
+            List<Zone> batch = new ArrayList<Zone>(BATCH_SIZE);
+            STRtree index = new STRtree();
+            Rectangle batchBounds = null;
+            while (batch.size() < BATCH_SIZE && zones.hasNext()) {
+                SimpleFeature feature = zones.next();
+                Zone zone;
+                try {
+                    zone = new Zone(feature, toRasterSpace(feature), imageBounds);
+                } catch (Exception e) {
+                    throw new ProcessException("Failed to compute statistics on feature "
+                            + feature, e);
+                }
+                batch.add(zone);
+                if (zone.bounds != null) {
+                    Rectangle b = zone.bounds;
+                    index.insert(new Envelope(b.x, b.x + b.width, b.y, b.y + b.height), zone);
+                    batchBounds = batchBounds == null ? new Rectangle(b) : batchBounds.union(b);
+                }
+            }
+
+            if (batchBounds != null) {
+                scan(image, batchBounds, index, batch);
+            }
+
+            for (Zone zone : batch) {
+                SimpleFeature feature = zone.feature;
+                if (zone.bounds == null) {
+                    builder.addAll(feature.getAttributes());
+                    features.add(builder.buildFeature(feature.getID()));
+                } else if (classificationRaster != null) {
+                    // classes sorted by value, as in RasterZonalStatistics
+                    Map<Integer, ZoneStatistics> sorted = new TreeMap<Integer, ZoneStatistics>(
+                            zone.statistics);
+                    for (Map.Entry<Integer, ZoneStatistics> entry : sorted.entrySet()) {
+                        builder.addAll(feature.getAttributes());
+                        builder.add(entry.getKey());
+                        addStatsToFeature(entry.getValue());
+                        features.add(builder.buildFeature(feature.getID()));
+                    }
+                } else {
+                    ZoneStatistics stats = zone.statistics.get(null);
+                    builder.addAll(feature.getAttributes());
+                    addStatsToFeature(stats != null ? stats : new ZoneStatistics());
+                    features.add(builder.buildFeature(feature.getID()));
+                }
+            }
+        }
+
+        /**
+         * Splits the area covered by the batch in blocks, scans them in parallel and merges the
+         * partial statistics in block order
+         */
+        void scan(RenderedImage image, Rectangle area, STRtree index, List<Zone> batch) {
+            int tw = image.getTileWidth();
+            int th = image.getTileHeight();
+            int ox = image.getTileGridXOffset();
+            int oy = image.getTileGridYOffset();
+            if (tw > MAX_BLOCK_SIZE || th > MAX_BLOCK_SIZE) {
+                tw = th = DEFAULT_BLOCK_SIZE;
+                ox = image.getMinX();
+                oy = image.getMinY();
+            }
+            int minCol = Math.floorDiv(area.x - ox, tw);
+            int maxCol = Math.floorDiv(area.x + area.width - 1 - ox, tw);
+            int minRow = Math.floorDiv(area.y - oy, th);
+            int maxRow = Math.floorDiv(area.y + area.height - 1 - oy, th);
+
+            List<BlockTask> tasks = new ArrayList<BlockTask>();
+            for (int row = minRow; row <= maxRow; row++) {
+                for (int col = minCol; col <= maxCol; col++) {
+                    Rectangle block = new Rectangle(ox + col * tw, oy + row * th, tw, th)
+                            .intersection(area);
+                    @SuppressWarnings("unchecked")
+                    List<Zone> candidates = index.query(new Envelope(block.x, block.x
+                            + block.width, block.y, block.y + block.height));
+                    List<Zone> hits = new ArrayList<Zone>(candidates.size());
+                    for (Zone zone : candidates) {
+                        if (zone.bounds.intersects(block)) {
+                            hits.add(zone);
+                        }
+                    }
+                    if (!hits.isEmpty()) {
+                        tasks.add(new BlockTask(block, hits, image, band, classificationRaster,
+                                nodata));
+                    }
+                }
+            }
+
+            try {
+                if (threads <= 1 || tasks.size() <= 1) {
+                    for (BlockTask task : tasks) {
+                        merge(task.zones, task.call());
+                    }
+                } else {
+                    List<Future<List<Map<Integer, ZoneStatistics>>>> futures = getExecutor()
+                            .invokeAll(tasks);
+                    for (int i = 0; i < tasks.size(); i++) {
+                        merge(tasks.get(i).zones, futures.get(i).get());
+                    }
+                }
+            } catch (ExecutionException e) {
+                throw new ProcessException("Failed to compute zonal statistics", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProcessException("Zonal statistics computation interrupted", e);
+            } catch (Exception e) {
+                throw new ProcessException("Failed to compute zonal statistics", e);
+            }
+        }
+
+        void merge(List<Zone> zones, List<Map<Integer, ZoneStatistics>> partials) {
+            for (int i = 0; i < zones.size(); i++) {
+                Map<Integer, ZoneStatistics> target = zones.get(i).statistics;
+                for (Map.Entry<Integer, ZoneStatistics> entry : partials.get(i).entrySet()) {
+                    ZoneStatistics stats = target.get(entry.getKey());
+                    if (stats == null) {
+                        target.put(entry.getKey(), entry.getValue());
+                    } else {
+                        stats.merge(entry.getValue());
+                    }
+                }
+            }
+        }
+
+        ExecutorService getExecutor() {
+            if (executor == null) {
+                final AtomicInteger counter = new AtomicInteger();
+                executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "ZonalStatistics-" + counter.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+            return executor;
+        }
+
+        /**
+         * Reprojects the zone geometry to the coverage CRS, cuts it to the coverage envelope and
+         * transforms it to raster space, returns null if the zone misses the coverage
+         */
+        Geometry toRasterSpace(SimpleFeature zone) throws Exception {
+            Geometry geometry = (Geometry) zone.getDefaultGeometry();
+            if (geometry == null) {
+                return null;
+            }
+            CoordinateReferenceSystem dataCrs = dataCoverage.getCoordinateReferenceSystem();
+            CoordinateReferenceSystem zonesCrs = builder.getFeatureType().getGeometryDescriptor()
+                    .getCoordinateReferenceSystem();
+            if (!CRS.equalsIgnoreMetadata(zonesCrs, dataCrs)) {
+                geometry = JTS.transform(geometry, CRS.findMathTransform(zonesCrs, dataCrs, true));
+            }
+
+            ReferencedEnvelope coverageEnvelope = new ReferencedEnvelope(
+                    dataCoverage.getEnvelope2D());
+            Envelope geometryEnvelope = geometry.getEnvelopeInternal();
+            if (!coverageEnvelope.intersects(geometryEnvelope)) {
+                return null;
+            } else if (!coverageEnvelope.contains(geometryEnvelope)) {
+                geometry = JTS.toGeometry((Envelope) coverageEnvelope).intersection(geometry);
+            }
+
+            // simplify the geometry so that it's as precise as the coverage, excess coordinates
+            // just make the scanlines slower
+            Geometry rasterSpaceGeometry = JTS.transform(geometry, w2gTransform);
+            return DouglasPeuckerSimplifier.simplify(rasterSpaceGeometry, 1);
+        }
+
+        /**
+         * Add the statistics to the feature builder
+         */
+        void addStatsToFeature(ZoneStatistics stats) {
+            builder.add(stats.count);
+            if (stats.count > 0) {
+                builder.add(stats.min);
+                builder.add(stats.max);
+                builder.add(stats.sum);
+                builder.add(stats.mean);
+                builder.add(stats.getStandardDeviation());
+            } else {
+                builder.add(null);
+                builder.add(null);
+                builder.add(0d);
+                builder.add(null);
+                builder.add(null);
+            }
+        }
+    }
+}
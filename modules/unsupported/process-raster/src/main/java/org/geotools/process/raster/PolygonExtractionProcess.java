@@ -25,6 +25,7 @@ import java.util.List;
 
 import javax.media.jai.JAI;
 import javax.media.jai.ParameterBlockJAI;
+import javax.media.jai.ROI;
 import javax.media.jai.RenderedOp;
 
 import org.jaitools.media.jai.vectorize.VectorizeDescriptor;
@@ -61,6 +62,10 @@ import org.opengis.util.ProgressListener;
  * objects) can be provided to pre-classify the input coverage values into intervals. 
  * Vectorizing can also be restricted to a sub-area of the coverage and/or a subset
  * of raster values (by defining values to treat as no-data).
+ * <p>
+ * The raster is traced in parallel blocks, using as many threads as processors unless the
+ * {@link #THREADS_KEY} system property says otherwise. Setting the {@link #VECTORIZE_KEY}
+ * system property to true goes back to the single threaded jaitools Vectorize operation.
  * 
  * @author Simone Giannecchini, GeoSolutions
  * @since 8.0
@@ -75,6 +80,16 @@ public class PolygonExtractionProcess implements RasterProcess {
         Registry.registerRIF(JAI.getDefaultInstance(), new VectorizeDescriptor(), new VectorizeRIF(), Registry.JAI_TOOLS_PRODUCT);
     }
 
+    /** System property setting the number of threads tracing the raster */
+    public static final String THREADS_KEY = "org.geotools.process.raster.polygonExtractionThreads";
+
+    /**
+     * System property, when true the raster is vectorized by the jaitools Vectorize operation
+     * instead of being traced in parallel blocks
+     */
+    public static final String VECTORIZE_KEY =
+            "org.geotools.process.raster.polygonExtractionVectorize";
+
     /**
      * Executes the raster to vector process.
      * 
@@ -167,23 +182,23 @@ public class PolygonExtractionProcess implements RasterProcess {
         // get the rendered image
         final RenderedImage raster = coverage.getRenderedImage();
 
-        // perform jai operation
-        ParameterBlockJAI pb = new ParameterBlockJAI("Vectorize");
-        pb.setSource("source0", raster);
-
-        if (roi != null) {
-            pb.setParameter("roi", CoverageUtilities.prepareROI(roi, mt2D));
-        }
-        pb.setParameter("band", band);
-        pb.setParameter("outsideValues", outsideValues);
-        if (insideEdges != null) {
-            pb.setParameter("insideEdges", insideEdges);
+        final ROI rasterROI = roi != null ? CoverageUtilities.prepareROI(roi, mt2D) : null;
+        final Collection<Polygon> prop;
+        if (Boolean.getBoolean(VECTORIZE_KEY)) {
+            prop = vectorize(raster, band, outsideValues, insideEdges, rasterROI);
+        } else {
+            // trace the raster blocks in parallel
+            RenderedImage roiImage = null;
+            double roiThreshold = 0;
+            if (rasterROI != null) {
+                roiImage = rasterROI.getAsImage();
+                roiThreshold = rasterROI.getThreshold();
+            }
+            TiledPolygonExtractor extractor = new TiledPolygonExtractor(raster, band,
+                    outsideValues, insideEdges == null || insideEdges, roiImage, roiThreshold);
+            prop = extractor.extract(Math.max(1,
+                    Integer.getInteger(THREADS_KEY, Runtime.getRuntime().availableProcessors())));
         }
-        // pb.setParameter("removeCollinear", false);  
-
-        final RenderedOp dest = JAI.create("Vectorize", pb);
-        @SuppressWarnings("unchecked")
-        final Collection<Polygon> prop = (Collection<Polygon>) dest.getProperty(VectorizeDescriptor.VECTOR_PROPERTY_NAME);
 
         // wrap as a feature collection and return
         final SimpleFeatureType featureType = CoverageUtilities.createFeatureType(coverage, Polygon.class);
@@ -215,4 +230,27 @@ public class PolygonExtractionProcess implements RasterProcess {
         //return value
         return featureCollection;
     }
+
+    /**
+     * Vectorizes the raster with the jaitools Vectorize operation
+     */
+    @SuppressWarnings("unchecked")
+    static Collection<Polygon> vectorize(RenderedImage raster, int band,
+            List<Number> outsideValues, Boolean insideEdges, ROI roi) {
+        // perform jai operation
+        ParameterBlockJAI pb = new ParameterBlockJAI("Vectorize");
+        pb.setSource("source0", raster);
+
+        if (roi != null) {
+            pb.setParameter("roi", roi);
+        }
+        pb.setParameter("band", band);
+        pb.setParameter("outsideValues", outsideValues);
+        if (insideEdges != null) {
+            pb.setParameter("insideEdges", insideEdges);
+        }
+
+        final RenderedOp dest = JAI.create("Vectorize", pb);
+        return (Collection<Polygon>) dest.getProperty(VectorizeDescriptor.VECTOR_PROPERTY_NAME);
+    }
 }
@@ -118,9 +118,17 @@ public class RasterZonalStatistics implements RasterProcess {
             this.coverage = coverage;
             this.band = band;
             this.classification = classification;
+            this.targetSchema = buildTargetSchema(zones.getSchema(), classification != null);
+        }
 
+        /**
+         * Builds the output schema, made of the zone attributes (prefixed by 'z_'), the optional
+         * classification and the statistics
+         */
+        static SimpleFeatureType buildTargetSchema(SimpleFeatureType zonesSchema,
+                boolean classified) {
             SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
-            for (AttributeDescriptor att : zones.getSchema().getAttributeDescriptors()) {
+            for (AttributeDescriptor att : zonesSchema.getAttributeDescriptors()) {
                 tb.minOccurs(att.getMinOccurs());
                 tb.maxOccurs(att.getMaxOccurs());
                 tb.restrictions(att.getType().getRestrictions());
@@ -130,7 +138,7 @@ public class RasterZonalStatistics implements RasterProcess {
                 }
                 tb.add("z_" + att.getLocalName(), att.getType().getBinding());
             }
-            if(classification != null) {
+            if(classified) {
                 tb.add("classification", Integer.class);
             }
             tb.add("count", Long.class);
@@ -139,8 +147,8 @@ public class RasterZonalStatistics implements RasterProcess {
             tb.add("sum", Double.class);
             tb.add("avg", Double.class);
             tb.add("stddev", Double.class);
-            tb.setName(zones.getSchema().getName());
-            targetSchema = tb.buildFeatureType();
+            tb.setName(zonesSchema.getName());
+            return tb.buildFeatureType();
         }
 
         @Override
@@ -0,0 +1,717 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.raster;
+
+import java.awt.Rectangle;
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geotools.process.ProcessException;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Extracts the polygons bounding the regions of uniform value of a raster, tracing the raster
+ * blocks in parallel.
+ * <p>
+ * Each block is labelled and traced on its own, emitting the pixel edges separating different
+ * values. The regions cut by the block borders are then matched along the borders and merged,
+ * and the edges of each region are chained into rings, keeping the corners only. Pixels
+ * touching by a corner belong to different regions, and the rings are split where a region
+ * touches itself by a corner, so that each region is returned as a valid polygon with holes,
+ * regardless of the block size and the number of threads.
+ * </p>
+ * The polygons are in raster space, with the region value as user data.
+ */
+final class TiledPolygonExtractor {
+
+    /** The value of all the inside pixels when the boundaries between them are not traced */
+    static final double INSIDE_FLAG_VALUE = 1d;
+
+    /** Tiles larger than this are split in blocks of this size */
+    static final int MAX_BLOCK_SIZE = 512;
+
+    static final int DEFAULT_BLOCK_SIZE = 256;
+
+    /** The number of edges chained into polygons by a single task */
+    static final int ASSEMBLY_BATCH = 1 << 16;
+
+    // edge directions in raster space, the region is on the right hand side
+    static final int EAST = 0;
+
+    static final int SOUTH = 1;
+
+    static final int WEST = 2;
+
+    static final int NORTH = 3;
+
+    static final int[] DX = { 1, 0, -1, 0 };
+
+    static final int[] DY = { 0, 1, 0, -1 };
+
+    final RenderedImage image;
+
+    final int band;
+
+    final double[] outsideValues;
+
+    final boolean insideEdges;
+
+    final RenderedImage roi;
+
+    final double roiThreshold;
+
+    final Rectangle bounds;
+
+    final GeometryFactory gf = new GeometryFactory();
+
+    int blockWidth;
+
+    int blockHeight;
+
+    int blockX;
+
+    int blockY;
+
+    /**
+     * @param image the raster to vectorize
+     * @param band the band holding the region values
+     * @param outsideValues the values of the pixels that are not vectorized
+     * @param insideEdges whether to trace the boundaries between different inside values
+     * @param roi optional mask, the pixels with a mask value below {@code roiThreshold} are
+     *        not vectorized
+     * @param roiThreshold the lowest mask value of the pixels in the region of interest
+     */
+    TiledPolygonExtractor(RenderedImage image, int band, Collection<? extends Number> outsideValues,
+            boolean insideEdges, RenderedImage roi, double roiThreshold) {
+        this.image = image;
+        this.band = band;
+        this.outsideValues = new double[outsideValues.size()];
+        int i = 0;
+        for (Number value : outsideValues) {
+            this.outsideValues[i++] = value.doubleValue();
+        }
+        this.insideEdges = insideEdges;
+        this.roi = roi;
+        this.roiThreshold = roiThreshold;
+        this.bounds = new Rectangle(image.getMinX(), image.getMinY(), image.getWidth(),
+                image.getHeight());
+
+        // follow the tiles, unless they are too large to scan in parallel
+        blockWidth = image.getTileWidth();
+        blockHeight = image.getTileHeight();
+        blockX = image.getTileGridXOffset();
+        blockY = image.getTileGridYOffset();
+        if (blockWidth > MAX_BLOCK_SIZE || blockHeight > MAX_BLOCK_SIZE) {
+            setBlockSize(DEFAULT_BLOCK_SIZE);
+        }
+    }
+
+    /**
+     * Sets a square block grid anchored on the raster origin
+     */
+    void setBlockSize(int size) {
+        blockWidth = blockHeight = size;
+        blockX = bounds.x;
+        blockY = bounds.y;
+    }
+
+    /**
+     * Returns the polygons of the regions, in the order of their first pixel in the block scan
+     */
+    List<Polygon> extract(int threads) throws ProcessException {
+        if (bounds.isEmpty()) {
+            return new ArrayList<Polygon>();
+        }
+        int minCol = Math.floorDiv(bounds.x - blockX, blockWidth);
+        int maxCol = Math.floorDiv(bounds.x + bounds.width - 1 - blockX, blockWidth);
+        int minRow = Math.floorDiv(bounds.y - blockY, blockHeight);
+        int maxRow = Math.floorDiv(bounds.y + bounds.height - 1 - blockY, blockHeight);
+        final int cols = maxCol - minCol + 1;
+        final int rows = maxRow - minRow + 1;
+
+        ExecutorService executor = null;
+        try {
+            if (threads > 1 && cols * rows > 1) {
+                executor = createExecutor(threads);
+            }
+
+            // trace the blocks
+            List<TraceTask> traces = new ArrayList<TraceTask>(cols * rows);
+            for (int row = minRow; row <= maxRow; row++) {
+                for (int col = minCol; col <= maxCol; col++) {
+                    Rectangle block = new Rectangle(blockX + col * blockWidth, blockY + row
+                            * blockHeight, blockWidth, blockHeight).intersection(bounds);
+                    traces.add(new TraceTask(block));
+                }
+            }
+            List<Block> blocks = run(executor, traces);
+
+            // merge the regions cut by the block borders
+            int[] offsets = new int[blocks.size()];
+            int labels = 0;
+            for (int i = 0; i < blocks.size(); i++) {
+                offsets[i] = labels;
+                labels += blocks.get(i).count;
+            }
+            int[] parent = new int[labels];
+            for (int i = 0; i < labels; i++) {
+                parent[i] = i;
+            }
+            for (int row = 0; row < rows; row++) {
+                for (int col = 0; col < cols; col++) {
+                    int i = row * cols + col;
+                    Block block = blocks.get(i);
+                    if (col + 1 < cols) {
+                        Block right = blocks.get(i + 1);
+                        stitch(block, block.right, offsets[i], right, right.left, offsets[i + 1],
+                                parent);
+                    }
+                    if (row + 1 < rows) {
+                        Block below = blocks.get(i + cols);
+                        stitch(block, block.bottom, offsets[i], below, below.top,
+                                offsets[i + cols], parent);
+                    }
+                }
+            }
+
+            // number the regions after their root label, the lowest one
+            int[] region = new int[labels];
+            List<Double> values = new ArrayList<Double>();
+            for (int i = 0; i < blocks.size(); i++) {
+                Block block = blocks.get(i);
+                for (int label = 1; label <= block.count; label++) {
+                    int id = offsets[i] + label - 1;
+                    int root = find(parent, id);
+                    if (root == id) {
+                        region[id] = values.size();
+                        values.add(block.values[label]);
+                    } else {
+                        region[id] = region[root];
+                    }
+                }
+            }
+
+            // group the edges by region
+            int regions = values.size();
+            int[] start = new int[regions + 1];
+            for (int i = 0; i < blocks.size(); i++) {
+                IntList edges = blocks.get(i).edges;
+                for (int e = 0; e < edges.size; e += 5) {
+                    start[region[offsets[i] + edges.data[e + 4] - 1] + 1]++;
+                }
+            }
+            for (int r = 0; r < regions; r++) {
+                start[r + 1] += start[r];
+            }
+            int total = start[regions];
+            int[] xs = new int[total];
+            int[] ys = new int[total];
+            int[] dirs = new int[total];
+            int[] lengths = new int[total];
+            int[] fill = Arrays.copyOf(start, regions);
+            for (int i = 0; i < blocks.size(); i++) {
+                IntList edges = blocks.get(i).edges;
+                for (int e = 0; e < edges.size; e += 5) {
+                    int k = fill[region[offsets[i] + edges.data[e + 4] - 1]]++;
+                    xs[k] = edges.data[e];
+                    ys[k] = edges.data[e + 1];
+                    dirs[k] = edges.data[e + 2];
+                    lengths[k] = edges.data[e + 3];
+                }
+            }
+            blocks = null;
+
+            // chain the edges into polygons
+            List<AssemblyTask> assemblies = new ArrayList<AssemblyTask>();
+            int first = 0;
+            for (int r = 0; r < regions; r++) {
+                if (start[r + 1] - start[first] >= ASSEMBLY_BATCH || r == regions - 1) {
+                    assemblies.add(new AssemblyTask(first, r + 1, start, values, xs, ys, dirs,
+                            lengths));
+                    first = r + 1;
+                }
+            }
+            if (assemblies.size() <= 1 && executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+            List<Polygon> result = new ArrayList<Polygon>(regions);
+            for (List<Polygon> polygons : run(executor, assemblies)) {
+                result.addAll(polygons);
+            }
+            return result;
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Merges the regions of two adjacent blocks having the same value on both sides of their
+     * common border
+     */
+    static void stitch(Block a, int[] borderA, int offsetA, Block b, int[] borderB, int offsetB,
+            int[] parent) {
+        for (int i = 0; i < borderA.length; i++) {
+            int la = borderA[i];
+            int lb = borderB[i];
+            if (la > 0 && lb > 0 && same(a.values[la], b.values[lb])) {
+                union(parent, offsetA + la - 1, offsetB + lb - 1);
+            }
+        }
+    }
+
+    static int find(int[] parent, int id) {
+        while (parent[id] != id) {
+            parent[id] = parent[parent[id]];
+            id = parent[id];
+        }
+        return id;
+    }
+
+    /**
+     * Links the two sets under the lowest root
+     */
+    static int union(int[] parent, int a, int b) {
+        int ra = find(parent, a);
+        int rb = find(parent, b);
+        if (ra < rb) {
+            parent[rb] = ra;
+            return ra;
+        } else {
+            parent[ra] = rb;
+            return rb;
+        }
+    }
+
+    static boolean same(double a, double b) {
+        return a == b || (a != a && b != b);
+    }
+
+    <T> List<T> run(ExecutorService executor, List<? extends Callable<T>> tasks)
+            throws ProcessException {
+        try {
+            List<T> results = new ArrayList<T>(tasks.size());
+            if (executor == null) {
+                for (Callable<T> task : tasks) {
+                    results.add(task.call());
+                }
+            } else {
+                for (Future<T> future : executor.invokeAll(tasks)) {
+                    results.add(future.get());
+                }
+            }
+            return results;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ProcessException) {
+                throw (ProcessException) e.getCause();
+            }
+            throw new ProcessException("Failed to extract polygons", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessException("Polygon extraction interrupted", e);
+        } catch (ProcessException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ProcessException("Failed to extract polygons", e);
+        }
+    }
+
+    static ExecutorService createExecutor(int threads) {
+        final AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "PolygonExtraction-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * A growable array of ints
+     */
+    static final class IntList {
+        int[] data = new int[64];
+
+        int size;
+
+        void add(int a, int b, int c, int d, int e) {
+            if (size + 5 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            data[size++] = a;
+            data[size++] = b;
+            data[size++] = c;
+            data[size++] = d;
+            data[size++] = e;
+        }
+    }
+
+    /**
+     * The regions and edges found in a block. Labels start at 1, 0 marks the pixels that are not
+     * vectorized
+     */
+    static final class Block {
+        int count;
+
+        /** The value of each label */
+        double[] values;
+
+        /** The labels along the block borders */
+        int[] top, bottom, left, right;
+
+        /** The edges as x, y, direction, length, label */
+        IntList edges = new IntList();
+    }
+
+    /**
+     * Labels the 4-connected regions of a block and traces the pixel edges separating different
+     * values, joining the consecutive edges of a region along a row or a column
+     */
+    final class TraceTask implements Callable<Block> {
+
+        final Rectangle block;
+
+        TraceTask(Rectangle block) {
+            this.block = block;
+        }
+
+        @Override
+        public Block call() throws Exception {
+            // read the block with a one pixel border, to find the edges along its sides
+            final int w = block.width;
+            final int h = block.height;
+            final int hw = w + 2;
+            final int hh = h + 2;
+            double[] values = new double[hw * hh];
+            boolean[] inside = new boolean[hw * hh];
+            Rectangle read = new Rectangle(block.x - 1, block.y - 1, hw, hh).intersection(bounds);
+            double[] samples = image.getData(read).getSamples(read.x, read.y, read.width,
+                    read.height, band, (double[]) null);
+            for (int y = 0; y < read.height; y++) {
+                int idx = (read.y + y - block.y + 1) * hw + read.x - block.x + 1;
+                for (int x = 0; x < read.width; x++, idx++) {
+                    double value = samples[y * read.width + x];
+                    if (!isOutside(value)) {
+                        values[idx] = insideEdges ? value : INSIDE_FLAG_VALUE;
+                        inside[idx] = true;
+                    }
+                }
+            }
+            if (roi != null) {
+                clip(inside, read, hw);
+            }
+
+            // label with a union find over provisional labels
+            int[] labels = new int[w * h];
+            int[] parent = new int[16];
+            int provisional = 0;
+            for (int y = 0; y < h; y++) {
+                for (int x = 0; x < w; x++) {
+                    int idx = (y + 1) * hw + x + 1;
+                    if (!inside[idx]) {
+                        continue;
+                    }
+                    int label = 0;
+                    if (x > 0 && inside[idx - 1] && same(values[idx - 1], values[idx])) {
+                        label = labels[y * w + x - 1];
+                    }
+                    if (y > 0 && inside[idx - hw] && same(values[idx - hw], values[idx])) {
+                        int up = labels[(y - 1) * w + x];
+                        label = label == 0 ? up : union(parent, label, up);
+                    }
+                    if (label == 0) {
+                        label = ++provisional;
+                        if (label == parent.length) {
+                            parent = Arrays.copyOf(parent, parent.length * 2);
+                        }
+                        parent[label] = label;
+                    }
+                    labels[y * w + x] = label;
+                }
+            }
+
+            // number the regions in scan order
+            Block result = new Block();
+            int[] compact = new int[provisional + 1];
+            double[] regionValues = new double[provisional + 1];
+            for (int y = 0; y < h; y++) {
+                for (int x = 0; x < w; x++) {
+                    int i = y * w + x;
+                    if (labels[i] != 0) {
+                        int root = find(parent, labels[i]);
+                        if (compact[root] == 0) {
+                            compact[root] = ++result.count;
+                            regionValues[result.count] = values[(y + 1) * hw + x + 1];
+                        }
+                        labels[i] = compact[root];
+                    }
+                }
+            }
+            result.values = regionValues;
+            result.top = Arrays.copyOfRange(labels, 0, w);
+            result.bottom = Arrays.copyOfRange(labels, (h - 1) * w, h * w);
+            result.left = new int[h];
+            result.right = new int[h];
+            for (int y = 0; y < h; y++) {
+                result.left[y] = labels[y * w];
+                result.right[y] = labels[y * w + w - 1];
+            }
+
+            // horizontal edges, run by run
+            IntList edges = result.edges;
+            for (int y = 0; y < h; y++) {
+                for (int side = -1; side <= 1; side += 2) {
+                    int run = 0;
+                    for (int x = 0; x <= w; x++) {
+                        int label = x < w ? labels[y * w + x] : 0;
+                        int idx = (y + 1) * hw + x + 1;
+                        boolean edge = label != 0 && isEdge(values, inside, idx, idx + side * hw);
+                        if (run > 0 && (!edge || label != labels[y * w + x - 1])) {
+                            int last = labels[y * w + x - 1];
+                            if (side < 0) {
+                                edges.add(block.x + x - run, block.y + y, EAST, run, last);
+                            } else {
+                                edges.add(block.x + x, block.y + y + 1, WEST, run, last);
+                            }
+                            run = 0;
+                        }
+                        if (edge) {
+                            run++;
+                        }
+                    }
+                }
+            }
+            // vertical edges
+            for (int x = 0; x < w; x++) {
+                for (int side = -1; side <= 1; side += 2) {
+                    int run = 0;
+                    for (int y = 0; y <= h; y++) {
+                        int label = y < h ? labels[y * w + x] : 0;
+                        int idx = (y + 1) * hw + x + 1;
+                        boolean edge = label != 0 && isEdge(values, inside, idx, idx + side);
+                        if (run > 0 && (!edge || label != labels[(y - 1) * w + x])) {
+                            int last = labels[(y - 1) * w + x];
+                            if (side < 0) {
+                                edges.add(block.x + x, block.y + y, NORTH, run, last);
+                            } else {
+                                edges.add(block.x + x + 1, block.y + y - run, SOUTH, run, last);
+                            }
+                            run = 0;
+                        }
+                        if (edge) {
+                            run++;
+                        }
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Marks as outside the pixels out of the region of interest
+         */
+        void clip(boolean[] inside, Rectangle read, int hw) {
+            Rectangle roiBounds = new Rectangle(roi.getMinX(), roi.getMinY(), roi.getWidth(),
+                    roi.getHeight());
+            Rectangle masked = read.intersection(roiBounds);
+            double[] mask = null;
+            if (!masked.isEmpty()) {
+                mask = roi.getData(masked).getSamples(masked.x, masked.y, masked.width,
+                        masked.height, 0, (double[]) null);
+            }
+            for (int y = read.y; y < read.y + read.height; y++) {
+                int idx = (y - block.y + 1) * hw + read.x - block.x + 1;
+                for (int x = read.x; x < read.x + read.width; x++, idx++) {
+                    if (inside[idx]
+                            && (mask == null || !masked.contains(x, y) || mask[(y - masked.y)
+                                    * masked.width + x - masked.x] < roiThreshold)) {
+                        inside[idx] = false;
+                    }
+                }
+            }
+        }
+    }
+
+    boolean isOutside(double value) {
+        for (double outside : outsideValues) {
+            if (same(value, outside)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean isEdge(double[] values, boolean[] inside, int idx, int neighbour) {
+        return !inside[neighbour] || !same(values[idx], values[neighbour]);
+    }
+
+    /**
+     * Chains the edges of a range of regions into polygons
+     */
+    final class AssemblyTask implements Callable<List<Polygon>> {
+
+        final int firstRegion;
+
+        final int lastRegion;
+
+        final int[] start;
+
+        final List<Double> values;
+
+        final int[] xs, ys, dirs, lengths;
+
+        AssemblyTask(int firstRegion, int lastRegion, int[] start, List<Double> values,
+                int[] xs, int[] ys, int[] dirs, int[] lengths) {
+            this.firstRegion = firstRegion;
+            this.lastRegion = lastRegion;
+            this.start = start;
+            this.values = values;
+            this.xs = xs;
+            this.ys = ys;
+            this.dirs = dirs;
+            this.lengths = lengths;
+        }
+
+        @Override
+        public List<Polygon> call() throws Exception {
+            List<Polygon> polygons = new ArrayList<Polygon>(lastRegion - firstRegion);
+            for (int r = firstRegion; r < lastRegion; r++) {
+                Polygon polygon = assemble(start[r], start[r + 1]);
+                polygon.setUserData(values.get(r));
+                polygons.add(polygon);
+            }
+            return polygons;
+        }
+
+        /**
+         * Chains the edges of one region. At a vertex where the region touches itself, the ring
+         * turns away from the region: the region being connected, the areas around it are
+         * split in different rings there, and the shell never touches itself
+         */
+        Polygon assemble(int from, int to) {
+            int n = to - from;
+            // the edges starting at each vertex, in an open addressing table
+            int capacity = Integer.highestOneBit(Math.max(4, n * 2 - 1)) << 1;
+            long[] keys = new long[capacity];
+            int[] heads = new int[capacity];
+            int[] next = new int[n];
+            for (int i = 0; i < n; i++) {
+                long key = key(xs[from + i], ys[from + i]);
+                int slot = slot(keys, heads, key);
+                keys[slot] = key;
+                next[i] = heads[slot];
+                heads[slot] = i + 1;
+            }
+
+            boolean[] used = new boolean[n];
+            LinearRing shell = null;
+            List<LinearRing> holes = new ArrayList<LinearRing>();
+            int[] ring = new int[16];
+            for (int s = 0; s < n; s++) {
+                if (used[s]) {
+                    continue;
+                }
+                int size = 0;
+                int current = s;
+                do {
+                    used[current] = true;
+                    if (size == ring.length) {
+                        ring = Arrays.copyOf(ring, size * 2);
+                    }
+                    ring[size++] = current;
+                    int dir = dirs[from + current];
+                    int length = lengths[from + current];
+                    long end = key(xs[from + current] + DX[dir] * length, ys[from + current]
+                            + DY[dir] * length);
+                    int candidate = heads[slot(keys, heads, end)] - 1;
+                    if (candidate < 0) {
+                        throw new IllegalStateException("Open ring at " + end);
+                    }
+                    int other = next[candidate] - 1;
+                    if (other >= 0 && dirs[from + other] == (dir + 3) % 4) {
+                        candidate = other;
+                    }
+                    if (used[candidate] && candidate != s) {
+                        throw new IllegalStateException("Ring crossing itself at " + end);
+                    }
+                    current = candidate;
+                } while (current != s);
+
+                // keep the corners only
+                List<Coordinate> coords = new ArrayList<Coordinate>();
+                double area = 0;
+                for (int i = 0; i < size; i++) {
+                    int e = from + ring[i];
+                    int previous = from + ring[i == 0 ? size - 1 : i - 1];
+                    if (dirs[e] != dirs[previous]) {
+                        coords.add(new Coordinate(xs[e], ys[e]));
+                    }
+                    // shoelace, each edge being axis aligned
+                    int length = lengths[e];
+                    area += (double) xs[e] * (ys[e] + DY[dirs[e]] * length)
+                            - (double) (xs[e] + DX[dirs[e]] * length) * ys[e];
+                }
+                coords.add(new Coordinate(coords.get(0)));
+                LinearRing linearRing = gf.createLinearRing(coords.toArray(new Coordinate[coords
+                        .size()]));
+                // the outer boundary turns clockwise on screen, the holes the other way round
+                if (area > 0) {
+                    shell = linearRing;
+                } else {
+                    holes.add(linearRing);
+                }
+            }
+            return gf.createPolygon(shell, holes.toArray(new LinearRing[holes.size()]));
+        }
+    }
+
+    static long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the slot of the key, or the empty slot where it should go
+     */
+    static int slot(long[] keys, int[] heads, long key) {
+        int mask = keys.length - 1;
+        long h = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (h ^ (h >>> 32)) & mask;
+        while (heads[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
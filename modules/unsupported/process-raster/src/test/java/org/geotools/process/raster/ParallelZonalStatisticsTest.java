@@ -0,0 +1,147 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.raster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geotools.coverage.CoverageFactoryFinder;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultEngineeringCRS;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Polygon;
+
+public class ParallelZonalStatisticsTest {
+
+    static final ReferencedEnvelope BOUNDS = new ReferencedEnvelope(0, 1000, 0, 1000,
+            DefaultEngineeringCRS.CARTESIAN_2D);
+
+    @Test
+    public void testStatistics() throws Exception {
+        List<SimpleFeature> results = run(null, 4);
+        assertEquals(3, results.size());
+
+        // 10 columns (10 to 19) by 50 rows
+        assertStatistics(results.get(0), 500, 10, 19, 7250);
+        assertEquals(Math.sqrt(8.25 * 500 / 499),
+                (Double) results.get(0).getAttribute("stddev"), 1e-9);
+        // 12 columns (250 to 261) spanning two blocks, over the whole height
+        assertStatistics(results.get(1), 12000, 250, 261, 3066000);
+        // outside of the coverage
+        assertEquals("outside", results.get(2).getAttribute("z_name"));
+        assertNull(results.get(2).getAttribute("count"));
+    }
+
+    @Test
+    public void testThreadsIndependent() throws Exception {
+        List<SimpleFeature> serial = run(null, 1);
+        List<SimpleFeature> parallel = run(null, 4);
+        assertEquals(serial.size(), parallel.size());
+        for (int i = 0; i < serial.size(); i++) {
+            assertEquals(serial.get(i).getAttributes(), parallel.get(i).getAttributes());
+        }
+    }
+
+    @Test
+    public void testClassification() throws Exception {
+        BufferedImage classes = new BufferedImage(1000, 1000, BufferedImage.TYPE_BYTE_GRAY);
+        WritableRaster raster = classes.getRaster();
+        for (int y = 0; y < 1000; y++) {
+            for (int x = 0; x < 1000; x++) {
+                raster.setSample(x, y, 0, x % 2 + 1);
+            }
+        }
+        GridCoverage2D classification = CoverageFactoryFinder.getGridCoverageFactory(null)
+                .create("classes", classes, BOUNDS);
+
+        List<SimpleFeature> results = run(classification, 4);
+        // two classes for each of the first two zones, plus the one outside
+        assertEquals(5, results.size());
+        assertEquals(1, results.get(0).getAttribute("classification"));
+        assertStatistics(results.get(0), 250, 10, 18, 3500);
+        assertEquals(2, results.get(1).getAttribute("classification"));
+        assertStatistics(results.get(1), 250, 11, 19, 3750);
+        assertEquals("outside", results.get(4).getAttribute("z_name"));
+    }
+
+    void assertStatistics(SimpleFeature f, long count, double min, double max, double sum) {
+        assertEquals(count, f.getAttribute("count"));
+        assertEquals(min, (Double) f.getAttribute("min"), 0d);
+        assertEquals(max, (Double) f.getAttribute("max"), 0d);
+        assertEquals(sum, (Double) f.getAttribute("sum"), 1e-6);
+        assertEquals(sum / count, (Double) f.getAttribute("avg"), 1e-9);
+    }
+
+    List<SimpleFeature> run(GridCoverage2D classification, int threads) {
+        // each pixel holds its column number
+        BufferedImage image = new BufferedImage(1000, 1000, BufferedImage.TYPE_USHORT_GRAY);
+        WritableRaster raster = image.getRaster();
+        for (int y = 0; y < 1000; y++) {
+            for (int x = 0; x < 1000; x++) {
+                raster.setSample(x, y, 0, x);
+            }
+        }
+        GridCoverage2D coverage = CoverageFactoryFinder.getGridCoverageFactory(null).create(
+                "data", image, BOUNDS);
+
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("zones");
+        tb.add("geom", Polygon.class, DefaultEngineeringCRS.CARTESIAN_2D);
+        tb.add("name", String.class);
+        SimpleFeatureType type = tb.buildFeatureType();
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(type);
+        List<SimpleFeature> zones = new ArrayList<SimpleFeature>();
+        zones.add(fb.buildFeature("zone.1",
+                new Object[] { JTS.toGeometry(new Envelope(10.2, 20.2, 900, 950)), "small" }));
+        zones.add(fb.buildFeature("zone.2",
+                new Object[] { JTS.toGeometry(new Envelope(250, 262, 0, 1000)), "strip" }));
+        zones.add(fb.buildFeature("zone.3",
+                new Object[] { JTS.toGeometry(new Envelope(2000, 2100, 0, 100)), "outside" }));
+        SimpleFeatureCollection fc = DataUtilities.collection(zones);
+
+        SimpleFeatureCollection stats = new ParallelZonalStatistics().execute(coverage, null, fc,
+                classification, threads);
+        List<SimpleFeature> result = new ArrayList<SimpleFeature>();
+        SimpleFeatureIterator it = stats.features();
+        try {
+            while (it.hasNext()) {
+                result.add(it.next());
+            }
+        } finally {
+            it.close();
+        }
+        assertFalse(result.isEmpty());
+        return result;
+    }
+}
@@ -22,6 +22,7 @@ import java.awt.image.Raster;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -33,6 +34,7 @@ import javax.imageio.ImageIO;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.simplify.DouglasPeuckerSimplifier;
 
 import org.jaitools.numeric.Range;
 import org.geotools.coverage.CoverageFactoryFinder;
@@ -49,6 +51,7 @@ import org.geotools.process.ProcessFactory;
 import org.geotools.process.Processors;
 import org.geotools.process.raster.PolygonExtractionProcess;
 import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.util.ProgressListener;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -76,6 +79,50 @@ public class PolygonExtractionProcessTest {
     public void setup() {
         process = new PolygonExtractionProcess();
     }
+
+    /**
+     * Runs the process tracing the raster in blocks, and with the jaitools Vectorize operation,
+     * checks both return the same polygons once normalized, and returns the traced ones
+     */
+    private SimpleFeatureCollection extract(GridCoverage2D cov, Integer band,
+            Boolean insideEdges, Geometry roi, Collection<Number> noDataValues,
+            List<Range> classificationRanges, ProgressListener listener) {
+        SimpleFeatureCollection traced = process.execute(cov, band, insideEdges, roi,
+                noDataValues, classificationRanges, listener);
+        System.setProperty(PolygonExtractionProcess.VECTORIZE_KEY, "true");
+        SimpleFeatureCollection vectorized;
+        try {
+            vectorized = process.execute(cov, band, insideEdges, roi, noDataValues,
+                    classificationRanges, listener);
+        } finally {
+            System.clearProperty(PolygonExtractionProcess.VECTORIZE_KEY);
+        }
+        assertEquals(normalize(vectorized), normalize(traced));
+        return traced;
+    }
+
+    /**
+     * Returns the values and polygons of the features, without collinear points, in normal form
+     * and sorted
+     */
+    private List<String> normalize(SimpleFeatureCollection fc) {
+        List<String> polygons = new ArrayList<String>();
+        SimpleFeatureIterator iter = fc.features();
+        try {
+            while (iter.hasNext()) {
+                SimpleFeature feature = iter.next();
+                Geometry geom = DouglasPeuckerSimplifier.simplify(
+                        (Geometry) feature.getDefaultGeometry(), 0);
+                geom.normalize();
+                polygons.add(((Number) feature.getAttribute("value")).doubleValue() + " "
+                        + geom.toText());
+            }
+        } finally {
+            iter.close();
+        }
+        Collections.sort(polygons);
+        return polygons;
+    }
     
 
     @Test
@@ -87,7 +134,7 @@ public class PolygonExtractionProcessTest {
 
         int band = 0;
         Set<Double> outsideValues = Collections.singleton(0D);
-        SimpleFeatureCollection fc = process.execute(cov, 0, Boolean.TRUE, null, null, null, null);
+        SimpleFeatureCollection fc = extract(cov, 0, Boolean.TRUE, null, null, null, null);
         assertEquals(3, fc.size());
         
         FeatureIterator iter = fc.features();
@@ -137,7 +184,7 @@ public class PolygonExtractionProcessTest {
                 DATA,
                 new ReferencedEnvelope(0, DATA[0].length, 0, DATA.length, null));
         
-        SimpleFeatureCollection fc = process.execute(cov, 0, Boolean.TRUE, null, null, null, null);
+        SimpleFeatureCollection fc = extract(cov, 0, Boolean.TRUE, null, null, null, null);
         assertEquals(NUM_POLYS, fc.size());
 
         SimpleFeatureIterator iter = fc.features();
@@ -169,7 +216,7 @@ public class PolygonExtractionProcessTest {
                 new ReferencedEnvelope(0, DATA[0].length, 0, DATA.length, null));
 
         Number[] noDataValues = { -1 };
-        SimpleFeatureCollection fc = process.execute(cov, 0, Boolean.TRUE, null, Arrays.asList(noDataValues), null, null);
+        SimpleFeatureCollection fc = extract(cov, 0, Boolean.TRUE, null, Arrays.asList(noDataValues), null, null);
         assertEquals(NUM_POLYS, fc.size());
     }
 
@@ -195,7 +242,7 @@ public class PolygonExtractionProcessTest {
                 DATA,
                 new ReferencedEnvelope(0, width, 0, height, null));
 
-        SimpleFeatureCollection fc = process.execute(cov, 0, Boolean.FALSE, null, null, null, null);
+        SimpleFeatureCollection fc = extract(cov, 0, Boolean.FALSE, null, null, null, null);
 
         assertEquals(1, fc.size());
         Geometry geom = (Geometry) fc.features().next().getDefaultGeometry();
@@ -223,7 +270,7 @@ public class PolygonExtractionProcessTest {
 
         Set<Double> outsideValues = Collections.singleton(0D);
 
-        SimpleFeatureCollection fc = process.execute(cov, 0, Boolean.TRUE, null, null, null, null);
+        SimpleFeatureCollection fc = extract(cov, 0, Boolean.TRUE, null, null, null, null);
         assertEquals(1, fc.size());
         
         SimpleFeature feature = fc.features().next();
@@ -250,7 +297,7 @@ public class PolygonExtractionProcessTest {
         final int OUTSIDE = -1;
         List<Number> noDataValues = new ArrayList<Number>();
         noDataValues.add(OUTSIDE);
-        SimpleFeatureCollection fc = process.execute(
+        SimpleFeatureCollection fc = extract(
                 cov, 0, Boolean.TRUE, null, noDataValues, null, null);
 
         // validate geometries and sum areas
@@ -329,7 +376,7 @@ public class PolygonExtractionProcessTest {
         classificationRanges.add(r1);
         classificationRanges.add(r2);
         
-        SimpleFeatureCollection fc = process.execute(
+        SimpleFeatureCollection fc = extract(
                 cov, 0, Boolean.TRUE, null, null, classificationRanges, null);
         
         assertEquals(2, fc.size());
@@ -394,7 +441,7 @@ public class PolygonExtractionProcessTest {
          * having the same bounds as the input coverage
          */
         SimpleFeatureCollection fc = 
-                process.execute(cov, 0, Boolean.TRUE, roiGeom, null, null, null);
+                extract(cov, 0, Boolean.TRUE, roiGeom, null, null, null);
         
         assertEquals(1, fc.size());
         
@@ -438,7 +485,7 @@ public class PolygonExtractionProcessTest {
         
         Polygon roiGeometry = JTS.toGeometry(processEnv);
 
-        SimpleFeatureCollection fc = process.execute(
+        SimpleFeatureCollection fc = extract(
                 cov, 0, Boolean.TRUE, roiGeometry, null, null, null);
         
         // Expected result is 3 polygons:
@@ -0,0 +1,243 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.raster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+
+/**
+ * Checks the polygons traced block by block against the regions of the raster, and that they do
+ * not depend on the block size and the number of threads
+ *
+ * @source $URL$
+ */
+public class TiledPolygonExtractorTest {
+
+    static final List<Integer> OUTSIDE = Collections.singletonList(0);
+
+    GeometryFactory gf = new GeometryFactory();
+
+    @Test
+    public void testCornerTouching() throws Exception {
+        BufferedImage image = createImage(new int[][] {
+                { 1, 1, 1, 0 },
+                { 1, 0, 1, 0 },
+                { 1, 1, 0, 1 },
+                { 0, 0, 1, 1 } });
+        List<Polygon> polygons = extract(image, true, 3, 2);
+
+        // the pixels touching by a corner are not connected
+        assertEquals(2, polygons.size());
+        Polygon ring = polygons.get(0);
+        assertTrue(ring.isValid());
+        assertEquals(7, ring.getArea(), 0d);
+        // the enclosed pixel is a hole touching the shell
+        assertEquals(1, ring.getNumInteriorRing());
+        Polygon corner = polygons.get(1);
+        assertTrue(corner.isValid());
+        assertEquals(3, corner.getArea(), 0d);
+        // corners only, no collinear points where the blocks meet
+        assertEquals(7, corner.getNumPoints());
+    }
+
+    @Test
+    public void testHoleTouchingShell() throws Exception {
+        BufferedImage image = createImage(new int[][] {
+                { 1, 1, 1, 1 },
+                { 1, 0, 1, 1 },
+                { 1, 1, 0, 1 },
+                { 1, 1, 1, 1 } });
+        List<Polygon> polygons = extract(image, true, 2, 1);
+
+        // the two outside pixels touch by a corner, they are two holes
+        assertEquals(1, polygons.size());
+        Polygon polygon = polygons.get(0);
+        assertTrue(polygon.isValid());
+        assertEquals(2, polygon.getNumInteriorRing());
+        assertEquals(14, polygon.getArea(), 0d);
+    }
+
+    @Test
+    public void testRegions() throws Exception {
+        BufferedImage image = createRandomImage(60, 50, 4, 1);
+        List<Polygon> polygons = extract(image, true, 16, 4);
+
+        // compare with a flood fill of the raster
+        int[][] labels = new int[50][60];
+        List<Double> values = new ArrayList<Double>();
+        List<Integer> sizes = new ArrayList<Integer>();
+        WritableRaster raster = image.getRaster();
+        for (int y = 0; y < 50; y++) {
+            for (int x = 0; x < 60; x++) {
+                int value = raster.getSample(x, y, 0);
+                if (value != 0 && labels[y][x] == 0) {
+                    values.add((double) value);
+                    sizes.add(fill(raster, labels, x, y, value, values.size()));
+                }
+            }
+        }
+        assertEquals(values.size(), polygons.size());
+        Set<Integer> found = new HashSet<Integer>();
+        for (Polygon polygon : polygons) {
+            assertTrue(polygon.isValid());
+            // the region of the first pixel center inside the polygon
+            PreparedGeometry prepared = PreparedGeometryFactory.prepare(polygon);
+            Envelope envelope = polygon.getEnvelopeInternal();
+            int label = 0;
+            for (int y = (int) envelope.getMinY(); label == 0; y++) {
+                for (int x = (int) envelope.getMinX(); x < envelope.getMaxX() && label == 0; x++) {
+                    if (prepared.contains(gf.createPoint(new Coordinate(x + 0.5, y + 0.5)))) {
+                        label = labels[y][x];
+                    }
+                }
+            }
+            assertTrue(found.add(label));
+            assertEquals(values.get(label - 1), polygon.getUserData());
+            assertEquals(sizes.get(label - 1), polygon.getArea(), 0d);
+
+            // the region pixel centers are inside the polygon, and only them
+            for (int y = 0; y < 50; y++) {
+                for (int x = 0; x < 60; x++) {
+                    Geometry center = gf.createPoint(new Coordinate(x + 0.5, y + 0.5));
+                    assertEquals(labels[y][x] == label, prepared.contains(center));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBlocksMatchSingleBlock() throws Exception {
+        BufferedImage image = createRandomImage(300, 200, 3, 2);
+        for (boolean insideEdges : new boolean[] { true, false }) {
+            List<Polygon> expected = extract(image, insideEdges, 1000, 1);
+            List<Polygon> actual = extract(image, insideEdges, 7, 4);
+            assertEquals(expected.size(), actual.size());
+            List<Geometry> sortedExpected = normalize(expected);
+            List<Geometry> sortedActual = normalize(actual);
+            for (int i = 0; i < sortedExpected.size(); i++) {
+                assertTrue(sortedExpected.get(i).equalsExact(sortedActual.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void testInsideEdges() throws Exception {
+        BufferedImage image = createImage(new int[][] {
+                { 0, 0, 0, 0 },
+                { 0, 1, 2, 0 },
+                { 0, 3, 4, 0 },
+                { 0, 0, 0, 0 } });
+        assertEquals(4, extract(image, true, 2, 1).size());
+        List<Polygon> polygons = extract(image, false, 2, 1);
+        assertEquals(1, polygons.size());
+        assertEquals(4, polygons.get(0).getArea(), 0d);
+        assertEquals(TiledPolygonExtractor.INSIDE_FLAG_VALUE, polygons.get(0).getUserData());
+    }
+
+    List<Polygon> extract(BufferedImage image, boolean insideEdges, int blockSize, int threads)
+            throws Exception {
+        TiledPolygonExtractor extractor = new TiledPolygonExtractor(image, 0, OUTSIDE,
+                insideEdges, null, 0);
+        extractor.setBlockSize(blockSize);
+        return extractor.extract(threads);
+    }
+
+    List<Geometry> normalize(List<Polygon> polygons) {
+        List<Geometry> result = new ArrayList<Geometry>();
+        for (Polygon polygon : polygons) {
+            Geometry copy = (Geometry) polygon.clone();
+            copy.normalize();
+            result.add(copy);
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Labels the 4-connected pixels of the same value, returning their count
+     */
+    int fill(WritableRaster raster, int[][] labels, int x0, int y0, int value, int label) {
+        int count = 0;
+        List<int[]> stack = new ArrayList<int[]>();
+        stack.add(new int[] { x0, y0 });
+        labels[y0][x0] = label;
+        while (!stack.isEmpty()) {
+            int[] pixel = stack.remove(stack.size() - 1);
+            count++;
+            int[][] neighbours = { { pixel[0] - 1, pixel[1] }, { pixel[0] + 1, pixel[1] },
+                    { pixel[0], pixel[1] - 1 }, { pixel[0], pixel[1] + 1 } };
+            for (int[] n : neighbours) {
+                if (n[0] >= 0 && n[1] >= 0 && n[0] < raster.getWidth()
+                        && n[1] < raster.getHeight() && labels[n[1]][n[0]] == 0
+                        && raster.getSample(n[0], n[1], 0) == value) {
+                    labels[n[1]][n[0]] = label;
+                    stack.add(n);
+                }
+            }
+        }
+        return count;
+    }
+
+    BufferedImage createImage(int[][] data) {
+        BufferedImage image = new BufferedImage(data[0].length, data.length,
+                BufferedImage.TYPE_BYTE_GRAY);
+        for (int y = 0; y < data.length; y++) {
+            for (int x = 0; x < data[y].length; x++) {
+                image.getRaster().setSample(x, y, 0, data[y][x]);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * A classification like raster, with patches of values and some noise
+     */
+    BufferedImage createRandomImage(int width, int height, int classes, long seed) {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        WritableRaster raster = image.getRaster();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int value = ((x / 9) * 7 + (y / 5) * 3) % (classes + 1);
+                if (random.nextInt(4) == 0) {
+                    value = random.nextInt(classes + 1);
+                }
+                raster.setSample(x, y, 0, value);
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,475 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link ProcessExecutor} running short and long processes on separate thread pools, so that
+ * long jobs cannot starve the short ones.
+ * <p>
+ * Each pool admits a bounded number of tasks, running plus waiting: once the bound is reached
+ * submitters are held for the admission timeout and then rejected with a
+ * {@link RejectedExecutionException}, pushing back on the callers instead of letting the queue
+ * grow without limit. Waiting tasks are run by decreasing {@link Priority}, and in submission
+ * order within the same priority.
+ * <p>
+ * Cancelling the {@link Progress} of a waiting process removes it from its queue, cancelling a
+ * running one is reported to the process through {@link org.opengis.util.ProgressListener#isCanceled()},
+ * and the thread is interrupted if requested. The time spent waiting and executing is tracked
+ * for each pool, see {@link #getShortMetrics()} and {@link #getLongMetrics()}.
+ * <p>
+ * Processes submitted through {@link #submit(Process, Map)}, as well as plain runnables and
+ * callables, are considered long and of normal priority.
+ *
+ * @source $URL$
+ */
+public class ProcessScheduler extends AbstractExecutorService implements ProcessExecutor {
+
+    /**
+     * The order in which waiting processes are picked
+     */
+    public enum Priority {
+        LOW, NORMAL, HIGH
+    }
+
+    final Pool shortPool;
+
+    final Pool longPool;
+
+    final long admissionTimeout;
+
+    final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Creates a scheduler whose submitters are rejected right away when a pool is full
+     *
+     * @param shortThreads The number of threads running short processes
+     * @param longThreads The number of threads running long processes
+     * @param queueCapacity The number of tasks allowed to wait in each pool
+     * @param threadFactory The factory creating the threads of both pools
+     */
+    public ProcessScheduler(int shortThreads, int longThreads, int queueCapacity,
+            ThreadFactory threadFactory) {
+        this(shortThreads, longThreads, queueCapacity, 0, TimeUnit.MILLISECONDS, threadFactory);
+    }
+
+    /**
+     * @param shortThreads The number of threads running short processes
+     * @param longThreads The number of threads running long processes
+     * @param queueCapacity The number of tasks allowed to wait in each pool
+     * @param admissionTimeout How long submitters wait for room in a full pool before being
+     *        rejected
+     * @param unit The unit of the admission timeout
+     * @param threadFactory The factory creating the threads of both pools
+     */
+    public ProcessScheduler(int shortThreads, int longThreads, int queueCapacity,
+            long admissionTimeout, TimeUnit unit, ThreadFactory threadFactory) {
+        if (shortThreads <= 0 || longThreads <= 0 || queueCapacity < 0 || admissionTimeout < 0) {
+            throw new IllegalArgumentException();
+        }
+        if (threadFactory == null) {
+            throw new NullPointerException();
+        }
+        this.shortPool = new Pool(shortThreads, queueCapacity, threadFactory);
+        this.longPool = new Pool(longThreads, queueCapacity, threadFactory);
+        this.admissionTimeout = unit.toNanos(admissionTimeout);
+    }
+
+    /**
+     * Submits a long process of normal priority
+     */
+    public Progress submit(Process task, Map<String, Object> input) {
+        return submit(task, input, true, Priority.NORMAL);
+    }
+
+    /**
+     * Submits a process for execution and returns a Progress representing the pending results of
+     * the task.
+     *
+     * @param task the process to submit
+     * @param input the process inputs
+     * @param longRunning whether the process goes to the pool of long processes
+     * @param priority the priority of the process among the waiting ones of its pool
+     * @return a Progress representing pending completion of the task
+     * @throws RejectedExecutionException if the pool is still full after the admission timeout,
+     *         or the scheduler is shut down
+     * @throws NullPointerException if task null
+     */
+    public Progress submit(Process task, Map<String, Object> input, boolean longRunning,
+            Priority priority) {
+        if (task == null || priority == null) {
+            throw new NullPointerException();
+        }
+        Pool pool = longRunning ? longPool : shortPool;
+        Entry entry = new Entry(pool, priority, sequence.getAndIncrement());
+        ScheduledProgressTask progress = new ScheduledProgressTask(task, input, entry);
+        entry.task = progress;
+        schedule(entry);
+        return progress;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        Entry entry = new Entry(longPool, Priority.NORMAL, sequence.getAndIncrement());
+        if (command instanceof ScheduledFutureTask) {
+            ((ScheduledFutureTask<?>) command).entry = entry;
+        }
+        entry.task = command;
+        schedule(entry);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new ScheduledFutureTask<T>(callable);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new ScheduledFutureTask<T>(runnable, value);
+    }
+
+    void schedule(Entry entry) {
+        Pool pool = entry.pool;
+        try {
+            if (!pool.admission.tryAcquire(admissionTimeout, TimeUnit.NANOSECONDS)) {
+                pool.metrics.rejected.incrementAndGet();
+                throw new RejectedExecutionException("Too many processes waiting for execution");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pool.metrics.rejected.incrementAndGet();
+            throw new RejectedExecutionException(e);
+        }
+
+        entry.submitted = System.nanoTime();
+        try {
+            pool.executor.execute(entry);
+        } catch (RejectedExecutionException e) {
+            pool.admission.release();
+            pool.metrics.rejected.incrementAndGet();
+            throw e;
+        }
+        pool.metrics.submitted.incrementAndGet();
+    }
+
+    /**
+     * Returns the metrics of the pool of short processes
+     */
+    public Metrics getShortMetrics() {
+        return shortPool.metrics;
+    }
+
+    /**
+     * Returns the metrics of the pool of long processes, which also runs plain runnables and
+     * callables
+     */
+    public Metrics getLongMetrics() {
+        return longPool.metrics;
+    }
+
+    public void shutdown() {
+        shortPool.executor.shutdown();
+        longPool.executor.shutdown();
+    }
+
+    /**
+     * Stops the pools, cancelling the running tasks so that processes see it through their
+     * progress listener, and returns the tasks that were waiting
+     */
+    public List<Runnable> shutdownNow() {
+        List<Runnable> waiting = new ArrayList<Runnable>();
+        for (Pool pool : new Pool[] { shortPool, longPool }) {
+            for (Runnable r : pool.executor.shutdownNow()) {
+                Entry entry = (Entry) r;
+                entry.release();
+                waiting.add(entry.task);
+            }
+            for (Entry entry : pool.active) {
+                if (entry.task instanceof Future) {
+                    ((Future<?>) entry.task).cancel(true);
+                }
+            }
+        }
+        return waiting;
+    }
+
+    public boolean isShutdown() {
+        return shortPool.executor.isShutdown() && longPool.executor.isShutdown();
+    }
+
+    public boolean isTerminated() {
+        return shortPool.executor.isTerminated() && longPool.executor.isTerminated();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return shortPool.executor.awaitTermination(timeout, unit)
+                && longPool.executor.awaitTermination(deadline - System.nanoTime(),
+                        TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Counters and timings of a pool. Times are in nanoseconds, and only account for the tasks
+     * that actually ran.
+     */
+    public static class Metrics {
+        final AtomicLong submitted = new AtomicLong();
+
+        final AtomicLong rejected = new AtomicLong();
+
+        final AtomicLong cancelled = new AtomicLong();
+
+        final AtomicLong completed = new AtomicLong();
+
+        final AtomicLong running = new AtomicLong();
+
+        final AtomicLong queueWait = new AtomicLong();
+
+        final AtomicLong maxQueueWait = new AtomicLong();
+
+        final AtomicLong execution = new AtomicLong();
+
+        final AtomicLong maxExecution = new AtomicLong();
+
+        /** Number of tasks accepted */
+        public long getSubmitted() {
+            return submitted.get();
+        }
+
+        /** Number of tasks refused because the pool was full or shut down */
+        public long getRejected() {
+            return rejected.get();
+        }
+
+        /** Number of tasks cancelled before they started */
+        public long getCancelled() {
+            return cancelled.get();
+        }
+
+        /** Number of tasks that ran to the end, successfully or not */
+        public long getCompleted() {
+            return completed.get();
+        }
+
+        /** Number of tasks running now */
+        public long getRunning() {
+            return running.get();
+        }
+
+        /** Number of tasks waiting now */
+        public long getWaiting() {
+            return Math.max(0,
+                    submitted.get() - cancelled.get() - completed.get() - running.get());
+        }
+
+        /** Total time the tasks waited before they started */
+        public long getQueueWaitTime() {
+            return queueWait.get();
+        }
+
+        /** Longest time a task waited before it started */
+        public long getMaxQueueWaitTime() {
+            return maxQueueWait.get();
+        }
+
+        /** Total time the tasks took to run */
+        public long getExecutionTime() {
+            return execution.get();
+        }
+
+        /** Longest time a task took to run */
+        public long getMaxExecutionTime() {
+            return maxExecution.get();
+        }
+
+        static void max(AtomicLong max, long value) {
+            long current;
+            while ((current = max.get()) < value && !max.compareAndSet(current, value)) {
+                // retry
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Metrics[submitted=" + getSubmitted() + ", rejected=" + getRejected()
+                    + ", cancelled=" + getCancelled() + ", completed=" + getCompleted()
+                    + ", running=" + getRunning() + ", waiting=" + getWaiting()
+                    + ", queueWaitTime=" + getQueueWaitTime() + ", executionTime="
+                    + getExecutionTime() + "]";
+        }
+    }
+
+    /**
+     * A thread pool along with its admission permits and metrics
+     */
+    static class Pool {
+        final ThreadPoolExecutor executor;
+
+        final Semaphore admission;
+
+        final Metrics metrics = new Metrics();
+
+        final Set<Entry> active = Collections.newSetFromMap(new ConcurrentHashMap<Entry, Boolean>());
+
+        Pool(int threads, int queueCapacity, ThreadFactory threadFactory) {
+            this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new PriorityBlockingQueue<Runnable>(), threadFactory);
+            // the running tasks hold a permit too
+            this.admission = new Semaphore(threads + queueCapacity);
+        }
+    }
+
+    /**
+     * A task in the queue of a pool, ordered by priority and then by submission
+     */
+    static class Entry implements Runnable, Comparable<Entry> {
+        final Pool pool;
+
+        final Priority priority;
+
+        final long sequence;
+
+        final AtomicBoolean started = new AtomicBoolean();
+
+        final AtomicBoolean released = new AtomicBoolean();
+
+        volatile Runnable task;
+
+        long submitted;
+
+        Entry(Pool pool, Priority priority, long sequence) {
+            this.pool = pool;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        public void run() {
+            if (!started.compareAndSet(false, true)) {
+                return;
+            }
+            Metrics metrics = pool.metrics;
+            long start = System.nanoTime();
+            metrics.queueWait.addAndGet(start - submitted);
+            Metrics.max(metrics.maxQueueWait, start - submitted);
+            metrics.running.incrementAndGet();
+            pool.active.add(this);
+            try {
+                task.run();
+            } finally {
+                pool.active.remove(this);
+                long time = System.nanoTime() - start;
+                metrics.execution.addAndGet(time);
+                Metrics.max(metrics.maxExecution, time);
+                metrics.running.decrementAndGet();
+                metrics.completed.incrementAndGet();
+                release();
+            }
+        }
+
+        /**
+         * Takes the task out of its queue if it did not start yet
+         */
+        void cancelled() {
+            if (started.compareAndSet(false, true)) {
+                pool.executor.remove(this);
+                pool.metrics.cancelled.incrementAndGet();
+                release();
+            }
+        }
+
+        /**
+         * Gives back the admission permit, once
+         */
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                pool.admission.release();
+            }
+        }
+
+        public int compareTo(Entry other) {
+            int result = other.priority.compareTo(priority);
+            if (result == 0) {
+                result = sequence < other.sequence ? -1 : (sequence > other.sequence ? 1 : 0);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A process progress leaving the queue as soon as it is cancelled
+     */
+    static class ScheduledProgressTask extends ProgressTask {
+        final Entry entry;
+
+        ScheduledProgressTask(Process process, Map<String, Object> input, Entry entry) {
+            super(process, input);
+            this.entry = entry;
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                entry.cancelled();
+            }
+        }
+    }
+
+    /**
+     * A future of a plain callable or runnable, leaving the queue as soon as it is cancelled
+     */
+    static class ScheduledFutureTask<T> extends FutureTask<T> {
+        volatile Entry entry;
+
+        ScheduledFutureTask(Callable<T> callable) {
+            super(callable);
+        }
+
+        ScheduledFutureTask(Runnable runnable, T value) {
+            super(runnable, value);
+        }
+
+        @Override
+        protected void done() {
+            Entry e = entry;
+            if (isCancelled() && e != null) {
+                e.cancelled();
+            }
+        }
+    }
+}
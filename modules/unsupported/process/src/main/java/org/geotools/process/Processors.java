@@ -193,6 +193,18 @@ public class Processors extends FactoryFinder {
         return new ThreadPoolProcessExecutor( nThreads, threadFactory);
     }
 
+    /**
+     * Creates an executor running short and long processes on separate pools, each admitting up
+     * to its threads plus queueCapacity tasks before rejecting submissions.
+     * 
+     * @see ProcessScheduler
+     */
+    public static ProcessScheduler newProcessScheduler(int shortThreads, int longThreads,
+            int queueCapacity) {
+        return new ProcessScheduler(shortThreads, longThreads, queueCapacity,
+                Executors.defaultThreadFactory());
+    }
+
     /**
      * Reinitializes all static state, including the ProcessFactory service registry and reference
      * to the last used ProcessFactory
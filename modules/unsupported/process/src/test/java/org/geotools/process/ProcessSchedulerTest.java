@@ -0,0 +1,220 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2017, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.geotools.process.ProcessScheduler.Priority;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.util.ProgressListener;
+
+/**
+ *
+ *
+ * @source $URL$
+ */
+public class ProcessSchedulerTest {
+
+    ProcessScheduler scheduler;
+
+    CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        scheduler = new ProcessScheduler(1, 1, 2, Executors.defaultThreadFactory());
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testShortNotStarvedByLong() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.submit(new BlockingProcess(started), null);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // the long pool is busy, short processes still run
+        Progress progress = scheduler.submit(new NamedProcess("short", null), null, false,
+                Priority.NORMAL);
+        assertEquals("short", progress.get(10, TimeUnit.SECONDS).get("result"));
+        assertEquals(1, scheduler.getShortMetrics().getSubmitted());
+        assertEquals(1, scheduler.getLongMetrics().getRunning());
+    }
+
+    @Test
+    public void testAdmission() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.submit(new BlockingProcess(started), null);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        scheduler.submit(new NamedProcess("a", null), null);
+        scheduler.submit(new NamedProcess("b", null), null);
+        try {
+            scheduler.submit(new NamedProcess("c", null), null);
+            fail("The long pool should be full");
+        } catch (RejectedExecutionException e) {
+            // fine
+        }
+        ProcessScheduler.Metrics metrics = scheduler.getLongMetrics();
+        assertEquals(3, metrics.getSubmitted());
+        assertEquals(1, metrics.getRejected());
+        assertEquals(2, metrics.getWaiting());
+
+        // once the pool drains there is room again
+        release.countDown();
+        Progress progress = null;
+        for (int i = 0; i < 100 && progress == null; i++) {
+            try {
+                progress = scheduler.submit(new NamedProcess("d", null), null);
+            } catch (RejectedExecutionException e) {
+                Thread.sleep(50);
+            }
+        }
+        assertEquals("d", progress.get(10, TimeUnit.SECONDS).get("result"));
+        assertTrue(metrics.getMaxQueueWaitTime() > 0);
+        assertTrue(metrics.getExecutionTime() > 0);
+    }
+
+    @Test
+    public void testPriority() throws Exception {
+        scheduler.shutdown();
+        scheduler = new ProcessScheduler(1, 1, 10, Executors.defaultThreadFactory());
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.submit(new BlockingProcess(started), null);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        List<String> order = new CopyOnWriteArrayList<String>();
+        scheduler.submit(new NamedProcess("low", order), null, true, Priority.LOW);
+        scheduler.submit(new NamedProcess("normal1", order), null, true, Priority.NORMAL);
+        scheduler.submit(new NamedProcess("high", order), null, true, Priority.HIGH);
+        Progress last = scheduler.submit(new NamedProcess("normal2", order), null, true,
+                Priority.NORMAL);
+        release.countDown();
+        last.get(10, TimeUnit.SECONDS);
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList("high", "normal1", "normal2", "low"), order);
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CancellableProcess running = new CancellableProcess(started);
+        Progress runningProgress = scheduler.submit(running, null);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // a waiting process leaves the queue, and gives back its place
+        Progress waiting = scheduler.submit(new NamedProcess("waiting", null), null);
+        scheduler.submit(new NamedProcess("other", null), null);
+        assertTrue(waiting.cancel(false));
+        assertEquals(1, scheduler.getLongMetrics().getCancelled());
+        scheduler.submit(new NamedProcess("another", null), null);
+
+        // a running one sees the cancellation through its listener
+        assertTrue(runningProgress.cancel(false));
+        assertTrue(running.stopped.await(10, TimeUnit.SECONDS));
+        assertTrue(runningProgress.isCancelled());
+    }
+
+    /**
+     * Returns its name, recording it in the order list
+     */
+    static class NamedProcess implements Process {
+        final String name;
+
+        final List<String> order;
+
+        NamedProcess(String name, List<String> order) {
+            this.name = name;
+            this.order = order;
+        }
+
+        public Map<String, Object> execute(Map<String, Object> input, ProgressListener monitor)
+                throws ProcessException {
+            if (order != null) {
+                order.add(name);
+            }
+            return Collections.singletonMap("result", (Object) name);
+        }
+    }
+
+    /**
+     * Holds its thread until the test releases it
+     */
+    class BlockingProcess implements Process {
+        final CountDownLatch started;
+
+        BlockingProcess(CountDownLatch started) {
+            this.started = started;
+        }
+
+        public Map<String, Object> execute(Map<String, Object> input, ProgressListener monitor)
+                throws ProcessException {
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new ProcessException(e);
+            }
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Runs until its progress listener reports it has been cancelled
+     */
+    static class CancellableProcess implements Process {
+        final CountDownLatch started;
+
+        final CountDownLatch stopped = new CountDownLatch(1);
+
+        CancellableProcess(CountDownLatch started) {
+            this.started = started;
+        }
+
+        public Map<String, Object> execute(Map<String, Object> input, ProgressListener monitor)
+                throws ProcessException {
+            started.countDown();
+            try {
+                while (!monitor.isCanceled()) {
+                    Thread.sleep(10);
+                }
+            } catch (InterruptedException e) {
+                throw new ProcessException(e);
+            }
+            stopped.countDown();
+            return null;
+        }
+    }
+}